@@ -76,7 +76,12 @@ public class SmackReactor {
 
     private static SmackReactor INSTANCE;
 
-    static synchronized SmackReactor getInstance() {
+    /**
+     * Returns the default reactor, which is shared by all users of non-blocking I/O in Smack.
+     *
+     * @return the default reactor.
+     */
+    public static synchronized SmackReactor getInstance() {
         if (INSTANCE == null) {
             INSTANCE = new SmackReactor("DefaultReactor");
         }
@@ -103,6 +108,8 @@ public class SmackReactor {
 
     private final Queue<SetInterestOps> pendingSetInterestOps = new ConcurrentLinkedQueue<>();
 
+    private final Queue<PendingDeregistration> pendingDeregistrations = new ConcurrentLinkedQueue<>();
+
     SmackReactor(String reactorName) {
         this.reactorName = reactorName;
 
@@ -116,7 +123,23 @@ public class SmackReactor {
         setReactorThreadCount(DEFAULT_REACTOR_THREAD_COUNT);
     }
 
-    SelectionKey registerWithSelector(SelectableChannel channel, int ops, ChannelSelectedCallback callback)
+    /**
+     * Register the given channel with the reactor. The callback is invoked by a reactor thread once the channel is
+     * ready for one of the given operations. Before the callback is invoked, the interest set of the selection key is
+     * cleared, hence the callback has to {@link #setInterestOps(SelectionKey, int) set the interest ops} again if it
+     * wants to be invoked again.
+     * <p>
+     * Note that the reactor only holds a weak reference to the callback, the caller has to keep a strong reference as
+     * long as the channel is registered.
+     * </p>
+     *
+     * @param channel the channel, which must be in non-blocking mode.
+     * @param ops the operations of interest.
+     * @param callback the callback invoked when the channel was selected.
+     * @return the selection key of the channel.
+     * @throws ClosedChannelException if the channel is closed.
+     */
+    public SelectionKey registerWithSelector(SelectableChannel channel, int ops, ChannelSelectedCallback callback)
             throws ClosedChannelException {
         SelectionKeyAttachment selectionKeyAttachment = new SelectionKeyAttachment(callback);
 
@@ -129,7 +152,14 @@ public class SmackReactor {
         }
     }
 
-    void setInterestOps(SelectionKey selectionKey, int interestOps) {
+    /**
+     * Set the interest ops of the given selection key. The change is applied by a reactor thread before its next
+     * select operation.
+     *
+     * @param selectionKey the selection key.
+     * @param interestOps the new interest ops.
+     */
+    public void setInterestOps(SelectionKey selectionKey, int interestOps) {
         SetInterestOps setInterestOps = new SetInterestOps(selectionKey, interestOps);
         pendingSetInterestOps.add(setInterestOps);
         selector.wakeup();
@@ -145,7 +175,42 @@ public class SmackReactor {
         }
     }
 
-    ScheduledAction schedule(Runnable runnable, long delay, TimeUnit unit) {
+    /**
+     * Cancel the given selection key and invoke the callback once the channel has been deregistered from the reactor's
+     * selector. Only afterwards, the channel can be put into blocking mode again, or be closed without its closing
+     * being deferred until the next select operation.
+     *
+     * @param selectionKey the selection key to cancel.
+     * @param deregisteredCallback the callback invoked, in a thread which is not a reactor thread, after the channel
+     *        has been deregistered.
+     */
+    public void deregisterFromSelector(SelectionKey selectionKey, Runnable deregisteredCallback) {
+        selectionKey.cancel();
+        pendingDeregistrations.add(new PendingDeregistration(selectionKey.channel(), deregisteredCallback));
+        // Cancelled keys are removed by the next select operation, ensure that there is one.
+        selector.wakeup();
+    }
+
+    private static final class PendingDeregistration {
+        private final SelectableChannel channel;
+        private final Runnable deregisteredCallback;
+
+        private PendingDeregistration(SelectableChannel channel, Runnable deregisteredCallback) {
+            this.channel = channel;
+            this.deregisteredCallback = deregisteredCallback;
+        }
+    }
+
+    /**
+     * Schedule an action, which is run by one of the reactor threads once the given delay elapsed. The action must not
+     * block, as it holds up the reactor thread.
+     *
+     * @param runnable the action.
+     * @param delay the delay after which the action is run.
+     * @param unit the unit of the delay.
+     * @return the scheduled action, which can be used to cancel it.
+     */
+    public ScheduledAction schedule(Runnable runnable, long delay, TimeUnit unit) {
         long releaseTimeEpoch = System.currentTimeMillis() + unit.toMillis(delay);
         Date releaseTimeDate = new Date(releaseTimeEpoch);
         ScheduledAction scheduledAction = new ScheduledAction(runnable, releaseTimeDate, this);
@@ -255,6 +320,8 @@ public class SmackReactor {
                     return;
                 }
 
+                handlePendingDeregistrations();
+
                 if (newSelectedKeysCount == 0) {
                     return;
                 }
@@ -341,6 +408,22 @@ public class SmackReactor {
             handleSelectedKeys(selectedKeys);
         }
 
+        private void handlePendingDeregistrations() {
+            for (int i = pendingDeregistrations.size(); i > 0; i--) {
+                PendingDeregistration pendingDeregistration = pendingDeregistrations.poll();
+                if (pendingDeregistration == null) {
+                    break;
+                }
+                if (pendingDeregistration.channel.isRegistered()) {
+                    // The key was cancelled after the select operation removed the cancelled keys. The wakeup() in
+                    // deregisterFromSelector() ensures that the next select operation returns immediately.
+                    pendingDeregistrations.add(pendingDeregistration);
+                    continue;
+                }
+                AbstractXMPPConnection.asyncGo(pendingDeregistration.deregisteredCallback);
+            }
+        }
+
         private void setInterestOpsCancelledKeySafe(SelectionKey selectionKey, int interestOps) {
             try {
                 selectionKey.interestOps(interestOps);
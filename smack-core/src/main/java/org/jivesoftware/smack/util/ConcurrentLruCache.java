@@ -0,0 +1,480 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.util;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jxmpp.util.cache.Cache;
+
+/**
+ * A segmented, lock-striped LRU cache with an optional expiration time.
+ * <p>
+ * Unlike jxmpp's {@code LruCache}, which is a single synchronized {@link LinkedHashMap}, this cache splits its entries
+ * over a number of independently locked segments. Threads operating on keys which hash to different segments do not
+ * contend with each other. Every segment is an access-ordered LRU map bounded to its share of the maximum cache size,
+ * hence the eviction order is approximately, but not strictly, LRU over the whole cache. The number of segments is
+ * derived from the maximum cache size, so that every segment holds at least {@link #MIN_SEGMENT_SIZE} entries. Small
+ * caches therefore use a single segment and are strictly LRU. If the maximum cache size is changed, then the entries
+ * are redistributed over a new set of segments if required.
+ * </p>
+ * <p>
+ * If an expiration time is set, then entries older than that time are treated as absent and removed when they are
+ * encountered. The cache also records hits, misses and evictions, see {@link #getHitCount()},
+ * {@link #getMissCount()}, {@link #getEvictionCount()} and {@link #getHitRate()}.
+ * </p>
+ * <p>
+ * The views returned by {@link #entrySet()}, {@link #keySet()} and {@link #values()} are snapshots and do not reflect
+ * later modifications of the cache.
+ * </p>
+ *
+ * @param <K> the type of the keys.
+ * @param <V> the type of the values.
+ */
+public class ConcurrentLruCache<K, V> extends AbstractMap<K, V> implements Cache<K, V> {
+
+    /**
+     * The maximum number of segments used by a cache.
+     */
+    public static final int MAX_SEGMENT_COUNT = 16;
+
+    /**
+     * The minimum number of entries a segment is able to hold. Caches smaller than twice this size use a single
+     * segment.
+     */
+    public static final int MIN_SEGMENT_SIZE = 32;
+
+    /**
+     * The current segments. When the segments are replaced, the old segments are marked as retired while all their
+     * monitors are held, so operations which find their segment retired simply look up the new segment.
+     */
+    private volatile List<Segment<K, V>> segments;
+
+    private final long expirationTimeNanos;
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    private final AtomicLong missCount = new AtomicLong();
+
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    private volatile int maxCacheSize;
+
+    /**
+     * Create a new cache with the given maximum size whose entries never expire.
+     *
+     * @param maxCacheSize the maximum number of entries in the cache.
+     */
+    public ConcurrentLruCache(int maxCacheSize) {
+        this(maxCacheSize, -1);
+    }
+
+    /**
+     * Create a new cache with the given maximum size and expiration time.
+     *
+     * @param maxCacheSize the maximum number of entries in the cache.
+     * @param expirationTimeMillis the time in milliseconds after which an entry expires, or a negative value if entries
+     *        should never expire.
+     */
+    public ConcurrentLruCache(int maxCacheSize, long expirationTimeMillis) {
+        if (maxCacheSize <= 0) {
+            throw new IllegalArgumentException("maxCacheSize must be positive");
+        }
+        segments = createSegments(maxCacheSize);
+        if (expirationTimeMillis < 0) {
+            this.expirationTimeNanos = -1;
+        } else {
+            this.expirationTimeNanos = TimeUnit.MILLISECONDS.toNanos(expirationTimeMillis);
+        }
+        setMaxCacheSize(maxCacheSize);
+    }
+
+    private static int segmentCountFor(int maxCacheSize) {
+        int segmentCount = Integer.highestOneBit(Math.max(1, maxCacheSize / MIN_SEGMENT_SIZE));
+        return Math.min(MAX_SEGMENT_COUNT, segmentCount);
+    }
+
+    private static <K, V> List<Segment<K, V>> createSegments(int maxCacheSize) {
+        int segmentCount = segmentCountFor(maxCacheSize);
+        List<Segment<K, V>> newSegments = new ArrayList<>(segmentCount);
+        // Distribute the maximum size over the segments, the first segments get one more slot if the maximum size is
+        // not a multiple of the segment count.
+        int base = maxCacheSize / segmentCount;
+        int remainder = maxCacheSize % segmentCount;
+        for (int i = 0; i < segmentCount; i++) {
+            newSegments.add(new Segment<K, V>(i < remainder ? base + 1 : base));
+        }
+        return Collections.unmodifiableList(newSegments);
+    }
+
+    private static <K, V> Segment<K, V> segmentFor(List<Segment<K, V>> segments, Object key) {
+        int hash = key.hashCode();
+        hash ^= hash >>> 16;
+        return segments.get(hash & (segments.size() - 1));
+    }
+
+    private Segment<K, V> segmentFor(Object key) {
+        return segmentFor(segments, key);
+    }
+
+    private boolean isExpired(CacheValue<V> cacheValue, long now) {
+        if (expirationTimeNanos < 0) {
+            return false;
+        }
+        return now - cacheValue.timestamp > expirationTimeNanos;
+    }
+
+    @Override
+    public V put(K key, V value) {
+        Objects.requireNonNull(key, "The key must not be null");
+        Objects.requireNonNull(value, "The value must not be null");
+
+        CacheValue<V> previous;
+        while (true) {
+            Segment<K, V> segment = segmentFor(key);
+            synchronized (segment) {
+                if (segment.retired) {
+                    continue;
+                }
+                previous = segment.put(key, new CacheValue<>(value, System.nanoTime()));
+                evictSuperfluous(segment);
+                break;
+            }
+        }
+
+        if (previous == null) {
+            return null;
+        }
+        return previous.value;
+    }
+
+    @Override
+    public V lookup(K key) {
+        return get(key);
+    }
+
+    @Override
+    public V get(Object key) {
+        if (key == null) {
+            return null;
+        }
+
+        V value = null;
+        while (true) {
+            Segment<K, V> segment = segmentFor(key);
+            synchronized (segment) {
+                if (segment.retired) {
+                    continue;
+                }
+                CacheValue<V> cacheValue = segment.get(key);
+                if (cacheValue != null) {
+                    if (isExpired(cacheValue, System.nanoTime())) {
+                        segment.remove(key);
+                    } else {
+                        value = cacheValue.value;
+                    }
+                }
+                break;
+            }
+        }
+
+        if (value == null) {
+            missCount.incrementAndGet();
+        } else {
+            hitCount.incrementAndGet();
+        }
+        return value;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        if (key == null) {
+            return false;
+        }
+
+        while (true) {
+            Segment<K, V> segment = segmentFor(key);
+            synchronized (segment) {
+                if (segment.retired) {
+                    continue;
+                }
+                CacheValue<V> cacheValue = segment.get(key);
+                return cacheValue != null && !isExpired(cacheValue, System.nanoTime());
+            }
+        }
+    }
+
+    @Override
+    public V remove(Object key) {
+        if (key == null) {
+            return null;
+        }
+
+        CacheValue<V> previous;
+        while (true) {
+            Segment<K, V> segment = segmentFor(key);
+            synchronized (segment) {
+                if (segment.retired) {
+                    continue;
+                }
+                previous = segment.remove(key);
+                break;
+            }
+        }
+
+        if (previous == null) {
+            return null;
+        }
+        return previous.value;
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                if (!segment.isEmpty()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        List<Segment<K, V>> clearedSegments;
+        do {
+            clearedSegments = segments;
+            for (Segment<K, V> segment : clearedSegments) {
+                synchronized (segment) {
+                    segment.clear();
+                }
+            }
+        } while (clearedSegments != segments);
+    }
+
+    /**
+     * Returns a snapshot of the non-expired entries of this cache.
+     *
+     * @return a snapshot of the entries of this cache.
+     */
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        Map<K, V> snapshot = new HashMap<>();
+        long now = System.nanoTime();
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                for (Map.Entry<K, CacheValue<V>> entry : segment.entrySet()) {
+                    CacheValue<V> cacheValue = entry.getValue();
+                    if (isExpired(cacheValue, now)) {
+                        continue;
+                    }
+                    snapshot.put(entry.getKey(), cacheValue.value);
+                }
+            }
+        }
+        return Collections.unmodifiableMap(snapshot).entrySet();
+    }
+
+    @Override
+    public int getMaxCacheSize() {
+        return maxCacheSize;
+    }
+
+    /**
+     * Set the maximum size of this cache. If the new maximum size is lower than the current number of entries, then
+     * the least recently used entries are evicted right away.
+     *
+     * @param maxCacheSize the new maximum size.
+     */
+    @Override
+    public synchronized void setMaxCacheSize(int maxCacheSize) {
+        if (maxCacheSize <= 0) {
+            throw new IllegalArgumentException("maxCacheSize must be positive");
+        }
+        this.maxCacheSize = maxCacheSize;
+
+        List<Segment<K, V>> oldSegments = segments;
+        if (oldSegments.size() != segmentCountFor(maxCacheSize)) {
+            resegment(oldSegments, createSegments(maxCacheSize), 0);
+            return;
+        }
+
+        int base = maxCacheSize / oldSegments.size();
+        int remainder = maxCacheSize % oldSegments.size();
+        for (int i = 0; i < oldSegments.size(); i++) {
+            Segment<K, V> segment = oldSegments.get(i);
+            synchronized (segment) {
+                segment.maxSize = i < remainder ? base + 1 : base;
+                evictSuperfluous(segment);
+            }
+        }
+    }
+
+    /**
+     * Move the entries of the old segments into the new segments and publish the new segments. The monitors of all old
+     * segments are acquired in order and held until the new segments are published.
+     */
+    private void resegment(List<Segment<K, V>> oldSegments, List<Segment<K, V>> newSegments, int index) {
+        if (index < oldSegments.size()) {
+            synchronized (oldSegments.get(index)) {
+                resegment(oldSegments, newSegments, index + 1);
+            }
+            return;
+        }
+
+        for (Segment<K, V> oldSegment : oldSegments) {
+            // Iterate in access order, so that the least recently used entries are evicted first.
+            for (Map.Entry<K, CacheValue<V>> entry : oldSegment.entrySet()) {
+                Segment<K, V> newSegment = segmentFor(newSegments, entry.getKey());
+                newSegment.put(entry.getKey(), entry.getValue());
+                evictSuperfluous(newSegment);
+            }
+            oldSegment.retired = true;
+        }
+        segments = newSegments;
+    }
+
+    /**
+     * Remove all expired entries from this cache.
+     */
+    public void removeExpired() {
+        if (expirationTimeNanos < 0) {
+            return;
+        }
+
+        long now = System.nanoTime();
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                Iterator<CacheValue<V>> it = segment.values().iterator();
+                while (it.hasNext()) {
+                    if (isExpired(it.next(), now)) {
+                        it.remove();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the number of lookups which returned a cached value.
+     *
+     * @return the number of cache hits.
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Get the number of lookups which did not return a cached value.
+     *
+     * @return the number of cache misses.
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Get the number of entries evicted because the cache was full.
+     *
+     * @return the number of evictions.
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * Get the ratio of cache hits to all lookups.
+     *
+     * @return the hit rate between 0 and 1, or 0 if there was no lookup yet.
+     */
+    public double getHitRate() {
+        long hits = hitCount.get();
+        long lookups = hits + missCount.get();
+        if (lookups == 0) {
+            return 0;
+        }
+        return (double) hits / lookups;
+    }
+
+    /**
+     * Reset the hit, miss and eviction counters.
+     */
+    public void resetStats() {
+        hitCount.set(0);
+        missCount.set(0);
+        evictionCount.set(0);
+    }
+
+    // Must be called with the segment's monitor held.
+    private void evictSuperfluous(Segment<K, V> segment) {
+        int superfluous = segment.size() - segment.maxSize;
+        if (superfluous <= 0) {
+            return;
+        }
+
+        Iterator<CacheValue<V>> it = segment.values().iterator();
+        for (int i = 0; i < superfluous && it.hasNext(); i++) {
+            it.next();
+            it.remove();
+        }
+        evictionCount.addAndGet(superfluous);
+    }
+
+    private static final class CacheValue<V> {
+        private final V value;
+        private final long timestamp;
+
+        private CacheValue(V value, long timestamp) {
+            this.value = value;
+            this.timestamp = timestamp;
+        }
+    }
+
+    private static final class Segment<K, V> extends LinkedHashMap<K, CacheValue<V>> {
+        private static final long serialVersionUID = 1L;
+
+        private int maxSize;
+
+        private boolean retired;
+
+        private Segment(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+    }
+}
@@ -225,4 +225,61 @@ public final class FileUtils {
             throw new IOException("File " + file + " exists, but is neither a file nor a directory");
         }
     }
+
+    /**
+     * Replace the target file with the source file, for example a completely written temporary file.
+     * <p>
+     * On platforms which allow to rename onto an existing file, this is a single atomic rename. Otherwise the target
+     * is first moved aside to a backup file, which is removed once the source file took its place. A crash in between
+     * leaves the backup file behind, {@link #recoverReplacedFile(File)} restores it.
+     * </p>
+     *
+     * @param source the file replacing the target.
+     * @param target the file to be replaced.
+     * @throws IOException if the file could not be replaced.
+     */
+    public static void replaceFileOrThrow(File source, File target) throws IOException {
+        if (source.renameTo(target)) {
+            return;
+        }
+
+        File backup = getBackupFile(target);
+        maybeDeleteFileOrThrow(backup);
+        if (target.exists() && !target.renameTo(backup)) {
+            throw new IOException("Could not move " + target + " to " + backup);
+        }
+        if (!source.renameTo(target)) {
+            // Put the original file back in place.
+            if (backup.exists() && !backup.renameTo(target)) {
+                LOGGER.severe("Could not restore " + target + " from " + backup);
+            }
+            throw new IOException("Could not replace " + target + " with " + source);
+        }
+        maybeDeleteFileOrThrow(backup);
+    }
+
+    /**
+     * Complete an interrupted {@link #replaceFileOrThrow(File, File)}. If the target file is missing, then it is
+     * restored from the backup file, otherwise a left over backup file is deleted.
+     *
+     * @param target the file which was replaced.
+     * @throws IOException if the backup file could neither be restored nor deleted.
+     */
+    public static void recoverReplacedFile(File target) throws IOException {
+        File backup = getBackupFile(target);
+        if (!backup.exists()) {
+            return;
+        }
+        if (target.exists()) {
+            maybeDeleteFileOrThrow(backup);
+            return;
+        }
+        if (!backup.renameTo(target)) {
+            throw new IOException("Could not restore " + target + " from " + backup);
+        }
+    }
+
+    private static File getBackupFile(File file) {
+        return new File(file.getPath() + ".old");
+    }
 }
@@ -16,6 +16,10 @@
  */
 package org.jivesoftware.smack.util.stringencoder;
 
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.nio.charset.StandardCharsets;
 
 import org.jivesoftware.smack.util.Objects;
@@ -73,6 +77,132 @@ public class Base64 {
         return decode(string);
     }
 
+    /**
+     * Encode the given bytes into a character sequence. Unlike {@link #encodeToString(byte[])}, the bytes are encoded
+     * directly into the characters of the result, which can be appended as is to an
+     * {@link org.jivesoftware.smack.util.XmlStringBuilder}.
+     *
+     * @param input the bytes to encode.
+     * @return the Base64 encoded bytes.
+     */
+    public static CharSequence encodeToCharSequence(byte[] input) {
+        return encodeToCharSequence(input, 0, input.length);
+    }
+
+    /**
+     * Encode a range of the given bytes into a character sequence. No copy of the range is created, hence this is
+     * suitable to encode a region of a buffer which is reused afterwards.
+     *
+     * @param input the bytes to encode.
+     * @param offset the offset of the first byte to encode.
+     * @param len the number of bytes to encode.
+     * @return the Base64 encoded bytes.
+     * @see #encodeToCharSequence(byte[])
+     */
+    public static CharSequence encodeToCharSequence(byte[] input, int offset, int len) {
+        if (offset < 0 || len < 0 || offset + len > input.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        final char[] alphabet = Base64OutputStream.ALPHABET;
+        char[] output = new char[(len + 2) / 3 * 4];
+        int end = offset + len;
+        int i = offset;
+        int j = 0;
+        for (; i + 2 < end; i += 3) {
+            int group = (input[i] & 0xff) << 16 | (input[i + 1] & 0xff) << 8 | (input[i + 2] & 0xff);
+            output[j++] = alphabet[(group >>> 18) & 0x3f];
+            output[j++] = alphabet[(group >>> 12) & 0x3f];
+            output[j++] = alphabet[(group >>> 6) & 0x3f];
+            output[j++] = alphabet[group & 0x3f];
+        }
+        if (i < end) {
+            int group = (input[i] & 0xff) << 16;
+            if (i + 1 < end) {
+                group |= (input[i + 1] & 0xff) << 8;
+            }
+            output[j++] = alphabet[(group >>> 18) & 0x3f];
+            output[j++] = alphabet[(group >>> 12) & 0x3f];
+            output[j++] = i + 1 < end ? alphabet[(group >>> 6) & 0x3f] : '=';
+            output[j++] = '=';
+        }
+        return CharBuffer.wrap(output);
+    }
+
+    /**
+     * Decode the given Base64 encoded characters into the given buffer, starting at its current position. XML
+     * whitespace between the characters is skipped in place, i.e. without creating a copy of the input. On return, the
+     * position of the buffer is advanced by the number of decoded bytes.
+     *
+     * @param input the Base64 encoded characters.
+     * @param output the buffer the decoded bytes are written to.
+     * @return the number of decoded bytes.
+     * @throws IllegalArgumentException if the input is not valid Base64.
+     * @throws BufferOverflowException if the remaining space of the buffer is insufficient.
+     * @see #decodedLength(CharSequence)
+     */
+    public static int decode(CharSequence input, ByteBuffer output) {
+        Base64InputStream in = new Base64InputStream(input);
+        int start = output.position();
+        try {
+            if (output.hasArray()) {
+                int read = in.read(output.array(), output.arrayOffset() + start, output.remaining());
+                if (read > 0) {
+                    output.position(start + read);
+                }
+            }
+            else {
+                int b;
+                while (output.hasRemaining() && (b = in.read()) != -1) {
+                    output.put((byte) b);
+                }
+            }
+            if (in.read() != -1) {
+                throw new BufferOverflowException();
+            }
+        }
+        catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+        return output.position() - start;
+    }
+
+    /**
+     * Decode the given Base64 encoded characters into a new byte array of the exact size of the decoded data. Unlike
+     * {@link #decode(String)}, XML whitespace is skipped without creating a copy of the input.
+     *
+     * @param input the Base64 encoded characters.
+     * @return the decoded bytes.
+     * @throws IllegalArgumentException if the input is not valid Base64.
+     */
+    public static byte[] decodeToByteArray(CharSequence input) {
+        byte[] output = new byte[decodedLength(input)];
+        decode(input, ByteBuffer.wrap(output));
+        return output;
+    }
+
+    /**
+     * Returns the number of bytes the given Base64 encoded characters decode to, ignoring XML whitespace and
+     * padding. The characters are not decoded, hence the result is meaningless if the input is not valid Base64.
+     *
+     * @param input the Base64 encoded characters.
+     * @return the length of the decoded data.
+     */
+    public static int decodedLength(CharSequence input) {
+        int significantChars = 0;
+        for (int i = 0; i < input.length(); i++) {
+            char c = input.charAt(i);
+            if (c == '=') {
+                continue;
+            }
+            if (c < Base64InputStream.DECODING_TABLE.length
+                            && Base64InputStream.DECODING_TABLE[c] == Base64InputStream.WHITESPACE) {
+                continue;
+            }
+            significantChars++;
+        }
+        return (int) (significantChars * 6L / 8);
+    }
+
     private static byte[] slice(byte[] input, int offset, int len) {
         if (offset == 0 && len == input.length) {
             return input;
@@ -0,0 +1,179 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.util.stringencoder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import org.jivesoftware.smack.util.Objects;
+
+/**
+ * An input stream which decodes the Base64 encoded characters of a {@link CharSequence}, for example the text of a
+ * parsed element.
+ * <p>
+ * The characters are decoded as they are read, hence the decoded data is never held in memory as a whole. As allowed by
+ * xs:base64Binary, XML whitespace between the characters is ignored. Invalid characters cause an {@link IOException}.
+ * The padding of the final group is optional.
+ * </p>
+ */
+public class Base64InputStream extends InputStream {
+
+    static final byte WHITESPACE = -2;
+
+    static final byte INVALID = -1;
+
+    static final byte[] DECODING_TABLE = new byte[128];
+
+    static {
+        Arrays.fill(DECODING_TABLE, INVALID);
+        for (int i = 0; i < Base64OutputStream.ALPHABET.length; i++) {
+            DECODING_TABLE[Base64OutputStream.ALPHABET[i]] = (byte) i;
+        }
+        DECODING_TABLE[' '] = WHITESPACE;
+        DECODING_TABLE['\t'] = WHITESPACE;
+        DECODING_TABLE['\r'] = WHITESPACE;
+        DECODING_TABLE['\n'] = WHITESPACE;
+    }
+
+    private final CharSequence in;
+
+    private final int end;
+
+    private int position;
+
+    /**
+     * The decoded, but not yet read bytes of the current group, stored in the lower bits.
+     */
+    private int group;
+
+    private int groupLength;
+
+    private boolean padded;
+
+    public Base64InputStream(CharSequence in) {
+        this.in = Objects.requireNonNull(in, "The character sequence must not be null");
+        this.end = in.length();
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (groupLength == 0 && !decodeGroup()) {
+            return -1;
+        }
+        groupLength--;
+        return (group >>> (8 * groupLength)) & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || off + len > b.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+            return 0;
+        }
+        int read = 0;
+        while (read < len) {
+            if (groupLength == 0 && !decodeGroup()) {
+                break;
+            }
+            groupLength--;
+            b[off + read++] = (byte) (group >>> (8 * groupLength));
+        }
+        return read == 0 ? -1 : read;
+    }
+
+    @Override
+    public int available() {
+        // A lower bound, as the remaining characters may contain whitespace and padding.
+        return groupLength;
+    }
+
+    /**
+     * Decode the next group of four characters into up to three bytes.
+     *
+     * @return false if the end of the encoded data was reached.
+     * @throws IOException if the characters are not valid Base64.
+     */
+    private boolean decodeGroup() throws IOException {
+        if (padded) {
+            skipTrailingCharacters();
+            return false;
+        }
+
+        int bits = 0;
+        int sextets = 0;
+        int paddingChars = 0;
+        while (sextets + paddingChars < 4) {
+            if (position == end) {
+                if (sextets == 0 && paddingChars == 0) {
+                    return false;
+                }
+                // Like most decoders, accept a final group without padding.
+                if (sextets < 2) {
+                    throw new IOException("Truncated Base64 data");
+                }
+                break;
+            }
+            char c = in.charAt(position++);
+            if (c == '=') {
+                if (sextets < 2) {
+                    throw new IOException("Unexpected Base64 padding at position " + (position - 1));
+                }
+                paddingChars++;
+                continue;
+            }
+            byte value = c < DECODING_TABLE.length ? DECODING_TABLE[c] : INVALID;
+            if (value == WHITESPACE) {
+                continue;
+            }
+            if (value == INVALID || paddingChars > 0) {
+                throw new IOException("Invalid Base64 character '" + c + "' at position " + (position - 1));
+            }
+            bits = (bits << 6) | value;
+            sextets++;
+        }
+
+        switch (sextets) {
+        case 4:
+            group = bits;
+            groupLength = 3;
+            break;
+        case 3:
+            group = bits >>> 2;
+            groupLength = 2;
+            padded = true;
+            break;
+        default:
+            group = bits >>> 4;
+            groupLength = 1;
+            padded = true;
+            break;
+        }
+        return true;
+    }
+
+    private void skipTrailingCharacters() throws IOException {
+        while (position < end) {
+            char c = in.charAt(position++);
+            if (c >= DECODING_TABLE.length || DECODING_TABLE[c] != WHITESPACE) {
+                throw new IOException("Unexpected character '" + c + "' after the Base64 padding");
+            }
+        }
+    }
+}
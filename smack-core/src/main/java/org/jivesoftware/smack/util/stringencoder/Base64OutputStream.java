@@ -0,0 +1,130 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.util.stringencoder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.jivesoftware.smack.util.Objects;
+
+/**
+ * An output stream which Base64 encodes the bytes written to it and appends the resulting characters to an
+ * {@link Appendable}, for example a {@link StringBuilder}.
+ * <p>
+ * Unlike {@link Base64#encodeToString(byte[])}, this does not require the whole input as byte array, hence binary data
+ * produced by another stream, e.g. a cipher, can be encoded without buffering it first. The encoding is completed,
+ * including the padding, when the stream is closed.
+ * </p>
+ */
+public class Base64OutputStream extends OutputStream {
+
+    static final char[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    private final Appendable out;
+
+    private final char[] quantum = new char[4];
+
+    /**
+     * The bits of the current, incomplete group of three bytes.
+     */
+    private int group;
+
+    private int groupLength;
+
+    private boolean closed;
+
+    public Base64OutputStream(Appendable out) {
+        this.out = Objects.requireNonNull(out, "The appendable must not be null");
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        group = (group << 8) | (b & 0xff);
+        if (++groupLength == 3) {
+            writeGroup();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if (off < 0 || len < 0 || off + len > b.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        int end = off + len;
+        while (off < end) {
+            group = (group << 8) | (b[off++] & 0xff);
+            if (++groupLength == 3) {
+                writeGroup();
+            }
+        }
+    }
+
+    /**
+     * Complete the encoding by writing the remaining bytes and the padding. This does not close the appendable.
+     *
+     * @throws IOException if the appendable throws an IOException.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        switch (groupLength) {
+        case 1:
+            group <<= 16;
+            out.append(ALPHABET[(group >>> 18) & 0x3f]).append(ALPHABET[(group >>> 12) & 0x3f]).append("==");
+            break;
+        case 2:
+            group <<= 8;
+            out.append(ALPHABET[(group >>> 18) & 0x3f]).append(ALPHABET[(group >>> 12) & 0x3f])
+                            .append(ALPHABET[(group >>> 6) & 0x3f]).append('=');
+            break;
+        default:
+            break;
+        }
+        groupLength = 0;
+    }
+
+    private void writeGroup() throws IOException {
+        quantum[0] = ALPHABET[(group >>> 18) & 0x3f];
+        quantum[1] = ALPHABET[(group >>> 12) & 0x3f];
+        quantum[2] = ALPHABET[(group >>> 6) & 0x3f];
+        quantum[3] = ALPHABET[group & 0x3f];
+        appendQuantum();
+        group = 0;
+        groupLength = 0;
+    }
+
+    private void appendQuantum() throws IOException {
+        if (out instanceof StringBuilder) {
+            ((StringBuilder) out).append(quantum);
+        } else {
+            for (char c : quantum) {
+                out.append(c);
+            }
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("The stream is closed");
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class ConcurrentLruCacheTest {
+
+    @Test
+    public void lookupAndStatsTest() {
+        ConcurrentLruCache<String, String> cache = new ConcurrentLruCache<>(10);
+        cache.put("foo", "bar");
+
+        assertEquals("bar", cache.lookup("foo"));
+        assertNull(cache.lookup("baz"));
+
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(0.5, cache.getHitRate(), 0.001);
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedTest() {
+        // A single segment, so that the eviction order is strictly LRU.
+        ConcurrentLruCache<Integer, Integer> cache = new ConcurrentLruCache<>(1);
+        cache.setMaxCacheSize(3);
+
+        cache.put(1, 1);
+        cache.put(2, 2);
+        cache.put(3, 3);
+        // Access 1, so that 2 becomes the least recently used entry.
+        cache.lookup(1);
+        cache.put(4, 4);
+
+        assertEquals(3, cache.size());
+        assertNull(cache.lookup(2));
+        assertEquals(1, (int) cache.lookup(1));
+        assertEquals(1, cache.getEvictionCount());
+    }
+
+    @Test
+    public void loweringMaxSizeEvictsTest() {
+        ConcurrentLruCache<Integer, Integer> cache = new ConcurrentLruCache<>(1000);
+        for (int i = 0; i < 1000; i++) {
+            cache.put(i, i);
+        }
+        assertTrue(cache.size() <= 1000);
+
+        cache.setMaxCacheSize(100);
+        assertTrue(cache.size() <= 100);
+    }
+
+    @Test
+    public void expirationTest() throws InterruptedException {
+        ConcurrentLruCache<String, String> cache = new ConcurrentLruCache<>(10, 1);
+        cache.put("foo", "bar");
+        Thread.sleep(10);
+
+        assertNull(cache.lookup("foo"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void smallCacheIsStrictlyLruTest() {
+        ConcurrentLruCache<Integer, Integer> cache = new ConcurrentLruCache<>(25);
+        for (int i = 0; i < 25; i++) {
+            cache.put(i, i);
+        }
+        assertEquals(25, cache.size());
+        assertEquals(0, cache.getEvictionCount());
+
+        cache.put(25, 25);
+        assertNull(cache.lookup(0));
+        assertEquals(25, cache.size());
+    }
+
+    @Test
+    public void changingMaxSizeRedistributesEntriesTest() {
+        ConcurrentLruCache<Integer, Integer> cache = new ConcurrentLruCache<>(1000);
+        for (int i = 0; i < 1000; i++) {
+            cache.put(i, i);
+        }
+
+        // Fewer entries than the cache had segments, every remaining entry must still be usable.
+        cache.setMaxCacheSize(5);
+        assertEquals(5, cache.size());
+        for (int i = 1000; i < 1005; i++) {
+            cache.put(i, i);
+        }
+        assertEquals(5, cache.size());
+        for (int i = 1000; i < 1005; i++) {
+            assertEquals(i, (int) cache.lookup(i));
+        }
+
+        cache.setMaxCacheSize(1000);
+        for (int i = 0; i < 1000; i++) {
+            cache.put(i, i);
+        }
+        assertTrue(cache.size() > 900);
+    }
+}
@@ -19,7 +19,9 @@ package org.jivesoftware.smack.util;
 import java.io.IOException;
 import java.net.BindException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
+import java.nio.channels.ServerSocketChannel;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -33,17 +35,19 @@ public class NetworkUtil {
         final int portMax = (1 << 16) - 1;
         final int backlog = 1;
 
-        ServerSocket serverSocket = null;
+        // Create the socket by a channel, so that it can also be used with non-blocking I/O.
+        ServerSocket serverSocket = ServerSocketChannel.open().socket();
         for (int port = portMin; port <= portMax; port++) {
             try {
-                serverSocket = new ServerSocket(port, backlog, loopbackAddress);
+                serverSocket.bind(new InetSocketAddress(loopbackAddress, port), backlog);
                 break;
             } catch (BindException e) {
                 LOGGER.log(Level.FINEST, "Could not bind port " + port + ", trying next", e);
             }
         }
 
-        if (serverSocket == null) {
+        if (!serverSocket.isBound()) {
+            serverSocket.close();
             throw new IOException("Could not bind any port between " + portMin + " and " + portMax
                             + " on loopback address" + loopbackAddress);
         }
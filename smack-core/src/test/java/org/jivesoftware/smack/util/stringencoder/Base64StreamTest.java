@@ -0,0 +1,134 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.util.stringencoder;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+public class Base64StreamTest {
+
+    @Test
+    public void encodeTest() throws IOException {
+        assertEquals("", encode(new byte[0]));
+        assertEquals("PQ==", encode("=".getBytes("UTF-8")));
+        assertEquals("Zm9vIGJhciAxMjM=", encode("foo bar 123".getBytes("UTF-8")));
+        assertEquals("Zm9vYg==", encode("foob".getBytes("UTF-8")));
+        assertEquals("Zm9vYmFy", encode("foobar".getBytes("UTF-8")));
+    }
+
+    @Test
+    public void decodeTest() throws IOException {
+        assertArrayEquals(new byte[0], decode(""));
+        assertArrayEquals("=".getBytes("UTF-8"), decode("PQ=="));
+        assertArrayEquals("foo bar 123".getBytes("UTF-8"), decode("Zm9vIGJhciAxMjM="));
+        assertArrayEquals("foobar".getBytes("UTF-8"), decode("Zm9v\n  YmFy\r\n"));
+        assertArrayEquals("foob".getBytes("UTF-8"), decode("Zm9vYg"));
+    }
+
+    @Test
+    public void roundTripTest() throws IOException {
+        Random random = new Random(42);
+        for (int length = 0; length < 100; length++) {
+            byte[] data = new byte[length];
+            random.nextBytes(data);
+
+            String encoded = encode(data);
+            assertEquals(java.util.Base64.getEncoder().encodeToString(data), encoded);
+            assertArrayEquals(data, decode(encoded));
+        }
+    }
+
+    @Test
+    public void invalidInputTest() {
+        assertThrows(IOException.class, () -> decode("Zm9v!mFy"));
+        assertThrows(IOException.class, () -> decode("Zm9vY"));
+        assertThrows(IOException.class, () -> decode("Z==="));
+        assertThrows(IOException.class, () -> decode("Zm8=Zm9v"));
+    }
+
+    @Test
+    public void encodeToCharSequenceTest() throws IOException {
+        Random random = new Random(42);
+        byte[] buffer = new byte[110];
+        random.nextBytes(buffer);
+        for (int length = 0; length < 100; length++) {
+            CharSequence encoded = Base64.encodeToCharSequence(buffer, 10, length);
+            assertEquals(encode(Arrays.copyOfRange(buffer, 10, 10 + length)), encoded.toString());
+        }
+    }
+
+    @Test
+    public void decodeIntoByteBufferTest() {
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        buffer.put((byte) 42);
+        assertEquals(6, Base64.decode("Zm9v\n  YmFy", buffer));
+        assertEquals(7, buffer.position());
+        assertArrayEquals("foobar".getBytes(StandardCharsets.UTF_8), Arrays.copyOfRange(buffer.array(), 1, 7));
+
+        ByteBuffer directBuffer = ByteBuffer.allocateDirect(6);
+        assertEquals(6, Base64.decode("Zm9vYmFy", directBuffer));
+
+        assertThrows(BufferOverflowException.class, () -> Base64.decode("Zm9vYmFy", ByteBuffer.allocate(5)));
+        assertThrows(IllegalArgumentException.class, () -> Base64.decode("Zm8=Zm9v", ByteBuffer.allocate(16)));
+    }
+
+    @Test
+    public void decodeToByteArrayTest() {
+        assertEquals(0, Base64.decodedLength(""));
+        assertEquals(1, Base64.decodedLength("PQ=="));
+        assertEquals(11, Base64.decodedLength("Zm9vIGJh\r\nciAxMjM="));
+        assertArrayEquals("foo bar 123".getBytes(StandardCharsets.UTF_8), Base64.decodeToByteArray("Zm9vIGJh\r\nciAxMjM="));
+    }
+
+    private static String encode(byte[] data) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        Base64OutputStream out = new Base64OutputStream(sb);
+        // Write the data in chunks of varying size, to test the handling of incomplete groups.
+        int offset = 0;
+        int chunk = 1;
+        while (offset < data.length) {
+            int len = Math.min(chunk++, data.length - offset);
+            out.write(data, offset, len);
+            offset += len;
+        }
+        out.close();
+        return sb.toString();
+    }
+
+    private static byte[] decode(CharSequence encoded) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        InputStream in = new Base64InputStream(encoded);
+        byte[] buffer = new byte[5];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
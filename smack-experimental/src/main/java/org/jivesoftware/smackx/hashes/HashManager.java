@@ -33,15 +33,28 @@ import static org.jivesoftware.smackx.hashes.HashManager.ALGORITHM.SHA_256;
 import static org.jivesoftware.smackx.hashes.HashManager.ALGORITHM.SHA_384;
 import static org.jivesoftware.smackx.hashes.HashManager.ALGORITHM.SHA_512;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 import java.util.WeakHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
 
 import org.jivesoftware.smack.Manager;
 import org.jivesoftware.smack.XMPPConnection;
+import org.jivesoftware.smack.util.CloseableUtil;
 import org.jivesoftware.smack.util.SecurityUtil;
 import org.jivesoftware.smackx.disco.ServiceDiscoveryManager;
 import org.jivesoftware.smackx.hashes.element.HashElement;
@@ -56,6 +69,8 @@ import org.bouncycastle.jce.provider.BouncyCastleProvider;
  */
 public final class HashManager extends Manager {
 
+    private static final Logger LOGGER = Logger.getLogger(HashManager.class.getName());
+
     static {
         // Remove any BC providers and add a fresh one.
         // This is done, since older Android versions ship with a crippled BC provider.
@@ -87,6 +102,33 @@ public final class HashManager extends Manager {
 
     private static final WeakHashMap<XMPPConnection, HashManager> INSTANCES = new WeakHashMap<>();
 
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The maximum number of idle message digests which are kept per algorithm by {@link #hash(ALGORITHM, byte[])}.
+     */
+    private static final int MAXIMUM_POOLED_MESSAGE_DIGESTS = 4;
+
+    /**
+     * Unused message digests which are cloned by {@link #getMessageDigest(ALGORITHM)}, as cloning a digest is much
+     * cheaper than looking it up at the security providers.
+     */
+    private static final Map<ALGORITHM, MessageDigest> PROTOTYPES = new ConcurrentHashMap<>();
+
+    /**
+     * The idle message digests re-used by {@link #hash(ALGORITHM, byte[])}. The pools are bounded, so that the digests
+     * are not pinned to the threads which used them, like pooled threads would with a thread local.
+     */
+    private static final Map<ALGORITHM, BlockingQueue<MessageDigest>> POOLED_MESSAGE_DIGESTS;
+
+    static {
+        Map<ALGORITHM, BlockingQueue<MessageDigest>> pooledMessageDigests = new EnumMap<>(ALGORITHM.class);
+        for (ALGORITHM algorithm : ALGORITHM.values()) {
+            pooledMessageDigests.put(algorithm, new ArrayBlockingQueue<MessageDigest>(MAXIMUM_POOLED_MESSAGE_DIGESTS));
+        }
+        POOLED_MESSAGE_DIGESTS = Collections.unmodifiableMap(pooledMessageDigests);
+    }
+
     /**
      * Constructor of the HashManager.
      *
@@ -107,6 +149,67 @@ public final class HashManager extends Manager {
         return new HashElement(algorithm, hash);
     }
 
+    /**
+     * Calculate the hashes of the remaining data of the given input stream, using all given algorithms in a single pass
+     * over the data. The stream is not closed.
+     *
+     * @param inputStream the input stream.
+     * @param algorithms the algorithms of the hashes to calculate.
+     * @return the hash elements, in the order of the given algorithms.
+     * @throws IOException if reading from the stream fails.
+     */
+    public static List<HashElement> calculateHashElements(InputStream inputStream, ALGORITHM... algorithms)
+                    throws IOException {
+        Hasher hasher = new Hasher(algorithms);
+        byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            hasher.update(buffer, 0, read);
+        }
+        return hasher.digest();
+    }
+
+    /**
+     * Calculate the hashes of the data of the given file channel from its current position up to its end, using all
+     * given algorithms in a single pass over the data. The data is read through a single heap buffer, which is re-used
+     * for all reads. Afterwards, the position of the channel equals its size.
+     *
+     * @param fileChannel the file channel.
+     * @param algorithms the algorithms of the hashes to calculate.
+     * @return the hash elements, in the order of the given algorithms.
+     * @throws IOException if reading from the channel fails.
+     */
+    public static List<HashElement> calculateHashElements(FileChannel fileChannel, ALGORITHM... algorithms)
+                    throws IOException {
+        Hasher hasher = new Hasher(algorithms);
+        ByteBuffer buffer = ByteBuffer.allocate(STREAM_BUFFER_SIZE);
+        while (fileChannel.read(buffer) != -1) {
+            buffer.flip();
+            hasher.update(buffer);
+            buffer.clear();
+        }
+        return hasher.digest();
+    }
+
+    /**
+     * Calculate the hashes of the given file, using all given algorithms in a single pass over the file.
+     *
+     * @param file the file.
+     * @param algorithms the algorithms of the hashes to calculate.
+     * @return the hash elements, in the order of the given algorithms.
+     * @throws IOException if reading the file fails.
+     * @see #calculateHashElements(FileChannel, ALGORITHM...)
+     */
+    public static List<HashElement> calculateHashElements(File file, ALGORITHM... algorithms) throws IOException {
+        FileInputStream fis = new FileInputStream(file);
+        try {
+            return calculateHashElements(fis.getChannel(), algorithms);
+        }
+        finally {
+            CloseableUtil.maybeClose(fis, LOGGER);
+        }
+    }
+
     /**
      * Announce support for the given list of algorithms.
      * @param algorithms TODO javadoc me please
@@ -211,14 +314,44 @@ public final class HashManager extends Manager {
      * @return the hash value produced by the given algorithm for the given data.
      */
     public static byte[] hash(ALGORITHM algorithm, byte[] data) {
-        return getMessageDigest(algorithm).digest(data);
+        BlockingQueue<MessageDigest> pooledMessageDigests = POOLED_MESSAGE_DIGESTS.get(algorithm);
+        MessageDigest md = pooledMessageDigests.poll();
+        if (md == null) {
+            md = getMessageDigest(algorithm);
+        }
+        // Digesting resets the message digest, so it can be re-used by the next invocation. If the pool is full, then
+        // the message digest is dropped.
+        byte[] digest = md.digest(data);
+        pooledMessageDigests.offer(md);
+        return digest;
     }
 
     public static byte[] hash(ALGORITHM algorithm, String data) {
         return hash(algorithm, toUtf8Bytes(data));
     }
 
+    /**
+     * Get a new message digest for the given algorithm. The returned instance is not shared, hence it may be used to
+     * hash data incrementally.
+     *
+     * @param algorithm the algorithm.
+     * @return a new message digest.
+     */
     public static MessageDigest getMessageDigest(ALGORITHM algorithm) {
+        MessageDigest prototype = PROTOTYPES.get(algorithm);
+        if (prototype == null) {
+            prototype = createMessageDigest(algorithm);
+            PROTOTYPES.put(algorithm, prototype);
+        }
+        try {
+            return (MessageDigest) prototype.clone();
+        }
+        catch (CloneNotSupportedException e) {
+            return createMessageDigest(algorithm);
+        }
+    }
+
+    private static MessageDigest createMessageDigest(ALGORITHM algorithm) {
         MessageDigest md;
         try {
             switch (algorithm) {
@@ -274,7 +407,7 @@ public final class HashManager extends Manager {
     }
 
     public static byte[] md5(byte[] data) {
-        return getMessageDigest(MD5).digest(data);
+        return hash(MD5, data);
     }
 
     public static byte[] md5(String data) {
@@ -290,7 +423,7 @@ public final class HashManager extends Manager {
     }
 
     public static byte[] sha_1(byte[] data) {
-        return getMessageDigest(SHA_1).digest(data);
+        return hash(SHA_1, data);
     }
 
     public static byte[] sha_1(String data) {
@@ -306,7 +439,7 @@ public final class HashManager extends Manager {
     }
 
     public static byte[] sha_224(byte[] data) {
-        return getMessageDigest(SHA_224).digest(data);
+        return hash(SHA_224, data);
     }
 
     public static byte[] sha_224(String data) {
@@ -322,7 +455,7 @@ public final class HashManager extends Manager {
     }
 
     public static byte[] sha_256(byte[] data) {
-        return getMessageDigest(SHA_256).digest(data);
+        return hash(SHA_256, data);
     }
 
     public static byte[] sha_256(String data) {
@@ -338,7 +471,7 @@ public final class HashManager extends Manager {
     }
 
     public static byte[] sha_384(byte[] data) {
-        return getMessageDigest(SHA_384).digest(data);
+        return hash(SHA_384, data);
     }
 
     public static byte[] sha_384(String data) {
@@ -354,7 +487,7 @@ public final class HashManager extends Manager {
     }
 
     public static byte[] sha_512(byte[] data) {
-        return getMessageDigest(SHA_512).digest(data);
+        return hash(SHA_512, data);
     }
 
     public static byte[] sha_512(String data) {
@@ -370,7 +503,7 @@ public final class HashManager extends Manager {
     }
 
     public static byte[] sha3_224(byte[] data) {
-        return getMessageDigest(SHA3_224).digest(data);
+        return hash(SHA3_224, data);
     }
 
     public static byte[] sha3_224(String data) {
@@ -386,7 +519,7 @@ public final class HashManager extends Manager {
     }
 
     public static byte[] sha3_256(byte[] data) {
-        return getMessageDigest(SHA3_256).digest(data);
+        return hash(SHA3_256, data);
     }
 
     public static byte[] sha3_256(String data) {
@@ -402,7 +535,7 @@ public final class HashManager extends Manager {
     }
 
     public static byte[] sha3_384(byte[] data) {
-        return getMessageDigest(SHA3_384).digest(data);
+        return hash(SHA3_384, data);
     }
 
     public static byte[] sha3_384(String data) {
@@ -418,7 +551,7 @@ public final class HashManager extends Manager {
     }
 
     public static byte[] sha3_512(byte[] data) {
-        return getMessageDigest(SHA3_512).digest(data);
+        return hash(SHA3_512, data);
     }
 
     public static byte[] sha3_512(String data) {
@@ -434,7 +567,7 @@ public final class HashManager extends Manager {
     }
 
     public static byte[] blake2b160(byte[] data) {
-        return getMessageDigest(BLAKE2B160).digest(data);
+        return hash(BLAKE2B160, data);
     }
 
     public static byte[] blake2b160(String data) {
@@ -450,7 +583,7 @@ public final class HashManager extends Manager {
     }
 
     public static byte[] blake2b256(byte[] data) {
-        return getMessageDigest(BLAKE2B256).digest(data);
+        return hash(BLAKE2B256, data);
     }
 
     public static byte[] blake2b256(String data) {
@@ -466,7 +599,7 @@ public final class HashManager extends Manager {
     }
 
     public static byte[] blake2b384(byte[] data) {
-        return getMessageDigest(BLAKE2B384).digest(data);
+        return hash(BLAKE2B384, data);
     }
 
     public static byte[] blake2b384(String data) {
@@ -482,7 +615,7 @@ public final class HashManager extends Manager {
     }
 
     public static byte[] blake2b512(byte[] data) {
-        return getMessageDigest(BLAKE2B512).digest(data);
+        return hash(BLAKE2B512, data);
     }
 
     public static byte[] blake2b512(String data) {
@@ -0,0 +1,107 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.hashes;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.jivesoftware.smackx.hashes.HashManager.ALGORITHM;
+import org.jivesoftware.smackx.hashes.element.HashElement;
+
+/**
+ * Calculates the hashes of several algorithms in a single pass over the data.
+ * <p>
+ * This allows to hash data while it is streamed, for example while a file is uploaded, so that the data does not have
+ * to be read once per algorithm. Instances are not thread-safe.
+ * </p>
+ */
+public final class Hasher {
+
+    private static final int CHUNK_SIZE = 16 * 1024;
+
+    private final ALGORITHM[] algorithms;
+
+    private final MessageDigest[] messageDigests;
+
+    /**
+     * Used to copy data out of buffers without accessible array, so that the data is only copied once for all digests.
+     */
+    private byte[] chunk;
+
+    /**
+     * Create a new hasher for the given algorithms.
+     *
+     * @param algorithms the algorithms of the hashes to calculate.
+     */
+    public Hasher(ALGORITHM... algorithms) {
+        this.algorithms = algorithms.clone();
+        messageDigests = new MessageDigest[algorithms.length];
+        for (int i = 0; i < algorithms.length; i++) {
+            messageDigests[i] = HashManager.getMessageDigest(algorithms[i]);
+        }
+    }
+
+    public void update(byte[] data) {
+        update(data, 0, data.length);
+    }
+
+    public void update(byte[] data, int offset, int length) {
+        for (MessageDigest messageDigest : messageDigests) {
+            messageDigest.update(data, offset, length);
+        }
+    }
+
+    /**
+     * Update the hashes with the remaining bytes of the given buffer. Afterwards, the position of the buffer equals its
+     * limit. The buffer may be a direct or a memory-mapped buffer, whose bytes are copied chunk by chunk into a heap
+     * array of this hasher.
+     *
+     * @param buffer the buffer.
+     */
+    public void update(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            update(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            buffer.position(buffer.limit());
+            return;
+        }
+
+        if (chunk == null) {
+            chunk = new byte[CHUNK_SIZE];
+        }
+        while (buffer.hasRemaining()) {
+            int length = Math.min(chunk.length, buffer.remaining());
+            buffer.get(chunk, 0, length);
+            update(chunk, 0, length);
+        }
+    }
+
+    /**
+     * Complete the hash calculations and reset the hasher, so that it can be used for new data.
+     *
+     * @return the hash elements, in the order of the algorithms this hasher was created with.
+     */
+    public List<HashElement> digest() {
+        List<HashElement> hashElements = new ArrayList<>(algorithms.length);
+        for (int i = 0; i < algorithms.length; i++) {
+            hashElements.add(HashManager.assembleHashElement(algorithms[i], messageDigests[i].digest()));
+        }
+        return Collections.unmodifiableList(hashElements);
+    }
+}
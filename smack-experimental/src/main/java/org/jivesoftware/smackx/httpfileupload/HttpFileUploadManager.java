@@ -16,18 +16,32 @@
  */
 package org.jivesoftware.smackx.httpfileupload;
 
-import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -40,12 +54,17 @@ import org.jivesoftware.smack.ConnectionConfiguration;
 import org.jivesoftware.smack.ConnectionCreationListener;
 import org.jivesoftware.smack.Manager;
 import org.jivesoftware.smack.SmackException;
+import org.jivesoftware.smack.SmackFuture;
 import org.jivesoftware.smack.XMPPConnection;
 import org.jivesoftware.smack.XMPPConnectionRegistry;
 import org.jivesoftware.smack.XMPPException;
+import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smack.util.CloseableUtil;
 
 import org.jivesoftware.smackx.disco.ServiceDiscoveryManager;
 import org.jivesoftware.smackx.disco.packet.DiscoverInfo;
+import org.jivesoftware.smackx.hashes.HashManager;
+import org.jivesoftware.smackx.hashes.Hasher;
 import org.jivesoftware.smackx.httpfileupload.UploadService.Version;
 import org.jivesoftware.smackx.httpfileupload.element.Slot;
 import org.jivesoftware.smackx.httpfileupload.element.SlotRequest;
@@ -89,12 +108,55 @@ public final class HttpFileUploadManager extends Manager {
         });
     }
 
+    /**
+     * The default size of the buffer used to upload a file.
+     */
+    public static final int DEFAULT_UPLOAD_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The default maximum number of files uploaded at the same time by
+     * {@link #upload(List, UploadProgressListener, HashManager.ALGORITHM...)}.
+     */
+    public static final int DEFAULT_MAXIMUM_CONCURRENT_UPLOADS = 3;
+
+    private static final String CONTENT_TYPE = "application/octet-stream";
+
+    private static final ThreadFactory THREAD_FACTORY = new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable);
+            thread.setName("Smack HTTP File Upload");
+            thread.setDaemon(true);
+            thread.setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+                @Override
+                public void uncaughtException(Thread t, Throwable e) {
+                    LOGGER.log(Level.WARNING, t + " encountered uncaught exception", e);
+                }
+            });
+            return thread;
+        }
+    };
+
+    /**
+     * The executor uploading the files of all managers, whose threads terminate when they are idle.
+     */
+    private static final ThreadPoolExecutor UPLOAD_EXECUTOR = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), THREAD_FACTORY);
+
+    static {
+        UPLOAD_EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
     private static final Map<XMPPConnection, HttpFileUploadManager> INSTANCES = new WeakHashMap<>();
 
     private UploadService defaultUploadService;
 
     private SSLSocketFactory tlsSocketFactory;
 
+    private int uploadBufferSize = DEFAULT_UPLOAD_BUFFER_SIZE;
+
+    private int maximumConcurrentUploads = DEFAULT_MAXIMUM_CONCURRENT_UPLOADS;
+
     /**
      * Obtain the HttpFileUploadManager responsible for a connection.
      *
@@ -255,14 +317,221 @@ public final class HttpFileUploadManager extends Manager {
      */
     public URL uploadFile(File file, UploadProgressListener listener) throws InterruptedException,
             XMPPException.XMPPErrorException, SmackException, IOException {
+        return upload(file, listener).getGetUrl();
+    }
+
+    /**
+     * Request slot and upload file to HTTP file upload service while calculating the hashes of the file.
+     *
+     * The file is read only once, the hashes are calculated from the uploaded bytes and can be announced as
+     * XEP-0300 hash elements together with the GET URL. Note that this is a synchronous call -- Smack must wait for
+     * the server response.
+     *
+     * @param file file to be uploaded
+     * @param listener upload progress listener or null
+     * @param hashAlgorithms the algorithms of the hashes to calculate, e.g. SHA-256 or BLAKE2b-256
+     * @return the uploaded file with the public URL for sharing it and the hashes
+     * @throws InterruptedException if the calling thread was interrupted.
+     * @throws XMPPException.XMPPErrorException if there was an XMPP error returned.
+     * @throws SmackException if Smack detected an exceptional situation.
+     * @throws IOException if an I/O error occured.
+     */
+    public UploadedFile upload(File file, UploadProgressListener listener, HashManager.ALGORITHM... hashAlgorithms)
+                    throws InterruptedException, XMPPException.XMPPErrorException, SmackException, IOException {
         if (!file.isFile()) {
             throw new FileNotFoundException("The path " + file.getAbsolutePath() + " is not a file");
         }
-        final Slot slot = requestSlot(file.getName(), file.length(), "application/octet-stream");
+        final Slot slot = requestSlot(file.getName(), file.length(), CONTENT_TYPE);
+
+        return upload(file, slot, listener, hashAlgorithms);
+    }
+
+    /**
+     * Request slots and upload the files to the default HTTP file upload service while calculating the hashes of
+     * the files.
+     *
+     * At most {@link #getMaximumConcurrentUploads()} files are uploaded at the same time. The slots of the files
+     * uploaded next are requested while the previous files are uploaded, but at most for twice as many files as are
+     * uploaded at the same time, so that the slots do not expire before they are used. If an upload fails, the
+     * remaining uploads are aborted. Note that this is a synchronous call -- Smack must wait
+     * until all files have been uploaded.
+     *
+     * The sizes of all files are checked against the maximum file size of the upload service before any slot is
+     * requested.
+     *
+     * @param files the files to be uploaded
+     * @param listener upload progress listener of all files together or null, may be invoked concurrently
+     * @param hashAlgorithms the algorithms of the hashes to calculate, e.g. SHA-256 or BLAKE2b-256
+     * @return the uploaded files in the order of the given files
+     * @throws InterruptedException if the calling thread was interrupted.
+     * @throws XMPPException.XMPPErrorException if there was an XMPP error returned.
+     * @throws SmackException if Smack detected an exceptional situation.
+     * @throws IOException if an I/O error occured.
+     * @throws IllegalArgumentException if a file is larger than the maximum size supported by the service.
+     */
+    public List<UploadedFile> upload(List<File> files, UploadProgressListener listener,
+                    final HashManager.ALGORITHM... hashAlgorithms)
+                    throws InterruptedException, XMPPException.XMPPErrorException, SmackException, IOException {
+        long totalBytes = 0;
+        for (File file : files) {
+            if (!file.isFile()) {
+                throw new FileNotFoundException("The path " + file.getAbsolutePath() + " is not a file");
+            }
+            totalBytes += file.length();
+        }
+        if (files.isEmpty()) {
+            return Collections.emptyList();
+        }
 
-        uploadFile(file, slot, listener);
+        // Create all slot requests first, this verifies the sizes of all files before any slot is requested.
+        final UploadService uploadService = getUploadService(null);
+        List<SlotRequest> slotRequests = new ArrayList<>(files.size());
+        for (File file : files) {
+            slotRequests.add(createSlotRequest(uploadService, file.getName(), file.length(), CONTENT_TYPE));
+        }
+
+        final AggregatedUploadProgress progress = listener == null ? null
+                        : new AggregatedUploadProgress(listener, totalBytes);
+        int concurrentUploads = Math.min(maximumConcurrentUploads, files.size());
+        CompletionService<UploadedFile> completionService = new ExecutorCompletionService<>(
+                        getUploadExecutor(concurrentUploads));
+        List<SmackFuture<IQ, Exception>> slotFutures = new ArrayList<>(files.size());
+        List<Future<UploadedFile>> uploads = new ArrayList<>(files.size());
+        try {
+            int completedUploads = 0;
+            while (completedUploads < files.size()) {
+                // Request the slots of the files uploaded next, so that they are available once an upload finished.
+                while (slotFutures.size() < files.size()
+                                && slotFutures.size() < completedUploads + 2 * concurrentUploads) {
+                    slotFutures.add(connection().sendIqRequestAsync(slotRequests.get(slotFutures.size())));
+                }
+                while (uploads.size() < files.size() && uploads.size() < completedUploads + concurrentUploads) {
+                    final File file = files.get(uploads.size());
+                    final SmackFuture<IQ, Exception> slotFuture = slotFutures.get(uploads.size());
+                    uploads.add(completionService.submit(new Callable<UploadedFile>() {
+                        @Override
+                        public UploadedFile call() throws Exception {
+                            Slot slot = (Slot) slotFuture.get();
+                            UploadProgressListener fileListener = progress == null ? null
+                                            : progress.createFileListener();
+                            return upload(file, slot, fileListener, hashAlgorithms);
+                        }
+                    }));
+                }
+
+                try {
+                    completionService.take().get();
+                }
+                catch (ExecutionException e) {
+                    throw rethrow(e);
+                }
+                completedUploads++;
+            }
 
-        return slot.getGetUrl();
+            List<UploadedFile> uploadedFiles = new ArrayList<>(files.size());
+            for (Future<UploadedFile> upload : uploads) {
+                try {
+                    uploadedFiles.add(upload.get());
+                }
+                catch (ExecutionException e) {
+                    throw rethrow(e);
+                }
+            }
+            return uploadedFiles;
+        }
+        finally {
+            // The executor is shared, hence only the uploads of this invocation which are still pending are cancelled.
+            for (Future<UploadedFile> upload : uploads) {
+                upload.cancel(true);
+            }
+            for (SmackFuture<IQ, Exception> slotFuture : slotFutures) {
+                slotFuture.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Get the executor uploading files, which runs at least the given number of uploads at the same time. The
+     * executor is shared by all managers, the number of uploads of each invocation is limited by the invocation.
+     *
+     * @param concurrentUploads the number of uploads which must be able to run at the same time.
+     * @return the upload executor.
+     */
+    private static synchronized ExecutorService getUploadExecutor(int concurrentUploads) {
+        // The core pool size must never exceed the maximum pool size, hence the maximum is raised first.
+        if (concurrentUploads > UPLOAD_EXECUTOR.getMaximumPoolSize()) {
+            UPLOAD_EXECUTOR.setMaximumPoolSize(concurrentUploads);
+            UPLOAD_EXECUTOR.setCorePoolSize(concurrentUploads);
+        }
+        return UPLOAD_EXECUTOR;
+    }
+
+    /**
+     * Throws the cause of an asynchronous upload.
+     *
+     * @param executionException the exception of the asynchronous upload
+     * @return never returns, declared to allow <code>throw rethrow(e)</code>
+     */
+    private static SmackException rethrow(ExecutionException executionException)
+                    throws InterruptedException, XMPPException.XMPPErrorException, SmackException, IOException {
+        Throwable cause = executionException.getCause();
+        if (cause instanceof ExecutionException) {
+            // The slot request failed.
+            cause = cause.getCause();
+        }
+        if (cause instanceof IOException) {
+            throw (IOException) cause;
+        }
+        if (cause instanceof XMPPException.XMPPErrorException) {
+            throw (XMPPException.XMPPErrorException) cause;
+        }
+        if (cause instanceof SmackException) {
+            throw (SmackException) cause;
+        }
+        if (cause instanceof InterruptedException) {
+            throw (InterruptedException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        throw new SmackException.SmackWrappedException((Exception) cause);
+    }
+
+    /**
+     * Sets the size of the buffer used to upload a file. Default is {@value #DEFAULT_UPLOAD_BUFFER_SIZE} bytes.
+     *
+     * @param uploadBufferSize the buffer size in bytes.
+     */
+    public void setUploadBufferSize(int uploadBufferSize) {
+        if (uploadBufferSize <= 0) {
+            throw new IllegalArgumentException("The buffer size must be positive");
+        }
+        this.uploadBufferSize = uploadBufferSize;
+    }
+
+    public int getUploadBufferSize() {
+        return uploadBufferSize;
+    }
+
+    /**
+     * Sets the maximum number of files uploaded at the same time by
+     * {@link #upload(List, UploadProgressListener, HashManager.ALGORITHM...)}. Default is
+     * {@value #DEFAULT_MAXIMUM_CONCURRENT_UPLOADS}.
+     *
+     * @param maximumConcurrentUploads the maximum number of concurrent uploads.
+     */
+    public void setMaximumConcurrentUploads(int maximumConcurrentUploads) {
+        if (maximumConcurrentUploads <= 0) {
+            throw new IllegalArgumentException("The maximum number of concurrent uploads must be positive");
+        }
+        this.maximumConcurrentUploads = maximumConcurrentUploads;
+    }
+
+    public int getMaximumConcurrentUploads() {
+        return maximumConcurrentUploads;
     }
 
 
@@ -327,6 +596,13 @@ public final class HttpFileUploadManager extends Manager {
      */
     public Slot requestSlot(String filename, long fileSize, String contentType, DomainBareJid uploadServiceAddress)
             throws SmackException, InterruptedException, XMPPException.XMPPErrorException {
+        UploadService uploadService = getUploadService(uploadServiceAddress);
+        SlotRequest slotRequest = createSlotRequest(uploadService, filename, fileSize, contentType);
+        return connection().createStanzaCollectorAndSend(slotRequest).nextResultOrThrow();
+    }
+
+    private UploadService getUploadService(DomainBareJid uploadServiceAddress)
+            throws SmackException, InterruptedException, XMPPException.XMPPErrorException {
         final XMPPConnection connection = connection();
         final UploadService defaultUploadService = this.defaultUploadService;
 
@@ -352,7 +628,11 @@ public final class HttpFileUploadManager extends Manager {
         if (uploadService == null) {
             throw new SmackException.SmackMessageException("No upload service specified and also none discovered.");
         }
+        return uploadService;
+    }
 
+    private static SlotRequest createSlotRequest(UploadService uploadService, String filename, long fileSize,
+                    String contentType) {
         if (!uploadService.acceptsFileOfSize(fileSize)) {
             throw new IllegalArgumentException(
                             "Requested file size " + fileSize + " is greater than max allowed size " + uploadService.getMaxFileSize());
@@ -369,8 +649,7 @@ public final class HttpFileUploadManager extends Manager {
         default:
             throw new AssertionError();
         }
-
-        return connection.createStanzaCollectorAndSend(slotRequest).nextResultOrThrow();
+        return slotRequest;
     }
 
     public void setTlsContext(SSLContext tlsContext) {
@@ -385,12 +664,39 @@ public final class HttpFileUploadManager extends Manager {
         setTlsContext(sslContext);
     }
 
-    private void uploadFile(final File file, final Slot slot, UploadProgressListener listener) throws IOException {
+    /**
+     * Upload a file to the given slot while calculating the hashes of the file.
+     *
+     * This allows to request slots ahead of time, for example while the user is still selecting files, using
+     * {@link #requestSlot(String, long, String)}. Note that this is a synchronous call.
+     *
+     * @param file file to be uploaded
+     * @param slot the slot to upload the file to
+     * @param listener upload progress listener or null
+     * @param hashAlgorithms the algorithms of the hashes to calculate, e.g. SHA-256 or BLAKE2b-256
+     * @return the uploaded file with the public URL for sharing it and the hashes
+     * @throws IOException in case of HTTP upload errors
+     */
+    public UploadedFile upload(final File file, final Slot slot, UploadProgressListener listener,
+                    HashManager.ALGORITHM... hashAlgorithms) throws IOException {
         final long fileSize = file.length();
 
+        Hasher hasher = new Hasher(hashAlgorithms);
+
         // Construct the FileInputStream first to make sure we can actually read the file.
         final FileInputStream fis = new FileInputStream(file);
+        try {
+            upload(fis.getChannel(), fileSize, slot, listener, hasher);
+        }
+        finally {
+            CloseableUtil.maybeClose(fis, LOGGER);
+        }
 
+        return new UploadedFile(file, slot, hasher.digest());
+    }
+
+    private void upload(FileChannel fileChannel, long fileSize, Slot slot, UploadProgressListener listener,
+                    Hasher hasher) throws IOException {
         final URL putUrl = slot.getPutUrl();
 
         final HttpURLConnection urlConnection = (HttpURLConnection) putUrl.openConnection();
@@ -399,7 +705,7 @@ public final class HttpFileUploadManager extends Manager {
         urlConnection.setUseCaches(false);
         urlConnection.setDoOutput(true);
         urlConnection.setFixedLengthStreamingMode(fileSize);
-        urlConnection.setRequestProperty("Content-Type", "application/octet-stream");
+        urlConnection.setRequestProperty("Content-Type", CONTENT_TYPE);
         for (Entry<String, String> header : slot.getHeaders().entrySet()) {
             urlConnection.setRequestProperty(header.getKey(), header.getValue());
         }
@@ -419,14 +725,20 @@ public final class HttpFileUploadManager extends Manager {
                 listener.onUploadProgress(0, fileSize);
             }
 
-            BufferedInputStream inputStream = new BufferedInputStream(fis);
-
-            // TODO Factor in extra static method (and re-use e.g. in bytestream code).
-            byte[] buffer = new byte[4096];
-            int bytesRead;
+            // The buffer is filled from the file channel and hashed before it is written to the connection.
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.max(1, Math.min(uploadBufferSize, fileSize)));
             try {
-                while ((bytesRead = inputStream.read(buffer)) != -1) {
-                    outputStream.write(buffer, 0, bytesRead);
+                while (bytesSend < fileSize) {
+                    if (Thread.interrupted()) {
+                        throw new InterruptedIOException("Upload to " + putUrl + " was interrupted");
+                    }
+                    buffer.clear();
+                    int bytesRead = fileChannel.read(buffer);
+                    if (bytesRead == -1) {
+                        throw new IOException("The file was truncated during the upload to " + putUrl);
+                    }
+                    hasher.update(buffer.array(), 0, bytesRead);
+                    outputStream.write(buffer.array(), 0, bytesRead);
                     bytesSend += bytesRead;
 
                     if (listener != null) {
@@ -435,12 +747,6 @@ public final class HttpFileUploadManager extends Manager {
                 }
             }
             finally {
-                try {
-                    inputStream.close();
-                }
-                catch (IOException e) {
-                    LOGGER.log(Level.WARNING, "Exception while closing input stream", e);
-                }
                 try {
                     outputStream.close();
                 }
@@ -466,6 +772,40 @@ public final class HttpFileUploadManager extends Manager {
         }
     }
 
+    /**
+     * Reports the progress of several concurrent uploads as the progress of one upload.
+     */
+    private static final class AggregatedUploadProgress {
+
+        private final UploadProgressListener listener;
+
+        private final long totalBytes;
+
+        private long uploadedBytes;
+
+        private AggregatedUploadProgress(UploadProgressListener listener, long totalBytes) {
+            this.listener = listener;
+            this.totalBytes = totalBytes;
+        }
+
+        private synchronized void uploaded(long bytes) {
+            uploadedBytes += bytes;
+            listener.onUploadProgress(uploadedBytes, totalBytes);
+        }
+
+        private UploadProgressListener createFileListener() {
+            return new UploadProgressListener() {
+                private long lastUploadedBytes;
+
+                @Override
+                public void onUploadProgress(long uploadedBytes, long totalBytes) {
+                    uploaded(uploadedBytes - lastUploadedBytes);
+                    lastUploadedBytes = uploadedBytes;
+                }
+            };
+        }
+    }
+
     public static UploadService.Version namespaceToVersion(String namespace) {
         UploadService.Version version;
         switch (namespace) {
@@ -0,0 +1,89 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.httpfileupload;
+
+import java.io.File;
+import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+
+import org.jivesoftware.smackx.hashes.HashManager;
+import org.jivesoftware.smackx.hashes.element.HashElement;
+import org.jivesoftware.smackx.httpfileupload.element.Slot;
+
+/**
+ * A file uploaded to a HTTP File Upload service, together with the hashes of its content which
+ * were calculated while it was uploaded.
+ *
+ * @see HttpFileUploadManager#upload(File, UploadProgressListener, HashManager.ALGORITHM...)
+ */
+public final class UploadedFile {
+
+    private final File file;
+
+    private final Slot slot;
+
+    private final List<HashElement> hashElements;
+
+    UploadedFile(File file, Slot slot, List<HashElement> hashElements) {
+        this.file = file;
+        this.slot = slot;
+        this.hashElements = Collections.unmodifiableList(hashElements);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public Slot getSlot() {
+        return slot;
+    }
+
+    /**
+     * Returns the URL to share the uploaded file.
+     *
+     * @return the GET URL of the slot.
+     */
+    public URL getGetUrl() {
+        return slot.getGetUrl();
+    }
+
+    /**
+     * Returns the XEP-0300 hash elements of the uploaded content, one for every requested algorithm.
+     *
+     * @return the hash elements.
+     */
+    public List<HashElement> getHashElements() {
+        return hashElements;
+    }
+
+    /**
+     * Returns the XEP-0300 hash element for the given algorithm.
+     *
+     * @param algorithm the hash algorithm.
+     * @return the hash element or <code>null</code> if the algorithm was not requested.
+     */
+    public HashElement getHashElement(HashManager.ALGORITHM algorithm) {
+        for (HashElement hashElement : hashElements) {
+            if (hashElement.getAlgorithm() == algorithm) {
+                return hashElement;
+            }
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,531 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.mam;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jivesoftware.smack.util.Objects;
+
+import org.jivesoftware.smackx.delay.packet.DelayInformation;
+import org.jivesoftware.smackx.mam.MamManager.MamQuery;
+import org.jivesoftware.smackx.mam.MamManager.MamQueryArgs;
+import org.jivesoftware.smackx.mam.element.MamElements.MamResultExtension;
+
+import org.jxmpp.jid.Jid;
+
+/**
+ * Catches up multiple MAM archives concurrently, e.g. the user's archive and the archives of the joined MUCs after a
+ * reconnect.
+ * <p>
+ * For every archive the gap between the last known message, identified by its archive ID as returned by
+ * {@link MamManager#getMessageUidOfLatestMessage()}, and now is split into time slices. The slices of all archives
+ * are queried concurrently, where the number of queries in flight is limited by
+ * {@link Builder#setMaxInFlightQueries(int)}. The results of the slices are merged in order, hence the results of
+ * every archive are in archive order. The time required to catch up is therefore bounded by the largest archive
+ * instead of the sum of all archives.
+ * </p>
+ * <p>
+ * {@link #catchUp(ResultListener)} hands every result to the listener as soon as the preceding results of its archive
+ * were delivered. Every slice buffers at most {@link #MAX_BUFFERED_PAGES_PER_SLICE} pages, further queries of the slice
+ * wait until the listener caught up, hence the memory used is bounded regardless of the size of the gap.
+ * {@link #catchUp()} is a convenience method which collects all results, and should only be used if the gaps are known
+ * to be small.
+ * </p>
+ * <pre>{@code
+ * MamCatchUp catchUp = MamCatchUp.builder()
+ *     .addArchive(MamManager.getInstanceFor(connection), lastKnownUserArchiveId)
+ *     .addArchive(MamManager.getInstanceFor(multiUserChat), lastKnownMucArchiveId)
+ *     .build();
+ * Map<Jid, MamCatchUp.ArchiveResult> results = catchUp.catchUp(new MamCatchUp.ResultListener() {
+ *     public void onResult(Jid archiveAddress, MamResultExtension result) {
+ *         ...
+ *     }
+ * });
+ * }</pre>
+ */
+public final class MamCatchUp {
+
+    private static final Logger LOGGER = Logger.getLogger(MamCatchUp.class.getName());
+
+    /**
+     * The minimal duration of a time slice. Gaps shorter than this are not split.
+     */
+    private static final long MIN_SLICE_DURATION_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * The maximum number of received pages a slice buffers until they were delivered.
+     */
+    public static final int MAX_BUFFERED_PAGES_PER_SLICE = 2;
+
+    /**
+     * Marks the end of the pages of a slice. This is a distinct instance, as it is compared by identity and pages may be
+     * empty.
+     */
+    private static final List<MamResultExtension> END_OF_SLICE = Collections.unmodifiableList(
+                    new ArrayList<MamResultExtension>(0));
+
+    private final Map<MamManager, String> archives;
+
+    private final int maxInFlightQueries;
+
+    private final int maxSlicesPerArchive;
+
+    private final int pageSize;
+
+    private MamCatchUp(Builder builder) {
+        archives = new LinkedHashMap<>(builder.archives);
+        maxInFlightQueries = builder.maxInFlightQueries;
+        maxSlicesPerArchive = builder.maxSlicesPerArchive;
+        pageSize = builder.pageSize;
+    }
+
+    /**
+     * Catch up all archives and collect the results. This method blocks until all archives have been caught up. As all
+     * results are held in memory, prefer {@link #catchUp(ResultListener)} if the gaps may be large.
+     *
+     * @return the results, keyed by the archive address, in the order the archives were added.
+     * @throws InterruptedException if the calling thread was interrupted.
+     */
+    public Map<Jid, ArchiveResult> catchUp() throws InterruptedException {
+        final Map<Jid, List<MamResultExtension>> collectedResults = new HashMap<>();
+        Map<Jid, ArchiveResult> results = catchUp(new ResultListener() {
+            @Override
+            public void onResult(Jid archiveAddress, MamResultExtension result) {
+                List<MamResultExtension> archiveResults = collectedResults.get(archiveAddress);
+                if (archiveResults == null) {
+                    archiveResults = new ArrayList<>();
+                    collectedResults.put(archiveAddress, archiveResults);
+                }
+                archiveResults.add(result);
+            }
+        });
+
+        for (Map.Entry<Jid, ArchiveResult> entry : results.entrySet()) {
+            ArchiveResult result = entry.getValue();
+            if (!result.isSuccessful()) {
+                continue;
+            }
+            List<MamResultExtension> archiveResults = collectedResults.get(entry.getKey());
+            if (archiveResults == null) {
+                archiveResults = Collections.emptyList();
+            }
+            entry.setValue(new ArchiveResult(entry.getKey(), archiveResults, archiveResults.size(), null));
+        }
+        return results;
+    }
+
+    /**
+     * Catch up all archives and hand the results to the given listener. This method blocks until all archives have
+     * been caught up.
+     * <p>
+     * The listener is invoked by the calling thread, one archive after the other in the order the archives were
+     * added, and receives the results of every archive in archive order. If catching up an archive fails, then the
+     * results of the archive up to the failure were delivered, and the exception is reported by the archive's
+     * {@link ArchiveResult}.
+     * </p>
+     *
+     * @param listener the listener receiving the results.
+     * @return the outcome, keyed by the archive address, in the order the archives were added.
+     * @throws InterruptedException if the calling thread was interrupted.
+     */
+    public Map<Jid, ArchiveResult> catchUp(ResultListener listener) throws InterruptedException {
+        Objects.requireNonNull(listener, "The listener must not be null");
+        ExecutorService executor = Executors.newFixedThreadPool(maxInFlightQueries, THREAD_FACTORY);
+        try {
+            return catchUp(executor, listener);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private Map<Jid, ArchiveResult> catchUp(ExecutorService executor, ResultListener listener)
+                    throws InterruptedException {
+        // First determine the timestamp of the first unknown message of every archive.
+        Map<MamManager, Future<MamResultExtension>> firstUnknownMessages = new LinkedHashMap<>(archives.size());
+        for (final Map.Entry<MamManager, String> entry : archives.entrySet()) {
+            Future<MamResultExtension> future = executor.submit(new Callable<MamResultExtension>() {
+                @Override
+                public MamResultExtension call() throws Exception {
+                    return queryFirstUnknownMessage(entry.getKey(), entry.getValue());
+                }
+            });
+            firstUnknownMessages.put(entry.getKey(), future);
+        }
+
+        // Then query the slices of all archives. The slices are started in submission order, and the archives are
+        // delivered in the same order, so a slice waiting for its results to be delivered never blocks the delivery
+        // of an earlier slice.
+        Map<MamManager, List<Slice>> slices = new LinkedHashMap<>(archives.size());
+        Map<MamManager, Exception> exceptions = new LinkedHashMap<>();
+        Date now = new Date();
+        for (Map.Entry<MamManager, Future<MamResultExtension>> entry : firstUnknownMessages.entrySet()) {
+            final MamManager mamManager = entry.getKey();
+            MamResultExtension firstUnknownMessage;
+            try {
+                firstUnknownMessage = entry.getValue().get();
+            } catch (ExecutionException e) {
+                exceptions.put(mamManager, asException(e));
+                continue;
+            }
+
+            List<Slice> archiveSlices = new ArrayList<>();
+            slices.put(mamManager, archiveSlices);
+            if (firstUnknownMessage == null) {
+                // Nothing to catch up.
+                continue;
+            }
+
+            for (MamQueryArgs mamQueryArgs : createSlices(archives.get(mamManager), firstUnknownMessage, now)) {
+                Slice slice = new Slice(mamManager, mamQueryArgs);
+                slice.future = executor.submit(slice);
+                archiveSlices.add(slice);
+            }
+        }
+
+        // Finally deliver the slices of every archive in order.
+        Map<Jid, ArchiveResult> results = new LinkedHashMap<>(archives.size());
+        for (MamManager mamManager : archives.keySet()) {
+            Jid archiveAddress = mamManager.getArchiveAddress();
+            Exception exception = exceptions.get(mamManager);
+            if (exception != null) {
+                results.put(archiveAddress, new ArchiveResult(archiveAddress, exception));
+                continue;
+            }
+
+            List<Slice> archiveSlices = slices.get(mamManager);
+            int resultCount = 0;
+            // Adjacent slices overlap at their boundaries, as 'start' and 'end' are inclusive. Hence remember the IDs
+            // of the last page of the previous slice.
+            Set<String> previousSliceTail = Collections.emptySet();
+            try {
+                for (Slice slice : archiveSlices) {
+                    // A slice, or its last page, may be empty. Keep the IDs of the last non-empty page then.
+                    Set<String> sliceTail = previousSliceTail;
+                    List<MamResultExtension> page;
+                    while ((page = slice.pages.take()) != END_OF_SLICE) {
+                        if (page.isEmpty()) {
+                            continue;
+                        }
+                        sliceTail = new HashSet<>();
+                        for (MamResultExtension result : page) {
+                            sliceTail.add(result.getId());
+                            if (previousSliceTail.contains(result.getId())) {
+                                continue;
+                            }
+                            listener.onResult(archiveAddress, result);
+                            resultCount++;
+                        }
+                    }
+                    if (slice.exception != null) {
+                        throw slice.exception;
+                    }
+                    previousSliceTail = sliceTail;
+                }
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Exception e) {
+                // Stop the remaining slices of this archive.
+                for (Slice slice : archiveSlices) {
+                    slice.future.cancel(true);
+                }
+                results.put(archiveAddress, new ArchiveResult(archiveAddress, Collections.<MamResultExtension>emptyList(),
+                                resultCount, e));
+                continue;
+            }
+            results.put(archiveAddress, new ArchiveResult(archiveAddress, Collections.<MamResultExtension>emptyList(),
+                            resultCount, null));
+        }
+        return results;
+    }
+
+    private List<MamQueryArgs> createSlices(String lastKnownUid, MamResultExtension firstUnknownMessage, Date now) {
+        DelayInformation delayInformation = firstUnknownMessage.getForwarded().getDelayInformation();
+        long start = now.getTime();
+        if (delayInformation != null) {
+            start = delayInformation.getStamp().getTime();
+        }
+
+        long gap = now.getTime() - start;
+        int sliceCount = (int) Math.min(maxSlicesPerArchive, Math.max(1, gap / MIN_SLICE_DURATION_MILLIS));
+        long sliceDuration = gap / sliceCount;
+
+        List<MamQueryArgs> slices = new ArrayList<>(sliceCount);
+        for (int i = 0; i < sliceCount; i++) {
+            MamQueryArgs.Builder builder = MamQueryArgs.builder().setResultPageSize(pageSize);
+            if (i == 0) {
+                // The first slice starts right after the last known message.
+                builder.afterUid(lastKnownUid);
+            } else {
+                builder.limitResultsSince(new Date(start + i * sliceDuration));
+            }
+            // The last slice is open-ended, so that messages archived while catching up are not missed.
+            if (i < sliceCount - 1) {
+                builder.limitResultsBefore(new Date(start + (i + 1) * sliceDuration));
+            }
+            slices.add(builder.build());
+        }
+        return slices;
+    }
+
+    private static MamResultExtension queryFirstUnknownMessage(MamManager mamManager, String lastKnownUid)
+                    throws Exception {
+        MamQueryArgs mamQueryArgs = MamQueryArgs.builder()
+                        .afterUid(lastKnownUid)
+                        .setResultPageSize(1)
+                        .build();
+        MamQuery mamQuery = mamManager.queryArchive(mamQueryArgs);
+        List<MamResultExtension> results = mamQuery.getMamResultExtensions();
+        if (results.isEmpty()) {
+            return null;
+        }
+        return results.get(0);
+    }
+
+    /**
+     * Queries a time slice of an archive page by page. The pages are put into a bounded queue, hence the query of the
+     * next page waits until the results were delivered.
+     */
+    private final class Slice implements Callable<Void> {
+        private final MamManager mamManager;
+        private final MamQueryArgs mamQueryArgs;
+        private final BlockingQueue<List<MamResultExtension>> pages = new ArrayBlockingQueue<>(
+                        MAX_BUFFERED_PAGES_PER_SLICE + 1);
+
+        private Future<?> future;
+
+        /**
+         * The exception which caused the slice to fail, set before {@link #END_OF_SLICE} is put into the queue.
+         */
+        private volatile Exception exception;
+
+        private Slice(MamManager mamManager, MamQueryArgs mamQueryArgs) {
+            this.mamManager = mamManager;
+            this.mamQueryArgs = mamQueryArgs;
+        }
+
+        @Override
+        public Void call() throws InterruptedException {
+            try {
+                MamQuery mamQuery = mamManager.queryArchive(mamQueryArgs);
+                pages.put(mamQuery.getMamResultExtensions());
+                while (!mamQuery.isComplete() && !mamQuery.getMamResultExtensions().isEmpty()) {
+                    mamQuery.pageNext(pageSize);
+                    pages.put(mamQuery.getMamResultExtensions());
+                }
+            } catch (InterruptedException e) {
+                // The slice was cancelled.
+                throw e;
+            } catch (Exception e) {
+                exception = e;
+            }
+            pages.put(END_OF_SLICE);
+            return null;
+        }
+    }
+
+    private static Exception asException(ExecutionException executionException) {
+        Throwable cause = executionException.getCause();
+        if (cause instanceof Exception) {
+            return (Exception) cause;
+        }
+        return executionException;
+    }
+
+    private static final ThreadFactory THREAD_FACTORY = new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable);
+            thread.setName("Smack MAM Catch-Up");
+            thread.setDaemon(true);
+            thread.setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+                @Override
+                public void uncaughtException(Thread t, Throwable e) {
+                    LOGGER.log(Level.WARNING, t + " encountered uncaught exception", e);
+                }
+            });
+            return thread;
+        }
+    };
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * A listener receiving the results while catching up.
+     */
+    public interface ResultListener {
+        /**
+         * Invoked for every missed result, in archive order.
+         *
+         * @param archiveAddress the address of the archive.
+         * @param result the result.
+         */
+        void onResult(Jid archiveAddress, MamResultExtension result);
+    }
+
+    /**
+     * The result of catching up a single archive.
+     */
+    public static final class ArchiveResult {
+        private final Jid archiveAddress;
+        private final List<MamResultExtension> mamResultExtensions;
+        private final int resultCount;
+        private final Exception exception;
+
+        private ArchiveResult(Jid archiveAddress, List<MamResultExtension> mamResultExtensions, int resultCount,
+                        Exception exception) {
+            this.archiveAddress = archiveAddress;
+            this.mamResultExtensions = Collections.unmodifiableList(mamResultExtensions);
+            this.resultCount = resultCount;
+            this.exception = exception;
+        }
+
+        private ArchiveResult(Jid archiveAddress, Exception exception) {
+            this(archiveAddress, Collections.<MamResultExtension>emptyList(), 0, exception);
+        }
+
+        public Jid getArchiveAddress() {
+            return archiveAddress;
+        }
+
+        /**
+         * Get the results which were missed, in archive order. The results are only collected by {@link #catchUp()},
+         * and this is empty if catching up failed.
+         *
+         * @return the missed results.
+         */
+        public List<MamResultExtension> getMamResultExtensions() {
+            return mamResultExtensions;
+        }
+
+        /**
+         * Get the number of results which were delivered, including the ones delivered before a failure.
+         *
+         * @return the number of delivered results.
+         */
+        public int getResultCount() {
+            return resultCount;
+        }
+
+        /**
+         * Get the exception which caused catching up this archive to fail.
+         *
+         * @return the exception or <code>null</code> if catching up was successful.
+         */
+        public Exception getException() {
+            return exception;
+        }
+
+        public boolean isSuccessful() {
+            return exception == null;
+        }
+    }
+
+    public static final class Builder {
+        private final Map<MamManager, String> archives = new LinkedHashMap<>();
+
+        private int maxInFlightQueries = 8;
+
+        private int maxSlicesPerArchive = 4;
+
+        private int pageSize = 100;
+
+        private Builder() {
+        }
+
+        /**
+         * Add an archive to catch up.
+         *
+         * @param mamManager the MAM manager of the archive.
+         * @param lastKnownUid the archive ID of the last known message, or <code>null</code> to retrieve the whole
+         *        archive.
+         * @return a reference to this builder.
+         */
+        public Builder addArchive(MamManager mamManager, String lastKnownUid) {
+            Objects.requireNonNull(mamManager, "MamManager must not be null");
+            archives.put(mamManager, lastKnownUid);
+            return this;
+        }
+
+        /**
+         * Set the maximum number of MAM queries which are in flight at the same time, over all archives. The default
+         * is 8.
+         *
+         * @param maxInFlightQueries the maximum number of concurrent queries.
+         * @return a reference to this builder.
+         */
+        public Builder setMaxInFlightQueries(int maxInFlightQueries) {
+            if (maxInFlightQueries <= 0) {
+                throw new IllegalArgumentException("maxInFlightQueries must be positive");
+            }
+            this.maxInFlightQueries = maxInFlightQueries;
+            return this;
+        }
+
+        /**
+         * Set the maximum number of time slices a single archive is split into. The default is 4.
+         *
+         * @param maxSlicesPerArchive the maximum number of slices per archive.
+         * @return a reference to this builder.
+         */
+        public Builder setMaxSlicesPerArchive(int maxSlicesPerArchive) {
+            if (maxSlicesPerArchive <= 0) {
+                throw new IllegalArgumentException("maxSlicesPerArchive must be positive");
+            }
+            this.maxSlicesPerArchive = maxSlicesPerArchive;
+            return this;
+        }
+
+        /**
+         * Set the page size used for the queries. The default is 100.
+         *
+         * @param pageSize the page size.
+         * @return a reference to this builder.
+         */
+        public Builder setPageSize(int pageSize) {
+            if (pageSize <= 0) {
+                throw new IllegalArgumentException("pageSize must be positive");
+            }
+            this.pageSize = pageSize;
+            return this;
+        }
+
+        public MamCatchUp build() {
+            return new MamCatchUp(this);
+        }
+    }
+}
@@ -273,6 +273,22 @@ public final class MamManager extends Manager {
             return dataForm;
         }
 
+        String getNode() {
+            return node;
+        }
+
+        Integer getMaxResults() {
+            return maxResults;
+        }
+
+        String getAfterUid() {
+            return afterUid;
+        }
+
+        String getBeforeUid() {
+            return beforeUid;
+        }
+
         void maybeAddRsmSet(MamQueryIQ mamQueryIQ) {
             if (maxResults == null && afterUid == null && beforeUid == null) {
                 return;
@@ -471,6 +487,23 @@ public final class MamManager extends Manager {
         return queryArchive(mamQueryIQ);
     }
 
+    /**
+     * Query the archive and stream the results. In contrast to {@link #queryArchive(MamQueryArgs)}, the results are
+     * delivered as soon as they are received and the following pages are requested automatically. The page size is
+     * taken from the query arguments, or {@link MamResultCursor#DEFAULT_PAGE_SIZE} if not set, and the next page is
+     * requested while the current one is consumed as long as at most {@code window} results are buffered.
+     *
+     * @param mamQueryArgs the query arguments, which must not request paging backwards.
+     * @param window the maximum number of results held in memory, must be at least the page size.
+     * @return a cursor over the results.
+     * @throws NotLoggedInException if the XMPP connection is not authenticated.
+     * @since 4.4
+     */
+    public MamResultCursor streamArchive(MamQueryArgs mamQueryArgs, int window) throws NotLoggedInException {
+        XMPPConnection connection = getAuthenticatedConnectionOrThrow();
+        return new MamResultCursor(connection, archiveAddress, mamQueryArgs, window);
+    }
+
     private static FormField getWithFormField(Jid withJid) {
         return FormField.builder(FORM_FIELD_WITH)
                         .addValue(withJid.toString())
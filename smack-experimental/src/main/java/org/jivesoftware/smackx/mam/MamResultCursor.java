@@ -0,0 +1,262 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.mam;
+
+import java.util.ArrayDeque;
+import java.util.NoSuchElementException;
+
+import org.jivesoftware.smack.SmackException.NoResponseException;
+import org.jivesoftware.smack.SmackException.NotConnectedException;
+import org.jivesoftware.smack.StanzaCollector;
+import org.jivesoftware.smack.XMPPConnection;
+import org.jivesoftware.smack.XMPPException.XMPPErrorException;
+import org.jivesoftware.smack.filter.IQReplyFilter;
+import org.jivesoftware.smack.filter.OrFilter;
+import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.Stanza;
+import org.jivesoftware.smack.util.StringUtils;
+import org.jivesoftware.smack.util.SuccessCallback;
+
+import org.jivesoftware.smackx.mam.MamManager.MamQueryArgs;
+import org.jivesoftware.smackx.mam.element.MamElements.MamResultExtension;
+import org.jivesoftware.smackx.mam.element.MamFinIQ;
+import org.jivesoftware.smackx.mam.element.MamQueryIQ;
+import org.jivesoftware.smackx.mam.filter.MamResultFilter;
+import org.jivesoftware.smackx.rsm.packet.RSMSet;
+import org.jivesoftware.smackx.xdata.packet.DataForm;
+
+import org.jxmpp.jid.Jid;
+
+/**
+ * A cursor over the results of a MAM query, obtained via {@link MamManager#streamArchive(MamQueryArgs, int)}.
+ * <p>
+ * Every {@link MamResultExtension} is returned by {@link #next()} as soon as the carrier message was received, i.e. a
+ * page does not need to be complete before its results can be processed. The archive is paged forward and the request
+ * for the next page is sent as soon as the {@code <fin/>} of the current page, which carries the RSM 'last' ID
+ * required for the next request, was received, even if the results of the current page have not yet been consumed.
+ * The number of results held in memory is bounded by the window given when the cursor was created.
+ * </p>
+ * <p>
+ * Instances of this class are not meant to be consumed by multiple threads concurrently. Cursors which are not
+ * consumed until the end should be {@link #close() closed}.
+ * </p>
+ */
+public final class MamResultCursor implements AutoCloseable {
+
+    /**
+     * The page size used if the query arguments do not specify one.
+     */
+    public static final int DEFAULT_PAGE_SIZE = 50;
+
+    private final XMPPConnection connection;
+
+    private final Jid archiveAddress;
+
+    private final String node;
+
+    private final DataForm dataForm;
+
+    private final int pageSize;
+
+    private final int maxBufferedPages;
+
+    /**
+     * The pages which have been requested but not yet completely consumed, in request order.
+     */
+    private final ArrayDeque<Page> pages = new ArrayDeque<>();
+
+    /**
+     * The RSM 'last' ID of the most recently requested page, once its {@code <fin/>} was received.
+     */
+    private String nextAfterUid;
+
+    private boolean allPagesRequested;
+
+    private MamResultExtension lookahead;
+
+    MamResultCursor(XMPPConnection connection, Jid archiveAddress, MamQueryArgs mamQueryArgs, int window) {
+        if (mamQueryArgs.getBeforeUid() != null) {
+            throw new IllegalArgumentException("A MAM result cursor can only page forward, but 'before' was set");
+        }
+        if (window <= 0) {
+            throw new IllegalArgumentException("The window must be positive");
+        }
+        Integer maxResults = mamQueryArgs.getMaxResults();
+        if (maxResults != null) {
+            pageSize = maxResults;
+        } else {
+            pageSize = Math.min(DEFAULT_PAGE_SIZE, window);
+        }
+        if (pageSize > window) {
+            throw new IllegalArgumentException("The page size " + pageSize + " exceeds the window " + window);
+        }
+
+        this.connection = connection;
+        this.archiveAddress = archiveAddress;
+        this.node = mamQueryArgs.getNode();
+        this.dataForm = mamQueryArgs.getDataForm();
+        this.maxBufferedPages = window / pageSize;
+
+        requestPage(mamQueryArgs.getAfterUid());
+    }
+
+    /**
+     * Check if there are more results.
+     *
+     * @return <code>true</code> if {@link #next()} will return a result.
+     * @throws NoResponseException if there was no response from the remote entity.
+     * @throws XMPPErrorException if there was an XMPP error returned.
+     * @throws NotConnectedException if the XMPP connection is not connected.
+     * @throws InterruptedException if the calling thread was interrupted.
+     */
+    public boolean hasNext() throws NoResponseException, XMPPErrorException, NotConnectedException,
+                    InterruptedException {
+        if (lookahead == null) {
+            lookahead = fetchNext();
+        }
+        return lookahead != null;
+    }
+
+    /**
+     * Get the next result, blocking until it was received.
+     *
+     * @return the next result.
+     * @throws NoResponseException if there was no response from the remote entity.
+     * @throws XMPPErrorException if there was an XMPP error returned.
+     * @throws NotConnectedException if the XMPP connection is not connected.
+     * @throws InterruptedException if the calling thread was interrupted.
+     * @throws NoSuchElementException if there are no more results.
+     */
+    public MamResultExtension next() throws NoResponseException, XMPPErrorException, NotConnectedException,
+                    InterruptedException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        MamResultExtension result = lookahead;
+        lookahead = null;
+        return result;
+    }
+
+    /**
+     * Stop the cursor. Results of pages which are still in flight will be discarded.
+     */
+    @Override
+    public synchronized void close() {
+        allPagesRequested = true;
+        for (Page page : pages) {
+            page.collector.cancel();
+        }
+        pages.clear();
+    }
+
+    private MamResultExtension fetchNext() throws NoResponseException, XMPPErrorException, NotConnectedException,
+                    InterruptedException {
+        while (true) {
+            Page page;
+            synchronized (this) {
+                page = pages.peekFirst();
+            }
+            if (page == null) {
+                return null;
+            }
+
+            long timeout = connection.getReplyTimeout();
+            Stanza stanza = page.collector.nextResult(timeout);
+            if (stanza == null) {
+                close();
+                if (!connection.isConnected()) {
+                    throw new NotConnectedException(connection, page.collector.getStanzaFilter());
+                }
+                throw NoResponseException.newWith(timeout, page.collector, false);
+            }
+
+            if (stanza instanceof Message) {
+                return MamResultExtension.from((Message) stanza);
+            }
+
+            // The collector received the <fin/>, hence the page is complete.
+            page.collector.cancel();
+            try {
+                XMPPErrorException.ifHasErrorThenThrow(stanza);
+            } catch (XMPPErrorException e) {
+                close();
+                throw e;
+            }
+
+            synchronized (this) {
+                pages.remove(page);
+            }
+            finReceived(page, (MamFinIQ) stanza);
+        }
+    }
+
+    private synchronized void finReceived(Page page, MamFinIQ mamFinIq) {
+        if (!page.finProcessed) {
+            page.finProcessed = true;
+            RSMSet rsmSet = mamFinIq.getRSMSet();
+            if (mamFinIq.isComplete() || rsmSet == null || rsmSet.getLast() == null) {
+                allPagesRequested = true;
+            } else {
+                nextAfterUid = rsmSet.getLast();
+            }
+        }
+
+        if (allPagesRequested || nextAfterUid == null || pages.size() >= maxBufferedPages) {
+            return;
+        }
+
+        String afterUid = nextAfterUid;
+        nextAfterUid = null;
+        requestPage(afterUid);
+    }
+
+    private synchronized void requestPage(String afterUid) {
+        String queryId = StringUtils.secureUniqueRandomString();
+        MamQueryIQ mamQueryIq = new MamQueryIQ(queryId, node, dataForm);
+        mamQueryIq.setType(IQ.Type.set);
+        mamQueryIq.setTo(archiveAddress);
+        mamQueryIq.addExtension(new RSMSet(afterUid, null, -1, -1, null, pageSize, null, -1));
+
+        // The collector receives the result messages and the <fin/> in the order they were received.
+        StanzaCollector collector = connection.createStanzaCollector(
+                        new OrFilter(new MamResultFilter(mamQueryIq), new IQReplyFilter(mamQueryIq, connection)));
+        final Page page = new Page(collector);
+        pages.addLast(page);
+
+        // Process the <fin/> once it arrives, so that the next page is requested before this page was consumed.
+        connection.sendIqRequestAsync(mamQueryIq).onSuccess(new SuccessCallback<IQ>() {
+            @Override
+            public void onSuccess(IQ result) {
+                finReceived(page, (MamFinIQ) result);
+            }
+        });
+    }
+
+    private static final class Page {
+        private final StanzaCollector collector;
+
+        /**
+         * If the {@code <fin/>} of this page was processed. Guarded by the cursor.
+         */
+        private boolean finProcessed;
+
+        private Page(StanzaCollector collector) {
+            this.collector = collector;
+        }
+    }
+}
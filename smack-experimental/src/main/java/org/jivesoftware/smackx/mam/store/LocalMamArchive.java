@@ -0,0 +1,570 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.mam.store;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import org.jivesoftware.smack.SmackException.NoResponseException;
+import org.jivesoftware.smack.SmackException.NotConnectedException;
+import org.jivesoftware.smack.SmackException.NotLoggedInException;
+import org.jivesoftware.smack.XMPPException.XMPPErrorException;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.Stanza;
+import org.jivesoftware.smack.parsing.SmackParsingException;
+import org.jivesoftware.smack.util.CloseableUtil;
+import org.jivesoftware.smack.util.PacketParserUtils;
+import org.jivesoftware.smack.xml.XmlPullParser;
+import org.jivesoftware.smack.xml.XmlPullParserException;
+
+import org.jivesoftware.smackx.delay.packet.DelayInformation;
+import org.jivesoftware.smackx.forward.packet.Forwarded;
+import org.jivesoftware.smackx.forward.provider.ForwardedProvider;
+import org.jivesoftware.smackx.mam.MamManager;
+import org.jivesoftware.smackx.mam.MamManager.MamQuery;
+import org.jivesoftware.smackx.mam.MamManager.MamQueryArgs;
+import org.jivesoftware.smackx.mam.element.MamElements.MamResultExtension;
+
+import org.jxmpp.jid.BareJid;
+import org.jxmpp.jid.Jid;
+import org.jxmpp.jid.impl.JidCreate;
+
+/**
+ * A local copy of a MAM archive, stored in a single append-only segment file.
+ * <p>
+ * Messages are keyed by their archive ID, which is the XEP-0359 stanza ID the archive assigned to the message. The
+ * stanzas themselves are stored in the segment file and read from it on demand, hence history views, e.g. via
+ * {@link #getHistory(BareJid, Date, int)}, do not involve the server.
+ * </p>
+ * <p>
+ * The index is kept in memory. For every message it holds the archive ID, the peer, the timestamp, the position in the
+ * segment file and a lower-cased copy of the message body, which {@link #search(String, BareJid, int)} scans for
+ * substring matches without reading the file. Hence the memory used by the index grows with the total length of all
+ * stored bodies, in addition to a small constant per message. Only the matching messages are read from the file.
+ * </p>
+ * <p>
+ * Every record carries a checksum. When the file is opened, it is truncated at the first record which is incomplete or
+ * corrupted. The messages after that record are requested from the server again by the next
+ * {@link #sync(MamManager, int)}.
+ * </p>
+ * <p>
+ * {@link #sync(MamManager, int)} performs a delta sync, i.e. only asks the server for messages after the newest
+ * message stored locally.
+ * </p>
+ */
+public final class LocalMamArchive implements Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(LocalMamArchive.class.getName());
+
+    private static final String STORE_ID = "SMACK_MAM_SEGMENT";
+
+    private static final int FORMAT_VERSION = 2;
+
+    /**
+     * The upper bound of a record's size, used to detect corrupted length fields.
+     */
+    private static final int MAX_RECORD_SIZE = 16 * 1024 * 1024;
+
+    private final File file;
+
+    private final BareJid archiveOwner;
+
+    private final Map<String, IndexEntry> byArchiveId = new HashMap<>();
+
+    private final Map<BareJid, List<IndexEntry>> byPeer = new HashMap<>();
+
+    private final NavigableMap<Long, List<IndexEntry>> byTimestamp = new TreeMap<>();
+
+    private IndexEntry newest;
+
+    private long writePosition;
+
+    private DataOutputStream out;
+
+    private RandomAccessFile in;
+
+    private LocalMamArchive(File file, BareJid archiveOwner) {
+        this.file = file;
+        this.archiveOwner = archiveOwner;
+    }
+
+    /**
+     * Open the local archive stored in the given file, or create it if the file does not exist.
+     *
+     * @param file the segment file.
+     * @param archiveOwner the owner of the archive, used to determine the peer of every message. For the user's
+     *        archive this is the user's bare JID, for a MUC archive the bare JID of the room.
+     * @return the local archive.
+     * @throws IOException if the file could not be read or created.
+     */
+    public static LocalMamArchive open(File file, BareJid archiveOwner) throws IOException {
+        LocalMamArchive archive = new LocalMamArchive(file, archiveOwner);
+        if (file.isFile()) {
+            archive.load();
+        } else {
+            archive.init();
+        }
+        return archive;
+    }
+
+    private void init() throws IOException {
+        DataOutputStream header = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            header.writeUTF(STORE_ID);
+            header.writeInt(FORMAT_VERSION);
+        } finally {
+            header.close();
+        }
+        writePosition = file.length();
+    }
+
+    private void load() throws IOException {
+        long fileLength = file.length();
+        long validLength;
+        DataInputStream data = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (!STORE_ID.equals(data.readUTF()) || data.readInt() != FORMAT_VERSION) {
+                throw new IOException(file + " is not a MAM segment file");
+            }
+            long position = STORE_ID.getBytes(StandardCharsets.UTF_8).length + 2 + 4;
+            validLength = position;
+            while (true) {
+                int length;
+                RecordHeader header;
+                try {
+                    length = data.readInt();
+                    if (length <= 0 || length > MAX_RECORD_SIZE || length > fileLength - position - 4 - 8) {
+                        break;
+                    }
+                    byte[] record = new byte[length];
+                    data.readFully(record);
+                    if (data.readLong() != checksum(record)) {
+                        LOGGER.warning("Checksum mismatch of the record at " + position + " of MAM segment " + file);
+                        break;
+                    }
+                    header = new RecordHeader(record);
+                } catch (EOFException e) {
+                    break;
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Corrupted record at " + position + " of MAM segment " + file, e);
+                    break;
+                }
+                index(header, position + 4, length);
+                position += 4 + length + 8;
+                validLength = position;
+            }
+        } finally {
+            CloseableUtil.maybeClose(data, LOGGER);
+        }
+
+        if (validLength < fileLength) {
+            // Records after the first invalid one can not be trusted, and will be requested again by the next sync.
+            LOGGER.info("Discarding " + (fileLength - validLength) + " bytes at the end of MAM segment " + file);
+            RandomAccessFile truncate = new RandomAccessFile(file, "rw");
+            try {
+                truncate.setLength(validLength);
+            } finally {
+                truncate.close();
+            }
+        }
+        writePosition = validLength;
+    }
+
+    private void index(RecordHeader header, long offset, int length) {
+        IndexEntry entry = new IndexEntry(header.archiveId, header.peer, header.timestamp, header.body, offset,
+                        length);
+        byArchiveId.put(entry.archiveId, entry);
+        List<IndexEntry> peerEntries = byPeer.get(entry.peer);
+        if (peerEntries == null) {
+            peerEntries = new ArrayList<>();
+            byPeer.put(entry.peer, peerEntries);
+        }
+        peerEntries.add(entry);
+        List<IndexEntry> timestampEntries = byTimestamp.get(entry.timestamp);
+        if (timestampEntries == null) {
+            timestampEntries = new ArrayList<>(1);
+            byTimestamp.put(entry.timestamp, timestampEntries);
+        }
+        timestampEntries.add(entry);
+        newest = entry;
+    }
+
+    /**
+     * Add a message of the archive. Messages must be added in archive order.
+     *
+     * @param mamResultExtension the MAM result carrying the message.
+     * @return <code>true</code> if the message was added, <code>false</code> if it was already stored.
+     * @throws IOException if the message could not be written.
+     */
+    public synchronized boolean add(MamResultExtension mamResultExtension) throws IOException {
+        String archiveId = mamResultExtension.getId();
+        if (byArchiveId.containsKey(archiveId)) {
+            return false;
+        }
+
+        Forwarded forwarded = mamResultExtension.getForwarded();
+        BareJid peer = determinePeer(forwarded.getForwardedStanza());
+        DelayInformation delayInformation = forwarded.getDelayInformation();
+        long timestamp = delayInformation != null ? delayInformation.getStamp().getTime() : System.currentTimeMillis();
+        String body = null;
+        if (forwarded.getForwardedStanza() instanceof Message) {
+            body = ((Message) forwarded.getForwardedStanza()).getBody();
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream record = new DataOutputStream(bytes);
+        record.writeUTF(archiveId);
+        record.writeUTF(peer.toString());
+        record.writeLong(timestamp);
+        record.writeBoolean(body != null);
+        if (body != null) {
+            writeString(record, body);
+        }
+        byte[] xml = forwarded.toXML().toString().getBytes(StandardCharsets.UTF_8);
+        record.writeInt(xml.length);
+        record.write(xml);
+        record.flush();
+
+        if (out == null) {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+        }
+        try {
+            byte[] recordBytes = bytes.toByteArray();
+            out.writeInt(recordBytes.length);
+            out.write(recordBytes);
+            out.writeLong(checksum(recordBytes));
+            out.flush();
+        } catch (IOException e) {
+            CloseableUtil.maybeClose(out, LOGGER);
+            out = null;
+            throw e;
+        }
+
+        index(new RecordHeader(archiveId, peer, timestamp, body), writePosition + 4, bytes.size());
+        writePosition += 4 + bytes.size() + 8;
+        return true;
+    }
+
+    private BareJid determinePeer(Stanza stanza) {
+        Jid from = stanza.getFrom();
+        if (stanza instanceof Message && ((Message) stanza).getType() == Message.Type.groupchat) {
+            // The peer of a groupchat message is the room, regardless of the occupant who sent it. Messages are sent
+            // to the bare JID of the room, and reflected from the occupant JID, i.e. the room's JID with the nickname
+            // as resource. In a MUC archive, the owner is the room itself.
+            Jid to = stanza.getTo();
+            if ((from == null || from.asBareJid().equals(archiveOwner)) && to != null && to.isEntityBareJid()) {
+                return to.asBareJid();
+            }
+            if (from == null) {
+                return archiveOwner;
+            }
+            return from.asBareJid();
+        }
+        if (from == null || from.asBareJid().equals(archiveOwner)) {
+            Jid to = stanza.getTo();
+            if (to != null) {
+                return to.asBareJid();
+            }
+        }
+        if (from == null) {
+            return archiveOwner;
+        }
+        return from.asBareJid();
+    }
+
+    public synchronized boolean contains(String archiveId) {
+        return byArchiveId.containsKey(archiveId);
+    }
+
+    public synchronized int size() {
+        return byArchiveId.size();
+    }
+
+    /**
+     * Get the archive ID of the newest message stored locally.
+     *
+     * @return the archive ID of the newest message or <code>null</code> if the local archive is empty.
+     */
+    public synchronized String getNewestArchiveId() {
+        if (newest == null) {
+            return null;
+        }
+        return newest.archiveId;
+    }
+
+    /**
+     * Get a message by its archive ID.
+     *
+     * @param archiveId the archive ID.
+     * @return the message or <code>null</code> if it is not stored locally.
+     * @throws IOException if the message could not be read.
+     */
+    public synchronized Forwarded getMessage(String archiveId) throws IOException {
+        IndexEntry entry = byArchiveId.get(archiveId);
+        if (entry == null) {
+            return null;
+        }
+        return read(entry);
+    }
+
+    /**
+     * Get the most recent messages exchanged with the given peer before the given date, e.g. to scroll back in a
+     * history view.
+     *
+     * @param peer the peer.
+     * @param before only return messages strictly before this date, or <code>null</code> for no limit.
+     * @param max the maximum number of messages to return.
+     * @return the messages in chronological order.
+     * @throws IOException if the messages could not be read.
+     */
+    public synchronized List<Forwarded> getHistory(BareJid peer, Date before, int max) throws IOException {
+        List<IndexEntry> peerEntries = byPeer.get(peer);
+        if (peerEntries == null) {
+            return Collections.emptyList();
+        }
+        List<IndexEntry> matching = new ArrayList<>(Math.min(max, peerEntries.size()));
+        for (int i = peerEntries.size() - 1; i >= 0 && matching.size() < max; i--) {
+            IndexEntry entry = peerEntries.get(i);
+            if (before == null || entry.timestamp < before.getTime()) {
+                matching.add(entry);
+            }
+        }
+        Collections.reverse(matching);
+        return read(matching);
+    }
+
+    /**
+     * Get all messages with a timestamp in the given range.
+     *
+     * @param since the start of the range, inclusive.
+     * @param until the end of the range, exclusive.
+     * @return the messages in chronological order.
+     * @throws IOException if the messages could not be read.
+     */
+    public synchronized List<Forwarded> getMessages(Date since, Date until) throws IOException {
+        List<IndexEntry> matching = new ArrayList<>();
+        for (List<IndexEntry> entries : byTimestamp.subMap(since.getTime(), true, until.getTime(), false).values()) {
+            matching.addAll(entries);
+        }
+        return read(matching);
+    }
+
+    /**
+     * Search the bodies of the stored messages for the given text, ignoring case. The lower-cased bodies held by the
+     * in-memory index are scanned, only the matching messages are read from the segment file.
+     *
+     * @param text the text to search for.
+     * @param peer only search messages exchanged with this peer, or <code>null</code> to search all messages.
+     * @param max the maximum number of results.
+     * @return the most recent matching messages in chronological order.
+     * @throws IOException if the messages could not be read.
+     */
+    public synchronized List<Forwarded> search(String text, BareJid peer, int max) throws IOException {
+        List<IndexEntry> candidates;
+        if (peer != null) {
+            candidates = byPeer.get(peer);
+            if (candidates == null) {
+                return Collections.emptyList();
+            }
+        } else {
+            candidates = new ArrayList<>(byArchiveId.size());
+            for (List<IndexEntry> entries : byTimestamp.values()) {
+                candidates.addAll(entries);
+            }
+        }
+
+        // Match against the bodies in the index, so that only the results are read from the file.
+        String needle = text.toLowerCase(Locale.US);
+        List<IndexEntry> matching = new ArrayList<>();
+        for (int i = candidates.size() - 1; i >= 0 && matching.size() < max; i--) {
+            IndexEntry entry = candidates.get(i);
+            if (entry.lowerCaseBody != null && entry.lowerCaseBody.contains(needle)) {
+                matching.add(entry);
+            }
+        }
+        Collections.reverse(matching);
+        return read(matching);
+    }
+
+    /**
+     * Retrieve the messages which are not yet stored locally from the server and store them. Only messages after the
+     * newest locally stored message are requested.
+     *
+     * @param mamManager the MAM manager of the archive.
+     * @param pageSize the page size used for the queries.
+     * @return the number of newly stored messages.
+     * @throws NoResponseException if there was no response from the remote entity.
+     * @throws XMPPErrorException if there was an XMPP error returned.
+     * @throws NotConnectedException if the XMPP connection is not connected.
+     * @throws NotLoggedInException if the XMPP connection is not authenticated.
+     * @throws InterruptedException if the calling thread was interrupted.
+     * @throws IOException if the messages could not be stored.
+     */
+    public int sync(MamManager mamManager, int pageSize) throws NoResponseException, XMPPErrorException,
+                    NotConnectedException, NotLoggedInException, InterruptedException, IOException {
+        MamQueryArgs mamQueryArgs = MamQueryArgs.builder()
+                        .afterUid(getNewestArchiveId())
+                        .setResultPageSize(pageSize)
+                        .build();
+        MamQuery mamQuery = mamManager.queryArchive(mamQueryArgs);
+        int added = addAll(mamQuery.getMamResultExtensions());
+        while (!mamQuery.isComplete() && !mamQuery.getMamResultExtensions().isEmpty()) {
+            mamQuery.pageNext(pageSize);
+            added += addAll(mamQuery.getMamResultExtensions());
+        }
+        return added;
+    }
+
+    private int addAll(List<MamResultExtension> mamResultExtensions) throws IOException {
+        int added = 0;
+        for (MamResultExtension mamResultExtension : mamResultExtensions) {
+            if (add(mamResultExtension)) {
+                added++;
+            }
+        }
+        return added;
+    }
+
+    @Override
+    public synchronized void close() {
+        CloseableUtil.maybeClose(out, LOGGER);
+        out = null;
+        CloseableUtil.maybeClose(in, LOGGER);
+        in = null;
+    }
+
+    private List<Forwarded> read(List<IndexEntry> entries) throws IOException {
+        List<Forwarded> forwardedMessages = new ArrayList<>(entries.size());
+        for (IndexEntry entry : entries) {
+            forwardedMessages.add(read(entry));
+        }
+        return forwardedMessages;
+    }
+
+    private Forwarded read(IndexEntry entry) throws IOException {
+        if (out != null) {
+            out.flush();
+        }
+        if (in == null) {
+            in = new RandomAccessFile(file, "r");
+        }
+        byte[] record = new byte[entry.length];
+        in.seek(entry.offset);
+        in.readFully(record);
+
+        String xml = new RecordHeader(record).xml;
+        try {
+            XmlPullParser parser = PacketParserUtils.getParserFor(xml);
+            return ForwardedProvider.INSTANCE.parse(parser);
+        } catch (XmlPullParserException | SmackParsingException e) {
+            LOGGER.log(Level.WARNING, "Could not parse message " + entry.archiveId + " of " + file, e);
+            throw new IOException(e);
+        }
+    }
+
+    private static long checksum(byte[] record) {
+        CRC32 crc = new CRC32();
+        crc.update(record, 0, record.length);
+        return crc.getValue();
+    }
+
+    /**
+     * Write a string of arbitrary length, as opposed to {@link DataOutputStream#writeUTF(String)}.
+     */
+    private static void writeString(DataOutputStream data, String string) throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        data.writeInt(bytes.length);
+        data.write(bytes);
+    }
+
+    private static String readString(DataInputStream data) throws IOException {
+        int length = data.readInt();
+        if (length < 0 || length > data.available()) {
+            throw new IOException("Invalid string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        data.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static final class RecordHeader {
+        private final String archiveId;
+        private final BareJid peer;
+        private final long timestamp;
+        private final String body;
+        private final String xml;
+
+        private RecordHeader(String archiveId, BareJid peer, long timestamp, String body) {
+            this.archiveId = archiveId;
+            this.peer = peer;
+            this.timestamp = timestamp;
+            this.body = body;
+            this.xml = null;
+        }
+
+        private RecordHeader(byte[] record) throws IOException {
+            DataInputStream data = new DataInputStream(new ByteArrayInputStream(record));
+            archiveId = data.readUTF();
+            peer = JidCreate.bareFrom(data.readUTF());
+            timestamp = data.readLong();
+            body = data.readBoolean() ? readString(data) : null;
+            xml = readString(data);
+        }
+    }
+
+    private static final class IndexEntry {
+        private final String archiveId;
+        private final BareJid peer;
+        private final long timestamp;
+        private final String lowerCaseBody;
+        private final long offset;
+        private final int length;
+
+        private IndexEntry(String archiveId, BareJid peer, long timestamp, String body, long offset, int length) {
+            this.archiveId = archiveId;
+            this.peer = peer;
+            this.timestamp = timestamp;
+            this.lowerCaseBody = body != null ? body.toLowerCase(Locale.US) : null;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
@@ -16,11 +16,28 @@
  */
 package org.jivesoftware.smackx.hashes;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.jivesoftware.smack.test.util.SmackTestSuite;
 import org.jivesoftware.smack.util.StringUtils;
 
+import org.jivesoftware.smackx.hashes.HashManager.ALGORITHM;
+import org.jivesoftware.smackx.hashes.element.HashElement;
+
 import org.junit.jupiter.api.Test;
 
 /**
@@ -164,4 +181,78 @@ public class HashTest extends SmackTestSuite {
         assertEquals("urn:xmpp:hash-function-text-names:sha3-512", HashManager.asFeature(HashManager.ALGORITHM.SHA3_512));
         assertEquals("urn:xmpp:hash-function-text-names:sha-512", HashManager.asFeature(HashManager.ALGORITHM.SHA_512));
     }
+
+    @Test
+    public void getMessageDigestReturnsNewInstancesTest() {
+        assertNotSame(HashManager.getMessageDigest(ALGORITHM.SHA_256), HashManager.getMessageDigest(ALGORITHM.SHA_256));
+    }
+
+    @Test
+    public void streamingHashTest() throws IOException {
+        byte[] data = new byte[200 * 1024 + 17];
+        new Random(42).nextBytes(data);
+        ALGORITHM[] algorithms = {ALGORITHM.SHA_256, ALGORITHM.SHA3_512, ALGORITHM.BLAKE2B256};
+
+        assertHashes(data, algorithms, HashManager.calculateHashElements(new ByteArrayInputStream(data), algorithms));
+
+        File file = File.createTempFile("hashtest", null);
+        try {
+            try (FileOutputStream out = new FileOutputStream(file)) {
+                out.write(data);
+            }
+            assertHashes(data, algorithms, HashManager.calculateHashElements(file, algorithms));
+        }
+        finally {
+            file.delete();
+        }
+
+        // Feed a direct buffer in chunks, the hasher is reset after digesting.
+        Hasher hasher = new Hasher(algorithms);
+        hasher.update(array());
+        hasher.digest();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+        buffer.put(data).flip();
+        for (int limit = 1000; limit < data.length; limit += 50000) {
+            buffer.limit(limit);
+            hasher.update(buffer);
+        }
+        buffer.limit(data.length);
+        hasher.update(buffer);
+        assertEquals(0, buffer.remaining());
+        assertHashes(data, algorithms, hasher.digest());
+    }
+
+    @Test
+    public void concurrentHashingTest() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                final Random random = new Random(i);
+                futures.add(executor.submit(() -> {
+                    for (int j = 0; j < 200; j++) {
+                        byte[] data = new byte[random.nextInt(1000)];
+                        random.nextBytes(data);
+                        assertArrayEquals(HashManager.getMessageDigest(ALGORITHM.SHA_256).digest(data),
+                                        HashManager.hash(ALGORITHM.SHA_256, data));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void assertHashes(byte[] data, ALGORITHM[] algorithms, List<HashElement> hashElements) {
+        assertEquals(algorithms.length, hashElements.size());
+        for (int i = 0; i < algorithms.length; i++) {
+            assertEquals(algorithms[i], hashElements.get(i).getAlgorithm());
+            assertArrayEquals(HashManager.hash(algorithms[i], data), hashElements.get(i).getHash());
+        }
+    }
 }
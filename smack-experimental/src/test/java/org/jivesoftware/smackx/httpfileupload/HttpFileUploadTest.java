@@ -0,0 +1,367 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.httpfileupload;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jivesoftware.smack.DummyConnection;
+import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smack.packet.TopLevelStreamElement;
+
+import org.jivesoftware.smackx.InitExtensions;
+import org.jivesoftware.smackx.disco.packet.DiscoverInfo;
+import org.jivesoftware.smackx.disco.packet.DiscoverItems;
+import org.jivesoftware.smackx.hashes.HashManager;
+import org.jivesoftware.smackx.httpfileupload.element.Slot;
+import org.jivesoftware.smackx.httpfileupload.element.SlotRequest;
+import org.jivesoftware.smackx.xdata.FormField;
+import org.jivesoftware.smackx.xdata.packet.DataForm;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.jxmpp.jid.impl.JidCreate;
+
+public class HttpFileUploadTest extends InitExtensions {
+
+    private HttpServer server;
+
+    private final ByteArrayOutputStream uploadedContent = new ByteArrayOutputStream();
+
+    private volatile int responseCode = 201;
+
+    private final List<File> tempFiles = new ArrayList<>();
+
+    private ExecutorService serverExecutor;
+
+    private final Map<String, byte[]> uploadedFiles = new ConcurrentHashMap<>();
+
+    private final Set<String> failingPaths = ConcurrentHashMap.newKeySet();
+
+    private final AtomicInteger concurrentUploads = new AtomicInteger();
+
+    private final AtomicInteger maximumConcurrentUploads = new AtomicInteger();
+
+    private static final String UPLOAD_SERVICE = "upload.example.org";
+
+    private DummyConnection connection;
+
+    private Thread responder;
+
+    private volatile boolean responding;
+
+    private final List<SlotRequest> slotRequests = new CopyOnWriteArrayList<>();
+
+    /* the maximum number of slots which were requested ahead of the finished uploads */
+    private final AtomicInteger maximumSlotsAhead = new AtomicInteger();
+
+    @BeforeEach
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        serverExecutor = Executors.newCachedThreadPool();
+        server.setExecutor(serverExecutor);
+        server.createContext("/upload", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try (InputStream in = exchange.getRequestBody()) {
+                    byte[] buffer = new byte[1024];
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        uploadedContent.write(buffer, 0, read);
+                    }
+                }
+                exchange.sendResponseHeaders(responseCode, -1);
+                exchange.close();
+            }
+        });
+        server.createContext("/files/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                int concurrent = concurrentUploads.incrementAndGet();
+                maximumConcurrentUploads.accumulateAndGet(concurrent, Math::max);
+                try {
+                    ByteArrayOutputStream content = new ByteArrayOutputStream();
+                    try (InputStream in = exchange.getRequestBody()) {
+                        byte[] buffer = new byte[1024];
+                        int read;
+                        while ((read = in.read(buffer)) != -1) {
+                            content.write(buffer, 0, read);
+                        }
+                    }
+                    // Let the uploads overlap.
+                    Thread.sleep(50);
+                    String path = exchange.getRequestURI().getPath();
+                    uploadedFiles.put(path, content.toByteArray());
+                    exchange.sendResponseHeaders(failingPaths.contains(path) ? 500 : 201, -1);
+                }
+                catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                finally {
+                    concurrentUploads.decrementAndGet();
+                    exchange.close();
+                }
+            }
+        });
+        server.start();
+    }
+
+    @AfterEach
+    public void stopServer() throws InterruptedException {
+        stopResponder();
+        server.stop(0);
+        serverExecutor.shutdownNow();
+        for (File tempFile : tempFiles) {
+            tempFile.delete();
+        }
+    }
+
+    @Test
+    public void uploadCalculatesHashesTest() throws IOException {
+        byte[] data = new byte[100000];
+        new Random(42).nextBytes(data);
+        File file = createFile(data);
+
+        HttpFileUploadManager manager = HttpFileUploadManager.getInstanceFor(new DummyConnection());
+        // A buffer size which does not divide the file size.
+        manager.setUploadBufferSize(1000 + 7);
+
+        final List<Long> progress = new ArrayList<>();
+        UploadedFile uploadedFile = manager.upload(file, createSlot(), new UploadProgressListener() {
+            @Override
+            public void onUploadProgress(long uploadedBytes, long totalBytes) {
+                progress.add(uploadedBytes);
+            }
+        }, HashManager.ALGORITHM.SHA_256, HashManager.ALGORITHM.SHA_512);
+
+        assertArrayEquals(data, uploadedContent.toByteArray());
+        assertArrayEquals(HashManager.sha_256(data), uploadedFile.getHashElement(HashManager.ALGORITHM.SHA_256).getHash());
+        assertArrayEquals(HashManager.sha_512(data), uploadedFile.getHashElement(HashManager.ALGORITHM.SHA_512).getHash());
+        assertNull(uploadedFile.getHashElement(HashManager.ALGORITHM.SHA_1));
+        assertEquals(Long.valueOf(data.length), progress.get(progress.size() - 1));
+    }
+
+    @Test
+    public void uploadFailsOnErrorResponseTest() throws IOException {
+        responseCode = 500;
+        File file = createFile(new byte[] { 1, 2, 3 });
+
+        final HttpFileUploadManager manager = HttpFileUploadManager.getInstanceFor(new DummyConnection());
+        assertThrows(IOException.class, () -> manager.upload(file, createSlot(), null));
+    }
+
+    @Test
+    public void uploadOfSeveralFilesTest() throws Exception {
+        Random random = new Random(42);
+        List<File> files = new ArrayList<>();
+        List<byte[]> contents = new ArrayList<>();
+        long totalBytes = 0;
+        for (int i = 0; i < 5; i++) {
+            byte[] data = new byte[10000 + 1000 * i];
+            random.nextBytes(data);
+            contents.add(data);
+            files.add(createFile(data));
+            totalBytes += data.length;
+        }
+
+        HttpFileUploadManager manager = createManagerWithUploadService(100000, 1);
+        manager.setMaximumConcurrentUploads(2);
+        manager.setUploadBufferSize(1000);
+
+        final List<long[]> progress = new CopyOnWriteArrayList<>();
+        List<UploadedFile> uploadedFiles = manager.upload(files, new UploadProgressListener() {
+            @Override
+            public void onUploadProgress(long uploadedBytes, long totalBytes) {
+                progress.add(new long[] { uploadedBytes, totalBytes });
+            }
+        }, HashManager.ALGORITHM.SHA_256);
+
+        assertEquals(files.size(), slotRequests.size());
+        assertEquals(files.size(), uploadedFiles.size());
+        for (int i = 0; i < files.size(); i++) {
+            byte[] data = contents.get(i);
+            assertArrayEquals(data, this.uploadedFiles.get("/files/" + files.get(i).getName()));
+            assertArrayEquals(HashManager.sha_256(data),
+                            uploadedFiles.get(i).getHashElement(HashManager.ALGORITHM.SHA_256).getHash());
+        }
+        assertTrue(maximumConcurrentUploads.get() <= 2);
+        // The slots of the next files are requested while the first files are uploaded, but not all at once.
+        assertTrue(maximumSlotsAhead.get() > 2, "Slots were not requested ahead: " + maximumSlotsAhead.get());
+        assertTrue(maximumSlotsAhead.get() <= 4, "Too many slots were requested ahead: " + maximumSlotsAhead.get());
+
+        long lastUploadedBytes = 0;
+        for (long[] update : progress) {
+            assertEquals(totalBytes, update[1]);
+            assertTrue(update[0] >= lastUploadedBytes);
+            lastUploadedBytes = update[0];
+        }
+        assertEquals(totalBytes, lastUploadedBytes);
+    }
+
+    @Test
+    public void uploadOfSeveralFilesIsAbortedOnFirstFailureTest() throws Exception {
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            files.add(createFile(new byte[1000]));
+        }
+        failingPaths.add("/files/" + files.get(0).getName());
+
+        final HttpFileUploadManager manager = createManagerWithUploadService(100000, 1);
+        manager.setMaximumConcurrentUploads(1);
+
+        assertThrows(IOException.class, () -> manager.upload(files, null));
+
+        // At most the upload started before the failure was noticed may have reached the server.
+        Thread.sleep(200);
+        assertTrue(uploadedFiles.size() <= 2, "Uploads were not aborted: " + uploadedFiles.keySet());
+    }
+
+    @Test
+    public void tooLargeFileIsRejectedBeforeSlotsAreRequestedTest() throws Exception {
+        List<File> files = Arrays.asList(createFile(new byte[10]), createFile(new byte[2000]));
+
+        final HttpFileUploadManager manager = createManagerWithUploadService(1000, 1);
+
+        assertThrows(IllegalArgumentException.class, () -> manager.upload(files, null));
+
+        stopResponder();
+        assertTrue(slotRequests.isEmpty());
+        TopLevelStreamElement sent;
+        while ((sent = connection.getSentPacket(0)) != null) {
+            assertTrue(!(sent instanceof SlotRequest), "Slot requested: " + sent);
+        }
+    }
+
+    /**
+     * Creates a manager with a discovered upload service, whose slot requests are answered once the given number of
+     * slot requests is pending.
+     */
+    private HttpFileUploadManager createManagerWithUploadService(final long maxFileSize, final int slotRequestBatchSize)
+                    throws Exception {
+        connection = DummyConnection.newConnectedDummyConnection();
+        responding = true;
+        responder = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                List<SlotRequest> pendingSlotRequests = new ArrayList<>();
+                while (responding) {
+                    TopLevelStreamElement sent = connection.getSentPacket(1);
+                    try {
+                        if (sent instanceof DiscoverItems) {
+                            DiscoverItems items = new DiscoverItems();
+                            items.addItem(new DiscoverItems.Item(JidCreate.from(UPLOAD_SERVICE)));
+                            respond((IQ) sent, items);
+                        }
+                        else if (sent instanceof DiscoverInfo) {
+                            DiscoverInfo info = new DiscoverInfo();
+                            if (((IQ) sent).getTo().toString().equals(UPLOAD_SERVICE)) {
+                                info.addFeature(HttpFileUploadManager.NAMESPACE);
+                                DataForm form = new DataForm(DataForm.Type.result);
+                                form.addField(FormField.builder("max-file-size").addValue(Long.toString(maxFileSize))
+                                                .build());
+                                info.addExtension(form);
+                            }
+                            respond((IQ) sent, info);
+                        }
+                        else if (sent instanceof SlotRequest) {
+                            SlotRequest slotRequest = (SlotRequest) sent;
+                            slotRequests.add(slotRequest);
+                            maximumSlotsAhead.accumulateAndGet(slotRequests.size() - uploadedFiles.size(), Math::max);
+                            pendingSlotRequests.add(slotRequest);
+                            if (pendingSlotRequests.size() >= slotRequestBatchSize) {
+                                for (SlotRequest pendingSlotRequest : pendingSlotRequests) {
+                                    respond(pendingSlotRequest, createSlot("/files/" + pendingSlotRequest.getFilename()));
+                                }
+                                pendingSlotRequests.clear();
+                            }
+                        }
+                    }
+                    catch (IOException e) {
+                        throw new AssertionError(e);
+                    }
+                }
+            }
+        });
+        responder.start();
+
+        HttpFileUploadManager manager = HttpFileUploadManager.getInstanceFor(connection);
+        assertTrue(manager.discoverUploadService());
+        return manager;
+    }
+
+    private void respond(IQ request, IQ response) {
+        response.setType(IQ.Type.result);
+        response.setStanzaId(request.getStanzaId());
+        response.setFrom(request.getTo());
+        response.setTo(connection.getUser());
+        connection.processStanza(response);
+    }
+
+    private void stopResponder() throws InterruptedException {
+        if (responder == null) {
+            return;
+        }
+        responding = false;
+        responder.join();
+        responder = null;
+    }
+
+    private File createFile(byte[] data) throws IOException {
+        File tempFile = File.createTempFile("upload", null);
+        tempFiles.add(tempFile);
+        try (FileOutputStream out = new FileOutputStream(tempFile)) {
+            out.write(data);
+        }
+        return tempFile;
+    }
+
+    private Slot createSlot() throws IOException {
+        return createSlot("/upload");
+    }
+
+    private Slot createSlot(String path) throws IOException {
+        URL url = new URL("http", InetAddress.getLoopbackAddress().getHostAddress(), server.getAddress().getPort(), path);
+        return new Slot(url, url);
+    }
+}
@@ -0,0 +1,290 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.mam;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smack.DummyConnection;
+import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.Stanza;
+import org.jivesoftware.smack.packet.StanzaError;
+
+import org.jivesoftware.smackx.InitExtensions;
+import org.jivesoftware.smackx.delay.packet.DelayInformation;
+import org.jivesoftware.smackx.forward.packet.Forwarded;
+import org.jivesoftware.smackx.mam.element.MamElements.MamResultExtension;
+import org.jivesoftware.smackx.mam.element.MamFinIQ;
+import org.jivesoftware.smackx.mam.element.MamQueryIQ;
+import org.jivesoftware.smackx.rsm.packet.RSMSet;
+import org.jivesoftware.smackx.xdata.FormField;
+import org.jivesoftware.smackx.xdata.packet.DataForm;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.jxmpp.jid.Jid;
+import org.jxmpp.jid.impl.JidCreate;
+import org.jxmpp.util.XmppDateTime;
+
+public class MamCatchUpTest extends InitExtensions {
+
+    private static final int ARCHIVE_SIZE = 20;
+
+    private DummyConnection connection;
+
+    private Jid mucAddress;
+
+    private ArchiveResponder responder;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        connection = DummyConnection.newConnectedDummyConnection();
+        mucAddress = JidCreate.from("room@conference.example.org");
+        responder = new ArchiveResponder();
+        responder.start();
+    }
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+        responder.stopped = true;
+        responder.join();
+    }
+
+    private MamCatchUp createCatchUp() {
+        return createCatchUp(2);
+    }
+
+    private MamCatchUp createCatchUp(int pageSize) {
+        return MamCatchUp.builder()
+                        .addArchive(MamManager.getInstanceFor(connection), "own-3")
+                        .addArchive(MamManager.getInstanceFor(connection, mucAddress), "room-10")
+                        .setPageSize(pageSize)
+                        .setMaxInFlightQueries(3)
+                        .build();
+    }
+
+    @Test
+    public void resultsAreStreamedInArchiveOrderTest() throws InterruptedException {
+        final List<String> ownIds = new ArrayList<>();
+        final List<String> roomIds = new ArrayList<>();
+        Map<Jid, MamCatchUp.ArchiveResult> results = createCatchUp().catchUp(new MamCatchUp.ResultListener() {
+            @Override
+            public void onResult(Jid archiveAddress, MamResultExtension result) {
+                if (mucAddress.equals(archiveAddress)) {
+                    roomIds.add(result.getId());
+                } else {
+                    ownIds.add(result.getId());
+                }
+            }
+        });
+
+        // Every archive resumes right after the last known message, without gaps or duplicates.
+        assertEquals(expectedIds("own", 4), ownIds);
+        assertEquals(expectedIds("room", 11), roomIds);
+        assertEquals(2, results.size());
+        for (MamCatchUp.ArchiveResult result : results.values()) {
+            assertTrue(result.isSuccessful());
+            assertTrue(result.getMamResultExtensions().isEmpty());
+        }
+        assertEquals(ownIds.size(), results.get(connection.getUser().asBareJid()).getResultCount());
+        assertEquals(roomIds.size(), results.get(mucAddress).getResultCount());
+    }
+
+    @Test
+    public void emptyLastPageDoesNotCauseDuplicatesTest() throws InterruptedException {
+        responder.completeOnlyOnEmptyPage = true;
+        responder.overlappingSlices = true;
+
+        // Every page is full, hence the last page of every slice is empty.
+        Map<Jid, MamCatchUp.ArchiveResult> results = createCatchUp(1).catchUp();
+
+        List<String> roomIds = new ArrayList<>();
+        for (MamResultExtension result : results.get(mucAddress).getMamResultExtensions()) {
+            roomIds.add(result.getId());
+        }
+        assertEquals(expectedIds("room", 11), roomIds);
+        List<String> ownIds = new ArrayList<>();
+        for (MamResultExtension result : results.get(connection.getUser().asBareJid()).getMamResultExtensions()) {
+            ownIds.add(result.getId());
+        }
+        assertEquals(expectedIds("own", 4), ownIds);
+    }
+
+    @Test
+    public void catchUpCollectsResultsTest() throws InterruptedException {
+        Map<Jid, MamCatchUp.ArchiveResult> results = createCatchUp().catchUp();
+
+        List<String> roomIds = new ArrayList<>();
+        for (MamResultExtension result : results.get(mucAddress).getMamResultExtensions()) {
+            roomIds.add(result.getId());
+        }
+        assertEquals(expectedIds("room", 11), roomIds);
+        assertEquals(expectedIds("own", 4).size(),
+                        results.get(connection.getUser().asBareJid()).getMamResultExtensions().size());
+    }
+
+    @Test
+    public void failedArchiveIsReportedTest() throws InterruptedException {
+        responder.failingArchive = mucAddress;
+
+        Map<Jid, MamCatchUp.ArchiveResult> results = createCatchUp().catchUp();
+
+        MamCatchUp.ArchiveResult roomResult = results.get(mucAddress);
+        assertFalse(roomResult.isSuccessful());
+        assertNotNull(roomResult.getException());
+        assertTrue(roomResult.getMamResultExtensions().isEmpty());
+
+        // The other archive is not affected.
+        MamCatchUp.ArchiveResult ownResult = results.get(connection.getUser().asBareJid());
+        assertTrue(ownResult.isSuccessful());
+        assertEquals(expectedIds("own", 4).size(), ownResult.getMamResultExtensions().size());
+    }
+
+    private static List<String> expectedIds(String prefix, int first) {
+        List<String> ids = new ArrayList<>();
+        for (int i = first; i < ARCHIVE_SIZE; i++) {
+            ids.add(prefix + '-' + i);
+        }
+        return ids;
+    }
+
+    /**
+     * Answers the MAM queries like a server with an archive of {@link #ARCHIVE_SIZE} messages, archived every ten
+     * minutes during the last hours.
+     */
+    private final class ArchiveResponder extends Thread {
+
+        private final long firstTimestamp = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(10 * ARCHIVE_SIZE);
+
+        private volatile Jid failingArchive;
+
+        /**
+         * If set, a full page is never reported as complete, hence the last page of every query is empty.
+         */
+        private volatile boolean completeOnlyOnEmptyPage;
+
+        /**
+         * If set, the 'start' of a query is rounded down to the timestamp of the previous message, like a server with
+         * coarse timestamps would do. Hence every slice also returns the last message of the previous slice.
+         */
+        private volatile boolean overlappingSlices;
+
+        private volatile boolean stopped;
+
+        @Override
+        public void run() {
+            while (!stopped) {
+                Stanza stanza = connection.getSentPacket(1);
+                if (stanza instanceof MamQueryIQ) {
+                    try {
+                        answer((MamQueryIQ) stanza);
+                    } catch (Exception e) {
+                        throw new AssertionError(e);
+                    }
+                }
+            }
+        }
+
+        private void answer(MamQueryIQ query) throws Exception {
+            Jid archiveAddress = query.getTo();
+            String prefix = archiveAddress == null ? "own" : "room";
+
+            DataForm dataForm = query.getDataForm();
+            long start = Long.MIN_VALUE;
+            long end = Long.MAX_VALUE;
+            if (dataForm != null) {
+                FormField startField = dataForm.getField("start");
+                if (startField != null) {
+                    start = XmppDateTime.parseDate(startField.getFirstValue()).getTime();
+                    if (overlappingSlices) {
+                        start -= (start - firstTimestamp) % TimeUnit.MINUTES.toMillis(10);
+                    }
+                    // Only the first query of an archive has no time limits.
+                    if (archiveAddress != null && archiveAddress.equals(failingArchive)) {
+                        IQ error = IQ.createErrorResponse(query, StanzaError.getBuilder(
+                                        StanzaError.Condition.internal_server_error));
+                        connection.processStanza(error);
+                        return;
+                    }
+                }
+                FormField endField = dataForm.getField("end");
+                if (endField != null) {
+                    end = XmppDateTime.parseDate(endField.getFirstValue()).getTime();
+                }
+            }
+
+            RSMSet rsmSet = query.getExtension(RSMSet.ELEMENT, RSMSet.NAMESPACE);
+            int first = 0;
+            int max = ARCHIVE_SIZE;
+            if (rsmSet != null) {
+                if (rsmSet.getAfter() != null) {
+                    first = Integer.parseInt(rsmSet.getAfter().substring(rsmSet.getAfter().indexOf('-') + 1)) + 1;
+                }
+                if (rsmSet.getMax() > 0) {
+                    max = rsmSet.getMax();
+                }
+            }
+
+            String firstId = null;
+            String lastId = null;
+            int count = 0;
+            boolean complete = true;
+            for (int i = first; i < ARCHIVE_SIZE; i++) {
+                long timestamp = firstTimestamp + TimeUnit.MINUTES.toMillis(10 * i);
+                if (timestamp < start || timestamp > end) {
+                    continue;
+                }
+                if (count == max) {
+                    complete = false;
+                    break;
+                }
+                String id = prefix + '-' + i;
+                Message message = new Message();
+                message.setFrom(archiveAddress);
+                message.addExtension(new MamResultExtension(query.getQueryId(), id,
+                                new Forwarded(new DelayInformation(new Date(timestamp)), new Message())));
+                connection.processStanza(message);
+                if (firstId == null) {
+                    firstId = id;
+                }
+                lastId = id;
+                count++;
+            }
+
+            if (completeOnlyOnEmptyPage && count == max) {
+                complete = false;
+            }
+
+            RSMSet finRsmSet = new RSMSet(null, null, -1, -1, lastId, -1, firstId, -1);
+            MamFinIQ mamFinIq = new MamFinIQ(query.getQueryId(), finRsmSet, complete, true);
+            mamFinIq.setType(IQ.Type.result);
+            mamFinIq.setStanzaId(query.getStanzaId());
+            mamFinIq.setFrom(archiveAddress);
+            connection.processStanza(mamFinIq);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.mam;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.jivesoftware.smack.DummyConnection;
+import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smack.packet.Message;
+
+import org.jivesoftware.smackx.InitExtensions;
+import org.jivesoftware.smackx.forward.packet.Forwarded;
+import org.jivesoftware.smackx.mam.MamManager.MamQueryArgs;
+import org.jivesoftware.smackx.mam.element.MamElements.MamResultExtension;
+import org.jivesoftware.smackx.mam.element.MamFinIQ;
+import org.jivesoftware.smackx.mam.element.MamQueryIQ;
+import org.jivesoftware.smackx.rsm.packet.RSMSet;
+
+import org.junit.jupiter.api.Test;
+
+public class MamResultCursorTest extends InitExtensions {
+
+    private static void processResult(DummyConnection connection, MamQueryIQ query, String id) {
+        Message message = new Message();
+        message.addExtension(new MamResultExtension(query.getQueryId(), id, new Forwarded(new Message())));
+        connection.processStanza(message);
+    }
+
+    private static void processFin(DummyConnection connection, MamQueryIQ query, String first, String last,
+                    boolean complete) {
+        RSMSet rsmSet = new RSMSet(null, null, -1, -1, last, -1, first, -1);
+        MamFinIQ mamFinIq = new MamFinIQ(query.getQueryId(), rsmSet, complete, true);
+        mamFinIq.setType(IQ.Type.result);
+        mamFinIq.setStanzaId(query.getStanzaId());
+        connection.processStanza(mamFinIq);
+    }
+
+    @Test
+    public void nextPageIsRequestedBeforeCurrentPageIsConsumed() throws Exception {
+        DummyConnection connection = DummyConnection.newConnectedDummyConnection();
+        MamManager mamManager = MamManager.getInstanceFor(connection);
+        MamQueryArgs mamQueryArgs = MamQueryArgs.builder().setResultPageSize(2).build();
+
+        MamResultCursor cursor = mamManager.streamArchive(mamQueryArgs, 4);
+
+        MamQueryIQ firstQuery = connection.getSentPacket();
+        processResult(connection, firstQuery, "1");
+        processResult(connection, firstQuery, "2");
+        processFin(connection, firstQuery, "1", "2", false);
+
+        // The second page is requested without consuming any result of the first page.
+        MamQueryIQ secondQuery = connection.getSentPacket(5);
+        assertNotNull(secondQuery);
+        RSMSet rsmSet = secondQuery.getExtension(RSMSet.ELEMENT, RSMSet.NAMESPACE);
+        assertEquals("2", rsmSet.getAfter());
+
+        assertEquals("1", cursor.next().getId());
+        assertEquals("2", cursor.next().getId());
+
+        processResult(connection, secondQuery, "3");
+        processFin(connection, secondQuery, "3", "3", true);
+
+        assertEquals("3", cursor.next().getId());
+        assertFalse(cursor.hasNext());
+        assertNull(connection.getSentPacket(1));
+    }
+
+    @Test
+    public void windowLimitsPrefetch() throws Exception {
+        DummyConnection connection = DummyConnection.newConnectedDummyConnection();
+        MamManager mamManager = MamManager.getInstanceFor(connection);
+        MamQueryArgs mamQueryArgs = MamQueryArgs.builder().setResultPageSize(2).build();
+
+        // The window only allows for a single page.
+        MamResultCursor cursor = mamManager.streamArchive(mamQueryArgs, 3);
+
+        MamQueryIQ firstQuery = connection.getSentPacket();
+        processResult(connection, firstQuery, "1");
+        processFin(connection, firstQuery, "1", "1", false);
+        assertNull(connection.getSentPacket(1));
+
+        assertEquals("1", cursor.next().getId());
+
+        // Consuming the page's <fin/> requests the next page.
+        Thread responder = new Thread(() -> {
+            MamQueryIQ secondQuery = connection.getSentPacket(5);
+            processFin(connection, secondQuery, null, null, true);
+        });
+        responder.start();
+        assertFalse(cursor.hasNext());
+        responder.join();
+    }
+}
@@ -0,0 +1,193 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.mam.store;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Date;
+import java.util.List;
+
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.test.util.FileTestUtil;
+
+import org.jivesoftware.smackx.InitExtensions;
+import org.jivesoftware.smackx.delay.packet.DelayInformation;
+import org.jivesoftware.smackx.forward.packet.Forwarded;
+import org.jivesoftware.smackx.mam.element.MamElements.MamResultExtension;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.jxmpp.jid.BareJid;
+import org.jxmpp.jid.Jid;
+import org.jxmpp.jid.impl.JidCreate;
+
+public class LocalMamArchiveTest extends InitExtensions {
+
+    private static final BareJid OWNER = JidCreate.bareFromOrThrowUnchecked("juliet@capulet.lit");
+    private static final BareJid ROMEO = JidCreate.bareFromOrThrowUnchecked("romeo@montague.lit");
+    private static final BareJid NURSE = JidCreate.bareFromOrThrowUnchecked("nurse@capulet.lit");
+
+    private File storeDir;
+    private File storeFile;
+
+    @BeforeEach
+    public void createStoreDir() {
+        storeDir = FileTestUtil.getTempDir("local-mam-archive-test-" + System.nanoTime());
+        storeDir.mkdirs();
+        storeFile = new File(storeDir, "archive");
+    }
+
+    @AfterEach
+    public void deleteStoreDir() {
+        FileTestUtil.deleteDirectory(storeDir);
+    }
+
+    private static final BareJid ROOM = JidCreate.bareFromOrThrowUnchecked("verona@chat.shakespeare.lit");
+
+    private static MamResultExtension result(String id, Jid from, Jid to, long timestamp, String body) {
+        return result(id, from, to, timestamp, body, Message.Type.normal);
+    }
+
+    private static MamResultExtension result(String id, Jid from, Jid to, long timestamp, String body,
+                    Message.Type type) {
+        Message message = new Message(to, body);
+        message.setFrom(from);
+        message.setType(type);
+        Forwarded forwarded = new Forwarded(new DelayInformation(new Date(timestamp)), message);
+        return new MamResultExtension("query", id, forwarded);
+    }
+
+    @Test
+    public void storeAndReopenTest() throws IOException {
+        LocalMamArchive archive = LocalMamArchive.open(storeFile, OWNER);
+        assertNull(archive.getNewestArchiveId());
+
+        archive.add(result("1", ROMEO, OWNER, 1000, "Art thou not Romeo"));
+        archive.add(result("2", OWNER, ROMEO, 2000, "Neither, fair saint"));
+        archive.add(result("3", NURSE, OWNER, 3000, "Madam!"));
+        assertFalse(archive.add(result("3", NURSE, OWNER, 3000, "Madam!")));
+        archive.close();
+
+        archive = LocalMamArchive.open(storeFile, OWNER);
+        assertEquals(3, archive.size());
+        assertEquals("3", archive.getNewestArchiveId());
+
+        List<Forwarded> history = archive.getHistory(ROMEO, null, 10);
+        assertEquals(2, history.size());
+        assertEquals("Art thou not Romeo", ((Message) history.get(0).getForwardedStanza()).getBody());
+
+        List<Forwarded> messages = archive.getMessages(new Date(1500), new Date(3000));
+        assertEquals(1, messages.size());
+        assertEquals("Neither, fair saint", ((Message) messages.get(0).getForwardedStanza()).getBody());
+
+        List<Forwarded> found = archive.search("MADAM", null, 10);
+        assertEquals(1, found.size());
+        archive.close();
+    }
+
+    @Test
+    public void partialRecordIsDiscardedTest() throws IOException {
+        LocalMamArchive archive = LocalMamArchive.open(storeFile, OWNER);
+        archive.add(result("1", ROMEO, OWNER, 1000, "Art thou not Romeo"));
+        archive.close();
+
+        // Simulate a crash while appending a record.
+        FileOutputStream out = new FileOutputStream(storeFile, true);
+        out.write(new byte[] { 0, 0, 1, 0, 42 });
+        out.close();
+
+        archive = LocalMamArchive.open(storeFile, OWNER);
+        assertEquals(1, archive.size());
+        archive.add(result("2", OWNER, ROMEO, 2000, "Neither, fair saint"));
+        archive.close();
+
+        archive = LocalMamArchive.open(storeFile, OWNER);
+        assertEquals(2, archive.size());
+        assertEquals("2", archive.getNewestArchiveId());
+        archive.close();
+    }
+
+    @Test
+    public void groupchatMessagesAreStoredUnderTheRoomTest() throws IOException {
+        Jid occupant = JidCreate.fromOrThrowUnchecked("verona@chat.shakespeare.lit/romeo");
+        LocalMamArchive archive = LocalMamArchive.open(storeFile, OWNER);
+        archive.add(result("1", occupant, OWNER, 1000, "Is the day so young?", Message.Type.groupchat));
+        archive.add(result("2", OWNER, ROOM, 2000, "But new struck nine.", Message.Type.groupchat));
+        archive.add(result("3", ROMEO, OWNER, 3000, "Ay me! sad hours seem long."));
+
+        assertEquals(2, archive.getHistory(ROOM, null, 10).size());
+        assertEquals(1, archive.getHistory(ROMEO, null, 10).size());
+        assertEquals(1, archive.search("NINE", ROOM, 10).size());
+        assertEquals(0, archive.search("nine", ROMEO, 10).size());
+        archive.close();
+    }
+
+    @Test
+    public void searchReturnsMostRecentMatchesTest() throws IOException {
+        LocalMamArchive archive = LocalMamArchive.open(storeFile, OWNER);
+        for (int i = 0; i < 10; i++) {
+            archive.add(result(Integer.toString(i), ROMEO, OWNER, i * 1000, "Message " + i));
+        }
+        archive.add(result("10", ROMEO, OWNER, 10000, "Goodnight"));
+        archive.close();
+
+        archive = LocalMamArchive.open(storeFile, OWNER);
+        List<Forwarded> found = archive.search("message", ROMEO, 3);
+        assertEquals(3, found.size());
+        assertEquals("Message 7", ((Message) found.get(0).getForwardedStanza()).getBody());
+        assertEquals("Message 9", ((Message) found.get(2).getForwardedStanza()).getBody());
+        archive.close();
+    }
+
+    @Test
+    public void corruptedRecordTruncatesArchiveTest() throws IOException {
+        LocalMamArchive archive = LocalMamArchive.open(storeFile, OWNER);
+        archive.add(result("1", ROMEO, OWNER, 1000, "Art thou not Romeo"));
+        long firstRecordEnd = storeFile.length();
+        archive.add(result("2", OWNER, ROMEO, 2000, "Neither, fair saint"));
+        archive.add(result("3", NURSE, OWNER, 3000, "Madam!"));
+        archive.close();
+
+        // Flip a byte within the second record.
+        RandomAccessFile file = new RandomAccessFile(storeFile, "rw");
+        file.seek(firstRecordEnd + 10);
+        int b = file.read();
+        file.seek(firstRecordEnd + 10);
+        file.write(b ^ 0xff);
+        file.close();
+
+        archive = LocalMamArchive.open(storeFile, OWNER);
+        assertEquals(1, archive.size());
+        assertEquals("1", archive.getNewestArchiveId());
+        assertEquals(firstRecordEnd, storeFile.length());
+
+        archive.add(result("2", OWNER, ROMEO, 2000, "Neither, fair saint"));
+        archive.close();
+
+        archive = LocalMamArchive.open(storeFile, OWNER);
+        assertEquals(2, archive.size());
+        assertEquals("Neither, fair saint", ((Message) archive.getMessage("2").getForwardedStanza()).getBody());
+        archive.close();
+    }
+}
@@ -83,7 +83,7 @@ public class BoBData {
     private void setContentBinaryIfRequired() {
         if (contentBinary == null) {
             assert StringUtils.isNotEmpty(contentString);
-            contentBinary = Base64.decode(contentString);
+            contentBinary = Base64.decodeToByteArray(contentString);
         }
     }
 
@@ -104,7 +104,7 @@ public class BoBData {
      */
     public String getContentBase64Encoded() {
         if (contentString == null) {
-            contentString = Base64.encodeToString(getContent());
+            contentString = Base64.encodeToString(contentBinary);
         }
         return contentString;
     }
@@ -115,7 +115,14 @@ public class BoBData {
      * @return true if the data if of reasonable size.
      */
     public boolean isOfReasonableSize() {
-        setContentBinaryIfRequired();
-        return contentBinary.length <= 8 * 1024;
+        int length;
+        if (contentBinary != null) {
+            length = contentBinary.length;
+        }
+        else {
+            // no need to decode the content just to determine its size
+            length = Base64.decodedLength(contentString);
+        }
+        return length <= 8 * 1024;
     }
 }
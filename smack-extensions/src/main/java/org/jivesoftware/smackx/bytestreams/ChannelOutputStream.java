@@ -0,0 +1,55 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.bytestreams;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * An output stream of a bytestream session which also exposes the blocking channel it writes to.
+ * This allows data to be transferred directly to the channel, e.g. by
+ * {@link java.nio.channels.FileChannel#transferTo(long, long, WritableByteChannel)}, without
+ * copying it through a buffer on the Java heap. Data written to the stream and to the channel
+ * appears in the order it was written, as the stream does not buffer.
+ */
+public class ChannelOutputStream extends FilterOutputStream {
+
+    private final WritableByteChannel channel;
+
+    public ChannelOutputStream(OutputStream out, WritableByteChannel channel) {
+        super(out);
+        this.channel = channel;
+    }
+
+    /**
+     * Returns the channel this stream writes to.
+     *
+     * @return the channel of this stream
+     */
+    public WritableByteChannel getChannel() {
+        return channel;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        // FilterOutputStream writes single bytes
+        out.write(b, off, len);
+    }
+
+}
@@ -34,7 +34,8 @@ import org.jivesoftware.smackx.bytestreams.ibb.packet.DataPacketExtension;
  * <p>
  * Data packets belonging to a running In-Band Bytestream session are processed
  * by more specific listeners registered when an {@link InBandBytestreamSession}
- * is created.
+ * is created. The data packets are processed in the order they are received, as the
+ * sender may have several data packets of a session in flight.
  *
  * @author Henning Staib
  */
@@ -49,7 +50,7 @@ class DataListener extends AbstractIqRequestHandler {
      * @param manager the In-Band Bytestream manager
      */
     DataListener(InBandBytestreamManager manager) {
-      super(DataPacketExtension.ELEMENT, DataPacketExtension.NAMESPACE, IQ.Type.set, Mode.async);
+      super(DataPacketExtension.ELEMENT, DataPacketExtension.NAMESPACE, IQ.Type.set, Mode.sync);
         this.manager = manager;
     }
 
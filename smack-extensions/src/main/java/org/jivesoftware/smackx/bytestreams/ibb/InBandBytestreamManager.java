@@ -135,6 +135,14 @@ public final class InBandBytestreamManager extends Manager implements Bytestream
      */
     public static final int MAXIMUM_BLOCK_SIZE = 65535;
 
+    /**
+     * Default maximum number of data packets sent without waiting for their acknowledgement. Receivers
+     * which process data packets concurrently may reject a data packet which arrives while the
+     * previous one is processed as out of sequence, hence sending several data packets at once has to
+     * be enabled explicitly with {@link #setMaximumDataPacketsInFlight(int)}.
+     */
+    public static final int DEFAULT_MAXIMUM_DATA_PACKETS_IN_FLIGHT = 1;
+
     /* prefix used to generate session IDs */
     private static final String SESSION_ID_PREFIX = "jibb_";
 
@@ -174,6 +182,9 @@ public final class InBandBytestreamManager extends Manager implements Bytestream
     /* the stanza used to send data packets */
     private StanzaType stanza = StanzaType.IQ;
 
+    /* maximum number of unacknowledged IQ data packets of new In-Band Bytestreams */
+    private int maximumDataPacketsInFlight = DEFAULT_MAXIMUM_DATA_PACKETS_IN_FLIGHT;
+
     /*
      * list containing session IDs of In-Band Bytestream open packets that should be ignored by the
      * InitiationListener
@@ -385,6 +396,34 @@ public final class InBandBytestreamManager extends Manager implements Bytestream
         this.stanza = stanza;
     }
 
+    /**
+     * Returns the maximum number of data packets which are sent without waiting for their
+     * acknowledgement by new In-Band Bytestreams using IQ stanzas.
+     * <p>
+     * Default is {@value #DEFAULT_MAXIMUM_DATA_PACKETS_IN_FLIGHT}.
+     *
+     * @return the maximum number of unacknowledged data packets
+     * @see InBandBytestreamSession#setMaximumDataPacketsInFlight(int)
+     */
+    public int getMaximumDataPacketsInFlight() {
+        return maximumDataPacketsInFlight;
+    }
+
+    /**
+     * Sets the maximum number of data packets which are sent without waiting for their
+     * acknowledgement by new In-Band Bytestreams using IQ stanzas. A value of <code>1</code> waits
+     * for the acknowledgement of every data packet before the next one is sent.
+     *
+     * @param maximumDataPacketsInFlight the maximum number of unacknowledged data packets
+     * @see InBandBytestreamSession#setMaximumDataPacketsInFlight(int)
+     */
+    public void setMaximumDataPacketsInFlight(int maximumDataPacketsInFlight) {
+        if (maximumDataPacketsInFlight <= 0) {
+            throw new IllegalArgumentException("Maximum data packets in flight must be > 0");
+        }
+        this.maximumDataPacketsInFlight = maximumDataPacketsInFlight;
+    }
+
     /**
      * Establishes an In-Band Bytestream with the given user and returns the session to send/receive
      * data to/from the user.
@@ -435,6 +474,7 @@ public final class InBandBytestreamManager extends Manager implements Bytestream
 
         InBandBytestreamSession inBandBytestreamSession = new InBandBytestreamSession(
                         connection, byteStreamRequest, targetJID);
+        inBandBytestreamSession.setMaximumDataPacketsInFlight(this.maximumDataPacketsInFlight);
         this.sessions.put(sessionID, inBandBytestreamSession);
 
         return inBandBytestreamSession;
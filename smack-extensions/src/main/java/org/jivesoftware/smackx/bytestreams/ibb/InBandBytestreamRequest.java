@@ -82,6 +82,7 @@ public class InBandBytestreamRequest implements BytestreamRequest {
         // create In-Band Bytestream session and store it
         InBandBytestreamSession ibbSession = new InBandBytestreamSession(connection,
                         this.byteStreamRequest, this.byteStreamRequest.getFrom());
+        ibbSession.setMaximumDataPacketsInFlight(this.manager.getMaximumDataPacketsInFlight());
         this.manager.getSessions().put(this.byteStreamRequest.getSessionID(), ibbSession);
 
         // acknowledge request
@@ -23,6 +23,7 @@ import java.net.SocketTimeoutException;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.jivesoftware.smack.SmackException.NotConnectedException;
 import org.jivesoftware.smack.SmackException.NotLoggedInException;
@@ -35,6 +36,8 @@ import org.jivesoftware.smack.packet.IQ;
 import org.jivesoftware.smack.packet.Message;
 import org.jivesoftware.smack.packet.Stanza;
 import org.jivesoftware.smack.packet.StanzaError;
+import org.jivesoftware.smack.util.ExceptionCallback;
+import org.jivesoftware.smack.util.SuccessCallback;
 import org.jivesoftware.smack.util.stringencoder.Base64;
 
 import org.jivesoftware.smackx.bytestreams.BytestreamSession;
@@ -85,6 +88,9 @@ public class InBandBytestreamSession implements BytestreamSession {
     /* flag to indicate if session is closed */
     private boolean isClosed = false;
 
+    /* maximum number of IQ data packets sent without having been acknowledged */
+    private volatile int maximumDataPacketsInFlight = InBandBytestreamManager.DEFAULT_MAXIMUM_DATA_PACKETS_IN_FLIGHT;
+
     /**
      * Constructor.
      *
@@ -158,6 +164,33 @@ public class InBandBytestreamSession implements BytestreamSession {
         this.closeBothStreamsEnabled = closeBothStreamsEnabled;
     }
 
+    /**
+     * Returns the maximum number of data packets which are sent without waiting for their
+     * acknowledgement if the data is sent using IQ stanzas.
+     *
+     * @return the maximum number of unacknowledged data packets
+     */
+    public int getMaximumDataPacketsInFlight() {
+        return maximumDataPacketsInFlight;
+    }
+
+    /**
+     * Sets the maximum number of data packets which are sent without waiting for their
+     * acknowledgement if the data is sent using IQ stanzas. The number of data packets actually in
+     * flight adapts to the measured round trip time and never exceeds this limit. A value of
+     * <code>1</code> waits for the acknowledgement of every data packet before the next one is sent.
+     * <p>
+     * Default is {@link InBandBytestreamManager#DEFAULT_MAXIMUM_DATA_PACKETS_IN_FLIGHT}.
+     *
+     * @param maximumDataPacketsInFlight the maximum number of unacknowledged data packets
+     */
+    public void setMaximumDataPacketsInFlight(int maximumDataPacketsInFlight) {
+        if (maximumDataPacketsInFlight <= 0) {
+            throw new IllegalArgumentException("Maximum data packets in flight must be > 0");
+        }
+        this.maximumDataPacketsInFlight = maximumDataPacketsInFlight;
+    }
+
     @Override
     public void close() throws IOException {
         closeByLocal(true); // close input stream
@@ -641,6 +674,16 @@ public class InBandBytestreamSession implements BytestreamSession {
          */
         protected abstract void writeToXML(DataPacketExtension data) throws IOException, NotConnectedException, InterruptedException;
 
+        /**
+         * Waits until all data packets written to the XMPP stream have been acknowledged by the
+         * remote peer. The default implementation returns immediately.
+         *
+         * @throws IOException if a data packet was not acknowledged
+         * @throws InterruptedException if the calling thread was interrupted.
+         */
+        protected void awaitAcknowledgements() throws IOException, InterruptedException {
+        }
+
         @Override
         public synchronized void write(int b) throws IOException {
             if (this.isClosed) {
@@ -729,6 +772,14 @@ public class InBandBytestreamSession implements BytestreamSession {
                 throw new IOException("Stream is closed");
             }
             flushBuffer();
+            try {
+                awaitAcknowledgements();
+            }
+            catch (InterruptedException e) {
+                IOException ioException = new IOException();
+                ioException.initCause(e);
+                throw ioException;
+            }
         }
 
         private synchronized void flushBuffer() throws IOException {
@@ -738,8 +789,8 @@ public class InBandBytestreamSession implements BytestreamSession {
                 return;
             }
 
-            // create data packet
-            String enc = Base64.encodeToString(buffer, 0, bufferPointer);
+            // create data packet, the buffer is encoded without copying it as it is reused afterwards
+            CharSequence enc = Base64.encodeToCharSequence(buffer, 0, bufferPointer);
             DataPacketExtension data = new DataPacketExtension(byteStreamRequest.getSessionID(),
                             this.seq, enc);
 
@@ -783,8 +834,12 @@ public class InBandBytestreamSession implements BytestreamSession {
             try {
                 if (flush) {
                     flushBuffer();
+                    awaitAcknowledgements();
                 }
             }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
             catch (IOException e) {
                 /*
                  * ignore, because writeToXML() will not throw an exception if stream is already
@@ -798,30 +853,146 @@ public class InBandBytestreamSession implements BytestreamSession {
     /**
      * IQIBBOutputStream class implements IBBOutputStream to be used with IQ stanzas encapsulating
      * the data packets.
+     * <p>
+     * Instead of waiting for the acknowledgement of every data packet before the next one is sent,
+     * up to a window of data packets is kept in flight. The window starts at one packet, grows with
+     * every acknowledgement and is halved once the round trip time rises noticeably above the
+     * minimum observed round trip time, which indicates that packets queue up somewhere on the way
+     * to the remote peer. It never exceeds {@link #getMaximumDataPacketsInFlight()}.
+     * <p>
+     * The data packets are sent in sequence order. As XEP-0047 does not allow to send a sequence
+     * number twice, a data packet which is not acknowledged is not retransmitted, instead the
+     * session is closed and the error is reported by the next write, flush or close.
      */
     private class IQIBBOutputStream extends IBBOutputStream {
 
+        /* guards the acknowledgement window, the stream's monitor is never acquired while holding it */
+        private final Object windowLock = new Object();
+
+        /* number of data packets sent but not yet acknowledged */
+        private int inFlight = 0;
+
+        /* number of data packets allowed to be in flight */
+        private double window = 1;
+
+        /* flag to indicate if the window grows by one packet per acknowledgement */
+        private boolean slowStart = true;
+
+        /* minimum and smoothed round trip time of the data packets */
+        private long minRttNanos = Long.MAX_VALUE;
+        private long smoothedRttNanos = 0;
+
+        /* time the window was decreased the last time */
+        private long lastDecreaseNanos = System.nanoTime();
+
+        /* the cause of the first data packet which was not acknowledged */
+        private Exception failure;
+
         @Override
-        protected synchronized void writeToXML(DataPacketExtension data) throws IOException {
+        protected synchronized void writeToXML(DataPacketExtension data) throws IOException, InterruptedException {
             // create IQ stanza containing data packet
             IQ iq = new Data(data);
             iq.setTo(remoteJID);
 
-            try {
-                connection.createStanzaCollectorAndSend(iq).nextResultOrThrow();
+            Exception failure;
+            synchronized (windowLock) {
+                while (this.failure == null && inFlight >= Math.min((int) window, maximumDataPacketsInFlight)) {
+                    windowLock.wait();
+                }
+                failure = this.failure;
+                if (failure == null) {
+                    inFlight++;
+                }
             }
-            catch (Exception e) {
-                // close session unless it is already closed
-                if (!this.isClosed) {
-                    InBandBytestreamSession.this.close();
-                    // Sadly we are unable to use the IOException(Throwable) constructor because this
-                    // constructor is only supported from Android API 9 on.
-                    IOException ioException = new IOException();
-                    ioException.initCause(e);
-                    throw ioException;
+            if (failure != null) {
+                handleFailure(failure);
+                return;
+            }
+
+            final long sentNanos = System.nanoTime();
+            // SmackFuture invokes the success callback a second time if the request completed before the exception
+            // callback was registered, hence each data packet is only completed once.
+            final AtomicBoolean completed = new AtomicBoolean();
+            connection.sendIqRequestAsync(iq).onSuccess(new SuccessCallback<IQ>() {
+                @Override
+                public void onSuccess(IQ result) {
+                    if (!completed.compareAndSet(false, true)) {
+                        return;
+                    }
+                    acknowledged(sentNanos);
+                }
+            }).onError(new ExceptionCallback<Exception>() {
+                @Override
+                public void processException(Exception exception) {
+                    if (!completed.compareAndSet(false, true)) {
+                        return;
+                    }
+                    notAcknowledged(exception);
+                }
+            });
+        }
+
+        @Override
+        protected void awaitAcknowledgements() throws IOException, InterruptedException {
+            Exception failure;
+            synchronized (windowLock) {
+                while (this.failure == null && inFlight > 0) {
+                    windowLock.wait();
+                }
+                failure = this.failure;
+            }
+            if (failure != null) {
+                handleFailure(failure);
+            }
+        }
+
+        private void acknowledged(long sentNanos) {
+            long now = System.nanoTime();
+            long rtt = now - sentNanos;
+            synchronized (windowLock) {
+                inFlight--;
+
+                minRttNanos = Math.min(minRttNanos, rtt);
+                smoothedRttNanos = smoothedRttNanos == 0 ? rtt : (7 * smoothedRttNanos + rtt) / 8;
+
+                if (rtt > 2 * minRttNanos && now - lastDecreaseNanos > smoothedRttNanos) {
+                    // the data packets queue up, decrease the window at most once per round trip
+                    window = Math.max(1, window / 2);
+                    slowStart = false;
+                    lastDecreaseNanos = now;
+                }
+                else if (slowStart) {
+                    window += 1;
+                }
+                else {
+                    window += 1 / window;
                 }
+                window = Math.min(window, maximumDataPacketsInFlight);
+
+                windowLock.notifyAll();
             }
+        }
 
+        private void notAcknowledged(Exception exception) {
+            synchronized (windowLock) {
+                inFlight--;
+                if (failure == null) {
+                    failure = exception;
+                }
+                windowLock.notifyAll();
+            }
+        }
+
+        private void handleFailure(Exception e) throws IOException {
+            // close session unless it is already closed
+            if (!this.isClosed) {
+                InBandBytestreamSession.this.close();
+                // Sadly we are unable to use the IOException(Throwable) constructor because this
+                // constructor is only supported from Android API 9 on.
+                IOException ioException = new IOException();
+                ioException.initCause(e);
+                throw ioException;
+            }
         }
 
     }
@@ -46,7 +46,7 @@ public class DataPacketExtension implements ExtensionElement {
     private final long seq;
 
     /* the data contained in this packet */
-    private final String data;
+    private final CharSequence data;
 
     private byte[] decodedData;
 
@@ -57,7 +57,7 @@ public class DataPacketExtension implements ExtensionElement {
      * @param seq sequence of this stanza in regard to the other data packets
      * @param data the base64 encoded data contained in this packet
      */
-    public DataPacketExtension(String sessionID, long seq, String data) {
+    public DataPacketExtension(String sessionID, long seq, CharSequence data) {
         if (sessionID == null || "".equals(sessionID)) {
             throw new IllegalArgumentException("Session ID must not be null or empty");
         }
@@ -96,7 +96,7 @@ public class DataPacketExtension implements ExtensionElement {
      * @return the data contained in this packet.
      */
     public String getData() {
-        return data;
+        return data.toString();
     }
 
     /**
@@ -116,13 +116,14 @@ public class DataPacketExtension implements ExtensionElement {
             return this.decodedData;
         }
 
-        // data must not contain the pad (=) other than end of data
-        if (data.matches(".*={1,2}+.+")) {
+        // decode directly into an array of the decoded size, this also rejects pad (=) characters
+        // other than at the end of the data
+        try {
+            this.decodedData = Base64.decodeToByteArray(data);
+        }
+        catch (IllegalArgumentException e) {
             return null;
         }
-
-        // decodeBase64 will return null if bad characters are included
-        this.decodedData = Base64.decode(data);
         return this.decodedData;
     }
 
@@ -21,6 +21,7 @@ import java.net.InetAddress;
 import java.net.Socket;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
@@ -569,30 +570,33 @@ public final class Socks5BytestreamManager extends Manager implements Bytestream
         DiscoverItems discoverItems = serviceDiscoveryManager.discoverItems(connection.getXMPPServiceDomain());
 
         // query all items if they are SOCKS5 proxies
+        List<Jid> candidates = new ArrayList<>(discoverItems.getItems().size());
         for (Item item : discoverItems.getItems()) {
             // skip blacklisted servers
             if (this.proxyBlacklist.contains(item.getEntityID())) {
                 continue;
             }
+            candidates.add(item.getEntityID());
+        }
 
-            DiscoverInfo proxyInfo;
-            try {
-                proxyInfo = serviceDiscoveryManager.discoverInfo(item.getEntityID());
-            }
-            catch (NoResponseException | XMPPErrorException e) {
-                // blacklist errornous server
-                proxyBlacklist.add(item.getEntityID());
-                continue;
-            }
+        // The disco#info requests are pipelined, erroneous servers are reported via the exceptions map
+        Map<Jid, Exception> encounteredExceptions = new HashMap<>();
+        Map<Jid, DiscoverInfo> proxyInfos = serviceDiscoveryManager.discoverInfos(candidates, false, encounteredExceptions);
+
+        // blacklist errornous server
+        proxyBlacklist.addAll(encounteredExceptions.keySet());
 
+        for (Map.Entry<Jid, DiscoverInfo> entry : proxyInfos.entrySet()) {
+            Jid proxy = entry.getKey();
+            DiscoverInfo proxyInfo = entry.getValue();
             if (proxyInfo.hasIdentity("proxy", "bytestreams")) {
-                proxies.add(item.getEntityID());
+                proxies.add(proxy);
             } else {
                 /*
                  * server is not a SOCKS5 proxy, blacklist server to skip next time a Socks5
                  * bytestream should be established
                  */
-                this.proxyBlacklist.add(item.getEntityID());
+                this.proxyBlacklist.add(proxy);
             }
         }
 
@@ -18,17 +18,28 @@ package org.jivesoftware.smackx.bytestreams.socks5;
 
 import java.io.IOException;
 import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.logging.Logger;
 
-import org.jivesoftware.smack.SmackException;
 import org.jivesoftware.smack.SmackException.NotConnectedException;
-import org.jivesoftware.smack.XMPPException;
+import org.jivesoftware.smack.SmackException.SmackMessageException;
 import org.jivesoftware.smack.XMPPException.XMPPErrorException;
 import org.jivesoftware.smack.packet.IQ;
 import org.jivesoftware.smack.packet.StanzaError;
+import org.jivesoftware.smack.util.Async;
+import org.jivesoftware.smack.util.CloseableUtil;
 
 import org.jivesoftware.smackx.bytestreams.BytestreamRequest;
 import org.jivesoftware.smackx.bytestreams.socks5.Socks5Exception.CouldNotConnectToAnyProvidedSocks5Host;
@@ -47,6 +58,8 @@ import org.jxmpp.util.cache.ExpirationCache;
  */
 public class Socks5BytestreamRequest implements BytestreamRequest {
 
+    private static final Logger LOGGER = Logger.getLogger(Socks5BytestreamRequest.class.getName());
+
     /* lifetime of an Item in the blacklist */
     private static final long BLACKLIST_LIFETIME = 60 * 1000 * 120;
 
@@ -78,6 +91,9 @@ public class Socks5BytestreamRequest implements BytestreamRequest {
     /* minimum timeout to connect to one SOCKS5 proxy */
     private int minimumConnectTimeout = 2000;
 
+    /* delay between starting the connection attempts to consecutive SOCKS5 proxies */
+    private int connectAttemptDelay = 250;
+
     /**
      * Returns the default connection failure threshold.
      *
@@ -141,8 +157,8 @@ public class Socks5BytestreamRequest implements BytestreamRequest {
      * Returns the maximum timeout to connect to SOCKS5 proxies. Default is 10000ms.
      * <p>
      * When accepting a SOCKS5 Bytestream request Smack tries to connect to all SOCKS5 proxies given
-     * by the initiator until a connection is established. This timeout divided by the number of
-     * SOCKS5 proxies determines the timeout for every connection attempt.
+     * by the initiator until a connection is established. The connection attempts must succeed
+     * within this timeout.
      * <p>
      * You can set the minimum timeout for establishing a connection to one SOCKS5 proxy by invoking
      * {@link #setMinimumConnectTimeout(int)}.
@@ -160,8 +176,8 @@ public class Socks5BytestreamRequest implements BytestreamRequest {
      * Sets the maximum timeout to connect to SOCKS5 proxies. Default is 10000ms.
      * <p>
      * When accepting a SOCKS5 Bytestream request Smack tries to connect to all SOCKS5 proxies given
-     * by the initiator until a connection is established. This timeout divided by the number of
-     * SOCKS5 proxies determines the timeout for every connection attempt.
+     * by the initiator until a connection is established. The connection attempts must succeed
+     * within this timeout.
      * <p>
      * You can set the minimum timeout for establishing a connection to one SOCKS5 proxy by invoking
      * {@link #setMinimumConnectTimeout(int)}.
@@ -172,9 +188,40 @@ public class Socks5BytestreamRequest implements BytestreamRequest {
         this.totalConnectTimeout = totalConnectTimeout;
     }
 
+    /**
+     * Returns the delay between starting the connection attempts to consecutive SOCKS5 proxies.
+     * Default is 250ms.
+     * <p>
+     * When accepting a SOCKS5 Bytestream request Smack connects to the SOCKS5 proxies concurrently,
+     * in the order given by the initiator, while proxies which failed before are tried last. Each
+     * connection attempt is started after this delay, or as soon as all running attempts failed, and
+     * the first proxy which completes the SOCKS5 negotiation is used.
+     *
+     * @return the delay between starting the connection attempts in milliseconds
+     */
+    public int getConnectAttemptDelay() {
+        return this.connectAttemptDelay;
+    }
+
+    /**
+     * Sets the delay between starting the connection attempts to consecutive SOCKS5 proxies.
+     * Default is 250ms.
+     * <p>
+     * Setting the delay to zero connects to all SOCKS5 proxies at once.
+     *
+     * @param connectAttemptDelay the delay between starting the connection attempts in milliseconds
+     * @see #getConnectAttemptDelay()
+     */
+    public void setConnectAttemptDelay(int connectAttemptDelay) {
+        this.connectAttemptDelay = connectAttemptDelay;
+    }
+
     /**
      * Returns the timeout to connect to one SOCKS5 proxy while accepting the SOCKS5 Bytestream
      * request. Default is 2000ms.
+     * <p>
+     * A connection attempt started late, due to the delay between the connection attempts, is
+     * granted this timeout even if it exceeds the total connect timeout.
      *
      * @return the timeout to connect to one SOCKS5 proxy
      */
@@ -220,7 +267,8 @@ public class Socks5BytestreamRequest implements BytestreamRequest {
      * data.
      * <p>
      * Before accepting the SOCKS5 Bytestream request you can set timeouts by invoking
-     * {@link #setTotalConnectTimeout(int)} and {@link #setMinimumConnectTimeout(int)}.
+     * {@link #setTotalConnectTimeout(int)} and {@link #setMinimumConnectTimeout(int)}. The SOCKS5
+     * proxies are connected concurrently, see {@link #setConnectAttemptDelay(int)}.
      *
      * @return the socket to send/receive data
      * @throws InterruptedException if the current thread was interrupted while waiting
@@ -240,47 +288,33 @@ public class Socks5BytestreamRequest implements BytestreamRequest {
             cancelRequest(streamHostsExceptions);
         }
 
-        StreamHost selectedHost = null;
-        Socket socket = null;
-
         String digest = Socks5Utils.createDigest(this.bytestreamRequest.getSessionID(),
                         this.bytestreamRequest.getFrom(), this.manager.getConnection().getUser());
 
-        /*
-         * determine timeout for each connection attempt; each SOCKS5 proxy has the same amount of
-         * time so that the first does not consume the whole timeout
-         */
-        int timeout = Math.max(getTotalConnectTimeout() / streamHosts.size(),
-                        getMinimumConnectTimeout());
-
+        // skip blacklisted SOCKS5 proxies and try the ones which failed before last
+        List<StreamHost> candidates = new ArrayList<>(streamHosts.size());
+        final Map<StreamHost, Integer> failures = new HashMap<>();
         for (StreamHost streamHost : streamHosts) {
-            String address = streamHost.getAddress() + ":" + streamHost.getPort();
-
-            // check to see if this address has been blacklisted
-            int failures = getConnectionFailures(address);
-            if (connectionFailureThreshold > 0 && failures >= connectionFailureThreshold) {
+            int count = getConnectionFailures(getAddress(streamHost));
+            if (connectionFailureThreshold > 0 && count >= connectionFailureThreshold) {
                 continue;
             }
-
-            // establish socket
-            try {
-
-                // build SOCKS5 client
-                final Socks5Client socks5Client = new Socks5Client(streamHost, digest);
-
-                // connect to SOCKS5 proxy with a timeout
-                socket = socks5Client.getSocket(timeout);
-
-                // set selected host
-                selectedHost = streamHost;
-                break;
-
-            }
-            catch (TimeoutException | IOException | SmackException | XMPPException e) {
-                streamHostsExceptions.put(streamHost, e);
-                incrementConnectionFailures(address);
+            candidates.add(streamHost);
+            failures.put(streamHost, count);
+        }
+        Collections.sort(candidates, new Comparator<StreamHost>() {
+            @Override
+            public int compare(StreamHost streamHost1, StreamHost streamHost2) {
+                return Integer.compare(failures.get(streamHost1), failures.get(streamHost2));
             }
+        });
 
+        ConnectionAttempt selectedAttempt = connectToAnyStreamHost(candidates, digest, streamHostsExceptions);
+        StreamHost selectedHost = null;
+        Socket socket = null;
+        if (selectedAttempt != null) {
+            selectedHost = selectedAttempt.streamHost;
+            socket = selectedAttempt.socket;
         }
 
         // throw exception if connecting to all SOCKS5 proxies failed
@@ -297,6 +331,103 @@ public class Socks5BytestreamRequest implements BytestreamRequest {
 
     }
 
+    /**
+     * Connects to the given SOCKS5 proxies concurrently and returns the first connection attempt
+     * which succeeded. The connection attempts are started in the given order, each one after the
+     * connection attempt delay or as soon as all running attempts failed. All other attempts are
+     * aborted.
+     *
+     * @param streamHosts the SOCKS5 proxies in the order they should be tried
+     * @param digest the digest identifying the SOCKS5 Bytestream
+     * @param streamHostsExceptions receives the exceptions of the failed connection attempts
+     * @return the successful connection attempt or <code>null</code> if all attempts failed
+     * @throws InterruptedException if the current thread was interrupted while waiting
+     */
+    private ConnectionAttempt connectToAnyStreamHost(List<StreamHost> streamHosts, String digest,
+                    Map<StreamHost, Exception> streamHostsExceptions) throws InterruptedException {
+        BlockingQueue<ConnectionAttempt> finishedAttempts = new LinkedBlockingQueue<>();
+        List<ConnectionAttempt> runningAttempts = new ArrayList<>(streamHosts.size());
+        long start = System.nanoTime();
+        long totalDeadline = start + TimeUnit.MILLISECONDS.toNanos(getTotalConnectTimeout());
+        long attemptDelay = TimeUnit.MILLISECONDS.toNanos(Math.max(connectAttemptDelay, 0));
+        long minimumConnectTimeout = TimeUnit.MILLISECONDS.toNanos(getMinimumConnectTimeout());
+
+        try {
+            int nextStreamHost = 0;
+            long nextAttemptStart = start;
+            while (true) {
+                long now = System.nanoTime();
+                if (nextStreamHost < streamHosts.size() && (now - nextAttemptStart >= 0 || runningAttempts.isEmpty())) {
+                    StreamHost streamHost = streamHosts.get(nextStreamHost++);
+                    long deadline = Math.max(totalDeadline - now, minimumConnectTimeout) + now;
+                    Socket socket;
+                    try {
+                        socket = SocketChannel.open().socket();
+                    }
+                    catch (IOException e) {
+                        streamHostsExceptions.put(streamHost, e);
+                        continue;
+                    }
+                    ConnectionAttempt attempt = new ConnectionAttempt(streamHost, digest, socket, deadline,
+                                    finishedAttempts);
+                    runningAttempts.add(attempt);
+                    Async.go(attempt, "SOCKS5 client connecting to " + streamHost);
+                    nextAttemptStart = now + attemptDelay;
+                    continue;
+                }
+
+                if (runningAttempts.isEmpty()) {
+                    // all connection attempts failed
+                    return null;
+                }
+
+                // wait until an attempt finished, the next attempt is due or an attempt timed out
+                long wakeup = runningAttempts.get(0).deadline;
+                for (ConnectionAttempt attempt : runningAttempts) {
+                    if (attempt.deadline - wakeup < 0) {
+                        wakeup = attempt.deadline;
+                    }
+                }
+                if (nextStreamHost < streamHosts.size() && nextAttemptStart - wakeup < 0) {
+                    wakeup = nextAttemptStart;
+                }
+                ConnectionAttempt finishedAttempt = finishedAttempts.poll(wakeup - now, TimeUnit.NANOSECONDS);
+
+                if (finishedAttempt != null) {
+                    if (!runningAttempts.remove(finishedAttempt)) {
+                        // the attempt timed out before
+                        continue;
+                    }
+                    if (finishedAttempt.exception == null) {
+                        return finishedAttempt;
+                    }
+                    streamHostsExceptions.put(finishedAttempt.streamHost, finishedAttempt.exception);
+                    incrementConnectionFailures(getAddress(finishedAttempt.streamHost));
+                    continue;
+                }
+
+                now = System.nanoTime();
+                for (Iterator<ConnectionAttempt> it = runningAttempts.iterator(); it.hasNext();) {
+                    ConnectionAttempt attempt = it.next();
+                    if (attempt.deadline - now > 0) {
+                        continue;
+                    }
+                    it.remove();
+                    attempt.abort();
+                    streamHostsExceptions.put(attempt.streamHost, new TimeoutException(
+                                    "Timeout while connecting to SOCKS5 proxy " + attempt.streamHost));
+                    incrementConnectionFailures(getAddress(attempt.streamHost));
+                }
+            }
+        }
+        finally {
+            // abort all remaining attempts, the sockets of attempts succeeding in the meantime are closed as well
+            for (ConnectionAttempt attempt : runningAttempts) {
+                attempt.abort();
+            }
+        }
+    }
+
     /**
      * Rejects the SOCKS5 Bytestream request by sending a reject error to the initiator.
      * @throws NotConnectedException if the XMPP connection is not connected.
@@ -359,6 +490,10 @@ public class Socks5BytestreamRequest implements BytestreamRequest {
         return response;
     }
 
+    private static String getAddress(StreamHost streamHost) {
+        return streamHost.getAddress() + ":" + streamHost.getPort();
+    }
+
     /**
      * Increments the connection failure counter by one for the given address.
      *
@@ -380,4 +515,49 @@ public class Socks5BytestreamRequest implements BytestreamRequest {
         return count != null ? count : 0;
     }
 
+    /**
+     * A connection attempt to a SOCKS5 proxy, which reports itself to a queue when it finished.
+     */
+    private static final class ConnectionAttempt implements Runnable {
+
+        private final StreamHost streamHost;
+
+        private final Socks5Client socks5Client;
+
+        private final Socket socket;
+
+        /* the time in nanoseconds when the attempt times out */
+        private final long deadline;
+
+        private final BlockingQueue<ConnectionAttempt> finishedAttempts;
+
+        /* the cause of the failure, published by the queue */
+        private Exception exception;
+
+        private ConnectionAttempt(StreamHost streamHost, String digest, Socket socket, long deadline,
+                        BlockingQueue<ConnectionAttempt> finishedAttempts) {
+            this.streamHost = streamHost;
+            this.socks5Client = new Socks5Client(streamHost, digest);
+            this.socket = socket;
+            this.deadline = deadline;
+            this.finishedAttempts = finishedAttempts;
+        }
+
+        @Override
+        public void run() {
+            try {
+                socks5Client.connect(socket);
+            }
+            catch (IOException | SmackMessageException e) {
+                exception = e;
+                CloseableUtil.maybeClose(socket, LOGGER);
+            }
+            finishedAttempts.add(this);
+        }
+
+        private void abort() {
+            CloseableUtil.maybeClose(socket, LOGGER);
+        }
+    }
+
 }
@@ -21,8 +21,10 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.Socket;
 import java.net.SocketException;
+import java.nio.channels.SocketChannel;
 
 import org.jivesoftware.smackx.bytestreams.BytestreamSession;
+import org.jivesoftware.smackx.bytestreams.ChannelOutputStream;
 
 /**
  * Socks5BytestreamSession class represents a SOCKS5 Bytestream session.
@@ -69,9 +71,22 @@ public class Socks5BytestreamSession implements BytestreamSession {
         return this.socket.getInputStream();
     }
 
+    /**
+     * Returns the output stream of this session. If the underlying socket was created by a
+     * {@link SocketChannel}, the returned stream is a {@link ChannelOutputStream} exposing the
+     * channel.
+     *
+     * @return the output stream of this session
+     * @throws IOException if an error occurs while retrieving the output stream
+     */
     @Override
     public OutputStream getOutputStream() throws IOException {
-        return this.socket.getOutputStream();
+        OutputStream outputStream = this.socket.getOutputStream();
+        SocketChannel channel = this.socket.getChannel();
+        if (channel != null) {
+            return new ChannelOutputStream(outputStream, channel);
+        }
+        return outputStream;
     }
 
     @Override
@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketAddress;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.concurrent.Callable;
@@ -90,25 +91,8 @@ public class Socks5Client {
 
             @Override
             public Socket call() throws IOException, SmackMessageException {
-
-                // initialize socket
-                Socket socket = new Socket();
-                SocketAddress socketAddress = new InetSocketAddress(streamHost.getAddress().asInetAddress(),
-                                streamHost.getPort());
-                socket.connect(socketAddress);
-
-                // initialize connection to SOCKS5 proxy
-                try {
-                    establish(socket);
-                }
-                catch (SmackMessageException e) {
-                    if (!socket.isClosed()) {
-                        CloseableUtil.maybeClose(socket, LOGGER);
-                    }
-                    throw e;
-                }
-
-                return socket;
+                // initialize socket, created by a channel so that data can be transferred without copying
+                return connect(SocketChannel.open().socket());
             }
 
         });
@@ -124,6 +108,35 @@ public class Socks5Client {
 
     }
 
+    /**
+     * Connects the given unconnected socket to the SOCKS5 proxy and initializes the connection in
+     * the current thread. The attempt is not limited in time, but can be aborted by closing the
+     * socket.
+     *
+     * @param socket the unconnected socket
+     * @return the initialized socket
+     * @throws IOException if initializing the socket failed due to a network error
+     * @throws SmackMessageException if the SOCKS5 proxy responded in an unsupported way
+     */
+    Socket connect(Socket socket) throws IOException, SmackMessageException {
+        SocketAddress socketAddress = new InetSocketAddress(streamHost.getAddress().asInetAddress(),
+                        streamHost.getPort());
+        socket.connect(socketAddress);
+
+        // initialize connection to SOCKS5 proxy
+        try {
+            establish(socket);
+        }
+        catch (SmackMessageException e) {
+            if (!socket.isClosed()) {
+                CloseableUtil.maybeClose(socket, LOGGER);
+            }
+            throw e;
+        }
+
+        return socket;
+    }
+
     /**
      * Initializes the connection to the SOCKS5 proxy by negotiating authentication method and
      * requesting a stream for the given digest. Currently only the no-authentication method is
@@ -16,16 +16,21 @@
  */
 package org.jivesoftware.smackx.bytestreams.socks5;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.InterfaceAddress;
 import java.net.NetworkInterface;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Enumeration;
@@ -33,14 +38,18 @@ import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import org.jivesoftware.smack.SmackException;
+import org.jivesoftware.smack.ScheduledAction;
+import org.jivesoftware.smack.SmackException.SmackMessageException;
+import org.jivesoftware.smack.SmackReactor;
+import org.jivesoftware.smack.SmackReactor.ChannelSelectedCallback;
 import org.jivesoftware.smack.util.CloseableUtil;
 
 /**
@@ -60,6 +69,13 @@ import org.jivesoftware.smack.util.CloseableUtil;
  * in the process of establishing a SOCKS5 Bytestream (
  * {@link Socks5BytestreamManager#establishSession(org.jxmpp.jid.Jid)}).
  * <p>
+ * The proxy uses non-blocking I/O on the {@link SmackReactor}, hence it does not require a thread
+ * of its own and connections are negotiated concurrently. Once a connection has been negotiated,
+ * its channel is put into blocking mode and its socket is handed over to the SOCKS5 Bytestream.
+ * Connections which are not negotiated within the {@link #setNegotiationTimeout(int) negotiation
+ * timeout} are closed, and connections exceeding the {@link #setMaximumPendingNegotiations(int)
+ * maximum number of pending negotiations} are closed right after they were accepted.
+ * <p>
  * This Implementation has the following limitations:
  * <ul>
  * <li>only supports the no-authentication authentication method</li>
@@ -94,17 +110,48 @@ public class Socks5Proxy {
      */
     private int localSocks5ProxyPort = -7777;
 
-    /* reusable implementation of a SOCKS5 proxy server process */
-    private final Socks5ServerProcess serverProcess;
+    /**
+     * The default time in milliseconds a connection may take to be negotiated.
+     */
+    public static final int DEFAULT_NEGOTIATION_TIMEOUT = 10000;
 
-    /* thread running the SOCKS5 server process */
-    private Thread serverThread;
+    /**
+     * The default maximum number of connections which are negotiated at the same time.
+     */
+    public static final int DEFAULT_MAXIMUM_PENDING_NEGOTIATIONS = 64;
 
-    /* server socket to accept SOCKS5 connections */
+    /* the time in milliseconds a connection may take to be negotiated */
+    private volatile int negotiationTimeout = DEFAULT_NEGOTIATION_TIMEOUT;
+
+    /* the maximum number of connections which are negotiated at the same time */
+    private volatile int maximumPendingNegotiations = DEFAULT_MAXIMUM_PENDING_NEGOTIATIONS;
+
+    /* the reactor handling the server socket and the connections until they are negotiated */
+    private final SmackReactor reactor = SmackReactor.getInstance();
+
+    /* accepts SOCKS5 connections, a strong reference is required as the reactor only keeps a weak one */
+    private final ChannelSelectedCallback acceptCallback = new ChannelSelectedCallback() {
+        @Override
+        public void onChannelSelected(SelectableChannel channel, SelectionKey selectionKey) {
+            acceptConnections((ServerSocketChannel) channel, selectionKey);
+        }
+    };
+
+    /* server socket channel to accept SOCKS5 connections */
+    private ServerSocketChannel serverSocketChannel;
+
+    /* the socket of the server socket channel */
     private ServerSocket serverSocket;
 
+    /* selection key of the server socket channel */
+    private SelectionKey serverSelectionKey;
+
+    /* connections which are currently negotiated */
+    private final Set<Socks5Negotiation> negotiations = Collections.newSetFromMap(
+                    new ConcurrentHashMap<Socks5Negotiation, Boolean>());
+
     /* assigns a connection to a digest */
-    private final Map<String, Socket> connectionMap = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Socket> connectionMap = new ConcurrentHashMap<>();
 
     /* list of digests connections should be stored */
     private final List<String> allowedConnections = Collections.synchronizedList(new LinkedList<String>());
@@ -121,8 +168,6 @@ public class Socks5Proxy {
      * Private constructor.
      */
     Socks5Proxy() {
-        this.serverProcess = new Socks5ServerProcess();
-
         allowAllConnections = false;
 
         Enumeration<NetworkInterface> networkInterfaces;
@@ -147,15 +192,22 @@ public class Socks5Proxy {
     /**
      * Constructor a Socks5Proxy with the given socket. Used for unit test purposes.
      *
-     * @param serverSocket the server socket to use
+     * @param serverSocket the server socket to use, which must have been created by a {@link ServerSocketChannel}
      */
     protected Socks5Proxy(ServerSocket serverSocket) {
-        this.serverProcess = new Socks5ServerProcess();
-        this.serverSocket = serverSocket;
+        ServerSocketChannel serverSocketChannel = serverSocket.getChannel();
+        if (serverSocketChannel == null) {
+            throw new IllegalArgumentException("The server socket must have been created by a server socket channel");
+        }
 
         allowAllConnections = true;
 
-        startServerThread();
+        try {
+            startServer(serverSocketChannel);
+        }
+        catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
     }
 
 
@@ -213,6 +265,53 @@ public class Socks5Proxy {
        this.localSocks5ProxyPort = localSocks5ProxyPort;
    }
 
+    /**
+     * Returns the time in milliseconds a connection may take to be negotiated before it is closed.
+     * Default is {@value #DEFAULT_NEGOTIATION_TIMEOUT}.
+     *
+     * @return the negotiation timeout in milliseconds
+     */
+    public int getNegotiationTimeout() {
+        return negotiationTimeout;
+    }
+
+    /**
+     * Sets the time in milliseconds a connection may take to be negotiated before it is closed.
+     * Applies to connections accepted afterwards.
+     *
+     * @param negotiationTimeout the negotiation timeout in milliseconds
+     */
+    public void setNegotiationTimeout(int negotiationTimeout) {
+        if (negotiationTimeout <= 0) {
+            throw new IllegalArgumentException("Negotiation timeout must be > 0");
+        }
+        this.negotiationTimeout = negotiationTimeout;
+    }
+
+    /**
+     * Returns the maximum number of connections which are negotiated at the same time. Further
+     * connections are closed right after they were accepted. Default is
+     * {@value #DEFAULT_MAXIMUM_PENDING_NEGOTIATIONS}.
+     *
+     * @return the maximum number of pending negotiations
+     */
+    public int getMaximumPendingNegotiations() {
+        return maximumPendingNegotiations;
+    }
+
+    /**
+     * Sets the maximum number of connections which are negotiated at the same time. Further
+     * connections are closed right after they were accepted.
+     *
+     * @param maximumPendingNegotiations the maximum number of pending negotiations
+     */
+    public void setMaximumPendingNegotiations(int maximumPendingNegotiations) {
+        if (maximumPendingNegotiations <= 0) {
+            throw new IllegalArgumentException("Maximum pending negotiations must be > 0");
+        }
+        this.maximumPendingNegotiations = maximumPendingNegotiations;
+    }
+
     /**
      * Returns the local SOCKS5 proxy server.
      *
@@ -237,12 +336,15 @@ public class Socks5Proxy {
         if (isRunning()) {
             return this.serverSocket;
         }
+        ServerSocketChannel serverSocketChannel = null;
         try {
+            serverSocketChannel = ServerSocketChannel.open();
+            ServerSocket serverSocket = serverSocketChannel.socket();
             if (getLocalSocks5ProxyPort() < 0) {
                 int port = Math.abs(getLocalSocks5ProxyPort());
                 for (int i = 0; i < 65535 - port; i++) {
                     try {
-                        this.serverSocket = new ServerSocket(port + i);
+                        serverSocket.bind(new InetSocketAddress(port + i));
                         break;
                     }
                     catch (IOException e) {
@@ -251,11 +353,11 @@ public class Socks5Proxy {
                 }
             }
             else {
-                this.serverSocket = new ServerSocket(getLocalSocks5ProxyPort());
+                serverSocket.bind(new InetSocketAddress(getLocalSocks5ProxyPort()));
             }
 
-            if (this.serverSocket != null) {
-                startServerThread();
+            if (serverSocket.isBound()) {
+                startServer(serverSocketChannel);
             }
         }
         catch (IOException e) {
@@ -263,16 +365,21 @@ public class Socks5Proxy {
             LOGGER.log(Level.SEVERE, "couldn't setup local SOCKS5 proxy on port " + getLocalSocks5ProxyPort(), e);
         }
 
+        if (!isRunning()) {
+            CloseableUtil.maybeClose(serverSocketChannel, LOGGER);
+        }
+
         return this.serverSocket;
     }
 
-    private synchronized void startServerThread() {
-        this.serverThread = new Thread(this.serverProcess);
-        this.serverThread.setName("Smack Local SOCKS5 Proxy [" + this.serverSocket + ']');
-        this.serverThread.setDaemon(true);
+    private synchronized void startServer(ServerSocketChannel serverSocketChannel) throws IOException {
+        serverSocketChannel.configureBlocking(false);
+        this.serverSelectionKey = reactor.registerWithSelector(serverSocketChannel, SelectionKey.OP_ACCEPT,
+                        acceptCallback);
+        this.serverSocketChannel = serverSocketChannel;
+        this.serverSocket = serverSocketChannel.socket();
 
         RUNNING_PROXIES.add(this);
-        this.serverThread.start();
     }
 
     /**
@@ -285,21 +392,31 @@ public class Socks5Proxy {
 
         RUNNING_PROXIES.remove(this);
 
-        CloseableUtil.maybeClose(this.serverSocket, LOGGER);
-
-        if (this.serverThread != null && this.serverThread.isAlive()) {
-            try {
-                this.serverThread.interrupt();
-                this.serverThread.join();
-            }
-            catch (InterruptedException e) {
-                LOGGER.log(Level.WARNING, "SOCKS5 server thread termination was interrupted", e);
-            }
+        deregisterAndClose(this.serverSelectionKey);
+        for (Socks5Negotiation negotiation : negotiations) {
+            negotiation.close();
         }
-        this.serverThread = null;
+
+        this.serverSelectionKey = null;
+        this.serverSocketChannel = null;
         this.serverSocket = null;
     }
 
+    /**
+     * Deregisters the channel of the given key from the reactor and closes it afterwards. Closing a
+     * registered channel would defer the release of its socket until the next select operation.
+     *
+     * @param selectionKey the selection key of the channel to close
+     */
+    private void deregisterAndClose(final SelectionKey selectionKey) {
+        reactor.deregisterFromSelector(selectionKey, new Runnable() {
+            @Override
+            public void run() {
+                CloseableUtil.maybeClose(selectionKey.channel(), LOGGER);
+            }
+        });
+    }
+
     /**
      * Adds the given address to the list of local network addresses.
      * <p>
@@ -429,102 +546,288 @@ public class Socks5Proxy {
         return this.serverSocket != null;
     }
 
+    private void acceptConnections(ServerSocketChannel serverSocketChannel, SelectionKey selectionKey) {
+        try {
+            SocketChannel socketChannel;
+            while ((socketChannel = serverSocketChannel.accept()) != null) {
+                if (negotiations.size() >= maximumPendingNegotiations) {
+                    LOGGER.fine(this + " closes an accepted connection, as "  + negotiations.size()
+                                    + " connections are already negotiated");
+                    CloseableUtil.maybeClose(socketChannel, LOGGER);
+                    continue;
+                }
+                Socks5Negotiation negotiation = new Socks5Negotiation(socketChannel);
+                try {
+                    socketChannel.configureBlocking(false);
+                    negotiations.add(negotiation);
+                    negotiation.selectionKey = reactor.registerWithSelector(socketChannel, SelectionKey.OP_READ,
+                                    negotiation);
+                    negotiation.scheduleDeadline(negotiationTimeout);
+                }
+                catch (IOException e) {
+                    LOGGER.log(Level.FINE, "Exception while " + this + " was accepting a connection", e);
+                    negotiations.remove(negotiation);
+                    CloseableUtil.maybeClose(socketChannel, LOGGER);
+                }
+            }
+        }
+        catch (IOException e) {
+            if (!serverSocketChannel.isOpen()) {
+                // the proxy was stopped
+                return;
+            }
+            LOGGER.log(Level.WARNING, "Exception while " + this + " was accepting connections", e);
+        }
+        reactor.setInterestOps(selectionKey, SelectionKey.OP_ACCEPT);
+    }
+
     /**
-     * Implementation of a simplified SOCKS5 proxy server.
+     * Negotiates a SOCKS5 connection without blocking and stores it on success.
      */
-    private class Socks5ServerProcess implements Runnable {
+    private final class Socks5Negotiation implements ChannelSelectedCallback {
 
-        @Override
-        public void run() {
-            while (true) {
-                ServerSocket serverSocket = Socks5Proxy.this.serverSocket;
-                if (serverSocket == null || serverSocket.isClosed() || Thread.currentThread().isInterrupted()) {
-                    return;
+        private final SocketChannel socketChannel;
+
+        private volatile SelectionKey selectionKey;
+
+        /*
+         * the message currently received, its limit is set to the number of bytes required to
+         * process the message further, so that no byte following the negotiation is read
+         */
+        private final ByteBuffer message = ByteBuffer.allocate(7 + 255);
+
+        /* the response which is currently sent */
+        private ByteBuffer response;
+
+        /* the cause to close the connection after the response has been sent */
+        private SmackMessageException failure;
+
+        private boolean authenticationMethodSelected;
+
+        /* closes the connection if it is not negotiated in time */
+        private volatile ScheduledAction deadline;
+
+        private Socks5Negotiation(SocketChannel socketChannel) {
+            this.socketChannel = socketChannel;
+            this.message.limit(2);
+        }
+
+        private void scheduleDeadline(int timeout) {
+            deadline = reactor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (negotiations.contains(Socks5Negotiation.this)) {
+                        LOGGER.fine("Connection to " + Socks5Proxy.this + " was not negotiated within " + timeout
+                                        + "ms");
+                        close();
+                    }
                 }
+            }, timeout, TimeUnit.MILLISECONDS);
+            if (!negotiations.contains(this)) {
+                // The negotiation finished before the deadline was scheduled.
+                cancelDeadline();
+            }
+        }
 
-                // accept connection
-                Socket socket = null;
-                try {
-                    socket = serverSocket.accept();
-                    // initialize connection
-                    establishConnection(socket);
-                } catch (SmackException | IOException e) {
-                    // Do nothing, if caused by closing the server socket, thread will terminate in next loop.
-                    LOGGER.log(Level.FINE, "Exception while " + Socks5Proxy.this + " was handling connection", e);
-                    CloseableUtil.maybeClose(socket, LOGGER);
+        private void cancelDeadline() {
+            ScheduledAction deadline = this.deadline;
+            if (deadline != null) {
+                deadline.cancel();
+            }
+        }
+
+        @Override
+        public void onChannelSelected(SelectableChannel channel, SelectionKey selectionKey) {
+            // the reactor may select the channel before the registration returned its key
+            this.selectionKey = selectionKey;
+            try {
+                int interestOps = negotiate();
+                if (interestOps != 0) {
+                    reactor.setInterestOps(selectionKey, interestOps);
                 }
             }
+            catch (SmackMessageException | IOException e) {
+                LOGGER.log(Level.FINE, "Exception while " + Socks5Proxy.this + " was handling connection", e);
+                close();
+            }
         }
 
         /**
-         * Negotiates a SOCKS5 connection and stores it on success.
+         * Sends the pending response and processes the received messages until the channel would
+         * block.
          *
-         * @param socket connection to the client
-         * @throws SmackException if client requests a connection in an unsupported way
+         * @return the operations to wait for or 0 if the negotiation is finished
+         * @throws SmackMessageException if client requests a connection in an unsupported way
          * @throws IOException if a network error occurred
          */
-        private void establishConnection(Socket socket) throws SmackException, IOException {
-            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
-            DataInputStream in = new DataInputStream(socket.getInputStream());
+        private int negotiate() throws SmackMessageException, IOException {
+            while (true) {
+                if (response != null) {
+                    socketChannel.write(response);
+                    if (response.hasRemaining()) {
+                        return SelectionKey.OP_WRITE;
+                    }
+                    response = null;
+                    if (failure != null) {
+                        throw failure;
+                    }
+                }
 
-            // first byte is version should be 5
-            int b = in.read();
-            if (b != 5) {
-                throw new SmackException.SmackMessageException("Only SOCKS5 supported: Peer send " + b + " but we expect 5");
+                if (socketChannel.read(message) < 0) {
+                    throw new IOException("Connection closed by peer");
+                }
+                if (message.hasRemaining()) {
+                    return SelectionKey.OP_READ;
+                }
+
+                if (!authenticationMethodSelected) {
+                    processAuthenticationMethods();
+                }
+                else if (processConnectionRequest()) {
+                    return 0;
+                }
             }
+        }
 
-            // second byte number of authentication methods supported
-            b = in.read();
+        private void processAuthenticationMethods() throws SmackMessageException {
+            byte[] bytes = message.array();
 
-            // read list of supported authentication methods
-            byte[] auth = new byte[b];
-            in.readFully(auth);
+            // first byte is version should be 5
+            if (bytes[0] != (byte) 0x05) {
+                throw new SmackMessageException("Only SOCKS5 supported: Peer send " + bytes[0] + " but we expect 5");
+            }
 
-            byte[] authMethodSelectionResponse = new byte[2];
-            authMethodSelectionResponse[0] = (byte) 0x05; // protocol version
+            // second byte number of authentication methods supported, followed by the methods
+            int methods = bytes[1] & 0xff;
+            if (message.position() < 2 + methods) {
+                message.limit(2 + methods);
+                return;
+            }
 
             // only authentication method 0, no authentication, supported
             boolean noAuthMethodFound = false;
-            for (int i = 0; i < auth.length; i++) {
-                if (auth[i] == (byte) 0x00) {
+            for (int i = 2; i < 2 + methods; i++) {
+                if (bytes[i] == (byte) 0x00) {
                     noAuthMethodFound = true;
                     break;
                 }
             }
 
             if (!noAuthMethodFound) {
-                authMethodSelectionResponse[1] = (byte) 0xFF; // no acceptable methods
-                out.write(authMethodSelectionResponse);
-                out.flush();
-                throw new SmackException.SmackMessageException("Authentication method not supported");
+                response = ByteBuffer.wrap(new byte[] { (byte) 0x05, (byte) 0xFF }); // no acceptable methods
+                failure = new SmackMessageException("Authentication method not supported");
+                return;
             }
 
-            authMethodSelectionResponse[1] = (byte) 0x00; // no-authentication method
-            out.write(authMethodSelectionResponse);
-            out.flush();
+            response = ByteBuffer.wrap(new byte[] { (byte) 0x05, (byte) 0x00 }); // no-authentication method
+            authenticationMethodSelected = true;
+
+            // next the connection request header
+            message.clear();
+            message.limit(5);
+        }
+
+        /**
+         * Processes the connection request.
+         *
+         * @return true if the connection request has been accepted
+         * @throws SmackMessageException if the request contains an unsupported address type
+         */
+        private boolean processConnectionRequest() throws SmackMessageException {
+            byte[] bytes = message.array();
+
+            if (message.position() == 5) {
+                if (bytes[3] != (byte) 0x03) {
+                    throw new SmackMessageException("Unsupported SOCKS5 address type: " + bytes[3] + " (expected: 0x03)");
+                }
+                // the address followed by the port
+                message.limit(7 + (bytes[4] & 0xff));
+                return false;
+            }
 
-            // receive connection request
-            byte[] connectionRequest = Socks5Utils.receiveSocks5Message(in);
+            byte[] connectionRequest = Arrays.copyOf(bytes, message.position());
 
             // extract digest
-            String responseDigest = new String(connectionRequest, 5, connectionRequest[4], StandardCharsets.UTF_8);
+            String responseDigest = new String(connectionRequest, 5, connectionRequest[4] & 0xff, StandardCharsets.UTF_8);
 
             // return error if digest is not allowed
             if (!allowAllConnections && !Socks5Proxy.this.allowedConnections.contains(responseDigest)) {
                 connectionRequest[1] = (byte) 0x05; // set return status to 5 (connection refused)
-                out.write(connectionRequest);
-                out.flush();
-
-                throw new SmackException.SmackMessageException(
-                                "Connection with digest '" + responseDigest + "' is not allowed");
+                response = ByteBuffer.wrap(connectionRequest);
+                failure = new SmackMessageException("Connection with digest '" + responseDigest + "' is not allowed");
+                return false;
             }
 
-            // Store the connection before we send the return status.
-            Socks5Proxy.this.connectionMap.put(responseDigest, socket);
-
             connectionRequest[1] = (byte) 0x00; // set return status to 0 (success)
-            out.write(connectionRequest);
-            out.flush();
+            establish(responseDigest, connectionRequest);
+            return true;
+        }
+
+        /**
+         * Hands the connection over once its channel is no longer registered with the reactor and
+         * can be put into blocking mode. If a connection with the same digest has already been
+         * established for the transfer, e.g. by a concurrent attempt via another address of this
+         * proxy, then the established connection is kept and this one is refused.
+         *
+         * @param digest the digest of the connection
+         * @param successResponse the response to send after the connection has been stored
+         */
+        private void establish(final String digest, final byte[] successResponse) {
+            if (!negotiations.remove(this)) {
+                // the negotiation timed out or the proxy was stopped, the channel is already closed
+                return;
+            }
+            cancelDeadline();
+            reactor.deregisterFromSelector(selectionKey, new Runnable() {
+                @Override
+                public void run() {
+                    Socket socket = socketChannel.socket();
+                    try {
+                        socketChannel.configureBlocking(true);
+
+                        // Store the connection before we send the return status.
+                        Socket establishedSocket;
+                        if (allowAllConnections) {
+                            // Transfers are neither added nor removed, hence a later connection replaces a former one.
+                            Socks5Proxy.this.connectionMap.put(digest, socket);
+                            establishedSocket = null;
+                        } else {
+                            establishedSocket = Socks5Proxy.this.connectionMap.putIfAbsent(digest, socket);
+                        }
+                        if (establishedSocket != null) {
+                            successResponse[1] = (byte) 0x05; // set return status to 5 (connection refused)
+                        }
+
+                        ByteBuffer response = ByteBuffer.wrap(successResponse);
+                        while (response.hasRemaining()) {
+                            socketChannel.write(response);
+                        }
+
+                        if (establishedSocket != null) {
+                            LOGGER.fine(Socks5Proxy.this + " refused a connection with digest '" + digest
+                                            + "', as it is already established");
+                            CloseableUtil.maybeClose(socketChannel, LOGGER);
+                        }
+                    }
+                    catch (IOException e) {
+                        LOGGER.log(Level.FINE, "Exception while " + Socks5Proxy.this + " was handling connection", e);
+                        Socks5Proxy.this.connectionMap.remove(digest, socket);
+                        CloseableUtil.maybeClose(socketChannel, LOGGER);
+                    }
+                }
+            });
+        }
+
+        private void close() {
+            if (!negotiations.remove(this)) {
+                return;
+            }
+            cancelDeadline();
+            if (selectionKey == null) {
+                CloseableUtil.maybeClose(socketChannel, LOGGER);
+                return;
+            }
+            deregisterAndClose(selectionKey);
         }
 
     }
@@ -54,6 +54,7 @@ import org.jivesoftware.smack.packet.Presence;
 import org.jivesoftware.smack.packet.Stanza;
 import org.jivesoftware.smack.roster.AbstractPresenceEventListener;
 import org.jivesoftware.smack.roster.Roster;
+import org.jivesoftware.smack.util.ConcurrentLruCache;
 import org.jivesoftware.smack.util.StringUtils;
 import org.jivesoftware.smack.util.stringencoder.Base64;
 
@@ -66,13 +67,13 @@ import org.jivesoftware.smackx.disco.ServiceDiscoveryManager;
 import org.jivesoftware.smackx.disco.packet.DiscoverInfo;
 import org.jivesoftware.smackx.disco.packet.DiscoverInfo.Feature;
 import org.jivesoftware.smackx.disco.packet.DiscoverInfo.Identity;
+import org.jivesoftware.smackx.disco.packet.FeatureSet;
 import org.jivesoftware.smackx.xdata.FormField;
 import org.jivesoftware.smackx.xdata.packet.DataForm;
 
 import org.jxmpp.jid.DomainBareJid;
 import org.jxmpp.jid.FullJid;
 import org.jxmpp.jid.Jid;
-import org.jxmpp.util.cache.LruCache;
 
 /**
  * Keeps track of entity capabilities.
@@ -107,7 +108,7 @@ public final class EntityCapsManager extends Manager {
     /**
      * Map of "node + '#' + hash" to DiscoverInfo data
      */
-    static final LruCache<String, DiscoverInfo> CAPS_CACHE = new LruCache<>(1000);
+    static final ConcurrentLruCache<String, DiscoverInfo> CAPS_CACHE = new ConcurrentLruCache<>(1000);
 
     /**
      * Map of Full JID -&gt; DiscoverInfo/null. In case of c2s connection the
@@ -115,7 +116,7 @@ public final class EntityCapsManager extends Manager {
      * link-local connection the key is formed as user@host (no resource) In
      * case of a server or component the key is formed as domain
      */
-    static final LruCache<Jid, NodeVerHash> JID_TO_NODEVER_CACHE = new LruCache<>(10000);
+    static final ConcurrentLruCache<Jid, NodeVerHash> JID_TO_NODEVER_CACHE = new ConcurrentLruCache<>(10000);
 
     static {
         XMPPConnectionRegistry.addConnectionCreationListener(new ConnectionCreationListener() {
@@ -160,6 +161,15 @@ public final class EntityCapsManager extends Manager {
 
                 return info;
             }
+
+            @Override
+            public FeatureSet getFeatureSetByUser(ServiceDiscoveryManager serviceDiscoveryManager, Jid jid) {
+                FeatureSet featureSet = EntityCapsManager.getFeatureSetByUser(jid);
+                if (featureSet != null) {
+                    return featureSet;
+                }
+                return super.getFeatureSetByUser(serviceDiscoveryManager, jid);
+            }
         });
     }
 
@@ -235,6 +245,35 @@ public final class EntityCapsManager extends Manager {
      * @return The corresponding DiscoverInfo or null if none is known.
      */
     public static DiscoverInfo getDiscoveryInfoByNodeVer(String nodeVer) {
+        DiscoverInfo info = lookupDiscoverInfoByNodeVer(nodeVer);
+
+        // If we were able to retrieve information from one of the caches, copy it before returning
+        if (info != null)
+            info = new DiscoverInfo(info);
+
+        return info;
+    }
+
+    /**
+     * Get the interned feature set of a given user. Unlike {@link #getDiscoverInfoByUser(Jid)}, this does not copy the
+     * cached DiscoverInfo.
+     *
+     * @param user the user (Full JID).
+     * @return the feature set or <code>null</code> if none is known.
+     */
+    public static FeatureSet getFeatureSetByUser(Jid user) {
+        NodeVerHash nvh = JID_TO_NODEVER_CACHE.lookup(user);
+        if (nvh == null)
+            return null;
+
+        DiscoverInfo info = lookupDiscoverInfoByNodeVer(nvh.nodeVer);
+        if (info == null)
+            return null;
+
+        return info.getFeatureSet();
+    }
+
+    private static DiscoverInfo lookupDiscoverInfoByNodeVer(String nodeVer) {
         DiscoverInfo info = CAPS_CACHE.lookup(nodeVer);
 
         // If it was not in CAPS_CACHE, try to retrieve the information from persistentCache
@@ -246,10 +285,6 @@ public final class EntityCapsManager extends Manager {
             }
         }
 
-        // If we were able to retrieve information from one of the caches, copy it before returning
-        if (info != null)
-            info = new DiscoverInfo(info);
-
         return info;
     }
 
@@ -534,7 +569,8 @@ public final class EntityCapsManager extends Manager {
         }
         lastLocalCapsVersions.add(currentCapsVersion);
 
-        if (connection != null)
+        // The user is not yet known if the connection was not authenticated so far.
+        if (connection != null && connection.getUser() != null)
             JID_TO_NODEVER_CACHE.put(connection.getUser(), new NodeVerHash(entityNode, currentCapsVersion));
 
         final List<Identity> identities = new LinkedList<>(ServiceDiscoveryManager.getInstanceFor(connection).getIdentities());
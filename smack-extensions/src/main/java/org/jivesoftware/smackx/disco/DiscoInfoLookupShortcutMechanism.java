@@ -17,6 +17,7 @@
 package org.jivesoftware.smackx.disco;
 
 import org.jivesoftware.smackx.disco.packet.DiscoverInfo;
+import org.jivesoftware.smackx.disco.packet.FeatureSet;
 
 import org.jxmpp.jid.Jid;
 
@@ -45,6 +46,22 @@ public abstract class DiscoInfoLookupShortcutMechanism implements Comparable<Dis
 
     public abstract DiscoverInfo getDiscoverInfoByUser(ServiceDiscoveryManager serviceDiscoveryManager, Jid jid);
 
+    /**
+     * Get the interned feature set of the given entity. Mechanisms which are able to look up the feature set without
+     * creating a copy of the entity's {@link DiscoverInfo} should override this method.
+     *
+     * @param serviceDiscoveryManager the service discovery manager.
+     * @param jid the entity's JID.
+     * @return the feature set of the entity or <code>null</code>.
+     */
+    public FeatureSet getFeatureSetByUser(ServiceDiscoveryManager serviceDiscoveryManager, Jid jid) {
+        DiscoverInfo info = getDiscoverInfoByUser(serviceDiscoveryManager, jid);
+        if (info == null) {
+            return null;
+        }
+        return info.getFeatureSet();
+    }
+
     @Override
     public final int compareTo(DiscoInfoLookupShortcutMechanism other) {
         Integer ourPriority = getPriority();
@@ -16,14 +16,19 @@
  */
 package org.jivesoftware.smackx.disco;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
 import java.util.WeakHashMap;
 import java.util.concurrent.ConcurrentHashMap;
@@ -33,6 +38,8 @@ import org.jivesoftware.smack.ConnectionCreationListener;
 import org.jivesoftware.smack.Manager;
 import org.jivesoftware.smack.SmackException.NoResponseException;
 import org.jivesoftware.smack.SmackException.NotConnectedException;
+import org.jivesoftware.smack.SmackFuture;
+import org.jivesoftware.smack.SmackFuture.InternalSmackFuture;
 import org.jivesoftware.smack.XMPPConnection;
 import org.jivesoftware.smack.XMPPConnectionRegistry;
 import org.jivesoftware.smack.XMPPException.XMPPErrorException;
@@ -42,19 +49,21 @@ import org.jivesoftware.smack.packet.ExtensionElement;
 import org.jivesoftware.smack.packet.IQ;
 import org.jivesoftware.smack.packet.Stanza;
 import org.jivesoftware.smack.packet.StanzaError;
+import org.jivesoftware.smack.util.ConcurrentLruCache;
+import org.jivesoftware.smack.util.ExceptionCallback;
 import org.jivesoftware.smack.util.Objects;
 import org.jivesoftware.smack.util.StringUtils;
+import org.jivesoftware.smack.util.SuccessCallback;
 
 import org.jivesoftware.smackx.disco.packet.DiscoverInfo;
 import org.jivesoftware.smackx.disco.packet.DiscoverInfo.Identity;
 import org.jivesoftware.smackx.disco.packet.DiscoverItems;
+import org.jivesoftware.smackx.disco.packet.FeatureSet;
 import org.jivesoftware.smackx.xdata.packet.DataForm;
 
 import org.jxmpp.jid.DomainBareJid;
 import org.jxmpp.jid.EntityBareJid;
 import org.jxmpp.jid.Jid;
-import org.jxmpp.util.cache.Cache;
-import org.jxmpp.util.cache.ExpirationCache;
 
 /**
  * Manages discovery of services in XMPP entities. This class provides:
@@ -79,6 +88,8 @@ public final class ServiceDiscoveryManager extends Manager {
     private static DiscoverInfo.Identity defaultIdentity = new Identity(DEFAULT_IDENTITY_CATEGORY,
             DEFAULT_IDENTITY_NAME, DEFAULT_IDENTITY_TYPE);
 
+    private static int defaultMaxInFlightDiscoInfoRequests = 16;
+
     private final Set<DiscoverInfo.Identity> identities = new HashSet<>();
     private DiscoverInfo.Identity identity = defaultIdentity;
 
@@ -90,6 +101,21 @@ public final class ServiceDiscoveryManager extends Manager {
     private DataForm extendedInfo = null;
     private final Map<String, NodeInformationProvider> nodeInformationProviders = new ConcurrentHashMap<>();
 
+    /**
+     * Cache of disco#info results keyed by JID and node, shared by all users of this manager which allow the use of
+     * cached information. Entries expire after 24 hours.
+     */
+    private final ConcurrentLruCache<DiscoInfoKey, DiscoverInfo> discoInfoCache = new ConcurrentLruCache<>(1000,
+                    24 * 60 * 60 * 1000);
+
+    /**
+     * The callers waiting for the currently pending disco#info requests, used to coalesce concurrent identical requests
+     * into one.
+     */
+    private final Map<DiscoInfoKey, List<InternalSmackFuture<DiscoverInfo, Exception>>> pendingDiscoInfoRequests = new HashMap<>();
+
+    private int maxInFlightDiscoInfoRequests = defaultMaxInFlightDiscoInfoRequests;
+
     // Create a new ServiceDiscoveryManager on every established connection
     static {
         XMPPConnectionRegistry.addConnectionCreationListener(new ConnectionCreationListener() {
@@ -110,6 +136,20 @@ public final class ServiceDiscoveryManager extends Manager {
         defaultIdentity = identity;
     }
 
+    /**
+     * Set the default maximum number of disco#info requests which are concurrently in flight while crawling the items
+     * of a service.
+     *
+     * @param maxInFlightDiscoInfoRequests the maximum number of concurrent disco#info requests.
+     * @see #setMaxInFlightDiscoInfoRequests(int)
+     */
+    public static void setDefaultMaxInFlightDiscoInfoRequests(int maxInFlightDiscoInfoRequests) {
+        if (maxInFlightDiscoInfoRequests <= 0) {
+            throw new IllegalArgumentException("maxInFlightDiscoInfoRequests must be positive");
+        }
+        defaultMaxInFlightDiscoInfoRequests = maxInFlightDiscoInfoRequests;
+    }
+
     /**
      * Creates a new ServiceDiscoveryManager for a given XMPPConnection. This means that the
      * service manager will respond to any service discovery request that the connection may
@@ -487,21 +527,7 @@ public final class ServiceDiscoveryManager extends Manager {
      * @throws InterruptedException if the calling thread was interrupted.
      */
     public DiscoverInfo discoverInfo(Jid entityID) throws NoResponseException, XMPPErrorException, NotConnectedException, InterruptedException {
-        if (entityID == null)
-            return discoverInfo(null, null);
-
-        synchronized (discoInfoLookupShortcutMechanisms) {
-            for (DiscoInfoLookupShortcutMechanism discoInfoLookupShortcutMechanism : discoInfoLookupShortcutMechanisms) {
-                DiscoverInfo info = discoInfoLookupShortcutMechanism.getDiscoverInfoByUser(this, entityID);
-                if (info != null) {
-                    // We were able to retrieve the information from Entity Caps and
-                    // avoided a disco request, hurray!
-                    return info;
-                }
-            }
-        }
-
-        // Last resort: Standard discovery.
+        // discoverInfoAsync() consults the lookup shortcut mechanisms, like Entity Caps, if no node is given.
         return discoverInfo(entityID, null);
     }
 
@@ -509,6 +535,10 @@ public final class ServiceDiscoveryManager extends Manager {
      * Returns the discovered information of a given XMPP entity addressed by its JID and
      * note attribute. Use this message only when trying to query information which is not
      * directly addressable.
+     * <p>
+     * Results from the cache are used and concurrent requests for the same JID and node are coalesced, see
+     * {@link #discoverInfoAsync(Jid, String, boolean)}.
+     * </p>
      *
      * @see <a href="http://xmpp.org/extensions/xep-0030.html#info-basic">XEP-30 Basic Protocol</a>
      * @see <a href="http://xmpp.org/extensions/xep-0030.html#info-nodes">XEP-30 Info Nodes</a>
@@ -522,15 +552,220 @@ public final class ServiceDiscoveryManager extends Manager {
      * @throws InterruptedException if the calling thread was interrupted.
      */
     public DiscoverInfo discoverInfo(Jid entityID, String node) throws NoResponseException, XMPPErrorException, NotConnectedException, InterruptedException {
-        // Discover the entity's info
+        return discoverInfo(entityID, node, true);
+    }
+
+    /**
+     * Returns the discovered information of a given XMPP entity addressed by its JID and optional node attribute.
+     * Concurrent requests for the same JID and node are coalesced into a single disco#info request, and the result
+     * is stored in the cache, see {@link #discoverInfoAsync(Jid, String, boolean)}.
+     *
+     * @param entityID the address of the XMPP entity.
+     * @param node the optional attribute that supplements the 'jid' attribute, may be <code>null</code>.
+     * @param useCache if true, query the cache first to avoid network I/O.
+     * @return the discovered information.
+     * @throws XMPPErrorException if the operation failed for some reason.
+     * @throws NoResponseException if there was no response from the server.
+     * @throws NotConnectedException if the XMPP connection is not connected.
+     * @throws InterruptedException if the calling thread was interrupted.
+     */
+    public DiscoverInfo discoverInfo(Jid entityID, String node, boolean useCache)
+                    throws NoResponseException, XMPPErrorException, NotConnectedException, InterruptedException {
+        try {
+            return discoverInfoAsync(entityID, node, useCache).getOrThrow();
+        }
+        catch (NoResponseException | XMPPErrorException | NotConnectedException | InterruptedException e) {
+            throw e;
+        }
+        catch (RuntimeException e) {
+            throw e;
+        }
+        catch (Exception e) {
+            // Should not happen, the asynchronous request only fails with the exceptions handled above.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Asynchronously retrieve the discovered information of a given XMPP entity addressed by its JID and optional node
+     * attribute.
+     * <p>
+     * If no node is given, then the registered {@link DiscoInfoLookupShortcutMechanism}s, like Entity Capabilities,
+     * are consulted first, just like {@link #discoverInfo(Jid)} does. Concurrent requests for the same JID and node are
+     * coalesced into a single disco#info request. Successful results are stored in a cache shared by all users of this
+     * manager. If <code>useCache</code> is <code>true</code>, then a cached result is returned without performing a
+     * request. Every caller receives its own copy of the discovered information, which it may modify.
+     * </p>
+     *
+     * @param entityID the address of the XMPP entity.
+     * @param node the optional attribute that supplements the 'jid' attribute, may be <code>null</code>.
+     * @param useCache if true, query the cache first to avoid network I/O.
+     * @return a future for the discovered information.
+     */
+    public SmackFuture<DiscoverInfo, Exception> discoverInfoAsync(Jid entityID, String node, boolean useCache) {
+        if (entityID != null && node == null) {
+            synchronized (discoInfoLookupShortcutMechanisms) {
+                for (DiscoInfoLookupShortcutMechanism discoInfoLookupShortcutMechanism : discoInfoLookupShortcutMechanisms) {
+                    DiscoverInfo info = discoInfoLookupShortcutMechanism.getDiscoverInfoByUser(this, entityID);
+                    if (info != null) {
+                        return SmackFuture.from(new DiscoverInfo(info));
+                    }
+                }
+            }
+        }
+
+        final DiscoInfoKey key = new DiscoInfoKey(entityID, node);
+        if (useCache) {
+            DiscoverInfo cachedInfo = discoInfoCache.lookup(key);
+            if (cachedInfo != null) {
+                return SmackFuture.from(new DiscoverInfo(cachedInfo));
+            }
+        }
+
+        final InternalSmackFuture<DiscoverInfo, Exception> future = new InternalSmackFuture<>();
+        synchronized (pendingDiscoInfoRequests) {
+            List<InternalSmackFuture<DiscoverInfo, Exception>> waiters = pendingDiscoInfoRequests.get(key);
+            if (waiters != null) {
+                waiters.add(future);
+                return future;
+            }
+            waiters = new ArrayList<>(1);
+            waiters.add(future);
+            pendingDiscoInfoRequests.put(key, waiters);
+        }
+
         DiscoverInfo disco = new DiscoverInfo();
         disco.setType(IQ.Type.get);
         disco.setTo(entityID);
         disco.setNode(node);
 
-        Stanza result = connection().createStanzaCollectorAndSend(disco).nextResultOrThrow();
+        connection().sendIqRequestAsync(disco).onSuccess(new SuccessCallback<IQ>() {
+            @Override
+            public void onSuccess(IQ result) {
+                DiscoverInfo info = (DiscoverInfo) result;
+                discoInfoCache.put(key, info);
+                List<InternalSmackFuture<DiscoverInfo, Exception>> waiters;
+                synchronized (pendingDiscoInfoRequests) {
+                    waiters = pendingDiscoInfoRequests.remove(key);
+                }
+                if (waiters == null) {
+                    // SmackFuture may invoke a callback more than once if the request completed before both
+                    // callbacks were registered, the waiters have already been notified then.
+                    return;
+                }
+                for (InternalSmackFuture<DiscoverInfo, Exception> waiter : waiters) {
+                    waiter.setResult(new DiscoverInfo(info));
+                }
+            }
+        }).onError(new ExceptionCallback<Exception>() {
+            @Override
+            public void processException(Exception exception) {
+                List<InternalSmackFuture<DiscoverInfo, Exception>> waiters;
+                synchronized (pendingDiscoInfoRequests) {
+                    waiters = pendingDiscoInfoRequests.remove(key);
+                }
+                if (waiters == null) {
+                    // SmackFuture may invoke a callback more than once if the request completed before both
+                    // callbacks were registered, the waiters have already been notified then.
+                    return;
+                }
+                for (InternalSmackFuture<DiscoverInfo, Exception> waiter : waiters) {
+                    waiter.setException(exception);
+                }
+            }
+        });
 
-        return (DiscoverInfo) result;
+        return future;
+    }
+
+    /**
+     * Retrieve the discovered information of the given XMPP entities. The disco#info requests are pipelined, that is,
+     * up to {@link #getMaxInFlightDiscoInfoRequests()} requests are in flight at the same time.
+     * <p>
+     * The returned map iterates in the order of the given entities. Entities which could not be queried are omitted,
+     * their exceptions are put into <code>encounteredExceptions</code> if it is not <code>null</code>.
+     * </p>
+     *
+     * @param entityIDs the addresses of the XMPP entities.
+     * @param useCache if true, query the cache first to avoid network I/O.
+     * @param encounteredExceptions an optional map which will be filled with the exceptions encountered.
+     * @return a map from the entities to their discovered information.
+     * @throws NotConnectedException if the XMPP connection is not connected.
+     * @throws InterruptedException if the calling thread was interrupted.
+     */
+    public Map<Jid, DiscoverInfo> discoverInfos(Collection<? extends Jid> entityIDs, boolean useCache,
+                    Map<? super Jid, Exception> encounteredExceptions) throws NotConnectedException, InterruptedException {
+        return discoverInfos(entityIDs, useCache, encounteredExceptions, null, false);
+    }
+
+    private Map<Jid, DiscoverInfo> discoverInfos(Collection<? extends Jid> entityIDs, boolean useCache,
+                    Map<? super Jid, Exception> encounteredExceptions, String feature, boolean stopOnFirst)
+                    throws NotConnectedException, InterruptedException {
+        Map<Jid, DiscoverInfo> result = new LinkedHashMap<>(entityIDs.size());
+        Iterator<? extends Jid> it = entityIDs.iterator();
+        Queue<Jid> inFlightJids = new ArrayDeque<>();
+        Queue<SmackFuture<DiscoverInfo, Exception>> inFlight = new ArrayDeque<>();
+        final int window = maxInFlightDiscoInfoRequests;
+
+        while (it.hasNext() || !inFlight.isEmpty()) {
+            // Fill the window.
+            while (it.hasNext() && inFlight.size() < window) {
+                Jid entityID = it.next();
+                inFlightJids.add(entityID);
+                inFlight.add(discoverInfoAsync(entityID, null, useCache));
+            }
+
+            // Consume the oldest request, this keeps the results in the order of the entities.
+            Jid entityID = inFlightJids.remove();
+            SmackFuture<DiscoverInfo, Exception> future = inFlight.remove();
+            DiscoverInfo info;
+            try {
+                info = future.getOrThrow();
+            }
+            catch (NotConnectedException | InterruptedException e) {
+                throw e;
+            }
+            catch (Exception e) {
+                if (encounteredExceptions != null) {
+                    encounteredExceptions.put(entityID, e);
+                }
+                continue;
+            }
+
+            if (feature != null && !info.containsFeature(feature)) {
+                continue;
+            }
+
+            result.put(entityID, info);
+            if (stopOnFirst) {
+                // Remaining in-flight requests will still populate the cache.
+                break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the maximum number of disco#info requests which are concurrently in flight while crawling the items of a
+     * service.
+     *
+     * @return the maximum number of concurrent disco#info requests.
+     */
+    public int getMaxInFlightDiscoInfoRequests() {
+        return maxInFlightDiscoInfoRequests;
+    }
+
+    /**
+     * Set the maximum number of disco#info requests which are concurrently in flight while crawling the items of a
+     * service.
+     *
+     * @param maxInFlightDiscoInfoRequests the maximum number of concurrent disco#info requests.
+     */
+    public void setMaxInFlightDiscoInfoRequests(int maxInFlightDiscoInfoRequests) {
+        if (maxInFlightDiscoInfoRequests <= 0) {
+            throw new IllegalArgumentException("maxInFlightDiscoInfoRequests must be positive");
+        }
+        this.maxInFlightDiscoInfoRequests = maxInFlightDiscoInfoRequests;
     }
 
     /**
@@ -653,20 +888,42 @@ public final class ServiceDiscoveryManager extends Manager {
     }
 
     public boolean supportsFeatures(Jid jid, Collection<? extends CharSequence> features) throws NoResponseException, XMPPErrorException, NotConnectedException, InterruptedException {
-        DiscoverInfo result = discoverInfo(jid);
-        for (CharSequence feature : features) {
-            if (!result.containsFeature(feature)) {
-                return false;
+        FeatureSet featureSet = discoverFeatureSet(jid);
+        return featureSet.containsAllFeatures(features);
+    }
+
+    /**
+     * Returns the interned feature set of a given XMPP entity. If a {@link DiscoInfoLookupShortcutMechanism}, like
+     * Entity Capabilities, knows the features of the entity, then the shared feature set is returned without copying
+     * the entity's {@link DiscoverInfo}.
+     *
+     * @param entityID the address of the XMPP entity or <code>null</code>.
+     * @return the feature set of the entity.
+     * @throws XMPPErrorException if the operation failed for some reason.
+     * @throws NoResponseException if there was no response from the server.
+     * @throws NotConnectedException if the XMPP connection is not connected.
+     * @throws InterruptedException if the calling thread was interrupted.
+     */
+    public FeatureSet discoverFeatureSet(Jid entityID) throws NoResponseException, XMPPErrorException, NotConnectedException, InterruptedException {
+        if (entityID != null) {
+            synchronized (discoInfoLookupShortcutMechanisms) {
+                for (DiscoInfoLookupShortcutMechanism discoInfoLookupShortcutMechanism : discoInfoLookupShortcutMechanisms) {
+                    FeatureSet featureSet = discoInfoLookupShortcutMechanism.getFeatureSetByUser(this, entityID);
+                    if (featureSet != null) {
+                        return featureSet;
+                    }
+                }
             }
         }
-        return true;
+
+        return discoverInfo(entityID, null).getFeatureSet();
     }
 
     /**
      * Create a cache to hold the 25 most recently lookup services for a given feature for a period
      * of 24 hours.
      */
-    private final Cache<String, List<DiscoverInfo>> services = new ExpirationCache<>(25,
+    private final ConcurrentLruCache<String, List<DiscoverInfo>> services = new ConcurrentLruCache<>(25,
                     24 * 60 * 60 * 1000);
 
     /**
@@ -763,27 +1020,14 @@ public final class ServiceDiscoveryManager extends Manager {
             }
             return serviceDiscoInfo;
         }
+        List<Jid> addresses = new ArrayList<>(items.getItems().size());
         for (DiscoverItems.Item item : items.getItems()) {
-            Jid address = item.getEntityID();
-            try {
-                // TODO is it OK here in all cases to query without the node attribute?
-                // MultipleRecipientManager queried initially also with the node attribute, but this
-                // could be simply a fault instead of intentional.
-                info = discoverInfo(address);
-            }
-            catch (XMPPErrorException | NoResponseException e) {
-                if (encounteredExceptions != null) {
-                    encounteredExceptions.put(address, e);
-                }
-                continue;
-            }
-            if (info.containsFeature(feature)) {
-                serviceDiscoInfo.add(info);
-                if (stopOnFirst) {
-                    break;
-                }
-            }
+            // TODO is it OK here in all cases to query without the node attribute?
+            // MultipleRecipientManager queried initially also with the node attribute, but this
+            // could be simply a fault instead of intentional.
+            addresses.add(item.getEntityID());
         }
+        serviceDiscoInfo.addAll(discoverInfos(addresses, useCache, encounteredExceptions, feature, stopOnFirst).values());
         if (useCache) {
             // Cache the discovered information
             services.put(feature, serviceDiscoInfo);
@@ -867,4 +1111,32 @@ public final class ServiceDiscoveryManager extends Manager {
             discoInfoLookupShortcutMechanisms.remove(discoInfoLookupShortcutMechanism);
         }
     }
+
+    private static final class DiscoInfoKey {
+        private final Jid entityID;
+        private final String node;
+
+        private DiscoInfoKey(Jid entityID, String node) {
+            this.entityID = entityID;
+            this.node = node;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof DiscoInfoKey)) {
+                return false;
+            }
+            DiscoInfoKey otherKey = (DiscoInfoKey) other;
+            return Objects.equals(entityID, otherKey.entityID) && Objects.equals(node, otherKey.node);
+        }
+
+        @Override
+        public int hashCode() {
+            int hashCode = entityID == null ? 0 : entityID.hashCode();
+            return 31 * hashCode + (node == null ? 0 : node.hashCode());
+        }
+    }
 }
@@ -54,6 +54,12 @@ public class DiscoverInfo extends IQ implements TypedCloneable<DiscoverInfo> {
     private String node;
     private boolean containsDuplicateFeatures;
 
+    /**
+     * The interned feature set of this DiscoverInfo, lazily created by {@link #getFeatureSet()}. Reset whenever a
+     * feature is added.
+     */
+    private FeatureSet featureSet;
+
     public DiscoverInfo() {
         super(ELEMENT, NAMESPACE);
     }
@@ -103,6 +109,7 @@ public class DiscoverInfo extends IQ implements TypedCloneable<DiscoverInfo> {
     }
 
     public boolean addFeature(Feature feature) {
+        featureSet = null;
         features.add(feature);
         boolean featureIsNew = featuresSet.add(feature);
         if (!featureIsNew) {
@@ -213,7 +220,26 @@ public class DiscoverInfo extends IQ implements TypedCloneable<DiscoverInfo> {
      * @return true if the requests feature has been discovered
      */
     public boolean containsFeature(CharSequence feature) {
-        return features.contains(new Feature(feature));
+        return featuresSet.contains(new Feature(feature));
+    }
+
+    /**
+     * Returns the features of this DiscoverInfo as interned {@link FeatureSet}. All DiscoverInfos with the same
+     * features share the same FeatureSet instance, which allows for cheap feature checks without copying.
+     *
+     * @return the interned feature set of this DiscoverInfo.
+     */
+    public FeatureSet getFeatureSet() {
+        FeatureSet featureSet = this.featureSet;
+        if (featureSet == null) {
+            List<String> featureVariables = new ArrayList<>(features.size());
+            for (Feature feature : features) {
+                featureVariables.add(feature.getVar());
+            }
+            featureSet = FeatureSet.from(featureVariables);
+            this.featureSet = featureSet;
+        }
+        return featureSet;
     }
 
     @Override
@@ -281,7 +307,7 @@ public class DiscoverInfo extends IQ implements TypedCloneable<DiscoverInfo> {
         public Identity(Identity identity) {
             this.category = identity.category;
             this.type = identity.type;
-            this.key = identity.type;
+            this.key = identity.key;
             this.name = identity.name;
             this.lang = identity.lang;
         }
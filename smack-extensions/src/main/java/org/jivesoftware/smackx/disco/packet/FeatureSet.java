@@ -0,0 +1,212 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.disco.packet;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jivesoftware.smack.util.ConcurrentLruCache;
+
+/**
+ * An immutable and interned set of service discovery features.
+ * <p>
+ * Many entities, for example all contacts using the same client version, announce exactly the same features. Instead
+ * of every {@link DiscoverInfo} holding its own copy, equal feature sets are represented by a single shared instance
+ * obtained via {@link #from(Collection)}. The features are stored as a sorted array of canonical strings. Additionally
+ * every feature set holds a bitset over the globally known features, so that {@link #containsFeature(CharSequence)}
+ * usually is a hash lookup followed by a bit test.
+ * </p>
+ *
+ * @see DiscoverInfo#getFeatureSet()
+ */
+public final class FeatureSet {
+
+    /**
+     * The maximum number of distinct features which are assigned a bit index. Features encountered after this limit
+     * was reached are still part of the feature sets, but are looked up via binary search.
+     */
+    private static final int MAX_KNOWN_FEATURES = 1024;
+
+    private static final Map<String, KnownFeature> KNOWN_FEATURES = new ConcurrentHashMap<>();
+
+    private static final ConcurrentLruCache<List<String>, FeatureSet> INTERNED_FEATURE_SETS = new ConcurrentLruCache<>(1000);
+
+    public static final FeatureSet EMPTY = new FeatureSet(new String[0]);
+
+    private final String[] features;
+
+    private final long[] knownFeatureBits;
+
+    /**
+     * The number of known features at the time this feature set was created. Only for indices below this value the
+     * bitset is authoritative.
+     */
+    private final int knownFeaturesCoverage;
+
+    private final List<String> featureList;
+
+    private FeatureSet(String[] features) {
+        this.features = features;
+        this.featureList = Collections.unmodifiableList(Arrays.asList(features));
+
+        long[] bits = new long[0];
+        for (String feature : features) {
+            KnownFeature knownFeature = KNOWN_FEATURES.get(feature);
+            if (knownFeature == null) {
+                continue;
+            }
+            int index = knownFeature.index;
+            int word = index >>> 6;
+            if (word >= bits.length) {
+                bits = Arrays.copyOf(bits, word + 1);
+            }
+            bits[word] |= 1L << index;
+        }
+        this.knownFeatureBits = bits;
+        this.knownFeaturesCoverage = KNOWN_FEATURES.size();
+    }
+
+    /**
+     * Get the interned feature set for the given features.
+     *
+     * @param features the features.
+     * @return the feature set containing exactly the given features.
+     */
+    public static FeatureSet from(Collection<? extends CharSequence> features) {
+        if (features.isEmpty()) {
+            return EMPTY;
+        }
+
+        TreeSet<String> sortedFeatures = new TreeSet<>();
+        for (CharSequence feature : features) {
+            sortedFeatures.add(canonicalize(feature.toString()));
+        }
+        String[] featureArray = sortedFeatures.toArray(new String[sortedFeatures.size()]);
+        List<String> key = Arrays.asList(featureArray);
+
+        FeatureSet featureSet = INTERNED_FEATURE_SETS.lookup(key);
+        if (featureSet == null) {
+            featureSet = new FeatureSet(featureArray);
+            INTERNED_FEATURE_SETS.put(key, featureSet);
+        }
+        return featureSet;
+    }
+
+    private static String canonicalize(String feature) {
+        KnownFeature knownFeature = KNOWN_FEATURES.get(feature);
+        if (knownFeature != null) {
+            return knownFeature.feature;
+        }
+
+        synchronized (KNOWN_FEATURES) {
+            knownFeature = KNOWN_FEATURES.get(feature);
+            if (knownFeature != null) {
+                return knownFeature.feature;
+            }
+            int knownFeatureCount = KNOWN_FEATURES.size();
+            if (knownFeatureCount < MAX_KNOWN_FEATURES) {
+                KNOWN_FEATURES.put(feature, new KnownFeature(feature, knownFeatureCount));
+            }
+        }
+        return feature;
+    }
+
+    /**
+     * Check if this feature set contains the given feature.
+     *
+     * @param feature the feature to check.
+     * @return <code>true</code> if the feature is contained in this set.
+     */
+    public boolean containsFeature(CharSequence feature) {
+        String featureString = feature.toString();
+        KnownFeature knownFeature = KNOWN_FEATURES.get(featureString);
+        if (knownFeature != null && knownFeature.index < knownFeaturesCoverage) {
+            int index = knownFeature.index;
+            int word = index >>> 6;
+            return word < knownFeatureBits.length && (knownFeatureBits[word] & (1L << index)) != 0;
+        }
+        return Arrays.binarySearch(features, featureString) >= 0;
+    }
+
+    /**
+     * Check if this feature set contains all the given features.
+     *
+     * @param features the features to check.
+     * @return <code>true</code> if all features are contained in this set.
+     */
+    public boolean containsAllFeatures(Collection<? extends CharSequence> features) {
+        for (CharSequence feature : features) {
+            if (!containsFeature(feature)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the features of this set in their natural order.
+     *
+     * @return an unmodifiable list of the features.
+     */
+    public List<String> getFeatures() {
+        return featureList;
+    }
+
+    public int size() {
+        return features.length;
+    }
+
+    public boolean isEmpty() {
+        return features.length == 0;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof FeatureSet)) {
+            return false;
+        }
+        return Arrays.equals(features, ((FeatureSet) other).features);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(features);
+    }
+
+    @Override
+    public String toString() {
+        return featureList.toString();
+    }
+
+    private static final class KnownFeature {
+        private final String feature;
+        private final int index;
+
+        private KnownFeature(String feature, int index) {
+            this.feature = feature;
+            this.index = index;
+        }
+    }
+}
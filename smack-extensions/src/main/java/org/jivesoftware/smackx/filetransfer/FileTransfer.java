@@ -16,9 +16,17 @@
  */
 package org.jivesoftware.smackx.filetransfer;
 
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smack.util.Objects;
+
+import org.jivesoftware.smackx.bytestreams.ChannelOutputStream;
 
 import org.jxmpp.jid.Jid;
 
@@ -49,6 +57,16 @@ public abstract class FileTransfer {
 
     protected long amountWritten = -1;
 
+    private volatile long transferStartNanos;
+
+    private volatile long transferEndNanos;
+
+    private volatile int priority;
+
+    private final TokenBucket rateLimiter = new TokenBucket();
+
+    final FileTransferScheduler scheduler;
+
     private Error error;
 
     private Exception exception;
@@ -58,11 +76,23 @@ public abstract class FileTransfer {
      */
     private static final int BUFFER_SIZE = 8192;
 
+    /**
+     * Maximum number of bytes transferred at once between channels, limits the delay until a
+     * cancellation is noticed and the granularity of the progress.
+     */
+    private static final long TRANSFER_CHUNK_SIZE = 1024 * 1024;
+
     protected FileTransfer(Jid peer, String streamID,
             FileTransferNegotiator negotiator) {
+        this(peer, streamID, negotiator, FileTransferScheduler.getDefault());
+    }
+
+    protected FileTransfer(Jid peer, String streamID,
+            FileTransferNegotiator negotiator, FileTransferScheduler scheduler) {
         this.peer = peer;
         this.streamID = streamID;
         this.negotiator = negotiator;
+        this.scheduler = Objects.requireNonNull(scheduler, "Scheduler must not be null");
     }
 
     protected void setFileInfo(String fileName, long fileSize) {
@@ -125,6 +155,62 @@ public abstract class FileTransfer {
         return (double) amountWritten / (double) fileSize;
     }
 
+    /**
+     * Returns the average number of bytes transferred per second since the data transfer started.
+     *
+     * @return the average transfer rate in bytes per second, or 0 if the data transfer has not
+     *         started yet.
+     */
+    public double getTransferRate() {
+        long start = transferStartNanos;
+        if (start == 0 || amountWritten <= 0) {
+            return 0;
+        }
+        long end = transferEndNanos;
+        if (end == 0) {
+            end = System.nanoTime();
+        }
+        long elapsed = Math.max(end - start, 1);
+        return amountWritten * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+    }
+
+    /**
+     * Sets the priority of this transfer, which determines when the transfer is started if the
+     * {@link FileTransferScheduler} runs the maximum number of transfers already. Transfers with a
+     * higher priority are started first. The default priority is 0.
+     * <p>
+     * The priority must be set before the transfer is started.
+     * </p>
+     *
+     * @param priority the priority of this transfer.
+     */
+    public void setPriority(int priority) {
+        this.priority = priority;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    /**
+     * Sets the number of bytes per second this transfer may transfer. The rate limit of the
+     * {@link FileTransferScheduler} applies as well.
+     *
+     * @param bytesPerSecond the rate limit or 0 to disable the limit.
+     */
+    public void setRateLimit(long bytesPerSecond) {
+        rateLimiter.setRate(bytesPerSecond);
+    }
+
+    /**
+     * Returns the number of bytes per second this transfer may transfer.
+     *
+     * @return the rate limit or 0 if the rate is not limited.
+     */
+    public long getRateLimit() {
+        return rateLimiter.getRate();
+    }
+
     /**
      * Returns true if the transfer has been cancelled, if it has stopped because
      * of a an error, or the transfer completed successfully.
@@ -205,13 +291,25 @@ public abstract class FileTransfer {
 
     protected void writeToStream(final InputStream in, final OutputStream out)
                     throws IOException {
-        final byte[] b = new byte[BUFFER_SIZE];
-        int count = 0;
         amountWritten = 0;
+        transferStartNanos = System.nanoTime();
 
-        while ((count = in.read(b)) > 0 && !getStatus().equals(Status.cancelled)) {
-            out.write(b, 0, count);
-            amountWritten += count;
+        try {
+            if (in instanceof FileInputStream && out instanceof ChannelOutputStream) {
+                transferToChannel(((FileInputStream) in).getChannel(), (ChannelOutputStream) out);
+            }
+            else {
+                final byte[] b = new byte[BUFFER_SIZE];
+                int count = 0;
+                while ((count = in.read(b)) > 0 && !getStatus().equals(Status.cancelled)) {
+                    acquire(count);
+                    out.write(b, 0, count);
+                    transferred(count);
+                }
+            }
+        }
+        finally {
+            transferEndNanos = System.nanoTime();
         }
 
         // the connection was likely terminated abruptly if these are not equal
@@ -222,6 +320,70 @@ public abstract class FileTransfer {
         }
     }
 
+    /**
+     * Transfers the remaining content of the file directly to the channel of the output stream,
+     * which allows the operating system to send the file without copying it into user space.
+     *
+     * @param in the channel of the file to transfer, starting at its current position
+     * @param out the stream to transfer the file to
+     * @throws IOException if an I/O error occurs
+     */
+    private void transferToChannel(FileChannel in, ChannelOutputStream out) throws IOException {
+        long position = in.position();
+        long size = in.size();
+        // Smaller chunks keep the transfer smooth if it is rate limited.
+        long chunkSize = rateLimiter.isLimited() || scheduler.isRateLimited() ? 8 * BUFFER_SIZE : TRANSFER_CHUNK_SIZE;
+        while (position < size && !getStatus().equals(Status.cancelled)) {
+            int chunk = (int) Math.min(chunkSize, size - position);
+            acquire(chunk);
+            long count = in.transferTo(position, chunk, out.getChannel());
+            if (count < chunk) {
+                // The channel did not accept the whole chunk, only the bytes transferred count against the rate.
+                refund(chunk - (int) Math.max(count, 0));
+            }
+            if (count <= 0) {
+                break;
+            }
+            position += count;
+            transferred((int) count);
+        }
+        in.position(position);
+    }
+
+    /**
+     * Waits until the rate limits allow to transfer the given number of bytes.
+     *
+     * @param bytes the number of bytes about to be transferred
+     * @throws InterruptedIOException if the current thread was interrupted while waiting
+     */
+    private void acquire(int bytes) throws InterruptedIOException {
+        try {
+            rateLimiter.acquire(bytes);
+            scheduler.acquire(bytes);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            InterruptedIOException interruptedIOException = new InterruptedIOException();
+            interruptedIOException.initCause(e);
+            throw interruptedIOException;
+        }
+    }
+
+    /**
+     * Gives the tokens of bytes which were acquired but not transferred back to the rate limits.
+     *
+     * @param bytes the number of bytes which were acquired but not transferred
+     */
+    private void refund(int bytes) {
+        rateLimiter.refund(bytes);
+        scheduler.refund(bytes);
+    }
+
+    private void transferred(int bytes) {
+        amountWritten += bytes;
+        scheduler.transferred(bytes);
+    }
+
     /**
      * A class to represent the current status of the file transfer.
      *
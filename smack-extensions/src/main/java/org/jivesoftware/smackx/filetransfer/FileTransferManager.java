@@ -28,6 +28,7 @@ import org.jivesoftware.smack.iqrequest.AbstractIqRequestHandler;
 import org.jivesoftware.smack.iqrequest.IQRequestHandler.Mode;
 import org.jivesoftware.smack.packet.IQ;
 import org.jivesoftware.smack.packet.StanzaError;
+import org.jivesoftware.smack.util.Objects;
 
 import org.jivesoftware.smackx.si.packet.StreamInitiation;
 
@@ -62,6 +63,8 @@ public final class FileTransferManager extends Manager {
 
     private final List<FileTransferListener> listeners = new CopyOnWriteArrayList<>();
 
+    private volatile FileTransferScheduler scheduler = FileTransferScheduler.getDefault();
+
     /**
      * Creates a file transfer manager to initiate and receive file transfers.
      *
@@ -110,6 +113,20 @@ public final class FileTransferManager extends Manager {
         listeners.remove(li);
     }
 
+    /**
+     * Sets the scheduler which runs the file transfers created by this manager afterwards. By
+     * default the transfers of all managers are run by {@link FileTransferScheduler#getDefault()}.
+     *
+     * @param scheduler the scheduler.
+     */
+    public void setScheduler(FileTransferScheduler scheduler) {
+        this.scheduler = Objects.requireNonNull(scheduler, "Scheduler must not be null");
+    }
+
+    public FileTransferScheduler getScheduler() {
+        return scheduler;
+    }
+
     /**
      * Creates an OutgoingFileTransfer to send a file to another user.
      *
@@ -127,9 +144,10 @@ public final class FileTransferManager extends Manager {
             throw new IllegalArgumentException("userID was null");
         }
 
-        return new OutgoingFileTransfer(connection().getUser(), userID,
+        OutgoingFileTransfer transfer = new OutgoingFileTransfer(connection().getUser(), userID,
                 FileTransferNegotiator.getNextStreamID(),
-                fileTransferNegotiator);
+                fileTransferNegotiator, scheduler);
+        return transfer;
     }
 
     /**
@@ -149,7 +167,7 @@ public final class FileTransferManager extends Manager {
         }
 
         IncomingFileTransfer transfer = new IncomingFileTransfer(request,
-                fileTransferNegotiator);
+                fileTransferNegotiator, scheduler);
         transfer.setFileInfo(request.getFileName(), request.getFileSize());
 
         return transfer;
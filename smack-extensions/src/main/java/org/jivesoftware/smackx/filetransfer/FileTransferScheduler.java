@@ -0,0 +1,333 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.filetransfer;
+
+import java.io.Closeable;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jivesoftware.smack.util.CloseableUtil;
+
+/**
+ * Runs the file transfers which are handled by Smack, i.e. the transfers started by
+ * {@link OutgoingFileTransfer#sendFile(java.io.File, String)},
+ * {@link OutgoingFileTransfer#sendStream(java.io.InputStream, String, long, String)},
+ * {@link OutgoingFileTransfer#sendFile(String, long, String, OutgoingFileTransfer.NegotiationProgress)} and
+ * {@link IncomingFileTransfer#receiveFile(java.io.File)}.
+ * <p>
+ * The stream of a transfer is negotiated first, and at most
+ * {@link #getMaximumConcurrentNegotiations()} streams are negotiated at the same time. The data of
+ * the negotiated transfers is then transferred, at most {@link #getMaximumConcurrentTransfers()}
+ * transfers run at the same time and further transfers are queued. Hence the offer of a remote
+ * entity is answered promptly, even if its transfer has to wait for a free slot. Queued
+ * negotiations and transfers are started by their {@link FileTransfer#setPriority(int) priority},
+ * and in the order they were scheduled if their priorities are equal. Besides the rate limit of every transfer, the scheduler enforces a rate
+ * limit shared by all its transfers, which prevents the transfers from starving other traffic,
+ * like the XMPP connection, on the same link.
+ * </p>
+ * <p>
+ * By default all {@link FileTransferManager}s use the scheduler returned by {@link #getDefault()},
+ * as they usually share the same network link.
+ * </p>
+ */
+public final class FileTransferScheduler {
+
+    private static final Logger LOGGER = Logger.getLogger(FileTransferScheduler.class.getName());
+
+    public static final int DEFAULT_MAXIMUM_CONCURRENT_TRANSFERS = 4;
+
+    public static final int DEFAULT_MAXIMUM_CONCURRENT_NEGOTIATIONS = 16;
+
+    private static final ThreadFactory THREAD_FACTORY = createThreadFactory("Smack File Transfer");
+
+    private static final ThreadFactory NEGOTIATION_THREAD_FACTORY = createThreadFactory(
+                    "Smack File Transfer Negotiation");
+
+    private static ThreadFactory createThreadFactory(final String name) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable);
+                thread.setName(name);
+                thread.setDaemon(true);
+                thread.setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+                    @Override
+                    public void uncaughtException(Thread t, Throwable e) {
+                        LOGGER.log(Level.WARNING, t + " encountered uncaught exception", e);
+                    }
+                });
+                return thread;
+            }
+        };
+    }
+
+    private static final FileTransferScheduler DEFAULT = new FileTransferScheduler(DEFAULT_MAXIMUM_CONCURRENT_TRANSFERS);
+
+    /**
+     * Returns the scheduler used by default.
+     *
+     * @return the default scheduler.
+     */
+    public static FileTransferScheduler getDefault() {
+        return DEFAULT;
+    }
+
+    private final ThreadPoolExecutor executor;
+
+    private final ThreadPoolExecutor negotiationExecutor;
+
+    private final TokenBucket rateLimiter = new TokenBucket();
+
+    private final AtomicLong nextSequenceNumber = new AtomicLong();
+
+    private final AtomicInteger activeTransfers = new AtomicInteger();
+
+    private final AtomicInteger activeNegotiations = new AtomicInteger();
+
+    private final AtomicLong bytesTransferred = new AtomicLong();
+
+    /**
+     * Creates a new scheduler without a rate limit.
+     *
+     * @param maximumConcurrentTransfers the maximum number of transfers running at the same time.
+     */
+    public FileTransferScheduler(int maximumConcurrentTransfers) {
+        if (maximumConcurrentTransfers <= 0) {
+            throw new IllegalArgumentException("The maximum number of concurrent transfers must be positive");
+        }
+        executor = createExecutor(maximumConcurrentTransfers, THREAD_FACTORY);
+        negotiationExecutor = createExecutor(DEFAULT_MAXIMUM_CONCURRENT_NEGOTIATIONS, NEGOTIATION_THREAD_FACTORY);
+    }
+
+    private static ThreadPoolExecutor createExecutor(int poolSize, ThreadFactory threadFactory) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS,
+                        new PriorityBlockingQueue<Runnable>(), threadFactory);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static void setPoolSize(ThreadPoolExecutor executor, int poolSize) {
+        // The core pool size must never exceed the maximum pool size.
+        if (poolSize > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(poolSize);
+            executor.setCorePoolSize(poolSize);
+        }
+        else {
+            executor.setCorePoolSize(poolSize);
+            executor.setMaximumPoolSize(poolSize);
+        }
+    }
+
+    /**
+     * Sets the maximum number of transfers running at the same time. Running transfers are not
+     * affected if the maximum is decreased.
+     *
+     * @param maximumConcurrentTransfers the maximum number of transfers running at the same time.
+     */
+    public synchronized void setMaximumConcurrentTransfers(int maximumConcurrentTransfers) {
+        if (maximumConcurrentTransfers <= 0) {
+            throw new IllegalArgumentException("The maximum number of concurrent transfers must be positive");
+        }
+        setPoolSize(executor, maximumConcurrentTransfers);
+    }
+
+    public int getMaximumConcurrentTransfers() {
+        return executor.getMaximumPoolSize();
+    }
+
+    /**
+     * Sets the maximum number of streams negotiated at the same time. Running negotiations are not
+     * affected if the maximum is decreased.
+     *
+     * @param maximumConcurrentNegotiations the maximum number of streams negotiated at the same time.
+     */
+    public synchronized void setMaximumConcurrentNegotiations(int maximumConcurrentNegotiations) {
+        if (maximumConcurrentNegotiations <= 0) {
+            throw new IllegalArgumentException("The maximum number of concurrent negotiations must be positive");
+        }
+        setPoolSize(negotiationExecutor, maximumConcurrentNegotiations);
+    }
+
+    public int getMaximumConcurrentNegotiations() {
+        return negotiationExecutor.getMaximumPoolSize();
+    }
+
+    /**
+     * Sets the number of bytes per second all transfers of this scheduler may transfer together.
+     * The limit applies to sent and received files.
+     *
+     * @param bytesPerSecond the rate limit or 0 to disable the limit.
+     */
+    public void setRateLimit(long bytesPerSecond) {
+        rateLimiter.setRate(bytesPerSecond);
+    }
+
+    /**
+     * Returns the number of bytes per second all transfers of this scheduler may transfer together.
+     *
+     * @return the rate limit or 0 if the rate is not limited.
+     */
+    public long getRateLimit() {
+        return rateLimiter.getRate();
+    }
+
+    /**
+     * Returns the number of transfers which are currently running.
+     *
+     * @return the number of active transfers.
+     */
+    public int getActiveTransferCount() {
+        return activeTransfers.get();
+    }
+
+    /**
+     * Returns the number of negotiated transfers waiting to be started.
+     *
+     * @return the number of queued transfers.
+     */
+    public int getQueuedTransferCount() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Returns the number of streams which are currently negotiated.
+     *
+     * @return the number of active negotiations.
+     */
+    public int getActiveNegotiationCount() {
+        return activeNegotiations.get();
+    }
+
+    /**
+     * Returns the number of bytes transferred by all transfers of this scheduler.
+     *
+     * @return the number of transferred bytes.
+     */
+    public long getBytesTransferred() {
+        return bytesTransferred.get();
+    }
+
+    ScheduledTransfer negotiate(FileTransfer transfer, Runnable negotiation) {
+        ScheduledTransfer scheduledNegotiation = new ScheduledTransfer(transfer, negotiation, null,
+                        activeNegotiations, nextSequenceNumber.getAndIncrement());
+        negotiationExecutor.execute(scheduledNegotiation);
+        return scheduledNegotiation;
+    }
+
+    ScheduledTransfer schedule(FileTransfer transfer, Runnable task) {
+        return schedule(transfer, task, null);
+    }
+
+    /**
+     * Schedules the transfer of the data over a negotiated stream.
+     *
+     * @param transfer the transfer.
+     * @param task the task transferring the data.
+     * @param stream the negotiated stream, which is closed if the transfer is cancelled while it is queued.
+     * @return the scheduled transfer.
+     */
+    ScheduledTransfer schedule(FileTransfer transfer, Runnable task, Closeable stream) {
+        ScheduledTransfer scheduledTransfer = new ScheduledTransfer(transfer, task, stream, activeTransfers,
+                        nextSequenceNumber.getAndIncrement());
+        executor.execute(scheduledTransfer);
+        return scheduledTransfer;
+    }
+
+    boolean isRateLimited() {
+        return rateLimiter.isLimited();
+    }
+
+    void acquire(int bytes) throws InterruptedException {
+        rateLimiter.acquire(bytes);
+    }
+
+    void refund(int bytes) {
+        rateLimiter.refund(bytes);
+    }
+
+    void transferred(int bytes) {
+        bytesTransferred.addAndGet(bytes);
+    }
+
+    final class ScheduledTransfer implements Runnable, Comparable<ScheduledTransfer> {
+
+        private final FileTransfer transfer;
+
+        private final Runnable task;
+
+        private final Closeable stream;
+
+        private final AtomicInteger activeCount;
+
+        private final int priority;
+
+        private final long sequenceNumber;
+
+        private volatile boolean finished;
+
+        private ScheduledTransfer(FileTransfer transfer, Runnable task, Closeable stream, AtomicInteger activeCount,
+                        long sequenceNumber) {
+            this.transfer = transfer;
+            this.task = task;
+            this.stream = stream;
+            this.activeCount = activeCount;
+            this.priority = transfer.getPriority();
+            this.sequenceNumber = sequenceNumber;
+        }
+
+        @Override
+        public void run() {
+            try {
+                // Transfers cancelled while being queued are not started at all.
+                if (transfer.getStatus() == FileTransfer.Status.cancelled) {
+                    CloseableUtil.maybeClose(stream, LOGGER);
+                    return;
+                }
+                activeCount.incrementAndGet();
+                try {
+                    task.run();
+                }
+                finally {
+                    activeCount.decrementAndGet();
+                }
+            }
+            finally {
+                finished = true;
+            }
+        }
+
+        boolean isFinished() {
+            return finished;
+        }
+
+        @Override
+        public int compareTo(ScheduledTransfer other) {
+            if (priority != other.priority) {
+                return priority > other.priority ? -1 : 1;
+            }
+            return Long.compare(sequenceNumber, other.sequenceNumber);
+        }
+
+    }
+
+}
@@ -65,7 +65,12 @@ public class IncomingFileTransfer extends FileTransfer {
 
     protected IncomingFileTransfer(FileTransferRequest request,
             FileTransferNegotiator transferNegotiator) {
-        super(request.getRequestor(), request.getStreamID(), transferNegotiator);
+        this(request, transferNegotiator, FileTransferScheduler.getDefault());
+    }
+
+    protected IncomingFileTransfer(FileTransferRequest request,
+            FileTransferNegotiator transferNegotiator, FileTransferScheduler scheduler) {
+        super(request.getRequestor(), request.getStreamID(), transferNegotiator, scheduler);
         this.receiveRequest = request;
     }
 
@@ -99,8 +104,10 @@ public class IncomingFileTransfer extends FileTransfer {
      * This method negotiates the stream and then transfer's the file over the negotiated stream.
      * The transferred file will be saved at the provided location.
      *
-     * This method will return immediately, file transfer progress can be monitored through several
-     * methods:
+     * This method will return immediately and the stream is negotiated and the transfer is run by the
+     * {@link FileTransferScheduler} of the {@link FileTransferManager}. The stream is negotiated right
+     * away, even if the transfer itself is queued. File transfer progress can be monitored through
+     * several methods:
      *
      * <UL>
      * <LI>{@link FileTransfer#getStatus()}</LI>
@@ -125,7 +132,7 @@ public class IncomingFileTransfer extends FileTransfer {
                 throw new IllegalArgumentException("Cannot write to provided file");
         }
 
-        Thread transferThread = new Thread(new Runnable() {
+        scheduler.negotiate(this, new Runnable() {
             @Override
             public void run() {
                 try {
@@ -137,32 +144,39 @@ public class IncomingFileTransfer extends FileTransfer {
                     return;
                 }
 
-                OutputStream outputStream = null;
-                try {
-                    outputStream = new FileOutputStream(file);
-                    setStatus(Status.in_progress);
-                    writeToStream(inputStream, outputStream);
-                }
-                catch (FileNotFoundException e) {
-                    setStatus(Status.error);
-                    setError(Error.bad_file);
-                    setException(e);
-                }
-                catch (IOException e) {
-                    setStatus(Status.error);
-                    setError(Error.stream);
-                    setException(e);
-                }
+                scheduler.schedule(IncomingFileTransfer.this, new Runnable() {
+                    @Override
+                    public void run() {
+                        writeToFile(file);
+                    }
+                }, inputStream);
+            }
+        });
+    }
 
+    private void writeToFile(File file) {
+        OutputStream outputStream = null;
+        try {
+            outputStream = new FileOutputStream(file);
+            setStatus(Status.in_progress);
+            writeToStream(inputStream, outputStream);
+        }
+        catch (FileNotFoundException e) {
+            setStatus(Status.error);
+            setError(Error.bad_file);
+            setException(e);
+        }
+        catch (IOException e) {
+            setStatus(Status.error);
+            setError(Error.stream);
+            setException(e);
+        }
 
-                if (getStatus().equals(Status.in_progress)) {
-                    setStatus(Status.complete);
-                }
-                CloseableUtil.maybeClose(inputStream, LOGGER);
-                CloseableUtil.maybeClose(outputStream, LOGGER);
-            }
-        }, "File Transfer " + streamID);
-        transferThread.start();
+        if (getStatus().equals(Status.in_progress)) {
+            setStatus(Status.complete);
+        }
+        CloseableUtil.maybeClose(inputStream, LOGGER);
+        CloseableUtil.maybeClose(outputStream, LOGGER);
     }
 
     private InputStream negotiateStream() throws SmackException, XMPPErrorException, InterruptedException {
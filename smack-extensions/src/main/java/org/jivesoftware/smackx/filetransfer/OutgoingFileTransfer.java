@@ -74,11 +74,16 @@ public class OutgoingFileTransfer extends FileTransfer {
 
     private Jid initiator;
 
-    private Thread transferThread;
+    private volatile FileTransferScheduler.ScheduledTransfer transferTask;
 
     protected OutgoingFileTransfer(Jid initiator, Jid target,
             String streamID, FileTransferNegotiator transferNegotiator) {
-        super(target, streamID, transferNegotiator);
+        this(initiator, target, streamID, transferNegotiator, FileTransferScheduler.getDefault());
+    }
+
+    protected OutgoingFileTransfer(Jid initiator, Jid target,
+            String streamID, FileTransferNegotiator transferNegotiator, FileTransferScheduler scheduler) {
+        super(target, streamID, transferNegotiator, scheduler);
         this.initiator = initiator;
     }
 
@@ -144,7 +149,9 @@ public class OutgoingFileTransfer extends FileTransfer {
     /**
      * This methods handles the transfer and stream negotiation process. It
      * returns immediately and its progress will be updated through the
-     * {@link NegotiationProgress} callback.
+     * {@link NegotiationProgress} callback. The negotiation is run by the
+     * {@link FileTransferScheduler} of the {@link FileTransferManager}, it does
+     * not occupy one of the slots of the transfers.
      *
      * @param fileName TODO javadoc me please
      *            The name of the file that will be transmitted. It is
@@ -173,7 +180,7 @@ public class OutgoingFileTransfer extends FileTransfer {
         }
         setFileInfo(fileName, fileSize);
         this.callback = progress;
-        transferThread = new Thread(new Runnable() {
+        transferTask = scheduler.negotiate(this, new Runnable() {
             @Override
             public void run() {
                 try {
@@ -188,12 +195,11 @@ public class OutgoingFileTransfer extends FileTransfer {
                     setException(e);
                 }
             }
-        }, "File Transfer Negotiation " + streamID);
-        transferThread.start();
+        });
     }
 
     private void checkTransferThread() {
-        if ((transferThread != null && transferThread.isAlive()) || isDone()) {
+        if ((transferTask != null && !transferTask.isFinished()) || isDone()) {
             throw new IllegalStateException(
                     "File transfer in progress or has already completed.");
         }
@@ -201,7 +207,8 @@ public class OutgoingFileTransfer extends FileTransfer {
 
     /**
      * This method handles the stream negotiation process and transmits the file
-     * to the remote user. It returns immediately and the progress of the file
+     * to the remote user. It returns immediately, the transfer is run by the
+     * {@link FileTransferScheduler} of the {@link FileTransferManager} and the progress of the file
      * transfer can be monitored through several methods:
      *
      * <UL>
@@ -225,7 +232,7 @@ public class OutgoingFileTransfer extends FileTransfer {
             setFileInfo(file.getAbsolutePath(), file.getName(), file.length());
         }
 
-        transferThread = new Thread(new Runnable() {
+        transferTask = scheduler.negotiate(this, new Runnable() {
             @Override
             public void run() {
                 try {
@@ -242,35 +249,43 @@ public class OutgoingFileTransfer extends FileTransfer {
                     return;
                 }
 
-                if (!updateStatus(Status.negotiated, Status.in_progress)) {
-                    return;
-                }
+                transferTask = scheduler.schedule(OutgoingFileTransfer.this, new Runnable() {
+                    @Override
+                    public void run() {
+                        transferFile(file);
+                    }
+                }, outputStream);
+            }
+        });
+    }
 
-                InputStream inputStream = null;
-                try {
-                    inputStream = new FileInputStream(file);
-                    writeToStream(inputStream, outputStream);
-                } catch (FileNotFoundException e) {
-                    setStatus(FileTransfer.Status.error);
-                    setError(Error.bad_file);
-                    setException(e);
-                } catch (IOException e) {
-                    setStatus(FileTransfer.Status.error);
-                    setException(e);
-                } finally {
-                    CloseableUtil.maybeClose(inputStream, LOGGER);
-                    CloseableUtil.maybeClose(outputStream, LOGGER);
-                }
-                updateStatus(Status.in_progress, FileTransfer.Status.complete);
-                }
+    private void transferFile(File file) {
+        if (!updateStatus(Status.negotiated, Status.in_progress)) {
+            return;
+        }
 
-        }, "File Transfer " + streamID);
-        transferThread.start();
+        InputStream inputStream = null;
+        try {
+            inputStream = new FileInputStream(file);
+            writeToStream(inputStream, outputStream);
+        } catch (FileNotFoundException e) {
+            setStatus(FileTransfer.Status.error);
+            setError(Error.bad_file);
+            setException(e);
+        } catch (IOException e) {
+            setStatus(FileTransfer.Status.error);
+            setException(e);
+        } finally {
+            CloseableUtil.maybeClose(inputStream, LOGGER);
+            CloseableUtil.maybeClose(outputStream, LOGGER);
+        }
+        updateStatus(Status.in_progress, FileTransfer.Status.complete);
     }
 
     /**
      * This method handles the stream negotiation process and transmits the file
-     * to the remote user. It returns immediately and the progress of the file
+     * to the remote user. It returns immediately, the transfer is run by the
+     * {@link FileTransferScheduler} of the {@link FileTransferManager} and the progress of the file
      * transfer can be monitored through several methods:
      *
      * <UL>
@@ -288,7 +303,7 @@ public class OutgoingFileTransfer extends FileTransfer {
         checkTransferThread();
 
         setFileInfo(fileName, fileSize);
-        transferThread = new Thread(new Runnable() {
+        transferTask = scheduler.negotiate(this, new Runnable() {
             @Override
             public void run() {
                 // Create packet filter.
@@ -305,23 +320,30 @@ public class OutgoingFileTransfer extends FileTransfer {
                     return;
                 }
 
-                if (!updateStatus(Status.negotiated, Status.in_progress)) {
-                    return;
-                }
-                try {
-                    writeToStream(in, outputStream);
-                } catch (IOException e) {
-                    setStatus(FileTransfer.Status.error);
-                    setException(e);
-                } finally {
-                    CloseableUtil.maybeClose(in, LOGGER);
-                    CloseableUtil.maybeClose(outputStream, LOGGER);
-                }
-                updateStatus(Status.in_progress, FileTransfer.Status.complete);
-                }
+                transferTask = scheduler.schedule(OutgoingFileTransfer.this, new Runnable() {
+                    @Override
+                    public void run() {
+                        transferStream(in);
+                    }
+                }, outputStream);
+            }
+        });
+    }
 
-        }, "File Transfer " + streamID);
-        transferThread.start();
+    private void transferStream(InputStream in) {
+        if (!updateStatus(Status.negotiated, Status.in_progress)) {
+            return;
+        }
+        try {
+            writeToStream(in, outputStream);
+        } catch (IOException e) {
+            setStatus(FileTransfer.Status.error);
+            setException(e);
+        } finally {
+            CloseableUtil.maybeClose(in, LOGGER);
+            CloseableUtil.maybeClose(outputStream, LOGGER);
+        }
+        updateStatus(Status.in_progress, FileTransfer.Status.complete);
     }
 
     private void handleXMPPException(XMPPErrorException e) {
@@ -0,0 +1,91 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.filetransfer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket limiting the number of bytes transferred per second. The bucket holds the tokens
+ * of up to one second, hence a transfer may burst at twice the rate after being idle. Acquiring
+ * more tokens than available puts the bucket into debt, which makes the caller wait until the
+ * debt has been refilled. Concurrent callers are thereby served in the order they acquired.
+ */
+final class TokenBucket {
+
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    /* bytes per second, 0 disables the limit */
+    private long rate;
+
+    private double tokens;
+
+    private long lastRefill = System.nanoTime();
+
+    synchronized void setRate(long rate) {
+        if (rate < 0) {
+            throw new IllegalArgumentException("The rate must not be negative");
+        }
+        this.rate = rate;
+        tokens = Math.min(tokens, rate);
+    }
+
+    synchronized long getRate() {
+        return rate;
+    }
+
+    synchronized boolean isLimited() {
+        return rate > 0;
+    }
+
+    /**
+     * Takes the given number of tokens from the bucket and waits until they are covered by the rate.
+     *
+     * @param amount the number of bytes to transfer
+     * @throws InterruptedException if the current thread was interrupted while waiting
+     */
+    void acquire(int amount) throws InterruptedException {
+        long waitNanos;
+        synchronized (this) {
+            if (rate == 0) {
+                return;
+            }
+            long now = System.nanoTime();
+            tokens = Math.min(rate, tokens + (now - lastRefill) * rate / NANOS_PER_SECOND);
+            lastRefill = now;
+            tokens -= amount;
+            if (tokens >= 0) {
+                return;
+            }
+            waitNanos = (long) (-tokens * NANOS_PER_SECOND / rate);
+        }
+        TimeUnit.NANOSECONDS.sleep(waitNanos);
+    }
+
+    /**
+     * Returns tokens which were acquired but not used to the bucket, which settles the debt of
+     * later callers earlier. The bucket still holds the tokens of at most one second.
+     *
+     * @param amount the number of bytes which were acquired but not transferred
+     */
+    synchronized void refund(int amount) {
+        if (rate == 0) {
+            return;
+        }
+        tokens = Math.min(rate, tokens + amount);
+    }
+
+}
@@ -70,8 +70,10 @@ public final class MucEnterConfiguration {
 
     Presence getJoinPresence(MultiUserChat multiUserChat) {
         final EntityFullJid jid = JidCreate.entityFullFrom(multiUserChat.getRoom(), nickname);
-        joinPresence.setTo(jid);
-        return joinPresence;
+        // Use a copy with a new stanza ID, so that the same configuration can be used to enter multiple rooms.
+        Presence presence = joinPresence.cloneWithNewId();
+        presence.setTo(jid);
+        return presence;
     }
 
     long getTimeout() {
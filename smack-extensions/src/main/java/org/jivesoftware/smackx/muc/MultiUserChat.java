@@ -20,19 +20,22 @@ package org.jivesoftware.smackx.muc;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.jivesoftware.smack.AsyncButOrdered;
 import org.jivesoftware.smack.MessageListener;
 import org.jivesoftware.smack.PresenceListener;
+import org.jivesoftware.smack.SmackConfiguration;
 import org.jivesoftware.smack.SmackException;
 import org.jivesoftware.smack.SmackException.NoResponseException;
 import org.jivesoftware.smack.SmackException.NotConnectedException;
+import org.jivesoftware.smack.SmackException.NotLoggedInException;
 import org.jivesoftware.smack.StanzaCollector;
 import org.jivesoftware.smack.StanzaListener;
 import org.jivesoftware.smack.XMPPConnection;
@@ -116,13 +119,18 @@ public class MultiUserChat {
     private final XMPPConnection connection;
     private final EntityBareJid room;
     private final MultiUserChatManager multiUserChatManager;
-    private final Map<EntityFullJid, Presence> occupantsMap = new ConcurrentHashMap<>();
+    private final OccupantTable occupants = new OccupantTable();
+
+    private static boolean defaultRetainOccupantPresences = true;
+
+    private volatile boolean retainOccupantPresences = defaultRetainOccupantPresences;
 
     private final Set<InvitationRejectionListener> invitationRejectionListeners = new CopyOnWriteArraySet<InvitationRejectionListener>();
     private final Set<SubjectUpdatedListener> subjectUpdatedListeners = new CopyOnWriteArraySet<SubjectUpdatedListener>();
     private final Set<UserStatusListener> userStatusListeners = new CopyOnWriteArraySet<UserStatusListener>();
     private final Set<ParticipantStatusListener> participantStatusListeners = new CopyOnWriteArraySet<ParticipantStatusListener>();
     private final Set<MessageListener> messageListeners = new CopyOnWriteArraySet<MessageListener>();
+    private final Set<OccupantDiffListener> occupantDiffListeners = new CopyOnWriteArraySet<>();
     private final Set<PresenceListener> presenceListeners = new CopyOnWriteArraySet<PresenceListener>();
     private final Set<PresenceListener> presenceInterceptors = new CopyOnWriteArraySet<PresenceListener>();
 
@@ -149,10 +157,25 @@ public class MultiUserChat {
                     new StanzaExtensionFilter(MUCUser.ELEMENT, MUCUser.NAMESPACE));
     private final StanzaListener declinesListener;
 
+    // @formatter:off
+    private static final StanzaFilter SUBJECT_FILTER = new AndFilter(
+                    MessageWithSubjectFilter.INSTANCE,
+                    new NotFilter(MessageTypeFilter.ERROR),
+                    // According to XEP-0045 § 8.1 "A message with a <subject/> and a <body/> or a <subject/> and a <thread/> is a
+                    // legitimate message, but it SHALL NOT be interpreted as a subject change."
+                    new NotFilter(MessageWithBodiesFilter.INSTANCE),
+                    new NotFilter(MessageWithThreadFilter.INSTANCE));
+    // @formatter:on
+
     private String subject;
     private EntityFullJid myRoomJid;
     private boolean joined = false;
-    private StanzaCollector messageCollector;
+
+    /**
+     * The groupchat messages returned by {@link #nextMessage()} and {@link #pollMessage()}, or <code>null</code> if
+     * not joined.
+     */
+    private volatile BlockingQueue<Message> messageQueue;
 
     MultiUserChat(XMPPConnection connection, EntityBareJid room, MultiUserChatManager multiUserChatManager) {
         this.connection = connection;
@@ -216,24 +239,19 @@ public class MultiUserChat {
                     public void run() {
                         switch (presence.getType()) {
                         case available:
-                            Presence oldPresence = occupantsMap.put(from, presence);
-                            if (oldPresence != null) {
-                                // Get the previous occupant's affiliation & role
-                                MUCUser mucExtension = MUCUser.from(oldPresence);
-                                MUCAffiliation oldAffiliation = mucExtension.getItem().getAffiliation();
-                                MUCRole oldRole = mucExtension.getItem().getRole();
-                                // Get the new occupant's affiliation & role
-                                mucExtension = MUCUser.from(packet);
-                                MUCAffiliation newAffiliation = mucExtension.getItem().getAffiliation();
-                                MUCRole newRole = mucExtension.getItem().getRole();
+                            Occupant occupant = new Occupant(presence, retainOccupantPresences);
+                            Occupant oldOccupant = occupants.put(occupant);
+                            if (oldOccupant != null) {
                                 // Fire role modification events
-                                checkRoleModifications(oldRole, newRole, isUserStatusModification, from);
+                                checkRoleModifications(oldOccupant.getRole(), occupant.getRole(),
+                                                isUserStatusModification, from);
                                 // Fire affiliation modification events
                                 checkAffiliationModifications(
-                                    oldAffiliation,
-                                    newAffiliation,
+                                    oldOccupant.getAffiliation(),
+                                    occupant.getAffiliation(),
                                     isUserStatusModification,
                                     from);
+                                fireOccupantDiffListeners(OccupantDiff.changed(oldOccupant, occupant));
                             }
                             else {
                                 // A new occupant has joined the room
@@ -242,10 +260,14 @@ public class MultiUserChat {
                                         listener.joined(from);
                                     }
                                 }
+                                fireOccupantDiffListeners(OccupantDiff.joined(occupant));
                             }
                             break;
                         case unavailable:
-                            occupantsMap.remove(from);
+                            Occupant leftOccupant = occupants.remove(from.getResourcepart());
+                            if (leftOccupant != null) {
+                                fireOccupantDiffListeners(OccupantDiff.left(leftOccupant));
+                            }
                             MUCUser mucUser = MUCUser.from(packet);
                             if (mucUser != null && mucUser.hasStatus()) {
                                 // Fire events according to the received presence code
@@ -327,6 +349,23 @@ public class MultiUserChat {
      */
     private Presence enter(MucEnterConfiguration conf) throws NotConnectedException, NoResponseException,
                     XMPPErrorException, InterruptedException, NotAMucServiceException {
+        return finishEnter(startEnter(conf));
+    }
+
+    /**
+     * Start entering the room by sending the join presence, without waiting for the MUC service to reflect our self
+     * presence. The returned pending enter must be passed to {@link #finishEnter(PendingEnter)}.
+     *
+     * @param conf the configuration used to enter the room.
+     * @return the pending enter.
+     * @throws NotConnectedException if the XMPP connection is not connected.
+     * @throws NoResponseException if there was no response from the remote entity.
+     * @throws XMPPErrorException if there was an XMPP error returned.
+     * @throws InterruptedException if the calling thread was interrupted.
+     * @throws NotAMucServiceException if the entity is not a MUC serivce.
+     */
+    synchronized PendingEnter startEnter(MucEnterConfiguration conf) throws NotConnectedException,
+                    NoResponseException, XMPPErrorException, InterruptedException, NotAMucServiceException {
         final DomainBareJid mucService = room.asDomainBareJid();
         if (!KNOWN_MUC_SERVICES.containsKey(mucService)) {
             if (multiUserChatManager.providesMucService(mucService)) {
@@ -339,50 +378,64 @@ public class MultiUserChat {
         // field is in the form "roomName@service/nickname"
         Presence joinPresence = conf.getJoinPresence(this);
 
-        // Setup the messageListeners and presenceListeners *before* the join presence is send.
-        connection.addSyncStanzaListener(messageListener, fromRoomGroupchatFilter);
+        // Setup the messageListeners and presenceListeners *before* the join presence is send. The stanzas from the
+        // room are routed to this instance by the MultiUserChatManager, see processRoutedStanza().
+        messageQueue = new ArrayBlockingQueue<>(SmackConfiguration.getStanzaCollectorSize());
+        multiUserChatManager.addRoutedRoom(this);
         StanzaFilter presenceFromRoomFilter = new AndFilter(fromRoomFilter,
                         StanzaTypeFilter.PRESENCE,
                         PossibleFromTypeFilter.ENTITY_FULL_JID);
-        connection.addSyncStanzaListener(presenceListener, presenceFromRoomFilter);
-        // @formatter:off
-        connection.addSyncStanzaListener(subjectListener,
-                        new AndFilter(fromRoomFilter,
-                                      MessageWithSubjectFilter.INSTANCE,
-                                      new NotFilter(MessageTypeFilter.ERROR),
-                                      // According to XEP-0045 § 8.1 "A message with a <subject/> and a <body/> or a <subject/> and a <thread/> is a
-                                      // legitimate message, but it SHALL NOT be interpreted as a subject change."
-                                      new NotFilter(MessageWithBodiesFilter.INSTANCE),
-                                      new NotFilter(MessageWithThreadFilter.INSTANCE))
-                        );
-        // @formatter:on
-        connection.addSyncStanzaListener(declinesListener, new AndFilter(fromRoomFilter, DECLINE_FILTER));
         connection.addStanzaInterceptor(presenceInterceptor, new AndFilter(ToMatchesFilter.create(room),
                         StanzaTypeFilter.PRESENCE));
-        messageCollector = connection.createStanzaCollector(fromRoomGroupchatFilter);
 
         // Wait for a presence packet back from the server.
         // @formatter:off
         StanzaFilter responseFilter = new AndFilter(StanzaTypeFilter.PRESENCE,
                         new OrFilter(
                             // We use a bare JID filter for positive responses, since the MUC service/room may rewrite the nickname.
-                            new AndFilter(FromMatchesFilter.createBare(getRoom()), MUCUserStatusCodeFilter.STATUS_110_PRESENCE_TO_SELF),
+                            // The presence must be available, since the reflection of a leave presence, which was send
+                            // without waiting for it prior rejoining, carries status 110 too.
+                            new AndFilter(FromMatchesFilter.createBare(getRoom()), PresenceTypeFilter.AVAILABLE,
+                                            MUCUserStatusCodeFilter.STATUS_110_PRESENCE_TO_SELF),
                             // In case there is an error reply, we match on an error presence with the same stanza id and from the full
                             // JID we send the join presence to.
                             new AndFilter(FromMatchesFilter.createFull(joinPresence.getTo()), new StanzaIdFilter(joinPresence), PresenceTypeFilter.ERROR)
                         )
                     );
         // @formatter:on
-        StanzaCollector presenceStanzaCollector = null;
-        Presence presence;
+        StanzaCollector selfPresenceCollector;
+        StanzaCollector presenceStanzaCollector;
         try {
             // This stanza collector will collect the final self presence from the MUC, which also signals that we have successful entered the MUC.
-            StanzaCollector selfPresenceCollector = connection.createStanzaCollectorAndSend(responseFilter, joinPresence);
-            StanzaCollector.Configuration presenceStanzaCollectorConfguration = StanzaCollector.newConfiguration().setCollectorToReset(
-                            selfPresenceCollector).setStanzaFilter(presenceFromRoomFilter);
-            // This stanza collector is used to reset the timeout of the selfPresenceCollector.
-            presenceStanzaCollector = connection.createStanzaCollector(presenceStanzaCollectorConfguration);
-            presence = selfPresenceCollector.nextResultOrThrow(conf.getTimeout());
+            selfPresenceCollector = connection.createStanzaCollectorAndSend(responseFilter, joinPresence);
+        }
+        catch (NotConnectedException | InterruptedException e) {
+            // Ensure that all callbacks are removed if there is an exception
+            removeConnectionCallbacks();
+            throw e;
+        }
+        StanzaCollector.Configuration presenceStanzaCollectorConfguration = StanzaCollector.newConfiguration().setCollectorToReset(
+                        selfPresenceCollector).setStanzaFilter(presenceFromRoomFilter);
+        // This stanza collector is used to reset the timeout of the selfPresenceCollector.
+        presenceStanzaCollector = connection.createStanzaCollector(presenceStanzaCollectorConfguration);
+        return new PendingEnter(conf, selfPresenceCollector, presenceStanzaCollector);
+    }
+
+    /**
+     * Wait until the MUC service reflected our self presence, which signals that we have entered the room.
+     *
+     * @param pendingEnter the pending enter as returned by {@link #startEnter(MucEnterConfiguration)}.
+     * @return the returned presence by the service after the client send the initial presence in order to enter the room.
+     * @throws NotConnectedException if the XMPP connection is not connected.
+     * @throws NoResponseException if there was no response from the remote entity.
+     * @throws XMPPErrorException if there was an XMPP error returned.
+     * @throws InterruptedException if the calling thread was interrupted.
+     */
+    synchronized Presence finishEnter(PendingEnter pendingEnter) throws NotConnectedException, NoResponseException,
+                    XMPPErrorException, InterruptedException {
+        Presence presence;
+        try {
+            presence = pendingEnter.selfPresenceCollector.nextResultOrThrow(pendingEnter.conf.getTimeout());
         }
         catch (NotConnectedException | InterruptedException | NoResponseException | XMPPErrorException e) {
             // Ensure that all callbacks are removed if there is an exception
@@ -390,9 +443,7 @@ public class MultiUserChat {
             throw e;
         }
         finally {
-            if (presenceStanzaCollector != null) {
-                presenceStanzaCollector.cancel();
-            }
+            pendingEnter.presenceStanzaCollector.cancel();
         }
 
         // This presence must be send from a full JID. We use the resourcepart of this JID as nick, since the room may
@@ -407,6 +458,66 @@ public class MultiUserChat {
         return presence;
     }
 
+    /**
+     * Abort entering the room, e.g. because the thread waiting for the self presence was interrupted.
+     *
+     * @param pendingEnter the pending enter as returned by {@link #startEnter(MucEnterConfiguration)}.
+     */
+    synchronized void abortEnter(PendingEnter pendingEnter) {
+        pendingEnter.selfPresenceCollector.cancel();
+        pendingEnter.presenceStanzaCollector.cancel();
+        removeConnectionCallbacks();
+    }
+
+    /**
+     * An enter attempt whose join presence has been send, but whose self presence has not yet been processed.
+     */
+    static final class PendingEnter {
+        private final MucEnterConfiguration conf;
+        private final StanzaCollector selfPresenceCollector;
+        private final StanzaCollector presenceStanzaCollector;
+
+        private PendingEnter(MucEnterConfiguration conf, StanzaCollector selfPresenceCollector,
+                        StanzaCollector presenceStanzaCollector) {
+            this.conf = conf;
+            this.selfPresenceCollector = selfPresenceCollector;
+            this.presenceStanzaCollector = presenceStanzaCollector;
+        }
+    }
+
+    /**
+     * Process a stanza send from this room, or from one of its occupants. Invoked by the {@link MultiUserChatManager}
+     * while this instance is joined or joining.
+     *
+     * @param stanza the stanza from this room.
+     * @throws NotConnectedException if the XMPP connection is not connected.
+     * @throws InterruptedException if the calling thread was interrupted.
+     * @throws NotLoggedInException if the XMPP connection is not authenticated.
+     */
+    void processRoutedStanza(Stanza stanza) throws NotConnectedException, InterruptedException, NotLoggedInException {
+        if (stanza instanceof Message) {
+            if (MessageTypeFilter.GROUPCHAT.accept(stanza)) {
+                Message message = (Message) stanza;
+                BlockingQueue<Message> messageQueue = this.messageQueue;
+                if (messageQueue != null) {
+                    // Behave like a stanza collector, i.e. drop the oldest message if the queue is full.
+                    while (!messageQueue.offer(message)) {
+                        messageQueue.poll();
+                    }
+                }
+                messageListener.processStanza(stanza);
+            }
+            if (SUBJECT_FILTER.accept(stanza)) {
+                subjectListener.processStanza(stanza);
+            }
+            if (DECLINE_FILTER.accept(stanza)) {
+                declinesListener.processStanza(stanza);
+            }
+        } else if (stanza instanceof Presence && PossibleFromTypeFilter.ENTITY_FULL_JID.accept(stanza)) {
+            presenceListener.processStanza(stanza);
+        }
+    }
+
     private void setNickname(Resourcepart nickname) {
         this.myRoomJid = JidCreate.entityFullFrom(room, nickname);
     }
@@ -761,6 +872,29 @@ public class MultiUserChat {
         return reflectedLeavePresence;
     }
 
+    /**
+     * Leave the chat room without waiting for the MUC service to reflect the leave presence. Used prior rejoining the
+     * room: the service processes the join presence after the leave presence anyway, hence waiting for the reflection
+     * would only delay the join.
+     *
+     * @throws NotConnectedException if the XMPP connection is not connected.
+     * @throws InterruptedException if the calling thread was interrupted.
+     * @throws MucNotJoinedException if not joined to the Multi-User Chat.
+     */
+    synchronized void leaveWithoutWaiting() throws NotConnectedException, InterruptedException,
+                    MucNotJoinedException {
+        userHasLeft();
+
+        final EntityFullJid myRoomJid = this.myRoomJid;
+        if (myRoomJid == null) {
+            throw new MucNotJoinedException(this);
+        }
+
+        Presence leavePresence = new Presence(Presence.Type.unavailable);
+        leavePresence.setTo(myRoomJid);
+        connection.sendStanza(leavePresence);
+    }
+
     /**
      * Get a {@link MucConfigFormManager} to configure this room.
      * <p>
@@ -1671,7 +1805,7 @@ public class MultiUserChat {
      * @return the number of occupants in the group chat.
      */
     public int getOccupantsCount() {
-        return occupantsMap.size();
+        return occupants.size();
     }
 
     /**
@@ -1686,20 +1820,85 @@ public class MultiUserChat {
      * @return a List of the occupants in the group chat.
      */
     public List<EntityFullJid> getOccupants() {
-        return new ArrayList<>(occupantsMap.keySet());
+        List<Occupant> occupants = this.occupants.values();
+        List<EntityFullJid> occupantJids = new ArrayList<>(occupants.size());
+        for (Occupant occupant : occupants) {
+            occupantJids.add(JidCreate.entityFullFrom(room, occupant.getNick()));
+        }
+        return occupantJids;
+    }
+
+    /**
+     * Get the information about all occupants in the group chat. In contrast to {@link #getModerators()} and
+     * {@link #getParticipants()}, this information is not requested from the room, but was obtained from the presences
+     * of the occupants.
+     * Note: this value will only be accurate after joining the group chat, and may fluctuate over time.
+     *
+     * @return the occupants of the group chat.
+     * @see #addOccupantDiffListener(OccupantDiffListener)
+     */
+    public List<Occupant> getOccupantsSnapshot() {
+        return occupants.values();
+    }
+
+    /**
+     * Get the information about the occupants with the given role in the group chat. This information is obtained
+     * from the presences of the occupants, see {@link #getOccupantsSnapshot()}.
+     *
+     * @param role the role of the occupants.
+     * @return the occupants with the given role.
+     */
+    public List<Occupant> getOccupantsByRole(MUCRole role) {
+        return occupants.values(role);
     }
 
     /**
      * Returns the presence info for a particular user, or <code>null</code> if the user
      * is not in the room.<p>
      *
+     * If occupant presences are not retained, see {@link #setRetainOccupantPresences(boolean)}, then the returned
+     * presence is re-created and only contains the mode, status and the MUC user information of the occupant, but no
+     * other extension elements. Use {@link #addParticipantListener(PresenceListener)} to receive the original
+     * presences in this case.
+     *
      * @param user the room occupant to search for his presence. The format of user must
      * be: roomName@service/nickname (e.g. darkcave@macbeth.shakespeare.lit/thirdwitch).
      * @return the occupant's current presence, or <code>null</code> if the user is unavailable
      *      or if no presence information is available.
      */
     public Presence getOccupantPresence(EntityFullJid user) {
-        return occupantsMap.get(user);
+        Occupant occupant = getOccupant(user);
+        if (occupant == null) {
+            return null;
+        }
+        return occupant.toPresence(user);
+    }
+
+    /**
+     * Set if the presences of the occupants should be retained by newly created MultiUserChats. The default is
+     * <code>true</code>.
+     *
+     * @param retainOccupantPresences <code>true</code> if the presences should be retained.
+     * @see #setRetainOccupantPresences(boolean)
+     */
+    public static void setDefaultRetainOccupantPresences(boolean retainOccupantPresences) {
+        defaultRetainOccupantPresences = retainOccupantPresences;
+    }
+
+    /**
+     * Set if the received presences of the occupants should be retained. If disabled, only the information of the
+     * {@link Occupant} is stored, and {@link #getOccupantPresence(EntityFullJid)} returns a re-created presence
+     * without extension elements other than the MUC user information. This considerably reduces the memory required
+     * for large rooms. The change applies to presences received afterwards.
+     *
+     * @param retainOccupantPresences <code>true</code> if the presences should be retained.
+     */
+    public void setRetainOccupantPresences(boolean retainOccupantPresences) {
+        this.retainOccupantPresences = retainOccupantPresences;
+    }
+
+    public boolean isRetainOccupantPresences() {
+        return retainOccupantPresences;
     }
 
     /**
@@ -1712,11 +1911,10 @@ public class MultiUserChat {
      * @return the Occupant or <code>null</code> if the user is unavailable (i.e. not in the room).
      */
     public Occupant getOccupant(EntityFullJid user) {
-        Presence presence = getOccupantPresence(user);
-        if (presence != null) {
-            return new Occupant(presence);
+        if (!room.equals(user.asEntityBareJid())) {
+            return null;
         }
-        return null;
+        return occupants.get(user.getResourcepart());
     }
 
     /**
@@ -1744,6 +1942,37 @@ public class MultiUserChat {
         return presenceListeners.remove(listener);
     }
 
+    /**
+     * Add a listener that will be notified when occupants join or leave the room, or when their role, affiliation or
+     * presence changes. The listener is invoked in the order of the presences received from the room, but not for
+     * the occupants removed when we leave the room.
+     *
+     * @param listener the listener.
+     * @return true if the listener was not already added.
+     */
+    public boolean addOccupantDiffListener(OccupantDiffListener listener) {
+        return occupantDiffListeners.add(listener);
+    }
+
+    /**
+     * Remove a listener that was notified about changes of the occupants.
+     *
+     * @param listener the listener.
+     * @return true if the listener was removed.
+     */
+    public boolean removeOccupantDiffListener(OccupantDiffListener listener) {
+        return occupantDiffListeners.remove(listener);
+    }
+
+    private void fireOccupantDiffListeners(OccupantDiff diff) {
+        if (diff == null) {
+            return;
+        }
+        for (OccupantDiffListener listener : occupantDiffListeners) {
+            listener.occupantChanged(diff);
+        }
+    }
+
     /**
      * Returns a list of <code>Affiliate</code> with the room owners.
      *
@@ -1945,25 +2174,24 @@ public class MultiUserChat {
      * @throws MucNotJoinedException if not joined to the Multi-User Chat.
     */
     public Message pollMessage() throws MucNotJoinedException {
-        if (messageCollector == null) {
+        BlockingQueue<Message> messageQueue = this.messageQueue;
+        if (messageQueue == null) {
             throw new MucNotJoinedException(this);
         }
-        return messageCollector.pollResult();
+        return messageQueue.poll();
     }
 
     /**
      * Returns the next available message in the chat. The method call will block
-     * (not return) until a message is available.
+     * (not return) until a message is available, or the connection's reply timeout has elapsed.
      *
-     * @return the next message.
+     * @return the next message, or <code>null</code> if the reply timeout elapses without a
+     *      message becoming available.
      * @throws MucNotJoinedException if not joined to the Multi-User Chat.
      * @throws InterruptedException if the calling thread was interrupted.
      */
     public Message nextMessage() throws MucNotJoinedException, InterruptedException {
-        if (messageCollector == null) {
-            throw new MucNotJoinedException(this);
-        }
-        return  messageCollector.nextResult();
+        return nextMessage(connection.getReplyTimeout());
     }
 
     /**
@@ -1978,10 +2206,11 @@ public class MultiUserChat {
      * @throws InterruptedException if the calling thread was interrupted.
      */
     public Message nextMessage(long timeout) throws MucNotJoinedException, InterruptedException {
-        if (messageCollector == null) {
+        BlockingQueue<Message> messageQueue = this.messageQueue;
+        if (messageQueue == null) {
             throw new MucNotJoinedException(this);
         }
-        return messageCollector.nextResult(timeout);
+        return messageQueue.poll(timeout, TimeUnit.MILLISECONDS);
     }
 
     /**
@@ -2044,15 +2273,9 @@ public class MultiUserChat {
      * connection.
      */
     private void removeConnectionCallbacks() {
-        connection.removeSyncStanzaListener(messageListener);
-        connection.removeSyncStanzaListener(presenceListener);
-        connection.removeSyncStanzaListener(subjectListener);
-        connection.removeSyncStanzaListener(declinesListener);
+        multiUserChatManager.removeRoutedRoom(this);
         connection.removeStanzaInterceptor(presenceInterceptor);
-        if (messageCollector != null) {
-            messageCollector.cancel();
-            messageCollector = null;
-        }
+        messageQueue = null;
     }
 
     /**
@@ -2062,7 +2285,7 @@ public class MultiUserChat {
         // We do not reset nickname here, in case this method has been called erroneously, it should still be possible
         // to call leave() in order to resync the state. And leave() requires the nickname to send the unsubscribe
         // presence.
-        occupantsMap.clear();
+        occupants.clear();
         joined = false;
         // Update the list of joined rooms
         multiUserChatManager.removeJoinedRoom(room);
@@ -2404,7 +2627,7 @@ public class MultiUserChat {
                 }
 
                 // Reset occupant information.
-                occupantsMap.clear();
+                occupants.clear();
                 myRoomJid = null;
                 userHasLeft();
             }
@@ -2424,7 +2647,7 @@ public class MultiUserChat {
                 }
 
                 // Reset occupant information.
-                occupantsMap.clear();
+                occupants.clear();
                 myRoomJid = null;
                 userHasLeft();
             }
@@ -2443,7 +2666,7 @@ public class MultiUserChat {
             }
 
             // Reset occupant information.
-            occupantsMap.clear();
+            occupants.clear();
             myRoomJid = null;
             userHasLeft();
         }
@@ -17,14 +17,21 @@
 package org.jivesoftware.smackx.muc;
 
 import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -33,6 +40,9 @@ import org.jivesoftware.smack.ConnectionCreationListener;
 import org.jivesoftware.smack.Manager;
 import org.jivesoftware.smack.SmackException.NoResponseException;
 import org.jivesoftware.smack.SmackException.NotConnectedException;
+import org.jivesoftware.smack.SmackException.NotLoggedInException;
+import org.jivesoftware.smack.SmackFuture;
+import org.jivesoftware.smack.SmackFuture.InternalSmackFuture;
 import org.jivesoftware.smack.StanzaListener;
 import org.jivesoftware.smack.XMPPConnection;
 import org.jivesoftware.smack.XMPPConnectionRegistry;
@@ -40,18 +50,23 @@ import org.jivesoftware.smack.XMPPException.XMPPErrorException;
 import org.jivesoftware.smack.filter.AndFilter;
 import org.jivesoftware.smack.filter.MessageTypeFilter;
 import org.jivesoftware.smack.filter.NotFilter;
+import org.jivesoftware.smack.filter.OrFilter;
 import org.jivesoftware.smack.filter.StanzaExtensionFilter;
 import org.jivesoftware.smack.filter.StanzaFilter;
 import org.jivesoftware.smack.filter.StanzaTypeFilter;
 import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.Presence;
 import org.jivesoftware.smack.packet.Stanza;
 import org.jivesoftware.smack.util.Async;
 import org.jivesoftware.smack.util.CleaningWeakReferenceMap;
+import org.jivesoftware.smack.util.ExceptionCallback;
+import org.jivesoftware.smack.util.SuccessCallback;
 
 import org.jivesoftware.smackx.disco.AbstractNodeInformationProvider;
 import org.jivesoftware.smackx.disco.ServiceDiscoveryManager;
 import org.jivesoftware.smackx.disco.packet.DiscoverInfo;
 import org.jivesoftware.smackx.disco.packet.DiscoverItems;
+import org.jivesoftware.smackx.muc.MultiUserChat.PendingEnter;
 import org.jivesoftware.smackx.muc.MultiUserChatException.MucNotJoinedException;
 import org.jivesoftware.smackx.muc.MultiUserChatException.NotAMucServiceException;
 import org.jivesoftware.smackx.muc.packet.MUCInitialPresence;
@@ -73,8 +88,8 @@ import org.jxmpp.jid.parts.Resourcepart;
  * <b>Automatic rejoin:</b> The manager supports automatic rejoin of MultiUserChat rooms once the connection got
  * re-established. This mechanism is disabled by default. To enable it, use {@link #setAutoJoinOnReconnect(boolean)}.
  * You can set a {@link AutoJoinFailedCallback} via {@link #setAutoJoinFailedCallback(AutoJoinFailedCallback)} to get
- * notified if this mechanism failed for some reason. Note that as soon as rejoining for a single room failed, no
- * further attempts will be made for the other rooms.
+ * notified if this mechanism failed for some reason. The rooms are rejoined using {@link #joinAll(Map)}, hence a
+ * failure to rejoin a single room does not prevent the other rooms from being rejoined.
  * </p>
  *
  * @see <a href="http://xmpp.org/extensions/xep-0045.html">XEP-0045: Multi-User Chat</a>
@@ -117,6 +132,11 @@ public final class MultiUserChatManager extends Manager {
 
     private static final Map<XMPPConnection, MultiUserChatManager> INSTANCES = new WeakHashMap<XMPPConnection, MultiUserChatManager>();
 
+    /**
+     * The default maximum number of rooms {@link #joinAll(Map)} enters concurrently.
+     */
+    public static final int DEFAULT_MAX_CONCURRENT_JOINS = 8;
+
     /**
      * Get a instance of a multi user chat manager for the given connection.
      *
@@ -135,6 +155,8 @@ public final class MultiUserChatManager extends Manager {
     private static final StanzaFilter INVITATION_FILTER = new AndFilter(StanzaTypeFilter.MESSAGE, new StanzaExtensionFilter(new MUCUser()),
                     new NotFilter(MessageTypeFilter.ERROR));
 
+    private static final StanzaFilter ROUTED_STANZA_FILTER = new OrFilter(StanzaTypeFilter.MESSAGE, StanzaTypeFilter.PRESENCE);
+
     private final Set<InvitationListener> invitationsListeners = new CopyOnWriteArraySet<InvitationListener>();
 
     /**
@@ -149,12 +171,21 @@ public final class MultiUserChatManager extends Manager {
      */
     private final Map<EntityBareJid, WeakReference<MultiUserChat>> multiUserChats = new CleaningWeakReferenceMap<>();
 
+    /**
+     * The rooms which are joined, or currently being joined, by their XMPP address. Stanzas from those rooms are
+     * routed to the MultiUserChat instance by a single stanza listener, so that the cost of dispatching a stanza does
+     * not grow with the number of joined rooms.
+     */
+    private final ConcurrentMap<EntityBareJid, MultiUserChat> routedRooms = new ConcurrentHashMap<>();
+
     private boolean autoJoinOnReconnect;
 
     private AutoJoinFailedCallback autoJoinFailedCallback;
 
     private AutoJoinSuccessCallback autoJoinSuccessCallback;
 
+    private int maxConcurrentJoins = DEFAULT_MAX_CONCURRENT_JOINS;
+
     private final ServiceDiscoveryManager serviceDiscoveryManager;
 
     private MultiUserChatManager(XMPPConnection connection) {
@@ -190,6 +221,29 @@ public final class MultiUserChatManager extends Manager {
         };
         connection.addAsyncStanzaListener(invitationPacketListener, INVITATION_FILTER);
 
+        // Dispatches the stanzas from joined rooms to the MultiUserChat instances. This is a synchronous listener, so
+        // that stanzas from the same room are processed in the order they were received.
+        StanzaListener mucStanzaRouter = new StanzaListener() {
+            @Override
+            public void processStanza(Stanza stanza) throws NotConnectedException, InterruptedException,
+                            NotLoggedInException {
+                Jid from = stanza.getFrom();
+                if (from == null) {
+                    return;
+                }
+                EntityBareJid room = from.asEntityBareJidIfPossible();
+                if (room == null) {
+                    return;
+                }
+                MultiUserChat muc = routedRooms.get(room);
+                if (muc == null) {
+                    return;
+                }
+                muc.processRoutedStanza(stanza);
+            }
+        };
+        connection.addSyncStanzaListener(mucStanzaRouter, ROUTED_STANZA_FILTER);
+
         connection.addConnectionListener(new AbstractConnectionListener() {
             @Override
             public void authenticated(XMPPConnection connection, boolean resumed) {
@@ -199,48 +253,51 @@ public final class MultiUserChatManager extends Manager {
                 final Set<EntityBareJid> mucs = getJoinedRooms();
                 if (mucs.isEmpty()) return;
 
-                Async.go(new Runnable() {
-                    @Override
-                    public void run() {
-                        final AutoJoinFailedCallback failedCallback = autoJoinFailedCallback;
-                        final AutoJoinSuccessCallback successCallback = autoJoinSuccessCallback;
-                        for (EntityBareJid mucJid : mucs) {
-                            MultiUserChat muc = getMultiUserChat(mucJid);
-
-                            if (!muc.isJoined()) return;
-
-                            Resourcepart nickname = muc.getNickname();
-                            if (nickname == null) return;
-
-                            try {
-                                muc.leave();
-                            } catch (NotConnectedException | InterruptedException | MucNotJoinedException
-                                            | NoResponseException | XMPPErrorException e) {
-                                if (failedCallback != null) {
-                                    failedCallback.autoJoinFailed(muc, e);
-                                } else {
-                                    LOGGER.log(Level.WARNING, "Could not leave room", e);
-                                }
+                final AutoJoinFailedCallback failedCallback = autoJoinFailedCallback;
+                final AutoJoinSuccessCallback successCallback = autoJoinSuccessCallback;
+                Map<EntityBareJid, MucEnterConfiguration> enterConfigurations = new LinkedHashMap<>(mucs.size());
+                for (EntityBareJid mucJid : mucs) {
+                    MultiUserChat muc = getMultiUserChat(mucJid);
+
+                    if (!muc.isJoined()) continue;
+
+                    Resourcepart nickname = muc.getNickname();
+                    if (nickname == null) continue;
+
+                    enterConfigurations.put(mucJid, muc.getEnterConfigurationBuilder(nickname).build());
+                }
+
+                Map<EntityBareJid, SmackFuture<Presence, Exception>> futures = joinAll(enterConfigurations);
+                for (Map.Entry<EntityBareJid, SmackFuture<Presence, Exception>> entry : futures.entrySet()) {
+                    final MultiUserChat muc = getMultiUserChat(entry.getKey());
+                    final Resourcepart nickname = muc.getNickname();
+                    // SmackFuture may invoke the success callback a second time if the join completed before both
+                    // callbacks were registered, only report the outcome once.
+                    final AtomicBoolean completed = new AtomicBoolean();
+                    entry.getValue().onSuccess(new SuccessCallback<Presence>() {
+                        @Override
+                        public void onSuccess(Presence result) {
+                            if (!completed.compareAndSet(false, true)) {
                                 return;
                             }
-                            try {
-                                muc.join(nickname);
-                                if (successCallback != null) {
-                                    successCallback.autoJoinSuccess(muc, nickname);
-                                }
-                            } catch (NotAMucServiceException | NoResponseException | XMPPErrorException
-                                    | NotConnectedException | InterruptedException e) {
-                                if (failedCallback != null) {
-                                    failedCallback.autoJoinFailed(muc, e);
-                                } else {
-                                    LOGGER.log(Level.WARNING, "Could not leave room", e);
-                                }
+                            if (successCallback != null) {
+                                successCallback.autoJoinSuccess(muc, nickname);
+                            }
+                        }
+                    }).onError(new ExceptionCallback<Exception>() {
+                        @Override
+                        public void processException(Exception exception) {
+                            if (!completed.compareAndSet(false, true)) {
                                 return;
                             }
+                            if (failedCallback != null) {
+                                failedCallback.autoJoinFailed(muc, exception);
+                            } else {
+                                LOGGER.log(Level.WARNING, "Could not rejoin " + muc.getRoom(), exception);
+                            }
                         }
-                    }
-
-                });
+                    });
+                }
             }
         });
     }
@@ -276,6 +333,109 @@ public final class MultiUserChatManager extends Manager {
         return multiUserChat;
     }
 
+    /**
+     * Join all the given rooms using the same enter configuration. This is useful to apply the same nickname, timeout
+     * and discussion history limits to every room.
+     *
+     * @param rooms the rooms to join.
+     * @param mucEnterConfiguration the configuration used to enter every room.
+     * @return a map from the rooms to futures which report if the room was entered.
+     * @see #joinAll(Map)
+     */
+    public Map<EntityBareJid, SmackFuture<Presence, Exception>> joinAll(Collection<EntityBareJid> rooms,
+                    MucEnterConfiguration mucEnterConfiguration) {
+        Map<EntityBareJid, MucEnterConfiguration> enterConfigurations = new LinkedHashMap<>(rooms.size());
+        for (EntityBareJid room : rooms) {
+            enterConfigurations.put(room, mucEnterConfiguration);
+        }
+        return joinAll(enterConfigurations);
+    }
+
+    /**
+     * Join multiple rooms at once. In contrast to calling {@link MultiUserChat#join(MucEnterConfiguration)} for every
+     * room, which waits for the room to reflect our self presence before the next room is joined, this method sends
+     * the join presences of up to {@link #setMaxConcurrentJoins(int) max concurrent joins} rooms without waiting for
+     * the previous rooms. Once a room was entered, or failed to be entered, the join presence of the next room is send.
+     * <p>
+     * This method does not block. The outcome of every join is reported by the future of the room, which is either
+     * completed with the self presence reflected by the room, or with the exception which would have been thrown by
+     * {@link MultiUserChat#join(MucEnterConfiguration)}. Rooms which are already joined will be left first, without
+     * waiting for the MUC service to reflect the leave presence.
+     * </p>
+     *
+     * @param enterConfigurations a map from the rooms to join to the configuration used to enter them.
+     * @return a map from the rooms to futures which report if the room was entered.
+     * @since 4.4
+     */
+    public Map<EntityBareJid, SmackFuture<Presence, Exception>> joinAll(
+                    Map<EntityBareJid, MucEnterConfiguration> enterConfigurations) {
+        final Map<EntityBareJid, SmackFuture<Presence, Exception>> futures = new LinkedHashMap<>(
+                        enterConfigurations.size());
+        final List<PendingJoin> joins = new ArrayList<>(enterConfigurations.size());
+        for (Map.Entry<EntityBareJid, MucEnterConfiguration> entry : enterConfigurations.entrySet()) {
+            PendingJoin join = new PendingJoin(getMultiUserChat(entry.getKey()), entry.getValue());
+            futures.put(entry.getKey(), join.future);
+            joins.add(join);
+        }
+
+        if (!joins.isEmpty()) {
+            final int maxConcurrentJoins = this.maxConcurrentJoins;
+            Async.go(new Runnable() {
+                @Override
+                public void run() {
+                    joinAll(joins, maxConcurrentJoins);
+                }
+            }, "MUC joinAll (" + connection() + ')');
+        }
+
+        return Collections.unmodifiableMap(futures);
+    }
+
+    private static void joinAll(List<PendingJoin> joins, int maxConcurrentJoins) {
+        Iterator<PendingJoin> it = joins.iterator();
+        ArrayDeque<PendingJoin> inFlight = new ArrayDeque<>(maxConcurrentJoins);
+        try {
+            while (it.hasNext() || !inFlight.isEmpty()) {
+                // Fill the window with join presences, the MUC services will process them concurrently.
+                while (inFlight.size() < maxConcurrentJoins && it.hasNext()) {
+                    PendingJoin join = it.next();
+                    if (join.start()) {
+                        inFlight.add(join);
+                    }
+                }
+
+                // Wait for the oldest join. The results of the other joins are collected in the meantime, and their
+                // timeouts are only started once we wait for them.
+                PendingJoin join = inFlight.poll();
+                if (join != null) {
+                    join.finish();
+                }
+            }
+        } catch (InterruptedException e) {
+            // Remove the collectors of the joins we will no longer wait for.
+            for (PendingJoin join : inFlight) {
+                join.abort();
+            }
+            for (PendingJoin join : joins) {
+                if (!join.future.isDone()) {
+                    join.future.setException(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Set the maximum number of rooms {@link #joinAll(Map)} enters concurrently.
+     *
+     * @param maxConcurrentJoins the maximum number of concurrent joins.
+     */
+    public void setMaxConcurrentJoins(int maxConcurrentJoins) {
+        if (maxConcurrentJoins <= 0) {
+            throw new IllegalArgumentException("The maximum number of concurrent joins must be positive");
+        }
+        this.maxConcurrentJoins = maxConcurrentJoins;
+    }
+
     /**
      * Returns true if the specified user supports the Multi-User Chat protocol.
      *
@@ -344,7 +504,8 @@ public final class MultiUserChatManager extends Manager {
      * @throws InterruptedException if the calling thread was interrupted.
      */
     public RoomInfo getRoomInfo(EntityBareJid room) throws NoResponseException, XMPPErrorException, NotConnectedException, InterruptedException {
-        DiscoverInfo info = serviceDiscoveryManager.discoverInfo(room);
+        // The room information, like the number of occupants, changes frequently, hence do not use the cache.
+        DiscoverInfo info = serviceDiscoveryManager.discoverInfo(room, null, false);
         return new RoomInfo(info);
     }
 
@@ -513,4 +674,60 @@ public final class MultiUserChatManager extends Manager {
     void removeJoinedRoom(EntityBareJid room) {
         joinedRooms.remove(room);
     }
+
+    void addRoutedRoom(MultiUserChat muc) {
+        routedRooms.put(muc.getRoom(), muc);
+    }
+
+    void removeRoutedRoom(MultiUserChat muc) {
+        routedRooms.remove(muc.getRoom(), muc);
+    }
+
+    private static final class PendingJoin {
+        private final MultiUserChat muc;
+        private final MucEnterConfiguration mucEnterConfiguration;
+        private final InternalSmackFuture<Presence, Exception> future = new InternalSmackFuture<>();
+        private PendingEnter pendingEnter;
+
+        private PendingJoin(MultiUserChat muc, MucEnterConfiguration mucEnterConfiguration) {
+            this.muc = muc;
+            this.mucEnterConfiguration = mucEnterConfiguration;
+        }
+
+        private boolean start() throws InterruptedException {
+            if (muc.isJoined()) {
+                try {
+                    muc.leaveWithoutWaiting();
+                }
+                catch (MucNotJoinedException e) {
+                    LOGGER.log(Level.WARNING, "Could not leave MUC prior joining, assuming we are not joined", e);
+                }
+                catch (NotConnectedException e) {
+                    future.setException(e);
+                    return false;
+                }
+            }
+            try {
+                pendingEnter = muc.startEnter(mucEnterConfiguration);
+            }
+            catch (NotConnectedException | NoResponseException | XMPPErrorException | NotAMucServiceException e) {
+                future.setException(e);
+                return false;
+            }
+            return true;
+        }
+
+        private void finish() throws InterruptedException {
+            try {
+                future.setResult(muc.finishEnter(pendingEnter));
+            }
+            catch (NotConnectedException | NoResponseException | XMPPErrorException e) {
+                future.setException(e);
+            }
+        }
+
+        private void abort() {
+            muc.abortEnter(pendingEnter);
+        }
+    }
 }
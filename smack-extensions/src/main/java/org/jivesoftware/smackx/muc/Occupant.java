@@ -44,21 +44,43 @@ public class Occupant {
     // Fields that may have a value
     private final Jid jid;
     private final Resourcepart nick;
+    private final Presence.Mode mode;
+    private final String status;
+
+    /**
+     * The presence this information was obtained from, if it is retained.
+     */
+    private final Presence presence;
 
     Occupant(MUCItem item) {
         this.jid = item.getJid();
         this.affiliation = item.getAffiliation();
         this.role = item.getRole();
         this.nick = item.getNick();
+        this.mode = null;
+        this.status = null;
+        this.presence = null;
     }
 
     Occupant(Presence presence) {
-        MUCUser mucUser = (MUCUser) presence.getExtension("x",
-                "http://jabber.org/protocol/muc#user");
-        MUCItem item = mucUser.getItem();
-        this.jid = item.getJid();
-        this.affiliation = item.getAffiliation();
-        this.role = item.getRole();
+        this(presence, true);
+    }
+
+    Occupant(Presence presence, boolean retainPresence) {
+        MUCUser mucUser = MUCUser.from(presence);
+        MUCItem item = mucUser != null ? mucUser.getItem() : null;
+        if (item != null) {
+            this.jid = item.getJid();
+            this.affiliation = item.getAffiliation();
+            this.role = item.getRole();
+        } else {
+            LOGGER.warning("Occupant presence without MUC user item: " + presence.getFrom());
+            this.jid = null;
+            this.affiliation = MUCAffiliation.none;
+            this.role = MUCRole.none;
+        }
+        this.mode = presence.getMode();
+        this.status = presence.getStatus();
         // Get the nickname from the FROM attribute of the presence
         EntityFullJid from = presence.getFrom().asEntityFullJidIfPossible();
         if (from == null) {
@@ -67,6 +89,7 @@ public class Occupant {
         } else {
             this.nick = from.getResourcepart();
         }
+        this.presence = retainPresence ? presence : null;
     }
 
     /**
@@ -112,6 +135,47 @@ public class Occupant {
         return nick;
     }
 
+    /**
+     * Returns the presence mode of the occupant, or <code>null</code> if this information was not obtained from a
+     * presence.
+     *
+     * @return the presence mode of the occupant.
+     */
+    public Presence.Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Returns the presence status of the occupant, or <code>null</code> if there is none or if this information was not
+     * obtained from a presence.
+     *
+     * @return the presence status of the occupant.
+     */
+    public String getStatus() {
+        return status;
+    }
+
+    /**
+     * Get the presence this information was obtained from. If the presence was not retained, a presence carrying the
+     * information of this occupant is created.
+     *
+     * @param from the address of the occupant.
+     * @return the presence of the occupant.
+     */
+    Presence toPresence(EntityFullJid from) {
+        if (presence != null) {
+            return presence;
+        }
+        Presence recreatedPresence = new Presence(Presence.Type.available);
+        recreatedPresence.setFrom(from);
+        recreatedPresence.setMode(mode);
+        recreatedPresence.setStatus(status);
+        MUCUser mucUser = new MUCUser();
+        mucUser.setItem(new MUCItem(affiliation, role, null, null, jid, null, null));
+        recreatedPresence.addExtension(mucUser);
+        return recreatedPresence;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (!(obj instanceof Occupant)) {
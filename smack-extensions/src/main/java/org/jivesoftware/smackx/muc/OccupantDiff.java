@@ -0,0 +1,125 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.muc;
+
+import org.jivesoftware.smack.util.Objects;
+
+/**
+ * A change of a single occupant of a MUC room, as reported to {@link OccupantDiffListener}s.
+ */
+public final class OccupantDiff {
+
+    public enum Type {
+        /**
+         * The occupant joined the room. There is no old occupant.
+         */
+        joined,
+
+        /**
+         * The occupant left the room. There is no new occupant.
+         */
+        left,
+
+        /**
+         * The role, affiliation or presence of the occupant changed.
+         */
+        changed,
+    }
+
+    private final Type type;
+    private final Occupant oldOccupant;
+    private final Occupant newOccupant;
+
+    private OccupantDiff(Type type, Occupant oldOccupant, Occupant newOccupant) {
+        this.type = type;
+        this.oldOccupant = oldOccupant;
+        this.newOccupant = newOccupant;
+    }
+
+    static OccupantDiff joined(Occupant occupant) {
+        return new OccupantDiff(Type.joined, null, occupant);
+    }
+
+    static OccupantDiff left(Occupant occupant) {
+        return new OccupantDiff(Type.left, occupant, null);
+    }
+
+    /**
+     * Create a diff between the given occupants, or return <code>null</code> if nothing changed.
+     *
+     * @param oldOccupant the previous information about the occupant.
+     * @param newOccupant the new information about the occupant.
+     * @return the diff or <code>null</code>.
+     */
+    static OccupantDiff changed(Occupant oldOccupant, Occupant newOccupant) {
+        if (oldOccupant.getRole() == newOccupant.getRole()
+                        && oldOccupant.getAffiliation() == newOccupant.getAffiliation()
+                        && oldOccupant.getMode() == newOccupant.getMode()
+                        && Objects.equals(oldOccupant.getStatus(), newOccupant.getStatus())
+                        && Objects.equals(oldOccupant.getJid(), newOccupant.getJid())) {
+            return null;
+        }
+        return new OccupantDiff(Type.changed, oldOccupant, newOccupant);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Get the occupant before this change, or <code>null</code> if the occupant joined.
+     *
+     * @return the old occupant.
+     */
+    public Occupant getOldOccupant() {
+        return oldOccupant;
+    }
+
+    /**
+     * Get the occupant after this change, or <code>null</code> if the occupant left.
+     *
+     * @return the new occupant.
+     */
+    public Occupant getNewOccupant() {
+        return newOccupant;
+    }
+
+    /**
+     * Get the occupant this change is about, i.e. the new occupant if there is one, and the old occupant otherwise.
+     *
+     * @return the occupant.
+     */
+    public Occupant getOccupant() {
+        if (newOccupant != null) {
+            return newOccupant;
+        }
+        return oldOccupant;
+    }
+
+    public boolean isRoleChanged() {
+        return type == Type.changed && oldOccupant.getRole() != newOccupant.getRole();
+    }
+
+    public boolean isAffiliationChanged() {
+        return type == Type.changed && oldOccupant.getAffiliation() != newOccupant.getAffiliation();
+    }
+
+    @Override
+    public String toString() {
+        return "OccupantDiff(" + type + ", " + getOccupant().getNick() + ')';
+    }
+}
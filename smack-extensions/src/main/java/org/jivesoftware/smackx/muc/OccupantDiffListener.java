@@ -0,0 +1,34 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.muc;
+
+/**
+ * A listener that is notified about the changes of the occupants of a MUC room.
+ *
+ * @see MultiUserChat#addOccupantDiffListener(OccupantDiffListener)
+ */
+public interface OccupantDiffListener {
+
+    /**
+     * Called when an occupant joined or left the room, or when the role, affiliation or presence of an occupant
+     * changed.
+     *
+     * @param diff the change of the occupant.
+     */
+    void occupantChanged(OccupantDiff diff);
+
+}
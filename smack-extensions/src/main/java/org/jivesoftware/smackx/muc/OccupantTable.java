@@ -0,0 +1,164 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.muc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jxmpp.jid.parts.Resourcepart;
+
+/**
+ * The occupants of a room, keyed by their nickname.
+ * <p>
+ * Rooms may have many thousand occupants, hence the occupants are stored in a single array using open addressing with
+ * linear probing, instead of a hash map which requires an entry object per occupant. Removals shift the following
+ * entries of the probe sequence back, so that no tombstones are required.
+ * </p>
+ */
+final class OccupantTable {
+
+    private static final int MIN_CAPACITY = 8;
+
+    private Occupant[] table = new Occupant[MIN_CAPACITY];
+
+    private volatile int size;
+
+    int size() {
+        return size;
+    }
+
+    synchronized Occupant get(Resourcepart nick) {
+        int index = indexOf(table, nick);
+        if (index < 0) {
+            return null;
+        }
+        return table[index];
+    }
+
+    /**
+     * Put the given occupant into this table, replacing the occupant with the same nickname.
+     *
+     * @param occupant the occupant, which must have a nickname.
+     * @return the replaced occupant, or <code>null</code>.
+     */
+    synchronized Occupant put(Occupant occupant) {
+        Resourcepart nick = occupant.getNick();
+        int index = indexOf(table, nick);
+        if (index >= 0) {
+            Occupant previous = table[index];
+            table[index] = occupant;
+            return previous;
+        }
+
+        // Keep the load factor below 2/3, as linear probing degrades quickly at higher load factors.
+        if (3 * (size + 1) > 2 * table.length) {
+            resize(table.length * 2);
+        }
+        insert(table, occupant);
+        size++;
+        return null;
+    }
+
+    synchronized Occupant remove(Resourcepart nick) {
+        int index = indexOf(table, nick);
+        if (index < 0) {
+            return null;
+        }
+        Occupant removed = table[index];
+        table[index] = null;
+        size--;
+
+        // Move the following entries of the probe sequence which can not be found anymore due to the new gap.
+        int mask = table.length - 1;
+        int gap = index;
+        for (int i = (index + 1) & mask; table[i] != null; i = (i + 1) & mask) {
+            int home = slotOf(table[i].getNick(), mask);
+            // The entry at i may be moved into the gap if its home slot is not within (gap, i], cyclically.
+            boolean movable = gap <= i ? home <= gap || home > i : home <= gap && home > i;
+            if (movable) {
+                table[gap] = table[i];
+                table[i] = null;
+                gap = i;
+            }
+        }
+
+        if (table.length > MIN_CAPACITY && 8 * size < table.length) {
+            resize(table.length / 2);
+        }
+        return removed;
+    }
+
+    synchronized void clear() {
+        table = new Occupant[MIN_CAPACITY];
+        size = 0;
+    }
+
+    synchronized List<Occupant> values() {
+        List<Occupant> values = new ArrayList<>(size);
+        for (Occupant occupant : table) {
+            if (occupant != null) {
+                values.add(occupant);
+            }
+        }
+        return values;
+    }
+
+    synchronized List<Occupant> values(MUCRole role) {
+        List<Occupant> values = new ArrayList<>();
+        for (Occupant occupant : table) {
+            if (occupant != null && occupant.getRole() == role) {
+                values.add(occupant);
+            }
+        }
+        return values;
+    }
+
+    private void resize(int capacity) {
+        Occupant[] resized = new Occupant[capacity];
+        for (Occupant occupant : table) {
+            if (occupant != null) {
+                insert(resized, occupant);
+            }
+        }
+        table = resized;
+    }
+
+    private static void insert(Occupant[] table, Occupant occupant) {
+        int mask = table.length - 1;
+        int i = slotOf(occupant.getNick(), mask);
+        while (table[i] != null) {
+            i = (i + 1) & mask;
+        }
+        table[i] = occupant;
+    }
+
+    private static int indexOf(Occupant[] table, Resourcepart nick) {
+        int mask = table.length - 1;
+        for (int i = slotOf(nick, mask); table[i] != null; i = (i + 1) & mask) {
+            if (table[i].getNick().equals(nick)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int slotOf(Resourcepart nick, int mask) {
+        int hash = nick.hashCode();
+        // Spread the higher bits, as only the lower bits are used to select the slot.
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+}
@@ -0,0 +1,60 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.pubsub;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The difference between the items of a leaf node and a set of locally known item IDs, as determined by
+ * {@link LeafNode#syncItems(java.util.Collection)}.
+ *
+ * @param <T> the type of the items.
+ */
+public final class ItemsDiff<T extends Item> {
+
+    private final List<T> newItems;
+    private final Set<String> removedItemIds;
+
+    ItemsDiff(List<T> newItems, Set<String> removedItemIds) {
+        this.newItems = Collections.unmodifiableList(newItems);
+        this.removedItemIds = Collections.unmodifiableSet(removedItemIds);
+    }
+
+    /**
+     * Get the items of the node whose IDs were not known locally.
+     *
+     * @return the new items.
+     */
+    public List<T> getNewItems() {
+        return newItems;
+    }
+
+    /**
+     * Get the locally known item IDs which are no longer on the node.
+     *
+     * @return the IDs of the removed items.
+     */
+    public Set<String> getRemovedItemIds() {
+        return removedItemIds;
+    }
+
+    public boolean isEmpty() {
+        return newItems.isEmpty() && removedItemIds.isEmpty();
+    }
+}
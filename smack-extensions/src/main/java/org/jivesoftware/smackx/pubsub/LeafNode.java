@@ -18,7 +18,11 @@ package org.jivesoftware.smackx.pubsub;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.jivesoftware.smack.SmackException.NoResponseException;
 import org.jivesoftware.smack.SmackException.NotConnectedException;
@@ -60,7 +64,8 @@ public class LeafNode extends Node {
     }
 
     /**
-     * Get the current items stored in the node.
+     * Get the current items stored in the node. The items are taken from the node cache, if it is
+     * {@link PubSubManager#enableNodeCache(int, long) enabled} and holds all items of the node.
      *
      * @param <T> type of the items.
      * @return List of {@link Item} in the node
@@ -70,7 +75,7 @@ public class LeafNode extends Node {
      * @throws InterruptedException if the calling thread was interrupted.
      */
     public <T extends Item> List<T> getItems() throws NoResponseException, XMPPErrorException, NotConnectedException, InterruptedException {
-        return getItems((List<ExtensionElement>) null, null);
+        return getCachedItems(-1);
     }
 
     /**
@@ -120,7 +125,56 @@ public class LeafNode extends Node {
     }
 
     /**
-     * Get items persisted on the node, limited to the specified number.
+     * Synchronize the items of the node with a set of locally known item IDs. The IDs of the items on the node are
+     * discovered with {@link #discoverItems()}, and only the items whose IDs are not known locally are retrieved.
+     * <p>
+     * Note that an item whose payload was changed without changing its ID is not detected as new. Publishers which
+     * want their items to be synchronized this way should derive the item ID from the payload, e.g. by hashing it.
+     * </p>
+     *
+     * @param knownItemIds the IDs of the items which are known locally.
+     * @param <T> type of the items.
+     * @return the new items and the IDs of the items which are no longer on the node.
+     * @throws XMPPErrorException if there was an XMPP error returned.
+     * @throws NoResponseException if there was no response from the server.
+     * @throws NotConnectedException if the XMPP connection is not connected.
+     * @throws InterruptedException if the calling thread was interrupted.
+     * @since 4.4
+     */
+    public <T extends Item> ItemsDiff<T> syncItems(Collection<String> knownItemIds) throws NoResponseException,
+                    XMPPErrorException, NotConnectedException, InterruptedException {
+        Set<String> nodeItemIds = new LinkedHashSet<>();
+        for (DiscoverItems.Item item : discoverItems().getItems()) {
+            // XEP-0060 § 5.5: The item ID is the value of the 'name' attribute.
+            String itemId = item.getName();
+            if (itemId != null) {
+                nodeItemIds.add(itemId);
+            }
+        }
+
+        Set<String> removedItemIds = new HashSet<>(knownItemIds);
+        removedItemIds.removeAll(nodeItemIds);
+
+        Set<String> known = new HashSet<>(knownItemIds);
+        List<String> newItemIds = new ArrayList<>();
+        for (String itemId : nodeItemIds) {
+            if (!known.contains(itemId)) {
+                newItemIds.add(itemId);
+            }
+        }
+
+        List<T> newItems;
+        if (newItemIds.isEmpty()) {
+            newItems = Collections.emptyList();
+        } else {
+            newItems = getItems(newItemIds);
+        }
+        return new ItemsDiff<>(newItems, removedItemIds);
+    }
+
+    /**
+     * Get items persisted on the node, limited to the specified number. The items are taken from the node cache, if
+     * it is {@link PubSubManager#enableNodeCache(int, long) enabled} and holds enough items of the node.
      *
      * @param maxItems Maximum number of items to return
      * @param <T> type of the items.
@@ -132,8 +186,7 @@ public class LeafNode extends Node {
      * @throws InterruptedException if the calling thread was interrupted.
      */
     public <T extends Item> List<T> getItems(int maxItems) throws NoResponseException, XMPPErrorException, NotConnectedException, InterruptedException {
-        PubSub request = createPubsubPacket(Type.get, new GetItemsRequest(getId(), maxItems));
-        return getItems(request);
+        return getCachedItems(maxItems);
     }
 
     /**
@@ -184,6 +237,39 @@ public class LeafNode extends Node {
         return getItems(request, returnedExtensions);
     }
 
+    private <T extends Item> List<T> getCachedItems(int maxItems) throws NoResponseException, XMPPErrorException,
+                    NotConnectedException, InterruptedException {
+        PubSubNodeCache nodeCache = pubSubManager.getNodeCache();
+        long itemsVersion = 0;
+        if (nodeCache != null) {
+            List<T> cachedItems = nodeCache.getItems(getId(), maxItems);
+            if (cachedItems != null) {
+                return cachedItems;
+            }
+            // Notifications received while the request is in flight take precedence over the retrieved items.
+            itemsVersion = nodeCache.getItemsVersion(getId());
+        }
+
+        GetItemsRequest getItemsRequest;
+        if (maxItems < 0) {
+            getItemsRequest = new GetItemsRequest(getId());
+        } else {
+            getItemsRequest = new GetItemsRequest(getId(), maxItems);
+        }
+        List<T> items = getItems(createPubsubPacket(Type.get, getItemsRequest));
+        if (nodeCache != null) {
+            nodeCache.itemsRetrieved(getId(), maxItems, items, itemsVersion);
+        }
+        return items;
+    }
+
+    private void invalidateCachedItems() {
+        PubSubNodeCache nodeCache = pubSubManager.getNodeCache();
+        if (nodeCache != null) {
+            nodeCache.invalidateItems(getId());
+        }
+    }
+
     private <T extends Item> List<T> getItems(PubSub request) throws NoResponseException,
                     XMPPErrorException, NotConnectedException, InterruptedException {
         return getItems(request, null);
@@ -279,6 +365,7 @@ public class LeafNode extends Node {
         PubSub packet = createPubsubPacket(Type.set, new NodeExtension(PubSubElementType.PUBLISH, getId()));
 
         pubSubManager.getConnection().createStanzaCollectorAndSend(packet).nextResultOrThrow();
+        invalidateCachedItems();
     }
 
     /**
@@ -328,6 +415,7 @@ public class LeafNode extends Node {
         PubSub packet = createPubsubPacket(Type.set, new PublishItem<>(getId(), items));
 
         pubSubManager.getConnection().createStanzaCollectorAndSend(packet).nextResultOrThrow();
+        invalidateCachedItems();
     }
 
     /**
@@ -344,6 +432,7 @@ public class LeafNode extends Node {
         PubSub request = createPubsubPacket(Type.set, new NodeExtension(PubSubElementType.PURGE_OWNER, getId()));
 
         pubSubManager.getConnection().createStanzaCollectorAndSend(request).nextResultOrThrow();
+        invalidateCachedItems();
     }
 
     /**
@@ -378,5 +467,6 @@ public class LeafNode extends Node {
         }
         PubSub request = createPubsubPacket(Type.set, new ItemsExtension(ItemsExtension.ItemsElementType.retract, getId(), items));
         pubSubManager.getConnection().createStanzaCollectorAndSend(request).nextResultOrThrow();
+        invalidateCachedItems();
     }
 }
@@ -80,7 +80,8 @@ public abstract class Node {
     }
     /**
      * Returns a configuration form, from which you can create an answer form to be submitted
-     * via the {@link #sendConfigurationForm(Form)}.
+     * via the {@link #sendConfigurationForm(Form)}. The form is taken from the node cache, if it is
+     * {@link PubSubManager#enableNodeCache(int, long) enabled} and the form was recently retrieved.
      *
      * @return the configuration form
      * @throws XMPPErrorException if there was an XMPP error returned.
@@ -89,10 +90,22 @@ public abstract class Node {
      * @throws InterruptedException if the calling thread was interrupted.
      */
     public ConfigureForm getNodeConfiguration() throws NoResponseException, XMPPErrorException, NotConnectedException, InterruptedException {
+        PubSubNodeCache nodeCache = pubSubManager.getNodeCache();
+        if (nodeCache != null) {
+            ConfigureForm cachedConfiguration = nodeCache.getConfiguration(getId());
+            if (cachedConfiguration != null) {
+                return cachedConfiguration;
+            }
+        }
+
         PubSub pubSub = createPubsubPacket(Type.get, new NodeExtension(
                         PubSubElementType.CONFIGURE_OWNER, getId()));
         Stanza reply = sendPubsubPacket(pubSub);
-        return NodeUtils.getFormFromPacket(reply, PubSubElementType.CONFIGURE_OWNER);
+        ConfigureForm configuration = NodeUtils.getFormFromPacket(reply, PubSubElementType.CONFIGURE_OWNER);
+        if (nodeCache != null) {
+            nodeCache.configurationRetrieved(getId(), configuration);
+        }
+        return configuration;
     }
 
     /**
@@ -108,6 +121,10 @@ public abstract class Node {
         PubSub packet = createPubsubPacket(Type.set, new FormNode(FormNodeType.CONFIGURE_OWNER,
                         getId(), submitForm));
         pubSubManager.getConnection().createStanzaCollectorAndSend(packet).nextResultOrThrow();
+        PubSubNodeCache nodeCache = pubSubManager.getNodeCache();
+        if (nodeCache != null) {
+            nodeCache.invalidateConfiguration(getId());
+        }
     }
 
     /**
@@ -522,6 +539,11 @@ public abstract class Node {
      */
     public void unsubscribe(String jid, String subscriptionId) throws NoResponseException, XMPPErrorException, NotConnectedException, InterruptedException {
         sendPubsubPacket(createPubsubPacket(Type.set, new UnsubscribeExtension(jid, getId(), subscriptionId)));
+        // Notifications about the node may not be received anymore, hence its cached state can not be kept up to date.
+        PubSubNodeCache nodeCache = pubSubManager.getNodeCache();
+        if (nodeCache != null) {
+            nodeCache.invalidate(getId());
+        }
     }
 
     /**
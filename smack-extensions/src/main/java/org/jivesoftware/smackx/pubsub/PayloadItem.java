@@ -16,9 +16,17 @@
  */
 package org.jivesoftware.smackx.pubsub;
 
+import java.io.IOException;
+
 import org.jivesoftware.smack.packet.ExtensionElement;
 import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.parsing.SmackParsingException;
+import org.jivesoftware.smack.provider.ExtensionElementProvider;
+import org.jivesoftware.smack.provider.ProviderManager;
+import org.jivesoftware.smack.util.PacketParserUtils;
 import org.jivesoftware.smack.util.XmlStringBuilder;
+import org.jivesoftware.smack.xml.XmlPullParser;
+import org.jivesoftware.smack.xml.XmlPullParserException;
 
 import org.jivesoftware.smackx.pubsub.provider.ItemProvider;
 
@@ -52,6 +60,11 @@ import org.jivesoftware.smackx.pubsub.provider.ItemProvider;
 public class PayloadItem<E extends ExtensionElement> extends Item {
     private final E payload;
 
+    /**
+     * The result of parsing a {@link SimplePayload} with the registered provider, once it was requested.
+     */
+    private volatile ExtensionElement parsedPayload;
+
     /**
      * Create an <code>Item</code> with no id and a payload  The id will be set by the server.
      *
@@ -130,6 +143,61 @@ public class PayloadItem<E extends ExtensionElement> extends Item {
         return payload;
     }
 
+    /**
+     * Get the payload parsed by the provider registered for its qualified name.
+     * <p>
+     * If the payload is a {@link SimplePayload}, because no provider was registered when this item was parsed, then
+     * the raw XML is parsed with the provider which is now registered with {@link ProviderManager}. The result is
+     * cached, so that the XML is parsed at most once. If there is still no provider registered, then the
+     * {@link SimplePayload} is returned.
+     * </p>
+     *
+     * @return the parsed payload.
+     * @throws XmlPullParserException if the payload could not be parsed.
+     * @throws IOException if an I/O error occurred.
+     * @throws SmackParsingException if the provider failed to parse the payload.
+     */
+    public ExtensionElement getParsedPayload() throws XmlPullParserException, IOException, SmackParsingException {
+        if (!(payload instanceof SimplePayload)) {
+            return payload;
+        }
+        ExtensionElement parsedPayload = this.parsedPayload;
+        if (parsedPayload != null) {
+            return parsedPayload;
+        }
+
+        SimplePayload simplePayload = (SimplePayload) payload;
+        ExtensionElementProvider<ExtensionElement> provider = ProviderManager.getExtensionProvider(
+                        simplePayload.getElementName(), simplePayload.getNamespace());
+        if (provider == null) {
+            return payload;
+        }
+        XmlPullParser parser = PacketParserUtils.getParserFor(simplePayload.toXML().toString());
+        parsedPayload = provider.parse(parser);
+        this.parsedPayload = parsedPayload;
+        return parsedPayload;
+    }
+
+    /**
+     * Get the payload parsed by the provider registered for its qualified name, if it is of the given type.
+     *
+     * @param payloadClass the expected type of the payload.
+     * @param <P> the expected type of the payload.
+     * @return the parsed payload, or <code>null</code> if it is not of the given type.
+     * @throws XmlPullParserException if the payload could not be parsed.
+     * @throws IOException if an I/O error occurred.
+     * @throws SmackParsingException if the provider failed to parse the payload.
+     * @see #getParsedPayload()
+     */
+    public <P extends ExtensionElement> P getParsedPayload(Class<P> payloadClass)
+                    throws XmlPullParserException, IOException, SmackParsingException {
+        ExtensionElement parsedPayload = getParsedPayload();
+        if (!payloadClass.isInstance(parsedPayload)) {
+            return null;
+        }
+        return payloadClass.cast(parsedPayload);
+    }
+
     @Override
     public XmlStringBuilder toXML(org.jivesoftware.smack.packet.XmlEnvironment enclosingNamespace) {
         XmlStringBuilder xml = getCommonXml();
@@ -16,6 +16,7 @@
  */
 package org.jivesoftware.smackx.pubsub;
 
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -28,6 +29,7 @@ import java.util.logging.Logger;
 import org.jivesoftware.smack.Manager;
 import org.jivesoftware.smack.SmackException.NoResponseException;
 import org.jivesoftware.smack.SmackException.NotConnectedException;
+import org.jivesoftware.smack.SmackFuture;
 import org.jivesoftware.smack.XMPPConnection;
 import org.jivesoftware.smack.XMPPException.XMPPErrorException;
 import org.jivesoftware.smack.packet.EmptyResultIQ;
@@ -69,6 +71,17 @@ public final class PubSubManager extends Manager {
 
     public static final String AUTO_CREATE_FEATURE = "http://jabber.org/protocol/pubsub#auto-create";
 
+    /**
+     * The default maximum number of publish requests {@link #publishAsync(Map)} has in flight.
+     */
+    public static final int DEFAULT_MAX_IN_FLIGHT_PUBLISH_REQUESTS = 16;
+
+    /**
+     * The default maximum size, in characters of XML, of the items coalesced into a single publish request by
+     * {@link #publishAsync(Map)}.
+     */
+    public static final int DEFAULT_MAX_PUBLISH_REQUEST_SIZE = 64 * 1024;
+
     private static final Logger LOGGER = Logger.getLogger(PubSubManager.class.getName());
     private static final Map<XMPPConnection, Map<BareJid, PubSubManager>> INSTANCES = new WeakHashMap<>();
 
@@ -83,6 +96,11 @@ public final class PubSubManager extends Manager {
      */
     private final Map<String, Node> nodeMap = new ConcurrentHashMap<>();
 
+    /**
+     * The cache of node items and configurations, or <code>null</code> if the cache is disabled.
+     */
+    private volatile PubSubNodeCache nodeCache;
+
     /**
      * Get a PubSub manager for the default PubSub service of the connection.
      *
@@ -411,6 +429,97 @@ public final class PubSubManager extends Manager {
         return leafNode;
     }
 
+    /**
+     * Publish items to multiple leaf nodes without blocking, using the default limits.
+     *
+     * @param itemsByNode a map from node IDs to the items to publish to the node.
+     * @return a map from the node IDs to futures reporting the number of items published to the node.
+     * @see #publishAsync(Map, int, int)
+     */
+    public Map<String, SmackFuture<Integer, Exception>> publishAsync(
+                    Map<String, ? extends Collection<? extends Item>> itemsByNode) {
+        return publishAsync(itemsByNode, DEFAULT_MAX_IN_FLIGHT_PUBLISH_REQUESTS, DEFAULT_MAX_PUBLISH_REQUEST_SIZE);
+    }
+
+    /**
+     * Publish items to multiple leaf nodes without blocking.
+     * <p>
+     * The items of a node are coalesced into publish requests carrying multiple items, where the items of a single
+     * request are at most the given number of characters of XML, unless a single item is larger. The requests of all
+     * nodes are pipelined: up to the given number of requests are in flight, and the next request is send once a
+     * response was received. The future of a node is completed once all requests of the node have been answered,
+     * either with the number of published items, or with the first exception of a request of the node.
+     * </p>
+     * <p>
+     * Note that if a node's items were split into multiple requests and one of them failed, then the items of the
+     * other requests may have been published nevertheless.
+     * </p>
+     *
+     * @param itemsByNode a map from node IDs to the items to publish to the node.
+     * @param maxInFlightRequests the maximum number of publish requests awaiting a response.
+     * @param maxRequestSize the maximum size of the items of a single publish request.
+     * @return a map from the node IDs to futures reporting the number of items published to the node.
+     * @since 4.4
+     */
+    public Map<String, SmackFuture<Integer, Exception>> publishAsync(
+                    Map<String, ? extends Collection<? extends Item>> itemsByNode, int maxInFlightRequests,
+                    int maxRequestSize) {
+        PubSubNodeCache nodeCache = this.nodeCache;
+        if (nodeCache != null) {
+            for (String nodeId : itemsByNode.keySet()) {
+                nodeCache.invalidateItems(nodeId);
+            }
+        }
+        PublishBatch publishBatch = new PublishBatch(connection(), pubSubService, itemsByNode, maxInFlightRequests,
+                        maxRequestSize);
+        return publishBatch.publish();
+    }
+
+    /**
+     * Enable the cache of node configurations and node items of this PubSub service.
+     * <p>
+     * Once enabled, {@link LeafNode#getItems()}, {@link LeafNode#getItems(int)} and
+     * {@link Node#getNodeConfiguration()} are answered from memory if possible. The cached items are kept up to date by
+     * the event notifications of the service, hence entries of nodes for which notifications are received, e.g.
+     * because we are subscribed to the node or because of PEP's "+notify", do not expire. Entries of all other nodes,
+     * and all cached configurations, expire after the given time to live. Enabling an already enabled cache replaces
+     * it with an empty cache using the new parameters.
+     * </p>
+     *
+     * @param maxItemsPerNode the maximum number of items cached per node.
+     * @param ttlMillis the time to live, in milliseconds, of entries not kept up to date by notifications.
+     * @since 4.4
+     */
+    public synchronized void enableNodeCache(int maxItemsPerNode, long ttlMillis) {
+        PubSubNodeCache newNodeCache = new PubSubNodeCache(connection(), pubSubService, maxItemsPerNode, ttlMillis);
+        disableNodeCache();
+        newNodeCache.start();
+        nodeCache = newNodeCache;
+    }
+
+    /**
+     * Disable the cache of node configurations and node items and discard its content.
+     *
+     * @since 4.4
+     */
+    public synchronized void disableNodeCache() {
+        PubSubNodeCache previous = nodeCache;
+        if (previous == null) {
+            return;
+        }
+        nodeCache = null;
+        previous.stop();
+    }
+
+    /**
+     * Get the node cache.
+     *
+     * @return the node cache, or <code>null</code> if it is disabled.
+     */
+    PubSubNodeCache getNodeCache() {
+        return nodeCache;
+    }
+
     private LeafNode getOrCreateLeafNodeProsodyWorkaround(final String id)
                     throws XMPPErrorException, NoResponseException, NotConnectedException, InterruptedException, NotALeafNodeException {
         try {
@@ -540,6 +649,10 @@ public final class PubSubManager extends Manager {
             }
         }
         nodeMap.remove(nodeId);
+        PubSubNodeCache nodeCache = this.nodeCache;
+        if (nodeCache != null) {
+            nodeCache.invalidate(nodeId);
+        }
         return res;
     }
 
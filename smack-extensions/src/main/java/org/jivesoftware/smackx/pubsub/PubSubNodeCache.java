@@ -0,0 +1,376 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.pubsub;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jivesoftware.smack.AbstractConnectionClosedListener;
+import org.jivesoftware.smack.ConnectionListener;
+import org.jivesoftware.smack.StanzaListener;
+import org.jivesoftware.smack.XMPPConnection;
+import org.jivesoftware.smack.filter.AndFilter;
+import org.jivesoftware.smack.filter.MessageTypeFilter;
+import org.jivesoftware.smack.filter.StanzaExtensionFilter;
+import org.jivesoftware.smack.filter.StanzaFilter;
+import org.jivesoftware.smack.packet.NamedElement;
+import org.jivesoftware.smack.packet.Stanza;
+
+import org.jxmpp.jid.BareJid;
+
+/**
+ * A cache of the metadata and the most recent items of the nodes of a PubSub service, enabled via
+ * {@link PubSubManager#enableNodeCache(int, long)}.
+ * <p>
+ * The cache is kept up to date by the event notifications of the service: published items are added, retracted items
+ * are removed, purges clear the items and configuration changes drop the cached configuration. Items retrieved from
+ * the service are not cached if a notification about the node was received while they were requested. Entries of
+ * nodes for which notifications are received, e.g. because we are subscribed to them or because of PEP's "+notify",
+ * never expire. All other entries expire after the time to live given when the cache was enabled. The cache is cleared
+ * if the connection is closed, as notifications may be missed while disconnected.
+ * </p>
+ */
+final class PubSubNodeCache {
+
+    private static final StanzaFilter EVENT_FILTER = new AndFilter(MessageTypeFilter.NORMAL_OR_CHAT_OR_HEADLINE,
+                    new StanzaExtensionFilter(EventElement.ELEMENT, EventElement.NAMESPACE));
+
+    private final XMPPConnection connection;
+
+    private final BareJid pubSubService;
+
+    private final int maxItemsPerNode;
+
+    private final long ttlMillis;
+
+    private final ConcurrentMap<String, CachedNode> nodes = new ConcurrentHashMap<>();
+
+    /**
+     * The source of the versions of the cached items. Versions are unique across all nodes, hence a node which was
+     * removed from the cache and added again never gets a version which was handed out before.
+     */
+    private final AtomicLong itemsVersions = new AtomicLong();
+
+    private final StanzaListener eventListener = new StanzaListener() {
+        @Override
+        public void processStanza(Stanza stanza) {
+            // A PEP service is the bare JID of our own account.
+            BareJid service = pubSubService != null ? pubSubService : connection.getUser().asBareJid();
+            if (stanza.getFrom() == null || !stanza.getFrom().asBareJid().equals(service)) {
+                return;
+            }
+            EventElement event = EventElement.from(stanza);
+            NodeExtension nodeEvent = event.getEvent();
+            if (nodeEvent == null || nodeEvent.getNode() == null) {
+                return;
+            }
+            processEvent(event.getEventType(), nodeEvent);
+        }
+    };
+
+    private final ConnectionListener connectionListener = new AbstractConnectionClosedListener() {
+        @Override
+        public void connectionTerminated() {
+            nodes.clear();
+        }
+    };
+
+    PubSubNodeCache(XMPPConnection connection, BareJid pubSubService, int maxItemsPerNode, long ttlMillis) {
+        if (maxItemsPerNode <= 0) {
+            throw new IllegalArgumentException("The maximum number of items per node must be positive");
+        }
+        if (ttlMillis < 0) {
+            throw new IllegalArgumentException("The time to live must not be negative");
+        }
+        this.connection = connection;
+        this.maxItemsPerNode = maxItemsPerNode;
+        this.ttlMillis = ttlMillis;
+        this.pubSubService = pubSubService;
+    }
+
+    void start() {
+        connection.addSyncStanzaListener(eventListener, EVENT_FILTER);
+        connection.addConnectionListener(connectionListener);
+    }
+
+    void stop() {
+        connection.removeSyncStanzaListener(eventListener);
+        connection.removeConnectionListener(connectionListener);
+        nodes.clear();
+    }
+
+    /**
+     * Get the cached items of a node.
+     *
+     * @param nodeId the ID of the node.
+     * @param maxItems the maximum number of items requested, or <code>-1</code> for all items.
+     * @return the most recent cached items, or <code>null</code> if the request can not be answered from the cache.
+     */
+    @SuppressWarnings("unchecked")
+    <T extends Item> List<T> getItems(String nodeId, int maxItems) {
+        CachedNode cachedNode = nodes.get(nodeId);
+        if (cachedNode == null) {
+            return null;
+        }
+        synchronized (cachedNode) {
+            if (!cachedNode.isFresh(ttlMillis) || cachedNode.items == null) {
+                return null;
+            }
+            int size = cachedNode.items.size();
+            if (maxItems < 0 || maxItems > size) {
+                // There may be more items on the service than we have cached.
+                if (!cachedNode.complete) {
+                    return null;
+                }
+                maxItems = size;
+            }
+            List<T> items = new ArrayList<>(maxItems);
+            int skip = size - maxItems;
+            for (Item item : cachedNode.items.values()) {
+                if (skip > 0) {
+                    skip--;
+                    continue;
+                }
+                items.add((T) item);
+            }
+            return items;
+        }
+    }
+
+    /**
+     * Get the current version of the cached items of a node. The version changes whenever the cached items are
+     * modified by a notification or are invalidated. It must be obtained before the items are requested from the
+     * service, and passed to {@link #itemsRetrieved(String, int, List, long)}.
+     *
+     * @param nodeId the ID of the node.
+     * @return the current version of the cached items.
+     */
+    long getItemsVersion(String nodeId) {
+        CachedNode cachedNode = getOrCreate(nodeId);
+        synchronized (cachedNode) {
+            return cachedNode.itemsVersion;
+        }
+    }
+
+    /**
+     * Store the items retrieved from the service. The items are discarded if the cached items changed since the given
+     * version was obtained, as the retrieved items may then be older than the ones of the notifications.
+     *
+     * @param nodeId the ID of the node.
+     * @param maxItems the maximum number of items which was requested, or <code>-1</code> if all items were requested.
+     * @param items the retrieved items.
+     * @param itemsVersion the version of the cached items obtained before the items were requested.
+     */
+    void itemsRetrieved(String nodeId, int maxItems, List<? extends Item> items, long itemsVersion) {
+        if (items.size() > maxItemsPerNode) {
+            return;
+        }
+        boolean complete = maxItems < 0 || items.size() < maxItems;
+        CachedNode cachedNode = getOrCreate(nodeId);
+        synchronized (cachedNode) {
+            if (cachedNode.itemsVersion != itemsVersion) {
+                return;
+            }
+            cachedNode.items = new LinkedHashMap<>();
+            for (Item item : items) {
+                if (item.getId() != null) {
+                    cachedNode.items.put(item.getId(), item);
+                }
+            }
+            cachedNode.complete = complete;
+            cachedNode.itemsRetrievedAt = System.currentTimeMillis();
+        }
+    }
+
+    ConfigureForm getConfiguration(String nodeId) {
+        CachedNode cachedNode = nodes.get(nodeId);
+        if (cachedNode == null) {
+            return null;
+        }
+        synchronized (cachedNode) {
+            if (System.currentTimeMillis() - cachedNode.configurationRetrievedAt >= ttlMillis) {
+                return null;
+            }
+            return cachedNode.configuration;
+        }
+    }
+
+    void configurationRetrieved(String nodeId, ConfigureForm configuration) {
+        CachedNode cachedNode = getOrCreate(nodeId);
+        synchronized (cachedNode) {
+            cachedNode.configuration = configuration;
+            cachedNode.configurationRetrievedAt = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Invalidate the cached items of a node, for example because they were modified by us.
+     *
+     * @param nodeId the ID of the node.
+     */
+    void invalidateItems(String nodeId) {
+        CachedNode cachedNode = nodes.get(nodeId);
+        if (cachedNode == null) {
+            return;
+        }
+        synchronized (cachedNode) {
+            cachedNode.items = null;
+            cachedNode.complete = false;
+            cachedNode.itemsVersion = itemsVersions.incrementAndGet();
+        }
+    }
+
+    void invalidateConfiguration(String nodeId) {
+        CachedNode cachedNode = nodes.get(nodeId);
+        if (cachedNode == null) {
+            return;
+        }
+        synchronized (cachedNode) {
+            cachedNode.configuration = null;
+        }
+    }
+
+    void invalidate(String nodeId) {
+        nodes.remove(nodeId);
+    }
+
+    private void processEvent(EventElementType eventType, NodeExtension nodeEvent) {
+        String nodeId = nodeEvent.getNode();
+        switch (eventType) {
+        case items:
+            itemsEvent(nodeId, ((ItemsExtension) nodeEvent).getItems());
+            break;
+        case purge:
+            purgeEvent(nodeId);
+            break;
+        case configuration:
+            invalidateConfiguration(nodeId);
+            break;
+        case delete:
+            invalidate(nodeId);
+            break;
+        default:
+            // Subscription and collection events do not affect the cached state.
+            break;
+        }
+    }
+
+    private void itemsEvent(String nodeId, List<? extends NamedElement> elements) {
+        CachedNode cachedNode = getOrCreate(nodeId);
+        synchronized (cachedNode) {
+            cachedNode.notified = true;
+            cachedNode.itemsVersion = itemsVersions.incrementAndGet();
+            if (cachedNode.items == null) {
+                cachedNode.items = new LinkedHashMap<>();
+                cachedNode.complete = false;
+            }
+            for (NamedElement element : elements) {
+                if (element instanceof RetractItem) {
+                    cachedNode.items.remove(((RetractItem) element).getId());
+                    continue;
+                }
+                if (!(element instanceof PayloadItem)) {
+                    // A notification without payload, the content of the item is unknown.
+                    cachedNode.items = null;
+                    cachedNode.complete = false;
+                    return;
+                }
+                Item item = (Item) element;
+                if (item.getId() == null) {
+                    continue;
+                }
+                // Re-insert the item, so that it becomes the most recent one.
+                cachedNode.items.remove(item.getId());
+                cachedNode.items.put(item.getId(), item);
+            }
+
+            Iterator<String> it = cachedNode.items.keySet().iterator();
+            while (cachedNode.items.size() > maxItemsPerNode) {
+                it.next();
+                it.remove();
+                cachedNode.complete = false;
+            }
+        }
+    }
+
+    private void purgeEvent(String nodeId) {
+        CachedNode cachedNode = getOrCreate(nodeId);
+        synchronized (cachedNode) {
+            cachedNode.notified = true;
+            cachedNode.itemsVersion = itemsVersions.incrementAndGet();
+            cachedNode.items = new LinkedHashMap<>();
+            cachedNode.complete = true;
+        }
+    }
+
+    private CachedNode getOrCreate(String nodeId) {
+        CachedNode cachedNode = nodes.get(nodeId);
+        if (cachedNode == null) {
+            cachedNode = new CachedNode(itemsVersions.incrementAndGet());
+            CachedNode previous = nodes.putIfAbsent(nodeId, cachedNode);
+            if (previous != null) {
+                cachedNode = previous;
+            }
+        }
+        return cachedNode;
+    }
+
+    /**
+     * The cached state of a single node, guarded by itself.
+     */
+    private static final class CachedNode {
+
+        /**
+         * The cached items, in publication order, or <code>null</code> if the items are unknown.
+         */
+        private LinkedHashMap<String, Item> items;
+
+        /**
+         * If {@link #items} contains all items of the node.
+         */
+        private boolean complete;
+
+        private long itemsRetrievedAt;
+
+        /**
+         * The version of the cached items, see {@link PubSubNodeCache#getItemsVersion(String)}.
+         */
+        private long itemsVersion;
+
+        /**
+         * If a notification about the node was received, in which case the cached items are kept up to date.
+         */
+        private boolean notified;
+
+        private ConfigureForm configuration;
+
+        private long configurationRetrievedAt;
+
+        private CachedNode(long itemsVersion) {
+            this.itemsVersion = itemsVersion;
+        }
+
+        private boolean isFresh(long ttlMillis) {
+            return notified || System.currentTimeMillis() - itemsRetrievedAt < ttlMillis;
+        }
+    }
+}
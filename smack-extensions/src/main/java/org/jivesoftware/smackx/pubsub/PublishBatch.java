@@ -0,0 +1,190 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.pubsub;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.jivesoftware.smack.SmackFuture;
+import org.jivesoftware.smack.SmackFuture.InternalSmackFuture;
+import org.jivesoftware.smack.XMPPConnection;
+import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smack.packet.IQ.Type;
+import org.jivesoftware.smack.util.ExceptionCallback;
+import org.jivesoftware.smack.util.SuccessCallback;
+
+import org.jivesoftware.smackx.pubsub.packet.PubSub;
+
+import org.jxmpp.jid.Jid;
+
+/**
+ * Publishes items to multiple nodes of a PubSub service, see
+ * {@link PubSubManager#publishAsync(Map, int, int)}.
+ * <p>
+ * The items of every node are coalesced into as few publish requests as possible, where the size of the items of a
+ * single request is limited. The requests are pipelined, i.e. up to a maximum number of requests are in flight and
+ * the next request is send as soon as a response was received.
+ * </p>
+ */
+final class PublishBatch {
+
+    private final XMPPConnection connection;
+
+    private final int maxInFlightRequests;
+
+    private final ArrayDeque<Request> pendingRequests = new ArrayDeque<>();
+
+    private final Map<String, NodeResult> nodeResults = new LinkedHashMap<>();
+
+    /**
+     * The number of requests send for which no response was received yet. Guarded by this.
+     */
+    private int inFlightRequests;
+
+    PublishBatch(XMPPConnection connection, Jid pubSubService, Map<String, ? extends Collection<? extends Item>> itemsByNode,
+                    int maxInFlightRequests, int maxRequestSize) {
+        if (maxInFlightRequests <= 0) {
+            throw new IllegalArgumentException("The maximum number of in flight requests must be positive");
+        }
+        if (maxRequestSize <= 0) {
+            throw new IllegalArgumentException("The maximum request size must be positive");
+        }
+        this.connection = connection;
+        this.maxInFlightRequests = maxInFlightRequests;
+
+        for (Map.Entry<String, ? extends Collection<? extends Item>> entry : itemsByNode.entrySet()) {
+            String nodeId = entry.getKey();
+            NodeResult nodeResult = new NodeResult();
+            nodeResults.put(nodeId, nodeResult);
+
+            List<Item> requestItems = new ArrayList<>();
+            int requestSize = 0;
+            for (Item item : entry.getValue()) {
+                int itemSize = item.toXML().length();
+                if (!requestItems.isEmpty() && requestSize + itemSize > maxRequestSize) {
+                    addRequest(pubSubService, nodeId, nodeResult, requestItems);
+                    requestItems = new ArrayList<>();
+                    requestSize = 0;
+                }
+                requestItems.add(item);
+                requestSize += itemSize;
+            }
+            if (!requestItems.isEmpty()) {
+                addRequest(pubSubService, nodeId, nodeResult, requestItems);
+            }
+
+            if (nodeResult.remainingRequests == 0) {
+                nodeResult.future.setResult(0);
+            }
+        }
+    }
+
+    private void addRequest(Jid pubSubService, String nodeId, NodeResult nodeResult, List<Item> items) {
+        PubSub request = PubSub.createPubsubPacket(pubSubService, Type.set, new PublishItem<>(nodeId, items));
+        pendingRequests.add(new Request(request, nodeResult, items.size()));
+        nodeResult.remainingRequests++;
+    }
+
+    Map<String, SmackFuture<Integer, Exception>> publish() {
+        Map<String, SmackFuture<Integer, Exception>> futures = new LinkedHashMap<>(nodeResults.size());
+        for (Map.Entry<String, NodeResult> entry : nodeResults.entrySet()) {
+            futures.put(entry.getKey(), entry.getValue().future);
+        }
+        sendPendingRequests();
+        return Collections.unmodifiableMap(futures);
+    }
+
+    private void sendPendingRequests() {
+        List<Request> requests = new ArrayList<>();
+        synchronized (this) {
+            while (inFlightRequests < maxInFlightRequests && !pendingRequests.isEmpty()) {
+                requests.add(pendingRequests.poll());
+                inFlightRequests++;
+            }
+        }
+
+        for (final Request request : requests) {
+            connection.sendIqRequestAsync(request.iq).onSuccess(new SuccessCallback<IQ>() {
+                @Override
+                public void onSuccess(IQ result) {
+                    requestCompleted(request, null);
+                }
+            }).onError(new ExceptionCallback<Exception>() {
+                @Override
+                public void processException(Exception exception) {
+                    requestCompleted(request, exception);
+                }
+            });
+        }
+    }
+
+    private void requestCompleted(Request request, Exception exception) {
+        // SmackFuture invokes the success callback a second time if the request completed before the exception callback
+        // was registered, only account for the response once.
+        if (!request.completed.compareAndSet(false, true)) {
+            return;
+        }
+        synchronized (this) {
+            inFlightRequests--;
+            NodeResult nodeResult = request.nodeResult;
+            nodeResult.remainingRequests--;
+            if (exception == null) {
+                nodeResult.publishedItems += request.itemCount;
+            } else if (nodeResult.exception == null) {
+                nodeResult.exception = exception;
+            }
+
+            if (nodeResult.remainingRequests == 0) {
+                if (nodeResult.exception == null) {
+                    nodeResult.future.setResult(nodeResult.publishedItems);
+                } else {
+                    nodeResult.future.setException(nodeResult.exception);
+                }
+            }
+        }
+        sendPendingRequests();
+    }
+
+    private static final class Request {
+        private final PubSub iq;
+        private final NodeResult nodeResult;
+        private final int itemCount;
+        private final AtomicBoolean completed = new AtomicBoolean();
+
+        private Request(PubSub iq, NodeResult nodeResult, int itemCount) {
+            this.iq = iq;
+            this.nodeResult = nodeResult;
+            this.itemCount = itemCount;
+        }
+    }
+
+    /**
+     * The state of the publish requests of a single node. Guarded by the enclosing batch.
+     */
+    private static final class NodeResult {
+        private final InternalSmackFuture<Integer, Exception> future = new InternalSmackFuture<>();
+        private int remainingRequests;
+        private int publishedItems;
+        private Exception exception;
+    }
+}
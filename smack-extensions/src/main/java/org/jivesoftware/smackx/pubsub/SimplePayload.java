@@ -28,7 +28,8 @@ import org.jivesoftware.smack.xml.XmlPullParserException;
 
 /**
  * The default payload representation for {@link PayloadItem#getPayload()}.  It simply
- * stores the XML payload as a string.
+ * stores the XML payload as a string. Use {@link PayloadItem#getParsedPayload()} to parse it with the provider which is
+ * registered for the payload's qualified name.
  *
  * @author Robin Collier
  */
@@ -44,6 +45,25 @@ public class SimplePayload implements ExtensionElement {
      * @param xmlPayload The payload data
      */
     public SimplePayload(String xmlPayload) {
+        this(getQName(xmlPayload), xmlPayload);
+    }
+
+    /**
+     * Construct a <code>SimplePayload</code> object from XML whose root element has the given qualified name. This
+     * avoids parsing the XML again if the qualified name is already known, for example because the XML was just
+     * extracted from a parser. The content must be well formed XML.
+     *
+     * @param qname the qualified name of the root element of the payload.
+     * @param xmlPayload the payload data.
+     */
+    public SimplePayload(QName qname, String xmlPayload) {
+        payload = xmlPayload;
+
+        elemName = StringUtils.requireNotNullNorEmpty(qname.getLocalPart(), "Could not determine element name from XML payload");
+        ns = StringUtils.requireNotNullNorEmpty(qname.getNamespaceURI(), "Could not determine namespace from XML payload");
+    }
+
+    private static QName getQName(String xmlPayload) {
         XmlPullParser parser;
         try {
             parser = PacketParserUtils.getParserFor(xmlPayload);
@@ -51,12 +71,7 @@ public class SimplePayload implements ExtensionElement {
         catch (XmlPullParserException | IOException e) {
             throw new AssertionError(e);
         }
-        QName qname = parser.getQName();
-
-        payload = xmlPayload;
-
-        elemName = StringUtils.requireNotNullNorEmpty(qname.getLocalPart(), "Could not determine element name from XML payload");
-        ns = StringUtils.requireNotNullNorEmpty(qname.getNamespaceURI(), "Could not determine namespace from XML payload");
+        return parser.getQName();
     }
 
     /**
@@ -18,6 +18,8 @@ package org.jivesoftware.smackx.pubsub.provider;
 
 import java.io.IOException;
 
+import javax.xml.namespace.QName;
+
 import org.jivesoftware.smack.packet.ExtensionElement;
 import org.jivesoftware.smack.packet.XmlEnvironment;
 import org.jivesoftware.smack.parsing.SmackParsingException;
@@ -37,7 +39,8 @@ import org.jivesoftware.smackx.pubsub.packet.PubSubNamespace;
  * Parses an <b>item</b> element as is defined in both the {@link PubSubNamespace#basic} and
  * {@link PubSubNamespace#event} namespaces. To parse the item contents, it will use whatever
  * {@link ExtensionElementProvider} is registered in <b>smack.providers</b> for its element name and namespace. If no
- * provider is registered, it will return a {@link SimplePayload}.
+ * provider is registered, it will return a {@link SimplePayload}, which can be parsed later on with
+ * {@link PayloadItem#getParsedPayload()}.
  *
  * @author Robin Collier
  */
@@ -62,8 +65,10 @@ public class ItemProvider extends ExtensionElementProvider<Item>  {
             final ExtensionElementProvider<ExtensionElement> extensionProvider = ProviderManager.getExtensionProvider(payloadElemName, payloadNS);
             if (extensionProvider == null) {
                 // TODO: Should we use StandardExtensionElement in this case? And probably remove SimplePayload all together.
+                // The qualified name is known already, so avoid that the payload is parsed again to determine it.
+                QName payloadQName = parser.getQName();
                 CharSequence payloadText = PacketParserUtils.parseElement(parser, true);
-                return new PayloadItem<>(itemNamespace, id, node, new SimplePayload(payloadText.toString()));
+                return new PayloadItem<>(itemNamespace, id, node, new SimplePayload(payloadQName, payloadText.toString()));
             }
             else {
                 return new PayloadItem<>(itemNamespace, id, node, extensionProvider.parse(parser));
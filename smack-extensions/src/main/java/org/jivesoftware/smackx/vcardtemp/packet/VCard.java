@@ -461,7 +461,13 @@ public final class VCard extends IQ {
         if (photoBinval == null) {
             return null;
         }
-        return Base64.decode(photoBinval);
+        // the encoded image is usually split into lines, decode it without removing the whitespace first
+        try {
+            return Base64.decodeToByteArray(photoBinval);
+        }
+        catch (IllegalArgumentException e) {
+            return null;
+        }
     }
 
     /**
@@ -17,18 +17,27 @@
 package org.jivesoftware.smackx.bytestreams.ibb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.isA;
+import static org.mockito.Mockito.when;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Random;
 
 import org.jivesoftware.smack.SmackException;
+import org.jivesoftware.smack.SmackFuture;
+import org.jivesoftware.smack.SmackFuture.InternalSmackFuture;
 import org.jivesoftware.smack.StanzaListener;
 import org.jivesoftware.smack.XMPPConnection;
 import org.jivesoftware.smack.XMPPException;
+import org.jivesoftware.smack.XMPPException.XMPPErrorException;
 import org.jivesoftware.smack.packet.IQ;
 import org.jivesoftware.smack.packet.StanzaError;
 import org.jivesoftware.smack.util.stringencoder.Base64;
@@ -45,6 +54,8 @@ import org.junit.Before;
 import org.junit.Test;
 import org.jxmpp.jid.EntityFullJid;
 import org.jxmpp.jid.JidTestUtil;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.powermock.reflect.Whitebox;
 
 /**
@@ -291,6 +302,198 @@ public class InBandBytestreamSessionTest extends InitExtensions {
 
     }
 
+    /**
+     * Several data packets should be in flight, but never more than the configured maximum.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void shouldKeepSeveralDataPacketsInFlight() throws Exception {
+        InBandBytestreamSession session = new InBandBytestreamSession(connection, initBytestream,
+                        initiatorJID);
+        session.setMaximumDataPacketsInFlight(4);
+
+        int maximumInFlight = writeAndAcknowledge(session, 20, false);
+
+        assertTrue(maximumInFlight > 1);
+        assertTrue(maximumInFlight <= 4);
+    }
+
+    /**
+     * The sender should cope with a receiver which acknowledges the data packets in flight out of
+     * order, and still send the data packets in sequence.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void shouldHandleDataPacketsAcknowledgedOutOfOrder() throws Exception {
+        InBandBytestreamSession session = new InBandBytestreamSession(connection, initBytestream,
+                        initiatorJID);
+        session.setMaximumDataPacketsInFlight(4);
+
+        int maximumInFlight = writeAndAcknowledge(session, 20, true);
+
+        assertTrue(maximumInFlight > 1);
+        assertTrue(maximumInFlight <= 4);
+    }
+
+    /**
+     * By default only one data packet should be in flight, as receivers may not handle data packets
+     * which arrive while the previous one is processed.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void shouldSendOneDataPacketAtATimeByDefault() throws Exception {
+        InBandBytestreamSession session = new InBandBytestreamSession(connection, initBytestream,
+                        initiatorJID);
+        assertEquals(1, session.getMaximumDataPacketsInFlight());
+        assertEquals(1, InBandBytestreamManager.getByteStreamManager(connection).getMaximumDataPacketsInFlight());
+
+        assertEquals(1, writeAndAcknowledge(session, 5, false));
+    }
+
+    /**
+     * Write the given number of data packets to the session and acknowledge the data packets in
+     * flight whenever the writer waits for the window to advance.
+     *
+     * @return the maximum number of data packets which were in flight at once
+     */
+    private int writeAndAcknowledge(InBandBytestreamSession session, int dataPackets,
+                    boolean reverseOrder) throws Exception {
+        final List<InternalSmackFuture<IQ, Exception>> unacknowledged = new ArrayList<>();
+        final List<Data> sent = new ArrayList<>();
+        when(connection.sendIqRequestAsync(isA(IQ.class))).thenAnswer(new Answer<SmackFuture<IQ, Exception>>() {
+            @Override
+            public SmackFuture<IQ, Exception> answer(InvocationOnMock invocation) {
+                InternalSmackFuture<IQ, Exception> future = new InternalSmackFuture<>();
+                synchronized (unacknowledged) {
+                    sent.add((Data) invocation.getArguments()[0]);
+                    unacknowledged.add(future);
+                    unacknowledged.notifyAll();
+                }
+                return future;
+            }
+        });
+
+        final OutputStream outputStream = session.getOutputStream();
+        final byte[] data = new byte[blockSize * dataPackets];
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    outputStream.write(data);
+                    outputStream.flush();
+                }
+                catch (IOException e) {
+                    fail(e.getMessage());
+                }
+            }
+        });
+        writer.start();
+
+        IQ resultIQ = IBBPacketUtils.createResultIQ(initiatorJID, targetJID);
+        int acknowledged = 0;
+        int maximumInFlight = 0;
+        long timeout = System.currentTimeMillis() + 10000;
+        while (acknowledged < dataPackets) {
+            List<InternalSmackFuture<IQ, Exception>> inFlight;
+            synchronized (unacknowledged) {
+                while (unacknowledged.isEmpty() || writer.getState() != Thread.State.WAITING) {
+                    assertTrue(System.currentTimeMillis() < timeout);
+                    unacknowledged.wait(10);
+                }
+                inFlight = new ArrayList<>(unacknowledged);
+                unacknowledged.clear();
+            }
+            maximumInFlight = Math.max(maximumInFlight, inFlight.size());
+            if (reverseOrder) {
+                Collections.reverse(inFlight);
+            }
+            for (InternalSmackFuture<IQ, Exception> future : inFlight) {
+                future.setResult(resultIQ);
+            }
+            acknowledged += inFlight.size();
+        }
+        writer.join(5000);
+
+        assertFalse(writer.isAlive());
+        assertEquals(dataPackets, acknowledged);
+        assertEquals(dataPackets, sent.size());
+        for (int i = 0; i < dataPackets; i++) {
+            assertEquals(i, sent.get(i).getDataPacketExtension().getSeq());
+        }
+        return maximumInFlight;
+    }
+
+    /**
+     * Data packets which are acknowledged before the callbacks of the request are registered
+     * should only be counted once, otherwise the number of data packets in flight drops below zero.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void shouldCountImmediatelyAcknowledgedDataPacketsOnce() throws Exception {
+        when(connection.sendIqRequestAsync(isA(IQ.class))).thenAnswer(new Answer<SmackFuture<IQ, Exception>>() {
+            @Override
+            public SmackFuture<IQ, Exception> answer(InvocationOnMock invocation) {
+                return SmackFuture.<IQ, Exception>from(IQ.createResultIQ((IQ) invocation.getArguments()[0]));
+            }
+        });
+
+        InBandBytestreamSession session = new InBandBytestreamSession(connection, initBytestream,
+                        initiatorJID);
+        session.setMaximumDataPacketsInFlight(4);
+        OutputStream outputStream = session.getOutputStream();
+
+        // the duplicate invocation of the callback races with the writer, hence repeat it
+        for (int i = 0; i < 50; i++) {
+            outputStream.write(new byte[blockSize]);
+            outputStream.flush();
+        }
+
+        long timeout = System.currentTimeMillis() + 200;
+        while (System.currentTimeMillis() < timeout) {
+            int inFlight = Whitebox.getInternalState(outputStream, "inFlight");
+            assertEquals(0, inFlight);
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * If a data packet is not acknowledged, the session should be closed and writing should fail.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void shouldCloseSessionIfDataPacketIsNotAcknowledged() throws Exception {
+        InBandBytestreamSession session = new InBandBytestreamSession(connection, initBytestream,
+                        initiatorJID);
+
+        // reject the first data packet
+        IQ errorIQ = IBBPacketUtils.createErrorIQ(initiatorJID, targetJID,
+                        StanzaError.Condition.item_not_found);
+        protocol.addResponse(errorIQ, incrementingSequence);
+
+        // confirm close request
+        IQ resultIQ = IBBPacketUtils.createResultIQ(initiatorJID, targetJID);
+        protocol.addResponse(resultIQ, Verification.requestTypeSET,
+                        Verification.correspondingSenderReceiver);
+
+        OutputStream outputStream = session.getOutputStream();
+        try {
+            outputStream.write(new byte[blockSize * 3]);
+            outputStream.flush();
+            fail("should throw an exception");
+        }
+        catch (IOException e) {
+            assertTrue(e.getCause() instanceof XMPPErrorException);
+        }
+
+        protocol.verifyAll();
+
+    }
+
     /**
      * If the input stream is closed the output stream should not be closed as well.
      *
@@ -333,9 +333,7 @@ public class Socks5ByteStreamManagerTest {
 
         /* retry to establish SOCKS5 Bytestream */
 
-        // add responses for service discovery again
-        protocol.addResponse(discoverInfo, Verification.correspondingSenderReceiver,
-                        Verification.requestTypeGET);
+        // add responses for service discovery again, the target's information is taken from the cache
         protocol.addResponse(discoverItems, Verification.correspondingSenderReceiver,
                         Verification.requestTypeGET);
 
@@ -876,7 +874,7 @@ public class Socks5ByteStreamManagerTest {
 
         // start a local SOCKS5 proxy
         try (Socks5TestProxy socks5Proxy = new Socks5TestProxy()) {
-            createResponses(protocol, sessionID, streamHostUsedVerification1, socks5Proxy);
+            createResponses(protocol, sessionID, streamHostUsedVerification1, socks5Proxy, true);
 
             // create digest to get the socket opened by target
             String digest = Socks5Utils.createDigest(sessionID, initiatorJID, targetJID);
@@ -909,7 +907,7 @@ public class Socks5ByteStreamManagerTest {
                 }
 
             };
-            createResponses(protocol, sessionID, streamHostUsedVerification2, socks5Proxy);
+            createResponses(protocol, sessionID, streamHostUsedVerification2, socks5Proxy, false);
 
             // call the method that should be tested again
             outputStream = byteStreamManager.establishSession(targetJID, sessionID).getOutputStream();
@@ -966,7 +964,7 @@ public class Socks5ByteStreamManagerTest {
 
         // start a local SOCKS5 proxy
         try (Socks5TestProxy socks5Proxy = new Socks5TestProxy()) {
-            createResponses(protocol, sessionID, streamHostUsedVerification, socks5Proxy);
+            createResponses(protocol, sessionID, streamHostUsedVerification, socks5Proxy, true);
 
             // create digest to get the socket opened by target
             String digest = Socks5Utils.createDigest(sessionID, initiatorJID, targetJID);
@@ -987,7 +985,7 @@ public class Socks5ByteStreamManagerTest {
 
             protocol.verifyAll();
 
-            createResponses(protocol, sessionID, streamHostUsedVerification, socks5Proxy);
+            createResponses(protocol, sessionID, streamHostUsedVerification, socks5Proxy, false);
 
             // call the method that should be tested again
             outputStream = byteStreamManager.establishSession(targetJID, sessionID).getOutputStream();
@@ -1006,15 +1004,17 @@ public class Socks5ByteStreamManagerTest {
     }
 
     private static void createResponses(Protocol protocol, String sessionID,
-                    Verification<Bytestream, Bytestream> streamHostUsedVerification, Socks5TestProxy socks5TestProxy)
-                    throws XmppStringprepException {
-        // build discover info that supports the SOCKS5 feature
-        DiscoverInfo discoverInfo = Socks5PacketUtils.createDiscoverInfo(targetJID, initiatorJID);
-        discoverInfo.addFeature(Bytestream.NAMESPACE);
+                    Verification<Bytestream, Bytestream> streamHostUsedVerification, Socks5TestProxy socks5TestProxy,
+                    boolean queryTarget) throws XmppStringprepException {
+        if (queryTarget) {
+            // build discover info that supports the SOCKS5 feature
+            DiscoverInfo discoverInfo = Socks5PacketUtils.createDiscoverInfo(targetJID, initiatorJID);
+            discoverInfo.addFeature(Bytestream.NAMESPACE);
 
-        // return that SOCKS5 is supported if target is queried
-        protocol.addResponse(discoverInfo, Verification.correspondingSenderReceiver,
-                        Verification.requestTypeGET);
+            // return that SOCKS5 is supported if target is queried, later attempts use the cached information
+            protocol.addResponse(discoverInfo, Verification.correspondingSenderReceiver,
+                            Verification.requestTypeGET);
+        }
 
         // build discover items containing a proxy item
         DiscoverItems discoverItems = Socks5PacketUtils.createDiscoverItems(xmppServer,
@@ -334,6 +334,60 @@ public class Socks5ByteStreamRequestTest {
         }
     }
 
+    /**
+     * If the SOCKS5 Bytestream request contains multiple SOCKS5 proxies which don't respond, the
+     * connection attempts should run concurrently, so that a responding SOCKS5 proxy is used
+     * without waiting for the unresponsive ones to time out.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void shouldConnectToSocks5ProxiesConcurrently() throws Exception {
+        final Protocol protocol = new Protocol();
+        final XMPPConnection connection = ConnectionUtils.createMockedConnection(protocol, targetJID);
+
+        // start a local SOCKS5 proxy
+        try (Socks5TestProxy socks5Proxy = new Socks5TestProxy();
+             ServerSocket unresponsiveSocks5Socket1 = NetworkUtil.getSocketOnLoopback();
+             ServerSocket unresponsiveSocks5Socket2 = NetworkUtil.getSocketOnLoopback()) {
+            // build SOCKS5 Bytestream initialization request
+            Bytestream bytestreamInitialization = Socks5PacketUtils.createBytestreamInitiation(
+                            initiatorJID, targetJID, sessionID);
+            bytestreamInitialization.addStreamHost(proxyJID, proxyAddress, unresponsiveSocks5Socket1.getLocalPort());
+            bytestreamInitialization.addStreamHost(proxyJID, proxyAddress, unresponsiveSocks5Socket2.getLocalPort());
+            bytestreamInitialization.addStreamHost(initiatorJID, proxyAddress, socks5Proxy.getPort());
+
+            Socks5BytestreamManager byteStreamManager = Socks5BytestreamManager.getBytestreamManager(connection);
+            Socks5BytestreamRequest byteStreamRequest = new Socks5BytestreamRequest(byteStreamManager,
+                            bytestreamInitialization);
+
+            // connecting one after another would take at least 10 seconds
+            byteStreamRequest.setTotalConnectTimeout(10000);
+            byteStreamRequest.setMinimumConnectTimeout(5000);
+            byteStreamRequest.setConnectAttemptDelay(100);
+
+            long start = System.currentTimeMillis();
+            Socks5BytestreamSession session = byteStreamRequest.accept();
+            assertTrue(System.currentTimeMillis() - start < 4000);
+            assertTrue(session.isDirect());
+
+            // test stream by sending some data
+            byte[] data = new byte[] { 1, 2, 3 };
+            String digest = Socks5Utils.createDigest(sessionID, initiatorJID, targetJID);
+            socks5Proxy.getSocket(digest).getOutputStream().write(data);
+            byte[] result = new byte[3];
+            session.getInputStream().read(result);
+            assertArrayEquals(data, result);
+
+            // verify targets response
+            assertEquals(1, protocol.getRequests().size());
+            Bytestream targetResponse = (Bytestream) protocol.getRequests().remove(0);
+            assertEquals(IQ.Type.result, targetResponse.getType());
+            assertEquals(initiatorJID, targetResponse.getUsedHost().getJID());
+            session.close();
+        }
+    }
+
     /**
      * Accepting the SOCKS5 Bytestream request should be successfully.
      *
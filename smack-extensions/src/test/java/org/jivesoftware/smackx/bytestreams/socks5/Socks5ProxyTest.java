@@ -294,4 +294,186 @@ public class Socks5ProxyTest {
             proxy.stop();
         }
     }
+
+    /**
+     * A client which sends its messages in fragments should not delay the connections of other
+     * clients and bytes following the connection request should be readable from the established
+     * socket.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void shouldNegotiateConnectionsConcurrently() throws Exception {
+        Socks5Proxy proxy = new Socks5Proxy();
+        proxy.start();
+
+        try (Socket slowSocket = new Socket(loopbackAddress, proxy.getPort());
+             Socket socket = new Socket(loopbackAddress, proxy.getPort())) {
+            String slowDigest = new String(new byte[] { (byte) 0x61 }, StandardCharsets.UTF_8);
+            String digest = new String(new byte[] { (byte) 0x62 }, StandardCharsets.UTF_8);
+            proxy.addTransfer(slowDigest);
+            proxy.addTransfer(digest);
+
+            // send only a part of the greeting
+            OutputStream slowOut = slowSocket.getOutputStream();
+            InputStream slowIn = slowSocket.getInputStream();
+            slowOut.write(new byte[] { (byte) 0x05, (byte) 0x01 });
+            slowOut.flush();
+
+            // another client is served in the meantime
+            OutputStream out = socket.getOutputStream();
+            InputStream in = socket.getInputStream();
+            out.write(new byte[] { (byte) 0x05, (byte) 0x01, (byte) 0x00 });
+            assertEquals((byte) 0x05, (byte) in.read());
+            assertEquals((byte) 0x00, (byte) in.read());
+            out.write(new byte[] { (byte) 0x05, (byte) 0x00, (byte) 0x00, (byte) 0x03, (byte) 0x01, (byte) 0x62,
+                            (byte) 0x00, (byte) 0x00 });
+            for (int i = 0; i < 8; i++) {
+                in.read();
+            }
+            proxy.getSocket(digest).close();
+
+            // complete the greeting and send data right after the connection request
+            slowOut.write(new byte[] { (byte) 0x00 });
+            assertEquals((byte) 0x05, (byte) slowIn.read());
+            assertEquals((byte) 0x00, (byte) slowIn.read());
+            slowOut.write(new byte[] { (byte) 0x05, (byte) 0x00, (byte) 0x00, (byte) 0x03, (byte) 0x01, (byte) 0x61,
+                            (byte) 0x00, (byte) 0x00, 1, 2, 3 });
+            assertEquals((byte) 0x05, (byte) slowIn.read());
+            assertEquals((byte) 0x00, (byte) slowIn.read()); // success
+            for (int i = 0; i < 6; i++) {
+                slowIn.read();
+            }
+
+            try (Socket remoteSocket = proxy.getSocket(slowDigest)) {
+                InputStream remoteIn = remoteSocket.getInputStream();
+                assertEquals(1, remoteIn.read());
+                assertEquals(2, remoteIn.read());
+                assertEquals(3, remoteIn.read());
+            }
+        } finally {
+            proxy.stop();
+        }
+    }
+
+    /**
+     * A connection which is not negotiated within the negotiation timeout should be closed.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void shouldCloseConnectionIfNotNegotiatedInTime() throws Exception {
+        Socks5Proxy proxy = new Socks5Proxy();
+        proxy.setNegotiationTimeout(100);
+        proxy.start();
+
+        try (Socket socket = new Socket(loopbackAddress, proxy.getPort())) {
+            socket.setSoTimeout(10000);
+
+            // send only a part of the greeting
+            OutputStream out = socket.getOutputStream();
+            out.write(new byte[] { (byte) 0x05, (byte) 0x01 });
+            out.flush();
+
+            assertEquals(-1, socket.getInputStream().read());
+        } finally {
+            proxy.stop();
+        }
+    }
+
+    /**
+     * Connections exceeding the maximum number of pending negotiations should be closed, while the
+     * pending negotiations should not be affected.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void shouldCloseConnectionsExceedingMaximumPendingNegotiations() throws Exception {
+        Socks5Proxy proxy = new Socks5Proxy();
+        proxy.setMaximumPendingNegotiations(1);
+        proxy.start();
+
+        try (Socket socket = new Socket(loopbackAddress, proxy.getPort());
+             Socket excessSocket = new Socket(loopbackAddress, proxy.getPort())) {
+            socket.setSoTimeout(10000);
+            excessSocket.setSoTimeout(10000);
+
+            assertEquals(-1, excessSocket.getInputStream().read());
+
+            String digest = new String(new byte[] { (byte) 0x61 }, StandardCharsets.UTF_8);
+            proxy.addTransfer(digest);
+            OutputStream out = socket.getOutputStream();
+            InputStream in = socket.getInputStream();
+            out.write(new byte[] { (byte) 0x05, (byte) 0x01, (byte) 0x00 });
+            assertEquals((byte) 0x05, (byte) in.read());
+            assertEquals((byte) 0x00, (byte) in.read());
+            out.write(new byte[] { (byte) 0x05, (byte) 0x00, (byte) 0x00, (byte) 0x03, (byte) 0x01, (byte) 0x61,
+                            (byte) 0x00, (byte) 0x00 });
+            assertEquals((byte) 0x05, (byte) in.read());
+            assertEquals((byte) 0x00, (byte) in.read()); // success
+            for (int i = 0; i < 6; i++) {
+                in.read();
+            }
+            proxy.getSocket(digest).close();
+        } finally {
+            proxy.stop();
+        }
+    }
+
+    /**
+     * If two connections with the same digest are negotiated, the first established connection
+     * should be kept and the second one should be refused.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void shouldKeepFirstConnectionWithSameDigest() throws Exception {
+        Socks5Proxy proxy = new Socks5Proxy();
+        proxy.start();
+
+        try (Socket socket = new Socket(loopbackAddress, proxy.getPort());
+             Socket secondSocket = new Socket(loopbackAddress, proxy.getPort())) {
+            socket.setSoTimeout(10000);
+            secondSocket.setSoTimeout(10000);
+            String digest = new String(new byte[] { (byte) 0x61 }, StandardCharsets.UTF_8);
+            proxy.addTransfer(digest);
+            byte[] connectionRequest = new byte[] { (byte) 0x05, (byte) 0x01, (byte) 0x00, (byte) 0x03, (byte) 0x01,
+                            (byte) 0x61, (byte) 0x00, (byte) 0x00 };
+
+            OutputStream out = socket.getOutputStream();
+            InputStream in = socket.getInputStream();
+            out.write(new byte[] { (byte) 0x05, (byte) 0x01, (byte) 0x00 });
+            assertEquals((byte) 0x05, (byte) in.read());
+            assertEquals((byte) 0x00, (byte) in.read());
+            out.write(connectionRequest);
+            assertEquals((byte) 0x05, (byte) in.read());
+            assertEquals((byte) 0x00, (byte) in.read()); // success
+            for (int i = 0; i < 6; i++) {
+                in.read();
+            }
+            Socket establishedSocket = proxy.getSocket(digest);
+            assertNotNull(establishedSocket);
+
+            OutputStream secondOut = secondSocket.getOutputStream();
+            InputStream secondIn = secondSocket.getInputStream();
+            secondOut.write(new byte[] { (byte) 0x05, (byte) 0x01, (byte) 0x00 });
+            assertEquals((byte) 0x05, (byte) secondIn.read());
+            assertEquals((byte) 0x00, (byte) secondIn.read());
+            secondOut.write(connectionRequest);
+            assertEquals((byte) 0x05, (byte) secondIn.read());
+            assertEquals((byte) 0x05, (byte) secondIn.read()); // connection refused
+            for (int i = 0; i < 6; i++) {
+                secondIn.read();
+            }
+            assertEquals(-1, secondIn.read());
+
+            assertSame(establishedSocket, proxy.getSocket(digest));
+            out.write(1);
+            out.flush();
+            assertEquals(1, establishedSocket.getInputStream().read());
+            establishedSocket.close();
+        } finally {
+            proxy.stop();
+        }
+    }
 }
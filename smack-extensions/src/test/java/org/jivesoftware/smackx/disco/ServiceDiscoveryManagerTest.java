@@ -0,0 +1,231 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.disco;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.isA;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.jivesoftware.smack.SmackFuture;
+import org.jivesoftware.smack.SmackFuture.InternalSmackFuture;
+import org.jivesoftware.smack.XMPPConnection;
+import org.jivesoftware.smack.packet.IQ;
+
+import org.jivesoftware.smackx.disco.packet.DiscoverInfo;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.jxmpp.jid.Jid;
+import org.jxmpp.jid.impl.JidCreate;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class ServiceDiscoveryManagerTest {
+
+    private final BlockingQueue<PendingRequest> requests = new LinkedBlockingQueue<>();
+
+    private ServiceDiscoveryManager sdm;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        XMPPConnection connection = mock(XMPPConnection.class);
+        when(connection.getUser()).thenReturn(JidCreate.entityFullFrom("user@example.org/resource"));
+        when(connection.getXMPPServiceDomain()).thenReturn(JidCreate.domainBareFrom("example.org"));
+        // Keep the requests pending until the test answers them.
+        when(connection.sendIqRequestAsync(isA(IQ.class))).thenAnswer(new Answer<SmackFuture<IQ, Exception>>() {
+            @Override
+            public SmackFuture<IQ, Exception> answer(InvocationOnMock invocation) {
+                PendingRequest request = new PendingRequest((DiscoverInfo) invocation.getArguments()[0]);
+                requests.add(request);
+                return request.future;
+            }
+        });
+        sdm = ServiceDiscoveryManager.getInstanceFor(connection);
+    }
+
+    @Test
+    public void concurrentRequestsAreCoalescedTest() throws Exception {
+        Jid jid = JidCreate.from("service.example.org");
+        SmackFuture<DiscoverInfo, Exception> first = sdm.discoverInfoAsync(jid, null, false);
+        SmackFuture<DiscoverInfo, Exception> second = sdm.discoverInfoAsync(jid, null, false);
+        assertEquals(1, requests.size());
+
+        requests.remove().answer("urn:example:feature");
+
+        DiscoverInfo firstInfo = first.getOrThrow();
+        DiscoverInfo secondInfo = second.getOrThrow();
+        assertTrue(firstInfo.containsFeature("urn:example:feature"));
+        assertTrue(secondInfo.containsFeature("urn:example:feature"));
+        // Every caller gets its own copy.
+        assertNotSame(firstInfo, secondInfo);
+    }
+
+    @Test
+    public void cachedResultIsReturnedWithoutRequestTest() throws Exception {
+        Jid jid = JidCreate.from("cached.example.org");
+        SmackFuture<DiscoverInfo, Exception> future = sdm.discoverInfoAsync(jid, null, true);
+        requests.remove().answer("urn:example:cached");
+        DiscoverInfo info = future.getOrThrow();
+
+        // Modifying the returned information must not affect the cache.
+        info.addFeature("urn:example:modified");
+
+        DiscoverInfo cachedInfo = sdm.discoverInfoAsync(jid, null, true).getOrThrow();
+        assertTrue(requests.isEmpty());
+        assertTrue(cachedInfo.containsFeature("urn:example:cached"));
+        assertFalse(cachedInfo.containsFeature("urn:example:modified"));
+
+        // Without the cache, a new request is sent.
+        sdm.discoverInfoAsync(jid, null, false);
+        assertEquals(1, requests.size());
+    }
+
+    @Test
+    public void synchronousRequestUsesCacheAndInFlightRequestTest() throws Exception {
+        final Jid jid = JidCreate.from("sync.example.org");
+        SmackFuture<DiscoverInfo, Exception> asyncFuture = sdm.discoverInfoAsync(jid, null, true);
+        final AtomicReference<DiscoverInfo> syncInfo = new AtomicReference<>();
+        Thread syncThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    syncInfo.set(sdm.discoverInfo(jid));
+                }
+                catch (Exception e) {
+                    throw new AssertionError(e);
+                }
+            }
+        });
+        syncThread.start();
+
+        PendingRequest request = requests.poll(10, TimeUnit.SECONDS);
+        // Give the synchronous request the chance to send a second disco#info request, which it must not do.
+        syncThread.join(100);
+        assertTrue(requests.isEmpty());
+        request.answer("urn:example:sync");
+
+        syncThread.join(10000);
+        assertTrue(asyncFuture.getOrThrow().containsFeature("urn:example:sync"));
+        assertTrue(syncInfo.get().containsFeature("urn:example:sync"));
+
+        assertTrue(sdm.discoverInfo(jid).containsFeature("urn:example:sync"));
+        assertTrue(requests.isEmpty());
+    }
+
+    @Test
+    public void shortcutMechanismIsConsultedTest() throws Exception {
+        final Jid jid = JidCreate.from("caps@example.org/resource");
+        final DiscoverInfo capsInfo = new DiscoverInfo();
+        capsInfo.addFeature("urn:example:caps");
+        capsInfo.addIdentity(new DiscoverInfo.Identity("client", "pc"));
+        DiscoInfoLookupShortcutMechanism mechanism = new DiscoInfoLookupShortcutMechanism("test", 0) {
+            @Override
+            public DiscoverInfo getDiscoverInfoByUser(ServiceDiscoveryManager serviceDiscoveryManager, Jid user) {
+                return jid.equals(user) ? capsInfo : null;
+            }
+        };
+        ServiceDiscoveryManager.addDiscoInfoLookupShortcutMechanism(mechanism);
+        try {
+            DiscoverInfo info = sdm.discoverInfoAsync(jid, null, false).getOrThrow();
+            assertTrue(info.containsFeature("urn:example:caps"));
+            assertTrue(info.hasIdentity("client", "pc"));
+            assertNotSame(capsInfo, info);
+            assertTrue(requests.isEmpty());
+        }
+        finally {
+            ServiceDiscoveryManager.removeDiscoInfoLookupShortcutMechanism(mechanism);
+        }
+    }
+
+    @Test
+    public void inFlightRequestsAreBoundedTest() throws Exception {
+        sdm.setMaxInFlightDiscoInfoRequests(2);
+        final List<Jid> jids = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            jids.add(JidCreate.from("service" + i + ".example.org"));
+        }
+
+        final AtomicReference<Map<Jid, DiscoverInfo>> result = new AtomicReference<>();
+        Thread crawler = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    result.set(sdm.discoverInfos(jids, false, null));
+                }
+                catch (Exception e) {
+                    throw new AssertionError(e);
+                }
+            }
+        };
+        crawler.start();
+
+        List<PendingRequest> pending = new ArrayList<>();
+        int answered = 0;
+        while (answered < jids.size()) {
+            PendingRequest request = requests.poll(5, TimeUnit.SECONDS);
+            pending.add(request);
+            // Give the crawler the chance to exceed the window.
+            Thread.sleep(20);
+            requests.drainTo(pending);
+            assertTrue(pending.size() <= 2, "More than two requests in flight");
+            // Answer the requests out of order.
+            Collections.reverse(pending);
+            for (PendingRequest pendingRequest : pending) {
+                pendingRequest.answer("urn:example:" + pendingRequest.request.getTo());
+                answered++;
+            }
+            pending.clear();
+        }
+        crawler.join(5000);
+
+        Map<Jid, DiscoverInfo> infos = result.get();
+        assertEquals(jids, new ArrayList<>(infos.keySet()));
+        for (Jid jid : jids) {
+            assertTrue(infos.get(jid).containsFeature("urn:example:" + jid));
+        }
+    }
+
+    private static final class PendingRequest {
+        private final DiscoverInfo request;
+        private final InternalSmackFuture<IQ, Exception> future = new InternalSmackFuture<>();
+
+        private PendingRequest(DiscoverInfo request) {
+            this.request = request;
+        }
+
+        private void answer(String feature) {
+            DiscoverInfo response = new DiscoverInfo();
+            response.setType(IQ.Type.result);
+            response.setFrom(request.getTo());
+            response.addFeature(feature);
+            future.setResult(response);
+        }
+    }
+}
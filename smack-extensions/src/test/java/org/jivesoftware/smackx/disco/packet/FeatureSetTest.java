@@ -0,0 +1,67 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.disco.packet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+public class FeatureSetTest {
+
+    @Test
+    public void equalFeaturesAreInternedTest() {
+        DiscoverInfo first = new DiscoverInfo();
+        first.addFeature("urn:xmpp:ping");
+        first.addFeature("http://jabber.org/protocol/disco#info");
+
+        DiscoverInfo second = new DiscoverInfo();
+        second.addFeature("http://jabber.org/protocol/disco#info");
+        second.addFeature("urn:xmpp:ping");
+
+        assertSame(first.getFeatureSet(), second.getFeatureSet());
+        assertEquals(Arrays.asList("http://jabber.org/protocol/disco#info", "urn:xmpp:ping"),
+                        first.getFeatureSet().getFeatures());
+    }
+
+    @Test
+    public void containsFeatureTest() {
+        FeatureSet featureSet = FeatureSet.from(Arrays.asList("urn:xmpp:time", "jabber:iq:version"));
+
+        assertTrue(featureSet.containsFeature("urn:xmpp:time"));
+        assertTrue(featureSet.containsFeature(new StringBuilder("jabber:iq:version")));
+        assertFalse(featureSet.containsFeature("urn:xmpp:receipts"));
+
+        // A feature which became known after the feature set was created.
+        FeatureSet.from(Arrays.asList("urn:xmpp:feature-set-test:late"));
+        assertFalse(featureSet.containsFeature("urn:xmpp:feature-set-test:late"));
+    }
+
+    @Test
+    public void addingFeatureResetsFeatureSetTest() {
+        DiscoverInfo info = new DiscoverInfo();
+        info.addFeature("urn:xmpp:time");
+        assertFalse(info.getFeatureSet().containsFeature("urn:xmpp:ping"));
+
+        info.addFeature("urn:xmpp:ping");
+        assertTrue(info.getFeatureSet().containsFeature("urn:xmpp:ping"));
+    }
+}
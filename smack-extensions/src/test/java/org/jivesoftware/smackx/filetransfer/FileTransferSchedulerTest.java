@@ -0,0 +1,198 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.filetransfer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class FileTransferSchedulerTest {
+
+    @Test
+    public void queuedTransfersAreStartedByPriorityTest() throws InterruptedException {
+        FileTransferScheduler scheduler = new FileTransferScheduler(1);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch finished = new CountDownLatch(3);
+        final List<String> order = new CopyOnWriteArrayList<>();
+
+        scheduler.schedule(createTransfer("blocking", 0), new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    blocked.await();
+                }
+                catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+            }
+        });
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        FileTransfer cancelled = createTransfer("cancelled", 0);
+        scheduleRecording(scheduler, cancelled, order, finished);
+        scheduleRecording(scheduler, createTransfer("low", -1), order, finished);
+        scheduleRecording(scheduler, createTransfer("normal", 0), order, finished);
+        scheduleRecording(scheduler, createTransfer("high", 1), order, finished);
+        cancelled.cancel();
+
+        assertEquals(1, scheduler.getActiveTransferCount());
+        assertEquals(4, scheduler.getQueuedTransferCount());
+
+        blocked.countDown();
+        assertTrue(finished.await(10, TimeUnit.SECONDS));
+        // the cancelled transfer would have been started before the one with normal priority
+        assertEquals(Arrays.asList("high", "normal", "low"), order);
+    }
+
+    @Test
+    public void queuedTransferIsNegotiatedPromptlyTest() throws InterruptedException {
+        final FileTransferScheduler scheduler = new FileTransferScheduler(1);
+        final CountDownLatch blocked = new CountDownLatch(1);
+        scheduleBlocking(scheduler, blocked);
+
+        final FileTransfer transfer = createTransfer("queued", 0);
+        final CountDownLatch negotiated = new CountDownLatch(1);
+        final CountDownLatch transferred = new CountDownLatch(1);
+        scheduler.negotiate(transfer, new Runnable() {
+            @Override
+            public void run() {
+                negotiated.countDown();
+                scheduler.schedule(transfer, new Runnable() {
+                    @Override
+                    public void run() {
+                        transferred.countDown();
+                    }
+                });
+            }
+        });
+
+        // the stream is negotiated although the only transfer slot is occupied
+        assertTrue(negotiated.await(10, TimeUnit.SECONDS));
+        assertFalse(transferred.await(100, TimeUnit.MILLISECONDS));
+
+        blocked.countDown();
+        assertTrue(transferred.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void streamOfTransferCancelledWhileQueuedIsClosedTest() throws InterruptedException {
+        FileTransferScheduler scheduler = new FileTransferScheduler(1);
+        CountDownLatch blocked = new CountDownLatch(1);
+        scheduleBlocking(scheduler, blocked);
+
+        final CountDownLatch closed = new CountDownLatch(1);
+        FileTransfer transfer = createTransfer("cancelled", 0);
+        scheduler.schedule(transfer, new Runnable() {
+            @Override
+            public void run() {
+                throw new AssertionError("Cancelled transfer must not be started");
+            }
+        }, new Closeable() {
+            @Override
+            public void close() {
+                closed.countDown();
+            }
+        });
+        transfer.cancel();
+
+        blocked.countDown();
+        assertTrue(closed.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void rateIsLimitedTest() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket();
+        bucket.setRate(100000);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 3; i++) {
+            bucket.acquire(50000);
+        }
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // the bucket starts empty, hence acquiring 150000 bytes takes 1.5 seconds
+        assertTrue(elapsedMillis >= 1400);
+        assertTrue(elapsedMillis < 3000);
+    }
+
+    @Test
+    public void refundedTokensAreNotWaitedForTest() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket();
+        bucket.setRate(100000);
+
+        long start = System.nanoTime();
+        bucket.acquire(50000);
+        // none of the acquired bytes were transferred
+        bucket.refund(50000);
+        bucket.acquire(50000);
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // only the first acquisition has to wait, otherwise acquiring 100000 bytes takes 1 second
+        assertTrue(elapsedMillis >= 400);
+        assertTrue(elapsedMillis < 900);
+    }
+
+    private static void scheduleBlocking(FileTransferScheduler scheduler, final CountDownLatch blocked)
+                    throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        scheduler.schedule(createTransfer("blocking", 0), new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    blocked.await();
+                }
+                catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+            }
+        });
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+    }
+
+    private static void scheduleRecording(FileTransferScheduler scheduler, final FileTransfer transfer,
+                    final List<String> order, final CountDownLatch finished) {
+        scheduler.schedule(transfer, new Runnable() {
+            @Override
+            public void run() {
+                order.add(transfer.getStreamID());
+                finished.countDown();
+            }
+        });
+    }
+
+    private static FileTransfer createTransfer(String streamId, int priority) {
+        FileTransfer transfer = new FileTransfer(null, streamId, null) {
+            @Override
+            public void cancel() {
+                setStatus(Status.cancelled);
+            }
+        };
+        transfer.setPriority(priority);
+        return transfer;
+    }
+}
@@ -0,0 +1,203 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.muc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.jivesoftware.smack.DummyConnection;
+import org.jivesoftware.smack.SmackFuture;
+import org.jivesoftware.smack.XMPPException.XMPPErrorException;
+import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.Presence;
+import org.jivesoftware.smack.packet.StanzaError;
+
+import org.jivesoftware.smackx.InitExtensions;
+import org.jivesoftware.smackx.disco.packet.DiscoverInfo;
+import org.jivesoftware.smackx.muc.MultiUserChatException.MucNotJoinedException;
+import org.jivesoftware.smackx.muc.packet.MUCInitialPresence;
+import org.jivesoftware.smackx.muc.packet.MUCItem;
+import org.jivesoftware.smackx.muc.packet.MUCUser;
+
+import org.junit.jupiter.api.Test;
+import org.jxmpp.jid.EntityBareJid;
+import org.jxmpp.jid.impl.JidCreate;
+import org.jxmpp.jid.parts.Resourcepart;
+import org.jxmpp.stringprep.XmppStringprepException;
+
+public class MultiUserChatManagerJoinAllTest extends InitExtensions {
+
+    @Test
+    public void joinAllPipelinesJoinPresencesTest() throws Exception {
+        DummyConnection connection = DummyConnection.newConnectedDummyConnection();
+        MultiUserChatManager manager = MultiUserChatManager.getInstanceFor(connection);
+        EntityBareJid firstRoom = JidCreate.entityBareFrom("first@muc.example.org");
+        EntityBareJid secondRoom = JidCreate.entityBareFrom("second@muc.example.org");
+        Resourcepart nickname = Resourcepart.from("nick");
+        MucEnterConfiguration conf = manager.getMultiUserChat(firstRoom).getEnterConfigurationBuilder(nickname)
+                        .requestMaxStanzasHistory(5).build();
+
+        Map<EntityBareJid, SmackFuture<Presence, Exception>> futures = manager.joinAll(
+                        Arrays.asList(firstRoom, secondRoom), conf);
+
+        // The MUC service is discovered once.
+        replyToMucServiceDiscovery(connection);
+
+        // Both join presences are send before any room replied.
+        Presence firstJoin = nextSent(connection, Presence.class);
+        Presence secondJoin = nextSent(connection, Presence.class);
+        assertEquals(firstRoom, firstJoin.getTo().asEntityBareJidIfPossible());
+        assertEquals(secondRoom, secondJoin.getTo().asEntityBareJidIfPossible());
+        MUCInitialPresence.History history = MUCInitialPresence.from(secondJoin).getHistory();
+        assertEquals(5, history.getMaxStanzas());
+
+        // The second room replies first, the first room denies entering.
+        connection.processStanza(selfPresence(secondJoin));
+        Presence error = new Presence(Presence.Type.error);
+        error.setStanzaId(firstJoin.getStanzaId());
+        error.setFrom(firstJoin.getTo());
+        error.setTo(connection.getUser());
+        error.setError(StanzaError.getBuilder(StanzaError.Condition.forbidden));
+        connection.processStanza(error);
+
+        Presence secondSelfPresence = futures.get(secondRoom).getOrThrow();
+        assertEquals(secondJoin.getTo(), secondSelfPresence.getFrom());
+        assertTrue(manager.getMultiUserChat(secondRoom).isJoined());
+
+        assertThrows(XMPPErrorException.class, () -> futures.get(firstRoom).getOrThrow());
+        assertFalse(manager.getMultiUserChat(firstRoom).isJoined());
+        assertEquals(1, manager.getJoinedRooms().size());
+    }
+
+    @Test
+    public void stanzasAreRoutedToJoinedRoomsTest() throws Exception {
+        DummyConnection connection = DummyConnection.newConnectedDummyConnection();
+        MultiUserChatManager manager = MultiUserChatManager.getInstanceFor(connection);
+        EntityBareJid room = JidCreate.entityBareFrom("room@chat.example.org");
+        EntityBareJid otherRoom = JidCreate.entityBareFrom("other@chat.example.org");
+        MultiUserChat muc = manager.getMultiUserChat(room);
+
+        SmackFuture<Presence, Exception> future = manager.joinAll(Collections.singleton(room),
+                        muc.getEnterConfigurationBuilder(Resourcepart.from("nick")).build()).get(room);
+        replyToMucServiceDiscovery(connection);
+        connection.processStanza(selfPresence(nextSent(connection, Presence.class)));
+        future.getOrThrow();
+
+        connection.processStanza(groupchatMessage(otherRoom, "not routed"));
+        connection.processStanza(groupchatMessage(room, "routed"));
+        assertEquals("routed", muc.nextMessage(5000).getBody());
+        assertNull(muc.pollMessage());
+
+        // Waiting for the next message without explicit timeout is bounded by the reply timeout.
+        connection.setReplyTimeout(100);
+        assertNull(muc.nextMessage());
+        assertThrows(MucNotJoinedException.class, () -> manager.getMultiUserChat(otherRoom).pollMessage());
+    }
+
+    @Test
+    public void rejoinDoesNotWaitForReflectedLeaveTest() throws Exception {
+        DummyConnection connection = DummyConnection.newConnectedDummyConnection();
+        MultiUserChatManager manager = MultiUserChatManager.getInstanceFor(connection);
+        EntityBareJid firstRoom = JidCreate.entityBareFrom("first@conference.example.org");
+        EntityBareJid secondRoom = JidCreate.entityBareFrom("second@conference.example.org");
+        MucEnterConfiguration conf = manager.getMultiUserChat(firstRoom).getEnterConfigurationBuilder(
+                        Resourcepart.from("nick")).build();
+        List<EntityBareJid> rooms = Arrays.asList(firstRoom, secondRoom);
+
+        Map<EntityBareJid, SmackFuture<Presence, Exception>> futures = manager.joinAll(rooms, conf);
+        replyToMucServiceDiscovery(connection);
+        connection.processStanza(selfPresence(nextSent(connection, Presence.class)));
+        connection.processStanza(selfPresence(nextSent(connection, Presence.class)));
+        futures.get(firstRoom).getOrThrow();
+        futures.get(secondRoom).getOrThrow();
+
+        // Both rooms are left and joined again before any room reflected the leave presence.
+        futures = manager.joinAll(rooms, conf);
+        Presence firstLeave = nextSent(connection, Presence.class);
+        Presence firstJoin = nextSent(connection, Presence.class);
+        Presence secondLeave = nextSent(connection, Presence.class);
+        Presence secondJoin = nextSent(connection, Presence.class);
+        assertEquals(Presence.Type.unavailable, firstLeave.getType());
+        assertEquals(Presence.Type.available, firstJoin.getType());
+        assertEquals(firstRoom, firstJoin.getTo().asEntityBareJidIfPossible());
+        assertEquals(Presence.Type.unavailable, secondLeave.getType());
+        assertEquals(secondRoom, secondJoin.getTo().asEntityBareJidIfPossible());
+
+        // The reflected leave presence carries status 110, but must not be mistaken for the self presence.
+        Presence reflectedLeave = selfPresence(firstJoin);
+        reflectedLeave.setType(Presence.Type.unavailable);
+        connection.processStanza(reflectedLeave);
+        assertFalse(futures.get(firstRoom).isDone());
+
+        connection.processStanza(selfPresence(firstJoin));
+        connection.processStanza(selfPresence(secondJoin));
+        assertEquals(Presence.Type.available, futures.get(firstRoom).getOrThrow().getType());
+        futures.get(secondRoom).getOrThrow();
+        assertEquals(2, manager.getJoinedRooms().size());
+    }
+
+    private static void replyToMucServiceDiscovery(DummyConnection connection) {
+        DiscoverInfo discoverInfo = nextSent(connection, DiscoverInfo.class);
+        DiscoverInfo discoverInfoResult = new DiscoverInfo();
+        discoverInfoResult.setType(IQ.Type.result);
+        discoverInfoResult.setStanzaId(discoverInfo.getStanzaId());
+        discoverInfoResult.setFrom(discoverInfo.getTo());
+        discoverInfoResult.setTo(connection.getUser());
+        discoverInfoResult.addFeature(MUCInitialPresence.NAMESPACE);
+        connection.processStanza(discoverInfoResult);
+    }
+
+    private static Message groupchatMessage(EntityBareJid room, String body) throws XmppStringprepException {
+        Message message = new Message();
+        message.setType(Message.Type.groupchat);
+        message.setFrom(JidCreate.entityFullFrom(room, Resourcepart.from("occupant")));
+        message.setBody(body);
+        return message;
+    }
+
+    private static Presence selfPresence(Presence joinPresence) {
+        Presence presence = new Presence(Presence.Type.available);
+        presence.setFrom(joinPresence.getTo());
+        presence.setTo(joinPresence.getFrom());
+        MUCUser mucUser = new MUCUser();
+        mucUser.setItem(new MUCItem(MUCAffiliation.member, MUCRole.participant, null, null, null, null, null));
+        mucUser.addStatusCode(MUCUser.Status.PRESENCE_TO_SELF_110);
+        presence.addExtension(mucUser);
+        return presence;
+    }
+
+    private static <S> S nextSent(DummyConnection connection, Class<S> type) {
+        while (true) {
+            Object sent = connection.getSentPacket(5);
+            if (sent == null) {
+                throw new AssertionError("No " + type.getSimpleName() + " was send");
+            }
+            if (type.isInstance(sent)) {
+                return type.cast(sent);
+            }
+        }
+    }
+}
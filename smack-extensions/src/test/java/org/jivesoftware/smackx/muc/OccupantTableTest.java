@@ -0,0 +1,79 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.muc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.jivesoftware.smackx.muc.packet.MUCItem;
+
+import org.junit.jupiter.api.Test;
+import org.jxmpp.jid.parts.Resourcepart;
+
+public class OccupantTableTest {
+
+    @Test
+    public void behavesLikeMapTest() {
+        OccupantTable table = new OccupantTable();
+        Map<Resourcepart, Occupant> expected = new HashMap<>();
+        Random random = new Random(42);
+
+        for (int i = 0; i < 20000; i++) {
+            Resourcepart nick = Resourcepart.fromOrThrowUnchecked("nick" + random.nextInt(500));
+            if (random.nextInt(3) == 0) {
+                assertSame(expected.remove(nick), table.remove(nick));
+            } else {
+                MUCRole role = MUCRole.values()[random.nextInt(MUCRole.values().length)];
+                Occupant occupant = new Occupant(new MUCItem(role, nick));
+                assertSame(expected.put(nick, occupant), table.put(occupant));
+            }
+            assertEquals(expected.size(), table.size());
+        }
+
+        for (Map.Entry<Resourcepart, Occupant> entry : expected.entrySet()) {
+            assertSame(entry.getValue(), table.get(entry.getKey()));
+        }
+        assertEquals(expected.size(), table.values().size());
+
+        int moderators = 0;
+        for (Occupant occupant : expected.values()) {
+            if (occupant.getRole() == MUCRole.moderator) {
+                moderators++;
+            }
+        }
+        assertEquals(moderators, table.values(MUCRole.moderator).size());
+    }
+
+    @Test
+    public void shrinksAfterRemovalTest() {
+        OccupantTable table = new OccupantTable();
+        for (int i = 0; i < 1000; i++) {
+            table.put(new Occupant(new MUCItem(MUCRole.participant, Resourcepart.fromOrThrowUnchecked("nick" + i))));
+        }
+        for (int i = 0; i < 999; i++) {
+            table.remove(Resourcepart.fromOrThrowUnchecked("nick" + i));
+        }
+        assertEquals(1, table.size());
+        assertNull(table.get(Resourcepart.fromOrThrowUnchecked("nick0")));
+        assertEquals("nick999", table.get(Resourcepart.fromOrThrowUnchecked("nick999")).getNick().toString());
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.muc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import org.jivesoftware.smack.packet.Presence;
+import org.jivesoftware.smack.packet.StandardExtensionElement;
+
+import org.jivesoftware.smackx.muc.packet.MUCItem;
+import org.jivesoftware.smackx.muc.packet.MUCUser;
+
+import org.junit.jupiter.api.Test;
+import org.jxmpp.jid.EntityFullJid;
+import org.jxmpp.jid.impl.JidCreate;
+
+public class OccupantTest {
+
+    private static final String CAPS_NAMESPACE = "http://jabber.org/protocol/caps";
+
+    @Test
+    public void retainedPresenceIsReturnedTest() throws Exception {
+        EntityFullJid from = JidCreate.entityFullFrom("room@conference.example.org/nick");
+        Presence presence = occupantPresence(from);
+
+        Occupant occupant = new Occupant(presence, true);
+
+        assertSame(presence, occupant.toPresence(from));
+    }
+
+    @Test
+    public void compactOccupantRecreatesPresenceTest() throws Exception {
+        EntityFullJid from = JidCreate.entityFullFrom("room@conference.example.org/nick");
+        Presence presence = occupantPresence(from);
+
+        Occupant occupant = new Occupant(presence, false);
+        Presence recreatedPresence = occupant.toPresence(from);
+
+        assertEquals(Presence.Mode.away, recreatedPresence.getMode());
+        assertEquals(MUCRole.participant, MUCUser.from(recreatedPresence).getItem().getRole());
+        assertNull(recreatedPresence.getExtension("c", CAPS_NAMESPACE));
+    }
+
+    @Test
+    public void presenceWithoutMucUserTest() throws Exception {
+        EntityFullJid from = JidCreate.entityFullFrom("room@conference.example.org/nick");
+        Presence presence = new Presence(Presence.Type.available);
+        presence.setFrom(from);
+
+        Occupant occupant = new Occupant(presence, false);
+
+        assertEquals(from.getResourcepart(), occupant.getNick());
+        assertEquals(MUCAffiliation.none, occupant.getAffiliation());
+        assertEquals(MUCRole.none, occupant.getRole());
+        assertNotNull(occupant.toPresence(from));
+    }
+
+    private static Presence occupantPresence(EntityFullJid from) {
+        Presence presence = new Presence(Presence.Type.available);
+        presence.setFrom(from);
+        presence.setMode(Presence.Mode.away);
+        MUCUser mucUser = new MUCUser();
+        mucUser.setItem(new MUCItem(MUCAffiliation.member, MUCRole.participant, null, null, null, null, null));
+        presence.addExtension(mucUser);
+        presence.addExtension(StandardExtensionElement.builder("c", CAPS_NAMESPACE).build());
+        return presence;
+    }
+}
@@ -0,0 +1,64 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.pubsub;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.jivesoftware.smack.packet.StandardExtensionElement;
+import org.jivesoftware.smack.parsing.StandardExtensionElementProvider;
+import org.jivesoftware.smack.provider.ProviderManager;
+import org.jivesoftware.smack.test.util.TestUtils;
+
+import org.jivesoftware.smackx.pubsub.provider.ItemProvider;
+
+import org.junit.jupiter.api.Test;
+
+public class PayloadItemTest {
+
+    private static final String ELEMENT = "element";
+    private static final String NAMESPACE = "https://example.org/payload-item-test";
+
+    @Test
+    public void parsedPayloadIsMaterializedOnDemandTest() throws Exception {
+        String xml = "<item xmlns='http://jabber.org/protocol/pubsub' id='1'>"
+                        + "<element xmlns='https://example.org/payload-item-test'><foo>Test</foo></element>"
+                        + "</item>";
+        PayloadItem<?> item = (PayloadItem<?>) new ItemProvider().parse(TestUtils.getParser(xml));
+
+        SimplePayload simplePayload = (SimplePayload) item.getPayload();
+        assertEquals(ELEMENT, simplePayload.getElementName());
+        assertEquals(NAMESPACE, simplePayload.getNamespace());
+
+        // Without a registered provider the simple payload is returned.
+        assertSame(simplePayload, item.getParsedPayload());
+        assertNull(item.getParsedPayload(StandardExtensionElement.class));
+
+        ProviderManager.addExtensionProvider(ELEMENT, NAMESPACE, StandardExtensionElementProvider.INSTANCE);
+        try {
+            StandardExtensionElement parsed = item.getParsedPayload(StandardExtensionElement.class);
+            assertEquals("Test", parsed.getFirstElement("foo").getText());
+            // The parsed payload is cached.
+            assertSame(parsed, item.getParsedPayload());
+            assertTrue(item.getPayload() instanceof SimplePayload);
+        } finally {
+            ProviderManager.removeExtensionProvider(ELEMENT, NAMESPACE);
+        }
+    }
+}
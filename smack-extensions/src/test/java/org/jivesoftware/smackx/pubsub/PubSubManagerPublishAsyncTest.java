@@ -0,0 +1,120 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.pubsub;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.isA;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jivesoftware.smack.DummyConnection;
+import org.jivesoftware.smack.SmackFuture;
+import org.jivesoftware.smack.XMPPConnection;
+import org.jivesoftware.smack.XMPPException.XMPPErrorException;
+import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smack.packet.StanzaError;
+
+import org.jivesoftware.smackx.InitExtensions;
+import org.jivesoftware.smackx.pubsub.packet.PubSub;
+
+import org.junit.jupiter.api.Test;
+import org.jxmpp.jid.JidTestUtil;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class PubSubManagerPublishAsyncTest extends InitExtensions {
+
+    @Test
+    public void publishAsyncCoalescesAndPipelinesTest() throws Exception {
+        DummyConnection connection = DummyConnection.newConnectedDummyConnection();
+        PubSubManager manager = new PubSubManager(connection, JidTestUtil.PUBSUB_EXAMPLE_ORG);
+
+        Map<String, List<Item>> itemsByNode = new LinkedHashMap<>();
+        itemsByNode.put("first", Arrays.asList(item("1"), item("2"), item("3")));
+        itemsByNode.put("second", Collections.singletonList(item("4")));
+        itemsByNode.put("empty", Collections.<Item>emptyList());
+
+        // Every request may only carry two items, and only two requests may be in flight.
+        int maxRequestSize = 2 * item("1").toXML().length();
+        Map<String, SmackFuture<Integer, Exception>> futures = manager.publishAsync(itemsByNode, 2, maxRequestSize);
+        assertEquals(Integer.valueOf(0), futures.get("empty").getOrThrow());
+
+        PubSub firstRequest = connection.getSentPacket(5);
+        PubSub secondRequest = connection.getSentPacket(5);
+        assertEquals(2, publishItem(firstRequest).items.size());
+        assertEquals(1, publishItem(secondRequest).items.size());
+        assertEquals("first", publishItem(secondRequest).getNode());
+        // The window is full.
+        assertNull(connection.getSentPacket(1));
+
+        connection.processStanza(IQ.createResultIQ(firstRequest));
+        PubSub thirdRequest = connection.getSentPacket(5);
+        assertEquals("second", publishItem(thirdRequest).getNode());
+
+        connection.processStanza(IQ.createResultIQ(secondRequest));
+        assertEquals(Integer.valueOf(3), futures.get("first").getOrThrow());
+
+        connection.processStanza(IQ.createErrorResponse(thirdRequest,
+                        StanzaError.getBuilder(StanzaError.Condition.item_not_found)));
+        assertThrows(XMPPErrorException.class, () -> futures.get("second").getOrThrow());
+    }
+
+    @Test
+    public void immediatelyCompletedRequestsAreCountedOnceTest() throws Exception {
+        // A connection whose requests are already completed when they are returned, hence SmackFuture invokes the
+        // success callback again when the exception callback is registered.
+        XMPPConnection connection = mock(XMPPConnection.class);
+        when(connection.sendIqRequestAsync(isA(IQ.class))).thenAnswer(new Answer<SmackFuture<IQ, Exception>>() {
+            @Override
+            public SmackFuture<IQ, Exception> answer(InvocationOnMock invocation) {
+                IQ request = (IQ) invocation.getArguments()[0];
+                return SmackFuture.<IQ, Exception>from(IQ.createResultIQ(request));
+            }
+        });
+
+        Map<String, List<Item>> itemsByNode = new LinkedHashMap<>();
+        itemsByNode.put("first", Arrays.asList(item("1"), item("2"), item("3")));
+        int maxRequestSize = 2 * item("1").toXML().length();
+        // The duplicate callback races with the callbacks of the next request, hence repeat the batch.
+        final int batches = 50;
+        for (int i = 0; i < batches; i++) {
+            Map<String, SmackFuture<Integer, Exception>> futures = new PublishBatch(connection,
+                            JidTestUtil.PUBSUB_EXAMPLE_ORG, itemsByNode, 1, maxRequestSize).publish();
+
+            assertEquals(Integer.valueOf(3), futures.get("first").getOrThrow());
+        }
+        verify(connection, times(2 * batches)).sendIqRequestAsync(isA(IQ.class));
+    }
+
+    private static PublishItem<?> publishItem(PubSub request) {
+        return request.getExtension(PubSubElementType.PUBLISH);
+    }
+
+    private static Item item(String id) {
+        return new PayloadItem<>(id, new SimplePayload("<entry xmlns='https://example.org'>" + id + "</entry>"));
+    }
+}
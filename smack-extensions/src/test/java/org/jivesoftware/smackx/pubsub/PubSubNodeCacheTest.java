@@ -0,0 +1,170 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.pubsub;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.jivesoftware.smack.ThreadedDummyConnection;
+import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smack.packet.Message;
+
+import org.jivesoftware.smackx.InitExtensions;
+import org.jivesoftware.smackx.pubsub.ItemsExtension.ItemsElementType;
+import org.jivesoftware.smackx.pubsub.packet.PubSub;
+
+import org.junit.jupiter.api.Test;
+import org.jxmpp.jid.JidTestUtil;
+
+public class PubSubNodeCacheTest extends InitExtensions {
+
+    private static final String NODE = "princely_musings";
+
+    @Test
+    public void itemsAreKeptUpToDateByEventsTest() throws Exception {
+        ThreadedDummyConnection connection = ThreadedDummyConnection.newInstance();
+        PubSubManager manager = new PubSubManager(connection, JidTestUtil.PUBSUB_EXAMPLE_ORG);
+        manager.enableNodeCache(3, 60 * 1000);
+        LeafNode node = new LeafNode(manager, NODE);
+
+        connection.addIQReply(itemsResult(item("1"), item("2")));
+        assertEquals(Arrays.asList("1", "2"), ids(node.getItems()));
+        assertNotNull(connection.getSentPacket());
+
+        // The items are now answered from the cache.
+        assertEquals(Arrays.asList("1", "2"), ids(node.getItems()));
+        assertEquals(Arrays.asList("2"), ids(node.getItems(1)));
+        assertNull(connection.getSentPacket(1));
+
+        connection.processStanza(event(new ItemsExtension(ItemsElementType.items, NODE,
+                        Arrays.asList(item("3"), item("4")))));
+        // Only the three most recent items are cached, hence not all items of the node are known anymore.
+        awaitCachedItems(manager, 3, Arrays.asList("2", "3", "4"));
+        assertEquals(Arrays.asList("3", "4"), ids(node.getItems(2)));
+
+        connection.processStanza(event(new ItemsExtension(ItemsElementType.items, NODE,
+                        Arrays.asList(new RetractItem("3")))));
+        awaitCachedItems(manager, 2, Arrays.asList("2", "4"));
+        assertEquals(Arrays.asList("2", "4"), ids(node.getItems(2)));
+        assertNull(connection.getSentPacket(1));
+
+        connection.processStanza(event(new NodeExtension(PubSubElementType.PURGE_EVENT, NODE)));
+        awaitCachedItems(manager, -1, Arrays.<String>asList());
+        assertEquals(0, node.getItems().size());
+        assertNull(connection.getSentPacket(1));
+    }
+
+    @Test
+    public void retrievedItemsDoNotOverwriteNewerNotificationsTest() throws Exception {
+        ThreadedDummyConnection connection = ThreadedDummyConnection.newInstance();
+        PubSubManager manager = new PubSubManager(connection, JidTestUtil.PUBSUB_EXAMPLE_ORG);
+        manager.enableNodeCache(3, 60 * 1000);
+        PubSubNodeCache nodeCache = manager.getNodeCache();
+
+        // A notification is received while the items are requested.
+        long itemsVersion = nodeCache.getItemsVersion(NODE);
+        connection.processStanza(event(new ItemsExtension(ItemsElementType.items, NODE,
+                        Arrays.asList(new RetractItem("1"), item("2")))));
+        awaitCachedItems(manager, 1, Arrays.asList("2"));
+        nodeCache.itemsRetrieved(NODE, -1, Arrays.asList(item("1")), itemsVersion);
+
+        // The outdated snapshot is discarded.
+        assertEquals(Arrays.asList("2"), ids(nodeCache.<Item>getItems(NODE, 1)));
+
+        // Without notifications in between, the retrieved items are stored.
+        itemsVersion = nodeCache.getItemsVersion(NODE);
+        nodeCache.itemsRetrieved(NODE, -1, Arrays.asList(item("2"), item("3")), itemsVersion);
+        assertEquals(Arrays.asList("2", "3"), ids(nodeCache.<Item>getItems(NODE, -1)));
+    }
+
+    @Test
+    public void expiredItemsAreRetrievedAgainTest() throws Exception {
+        ThreadedDummyConnection connection = ThreadedDummyConnection.newInstance();
+        PubSubManager manager = new PubSubManager(connection, JidTestUtil.PUBSUB_EXAMPLE_ORG);
+        manager.enableNodeCache(3, 0);
+        LeafNode node = new LeafNode(manager, NODE);
+
+        connection.addIQReply(itemsResult(item("1")));
+        assertEquals(Arrays.asList("1"), ids(node.getItems()));
+        assertNotNull(connection.getSentPacket());
+
+        connection.addIQReply(itemsResult(item("1"), item("2")));
+        assertEquals(Arrays.asList("1", "2"), ids(node.getItems()));
+        assertNotNull(connection.getSentPacket());
+    }
+
+    @Test
+    public void localModificationsInvalidateItemsTest() throws Exception {
+        ThreadedDummyConnection connection = ThreadedDummyConnection.newInstance();
+        PubSubManager manager = new PubSubManager(connection, JidTestUtil.PUBSUB_EXAMPLE_ORG);
+        manager.enableNodeCache(3, 60 * 1000);
+        LeafNode node = new LeafNode(manager, NODE);
+
+        connection.addIQReply(itemsResult(item("1")));
+        node.getItems();
+        assertNotNull(connection.getSentPacket());
+
+        node.deleteItem("1");
+        assertNotNull(connection.getSentPacket());
+        assertNull(manager.getNodeCache().getItems(NODE, -1));
+    }
+
+    private static void awaitCachedItems(PubSubManager manager, int maxItems, List<String> expectedIds)
+                    throws InterruptedException {
+        // Events are processed asynchronously by the connection.
+        for (int i = 0; i < 500; i++) {
+            List<Item> items = manager.getNodeCache().getItems(NODE, maxItems);
+            if (items != null && ids(items).equals(expectedIds)) {
+                return;
+            }
+            Thread.sleep(10);
+        }
+        throw new AssertionError("The event was not processed");
+    }
+
+    private static PubSub itemsResult(Item... items) {
+        PubSub result = new PubSub();
+        result.setType(IQ.Type.result);
+        result.setFrom(JidTestUtil.PUBSUB_EXAMPLE_ORG);
+        result.addExtension(new ItemsExtension(ItemsElementType.items, NODE, Arrays.asList(items)));
+        return result;
+    }
+
+    private static Message event(NodeExtension nodeEvent) {
+        Message message = new Message();
+        message.setFrom(JidTestUtil.PUBSUB_EXAMPLE_ORG);
+        message.addExtension(new EventElement(EventElementType.valueOf(nodeEvent.getElementName()), nodeEvent));
+        return message;
+    }
+
+    private static Item item(String id) {
+        return new PayloadItem<>(id, new SimplePayload("<data xmlns='urn:example'>" + id + "</data>"));
+    }
+
+    private static List<String> ids(List<? extends Item> items) {
+        List<String> ids = new ArrayList<>(items.size());
+        for (Item item : items) {
+            ids.add(item.getId());
+        }
+        return ids;
+    }
+}
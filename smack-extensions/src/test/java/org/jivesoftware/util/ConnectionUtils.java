@@ -24,6 +24,9 @@ import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 import org.jivesoftware.smack.SmackException;
+import org.jivesoftware.smack.SmackException.NoResponseException;
+import org.jivesoftware.smack.SmackFuture;
+import org.jivesoftware.smack.SmackFuture.InternalSmackFuture;
 import org.jivesoftware.smack.StanzaCollector;
 import org.jivesoftware.smack.XMPPConnection;
 import org.jivesoftware.smack.XMPPException.XMPPErrorException;
@@ -124,6 +127,31 @@ public class ConnectionUtils {
         when(collector.nextResultOrThrow()).thenAnswer(answerOrThrow);
         when(collector.nextResultOrThrow(anyLong())).thenAnswer(answerOrThrow);
 
+        // mock asynchronous IQ requests, the response is taken from the protocol right away
+        final XMPPConnection mockedConnection = connection;
+        Answer<SmackFuture<IQ, Exception>> sendIqRequestAsync = new Answer<SmackFuture<IQ, Exception>>() {
+            @Override
+            public SmackFuture<IQ, Exception> answer(InvocationOnMock invocation) throws Throwable {
+                IQ request = (IQ) invocation.getArguments()[0];
+                protocol.getRequests().add(request);
+                InternalSmackFuture<IQ, Exception> future = new InternalSmackFuture<>();
+                Stanza response = protocol.getResponses().poll();
+                if (response == null) {
+                    future.setException(NoResponseException.newWith(mockedConnection, "mocked response"));
+                    return future;
+                }
+                try {
+                    XMPPErrorException.ifHasErrorThenThrow(response);
+                    future.setResult((IQ) response);
+                }
+                catch (XMPPErrorException e) {
+                    future.setException(e);
+                }
+                return future;
+            }
+        };
+        when(connection.sendIqRequestAsync(isA(IQ.class))).thenAnswer(sendIqRequestAsync);
+
         // initialize service discovery manager for this connection
         ServiceDiscoveryManager.getInstanceFor(connection);
 
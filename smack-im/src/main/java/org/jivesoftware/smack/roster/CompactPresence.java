@@ -0,0 +1,158 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.roster;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.jivesoftware.smack.packet.ExtensionElement;
+import org.jivesoftware.smack.packet.Presence;
+import org.jivesoftware.smack.packet.StanzaError;
+
+import org.jxmpp.jid.Jid;
+import org.jxmpp.jid.parts.Resourcepart;
+
+/**
+ * An immutable and compact representation of a presence stored by the {@link Roster}.
+ * <p>
+ * Only the information relevant for presence tracking is kept: the addressing (from, to, stanza ID and xml:lang), type,
+ * mode, priority, status and, for error presences, the error. The presence's extension elements are only retained if
+ * {@link Roster#setRetainPresenceExtensions(boolean)} is enabled. Use {@link #toPresence()} to obtain a full
+ * {@link Presence} stanza.
+ * </p>
+ */
+public final class CompactPresence {
+
+    private final Jid from;
+    private final Jid to;
+    private final String stanzaId;
+    private final String language;
+    private final Resourcepart resource;
+    private final Presence.Type type;
+    private final Presence.Mode mode;
+    private final byte priority;
+    private final String status;
+    private final StanzaError error;
+    private final List<ExtensionElement> extensions;
+
+    private CompactPresence(Presence presence, Resourcepart resource, boolean retainExtensions) {
+        this.from = presence.getFrom();
+        this.to = presence.getTo();
+        this.stanzaId = presence.getStanzaId();
+        this.language = presence.getLanguage();
+        this.resource = resource;
+        this.type = presence.getType();
+        this.mode = presence.getMode();
+        this.priority = (byte) presence.getPriority();
+        this.status = presence.getStatus();
+        this.error = presence.getError();
+        if (retainExtensions && !presence.getExtensions().isEmpty()) {
+            this.extensions = Collections.unmodifiableList(presence.getExtensions());
+        } else {
+            this.extensions = Collections.emptyList();
+        }
+    }
+
+    static CompactPresence from(Presence presence, Resourcepart resource, boolean retainExtensions) {
+        return new CompactPresence(presence, resource, retainExtensions);
+    }
+
+    public Jid getFrom() {
+        return from;
+    }
+
+    public Jid getTo() {
+        return to;
+    }
+
+    public String getStanzaId() {
+        return stanzaId;
+    }
+
+    public String getLanguage() {
+        return language;
+    }
+
+    /**
+     * Get the resource this presence was received from. This is {@link Resourcepart#EMPTY} for presences received
+     * from a bare JID.
+     *
+     * @return the resource of the presence.
+     */
+    public Resourcepart getResource() {
+        return resource;
+    }
+
+    public Presence.Type getType() {
+        return type;
+    }
+
+    public Presence.Mode getMode() {
+        return mode;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public boolean isAvailable() {
+        return type == Presence.Type.available;
+    }
+
+    /**
+     * Get the retained extension elements of this presence.
+     *
+     * @return the retained extension elements, which may be empty.
+     */
+    public List<ExtensionElement> getExtensions() {
+        return extensions;
+    }
+
+    /**
+     * Create a new {@link Presence} stanza from this compact presence.
+     *
+     * @return a new presence stanza.
+     */
+    public Presence toPresence() {
+        Presence presence = new Presence(type);
+        presence.setFrom(from);
+        presence.setTo(to);
+        presence.setStanzaId(stanzaId);
+        presence.setLanguage(language);
+        presence.setMode(mode);
+        if (priority != 0) {
+            presence.setPriority(priority);
+        }
+        presence.setStatus(status);
+        if (error != null) {
+            presence.setError(StanzaError.getBuilder(error));
+        }
+        for (ExtensionElement extension : extensions) {
+            presence.addExtension(extension);
+        }
+        return presence;
+    }
+
+    @Override
+    public String toString() {
+        return "CompactPresence(from=" + from + ", type=" + type + ", mode=" + mode + ", priority=" + priority + ')';
+    }
+}
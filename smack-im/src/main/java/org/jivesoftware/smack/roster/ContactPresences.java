@@ -0,0 +1,140 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.roster;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.jxmpp.jid.parts.Resourcepart;
+
+/**
+ * The presences of a single contact, one per resource.
+ * <p>
+ * Contacts usually have only a handful of resources, hence the presences are stored in a small array which is
+ * replaced on every modification. Readers never block and always see a consistent snapshot, while writers use
+ * compare-and-set and therefore do not need a lock either.
+ * </p>
+ */
+final class ContactPresences {
+
+    private static final CompactPresence[] EMPTY = new CompactPresence[0];
+
+    /**
+     * The maximum number of resources, or <code>0</code> if unlimited.
+     */
+    private final int maxResources;
+
+    private final AtomicReference<CompactPresence[]> presences = new AtomicReference<>(EMPTY);
+
+    ContactPresences() {
+        this(0);
+    }
+
+    /**
+     * Create a new instance which holds at most the given number of resources. If this number would be exceeded, then
+     * the presence of the resource which was updated the longest time ago is dropped.
+     *
+     * @param maxResources the maximum number of resources.
+     */
+    ContactPresences(int maxResources) {
+        this.maxResources = maxResources;
+    }
+
+    CompactPresence get(Resourcepart resource) {
+        CompactPresence[] current = presences.get();
+        int index = indexOf(current, resource);
+        if (index < 0) {
+            return null;
+        }
+        return current[index];
+    }
+
+    /**
+     * Get a snapshot of all presences. The returned array must not be modified.
+     *
+     * @return the presences.
+     */
+    CompactPresence[] values() {
+        return presences.get();
+    }
+
+    boolean isEmpty() {
+        return presences.get().length == 0;
+    }
+
+    void put(CompactPresence presence) {
+        Resourcepart resource = presence.getResource();
+        CompactPresence[] current, updated;
+        do {
+            current = presences.get();
+            int index = indexOf(current, resource);
+            int length = current.length;
+            int start = 0;
+            if (index >= 0) {
+                length--;
+            } else if (maxResources > 0 && length >= maxResources) {
+                start = length - maxResources + 1;
+            }
+            // Keep the presences ordered by the time of their last update, the most recent one being the last.
+            updated = new CompactPresence[length - start + 1];
+            int pos = 0;
+            for (int i = start; i < current.length; i++) {
+                if (i != index) {
+                    updated[pos++] = current[i];
+                }
+            }
+            updated[pos] = presence;
+        } while (!presences.compareAndSet(current, updated));
+    }
+
+    void remove(Resourcepart resource) {
+        CompactPresence[] current, updated;
+        do {
+            current = presences.get();
+            int index = indexOf(current, resource);
+            if (index < 0) {
+                return;
+            }
+            updated = new CompactPresence[current.length - 1];
+            System.arraycopy(current, 0, updated, 0, index);
+            System.arraycopy(current, index + 1, updated, index, updated.length - index);
+        } while (!presences.compareAndSet(current, updated));
+    }
+
+    /**
+     * Replace all presences with the given one.
+     *
+     * @param presence the presence.
+     */
+    void reset(CompactPresence presence) {
+        presences.set(new CompactPresence[] { presence });
+    }
+
+    private static int indexOf(CompactPresence[] presences, Resourcepart resource) {
+        for (int i = 0; i < presences.length; i++) {
+            if (presences[i].getResource().equals(resource)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(presences.get());
+    }
+}
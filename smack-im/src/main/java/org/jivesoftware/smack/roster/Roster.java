@@ -21,6 +21,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -29,6 +30,7 @@ import java.util.Map.Entry;
 import java.util.Set;
 import java.util.WeakHashMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -64,6 +66,7 @@ import org.jivesoftware.smack.roster.packet.RosterPacket.Item;
 import org.jivesoftware.smack.roster.packet.RosterVer;
 import org.jivesoftware.smack.roster.packet.SubscriptionPreApproval;
 import org.jivesoftware.smack.roster.rosterstore.RosterStore;
+import org.jivesoftware.smack.util.ConcurrentLruCache;
 import org.jivesoftware.smack.util.ExceptionCallback;
 import org.jivesoftware.smack.util.Objects;
 import org.jivesoftware.smack.util.SuccessCallback;
@@ -75,7 +78,6 @@ import org.jxmpp.jid.FullJid;
 import org.jxmpp.jid.Jid;
 import org.jxmpp.jid.impl.JidCreate;
 import org.jxmpp.jid.parts.Resourcepart;
-import org.jxmpp.util.cache.LruCache;
 
 /**
  * Represents a user's roster, which is the collection of users a person receives
@@ -148,6 +150,13 @@ public final class Roster extends Manager {
 
     private static int defaultNonRosterPresenceMapMaxSize = INITIAL_DEFAULT_NON_ROSTER_PRESENCE_MAP_SIZE;
 
+    /**
+     * The maximum number of resources for which presences of entities not in our Roster are recorded.
+     */
+    private static final int NON_ROSTER_MAX_RESOURCES = 32;
+
+    private static boolean defaultRetainPresenceExtensions = true;
+
     private RosterStore rosterStore;
     private final Map<String, RosterGroup> groups = new ConcurrentHashMap<>();
 
@@ -162,20 +171,24 @@ public final class Roster extends Manager {
     private final Set<PresenceEventListener> presenceEventListeners = new CopyOnWriteArraySet<>();
 
     /**
-     * A map of JIDs to another Map of Resourceparts to Presences. The 'inner' map may contain
+     * A map of JIDs to their presences, one per resource. The presences may contain one for
      * {@link Resourcepart#EMPTY} if there are no other Presences available.
      */
-    private final Map<BareJid, Map<Resourcepart, Presence>> presenceMap = new ConcurrentHashMap<>();
+    private final ConcurrentMap<BareJid, ContactPresences> presenceMap = new ConcurrentHashMap<>();
 
     /**
      * Like {@link presenceMap} but for presences of entities not in our Roster.
      */
-    // TODO Ideally we want here to use a LRU cache like Map which will evict all superfluous items
-    // if their maximum size is lowered below the current item count. LruCache does not provide
-    // this.
-    private final LruCache<BareJid, Map<Resourcepart, Presence>> nonRosterPresenceMap = new LruCache<>(
+    private final ConcurrentLruCache<BareJid, ContactPresences> nonRosterPresenceMap = new ConcurrentLruCache<>(
                     defaultNonRosterPresenceMapMaxSize);
 
+    /**
+     * Guards the creation of presences and moving them between {@link #presenceMap} and {@link #nonRosterPresenceMap}.
+     */
+    private final Object presenceMapsLock = new Object();
+
+    private boolean retainPresenceExtensions = defaultRetainPresenceExtensions;
+
     /**
      * Listeners called when the Roster was loaded.
      */
@@ -365,13 +378,13 @@ public final class Roster extends Manager {
     }
 
     /**
-     * Retrieve the user presences (a map from resource to {@link Presence}) for a given XMPP entity represented by their bare JID.
+     * Retrieve the user presences (one per resource) for a given XMPP entity represented by their bare JID.
      *
      * @param entity the entity
      * @return the user presences
      */
-    private Map<Resourcepart, Presence> getPresencesInternal(BareJid entity) {
-        Map<Resourcepart, Presence> entityPresences = presenceMap.get(entity);
+    private ContactPresences getPresencesInternal(BareJid entity) {
+        ContactPresences entityPresences = presenceMap.get(entity);
         if (entityPresences == null) {
             entityPresences = nonRosterPresenceMap.lookup(entity);
         }
@@ -379,22 +392,32 @@ public final class Roster extends Manager {
     }
 
     /**
-     * Retrieve the user presences (a map from resource to {@link Presence}) for a given XMPP entity represented by their bare JID.
+     * Retrieve the user presences (one per resource) for a given XMPP entity represented by their bare JID.
+     * <p>
+     * The presences are created while holding {@link #presenceMapsLock}, which is also held by
+     * {@link #move(BareJid, Map, Map)}, so that a roster push moving the entity between the roster and the non-roster
+     * presence map does not race with the creation.
+     * </p>
      *
      * @param entity the entity
      * @return the user presences
      */
-    private synchronized Map<Resourcepart, Presence> getOrCreatePresencesInternal(BareJid entity) {
-        Map<Resourcepart, Presence> entityPresences = getPresencesInternal(entity);
-        if (entityPresences == null) {
-            if (contains(entity)) {
-                entityPresences = new ConcurrentHashMap<>();
-                presenceMap.put(entity, entityPresences);
-            }
-            else {
-                LruCache<Resourcepart, Presence> nonRosterEntityPresences = new LruCache<>(32);
-                nonRosterPresenceMap.put(entity, nonRosterEntityPresences);
-                entityPresences = nonRosterEntityPresences;
+    private ContactPresences getOrCreatePresencesInternal(BareJid entity) {
+        ContactPresences entityPresences = getPresencesInternal(entity);
+        if (entityPresences != null) {
+            return entityPresences;
+        }
+        synchronized (presenceMapsLock) {
+            entityPresences = getPresencesInternal(entity);
+            if (entityPresences == null) {
+                if (contains(entity)) {
+                    entityPresences = new ContactPresences();
+                    presenceMap.put(entity, entityPresences);
+                }
+                else {
+                    entityPresences = new ContactPresences(NON_ROSTER_MAX_RESOURCES);
+                    nonRosterPresenceMap.put(entity, entityPresences);
+                }
             }
         }
         return entityPresences;
@@ -998,7 +1021,7 @@ public final class Roster extends Manager {
      *         or if no presence information is available..
      */
     public Presence getPresence(BareJid jid) {
-        Map<Resourcepart, Presence> userPresences = getPresencesInternal(jid);
+        ContactPresences userPresences = getPresencesInternal(jid);
         if (userPresences == null) {
             Presence presence = new Presence(Presence.Type.unavailable);
             presence.setFrom(jid);
@@ -1007,11 +1030,11 @@ public final class Roster extends Manager {
         else {
             // Find the resource with the highest priority
             // Might be changed to use the resource with the highest availability instead.
-            Presence presence = null;
+            CompactPresence presence = null;
             // This is used in case no available presence is found
-            Presence unavailable = null;
+            CompactPresence unavailable = null;
 
-            for (Presence p : userPresences.values()) {
+            for (CompactPresence p : userPresences.values()) {
                 if (!p.isAvailable()) {
                     unavailable = p;
                     continue;
@@ -1022,33 +1045,24 @@ public final class Roster extends Manager {
                 }
                 // If equal priority, choose "most available" by the mode value.
                 else if (p.getPriority() == presence.getPriority()) {
-                    Presence.Mode pMode = p.getMode();
-                    // Default to presence mode of available.
-                    if (pMode == null) {
-                        pMode = Presence.Mode.available;
-                    }
-                    Presence.Mode presenceMode = presence.getMode();
-                    // Default to presence mode of available.
-                    if (presenceMode == null) {
-                        presenceMode = Presence.Mode.available;
-                    }
-                    if (pMode.compareTo(presenceMode) < 0) {
+                    // CompactPresence defaults to presence mode of available.
+                    if (p.getMode().compareTo(presence.getMode()) < 0) {
                         presence = p;
                     }
                 }
             }
             if (presence == null) {
                 if (unavailable != null) {
-                    return unavailable.clone();
+                    return unavailable.toPresence();
                 }
                 else {
-                    presence = new Presence(Presence.Type.unavailable);
-                    presence.setFrom(jid);
-                    return presence;
+                    Presence unavailablePresence = new Presence(Presence.Type.unavailable);
+                    unavailablePresence.setFrom(jid);
+                    return unavailablePresence;
                 }
             }
             else {
-                return presence.clone();
+                return presence.toPresence();
             }
         }
     }
@@ -1065,21 +1079,21 @@ public final class Roster extends Manager {
     public Presence getPresenceResource(FullJid userWithResource) {
         BareJid key = userWithResource.asBareJid();
         Resourcepart resource = userWithResource.getResourcepart();
-        Map<Resourcepart, Presence> userPresences = getPresencesInternal(key);
+        ContactPresences userPresences = getPresencesInternal(key);
         if (userPresences == null) {
             Presence presence = new Presence(Presence.Type.unavailable);
             presence.setFrom(userWithResource);
             return presence;
         }
         else {
-            Presence presence = userPresences.get(resource);
-            if (presence == null) {
-                presence = new Presence(Presence.Type.unavailable);
+            CompactPresence compactPresence = userPresences.get(resource);
+            if (compactPresence == null) {
+                Presence presence = new Presence(Presence.Type.unavailable);
                 presence.setFrom(userWithResource);
                 return presence;
             }
             else {
-                return presence.clone();
+                return compactPresence.toPresence();
             }
         }
     }
@@ -1093,7 +1107,7 @@ public final class Roster extends Manager {
      *         presence information is available.
      */
     public List<Presence> getAllPresences(BareJid bareJid) {
-        Map<Resourcepart, Presence> userPresences = getPresencesInternal(bareJid);
+        ContactPresences userPresences = getPresencesInternal(bareJid);
         List<Presence> res;
         if (userPresences == null) {
             // Create an unavailable presence if none was found
@@ -1101,9 +1115,10 @@ public final class Roster extends Manager {
             unavailable.setFrom(bareJid);
             res = new ArrayList<>(Arrays.asList(unavailable));
         } else {
-            res = new ArrayList<>(userPresences.values().size());
-            for (Presence presence : userPresences.values()) {
-                res.add(presence.clone());
+            CompactPresence[] presences = userPresences.values();
+            res = new ArrayList<>(presences.length);
+            for (CompactPresence presence : presences) {
+                res.add(presence.toPresence());
             }
         }
         return res;
@@ -1128,6 +1143,29 @@ public final class Roster extends Manager {
         return res;
     }
 
+    /**
+     * Returns a snapshot of the presences of all entities in the Roster. The returned map contains, for every entity
+     * from which presence information has been received, the presences of all its resources.
+     * <p>
+     * The snapshot is created without copying the individual presences and without blocking the processing of
+     * incoming presences, which makes it suitable to render the whole Roster at once. The returned map and lists are
+     * immutable and not updated when further presences are received.
+     * </p>
+     *
+     * @return an immutable snapshot of the presences of all Roster entities.
+     */
+    public Map<BareJid, List<CompactPresence>> getPresenceSnapshot() {
+        Map<BareJid, List<CompactPresence>> snapshot = new HashMap<>(presenceMap.size() * 4 / 3 + 1);
+        for (Entry<BareJid, ContactPresences> entry : presenceMap.entrySet()) {
+            CompactPresence[] presences = entry.getValue().values();
+            if (presences.length == 0) {
+                continue;
+            }
+            snapshot.put(entry.getKey(), Collections.unmodifiableList(Arrays.asList(presences)));
+        }
+        return Collections.unmodifiableMap(snapshot);
+    }
+
     /**
      * Returns a List of Presence objects for all of a user's current presences
      * or an unavailable presence if the user is unavailable (offline) or if no presence
@@ -1141,7 +1179,7 @@ public final class Roster extends Manager {
      */
     public List<Presence> getPresences(BareJid jid) {
         List<Presence> res;
-        Map<Resourcepart, Presence> userPresences = getPresencesInternal(jid);
+        ContactPresences userPresences = getPresencesInternal(jid);
         if (userPresences == null) {
             Presence presence = new Presence(Presence.Type.unavailable);
             presence.setFrom(jid);
@@ -1150,10 +1188,10 @@ public final class Roster extends Manager {
         else {
             List<Presence> answer = new ArrayList<>();
             // Used in case no available presence is found
-            Presence unavailable = null;
-            for (Presence presence : userPresences.values()) {
+            CompactPresence unavailable = null;
+            for (CompactPresence presence : userPresences.values()) {
                 if (presence.isAvailable()) {
-                    answer.add(presence.clone());
+                    answer.add(presence.toPresence());
                 }
                 else {
                     unavailable = presence;
@@ -1163,7 +1201,7 @@ public final class Roster extends Manager {
                 res = answer;
             }
             else if (unavailable != null) {
-                res = Arrays.asList(unavailable.clone());
+                res = Arrays.asList(unavailable.toPresence());
             }
             else {
                 Presence presence = new Presence(Presence.Type.unavailable);
@@ -1268,9 +1306,10 @@ public final class Roster extends Manager {
     private void setOfflinePresences() {
         Presence packetUnavailable;
         outerloop: for (Jid user : presenceMap.keySet()) {
-            Map<Resourcepart, Presence> resources = presenceMap.get(user);
+            ContactPresences resources = presenceMap.get(user);
             if (resources != null) {
-                for (Resourcepart resource : resources.keySet()) {
+                for (CompactPresence presence : resources.values()) {
+                    Resourcepart resource = presence.getResource();
                     packetUnavailable = new Presence(Presence.Type.unavailable);
                     EntityBareJid bareUserJid = user.asEntityBareJidIfPossible();
                     if (bareUserJid == null) {
@@ -1447,10 +1486,13 @@ public final class Roster extends Manager {
      * @param from the map to move presences from
      * @param to the map to move presences to
      */
-    private static void move(BareJid entity, Map<BareJid, Map<Resourcepart, Presence>> from, Map<BareJid, Map<Resourcepart, Presence>> to) {
-        Map<Resourcepart, Presence> presences = from.remove(entity);
-        if (presences != null && !presences.isEmpty()) {
-            to.put(entity, presences);
+    private void move(BareJid entity, Map<BareJid, ContactPresences> from, Map<BareJid, ContactPresences> to) {
+        synchronized (presenceMapsLock) {
+            ContactPresences presences = from.remove(entity);
+            // Also move empty presences, a concurrent presence update may be about to add to them.
+            if (presences != null) {
+                to.put(entity, presences);
+            }
         }
     }
 
@@ -1573,7 +1615,7 @@ public final class Roster extends Manager {
                             assert fullFrom != null;
                         }
                     }
-                    Map<Resourcepart, Presence> userPresences;
+                    ContactPresences userPresences;
                     // If an "available" presence, add it to the presence map. Each presence
                     // map will hold for a particular user a map with the presence
                     // packets saved for each resource.
@@ -1585,7 +1627,7 @@ public final class Roster extends Manager {
                         // it since we now have an online presence.
                         userPresences.remove(Resourcepart.EMPTY);
                         // Add the new presence, using the resources as a key.
-                        userPresences.put(fromResource, presence);
+                        userPresences.put(CompactPresence.from(presence, fromResource, retainPresenceExtensions));
                         // If the user is in the roster, fire an event.
                         if (contains(key)) {
                             fireRosterPresenceEvent(presence);
@@ -1601,13 +1643,13 @@ public final class Roster extends Manager {
                         userPresences = getOrCreatePresencesInternal(key);
                         if (from.hasNoResource()) {
                             // Get the user presence map
-                            userPresences.put(Resourcepart.EMPTY, presence);
+                            userPresences.put(CompactPresence.from(presence, Resourcepart.EMPTY, retainPresenceExtensions));
                         }
                         // Otherwise, this is a normal offline presence.
                         else {
                             // Store the offline presence, as it may include extra information
                             // such as the user being on vacation.
-                            userPresences.put(fromResource, presence);
+                            userPresences.put(CompactPresence.from(presence, fromResource, retainPresenceExtensions));
                         }
                         // If the user is in the roster, fire an event.
                         if (contains(key)) {
@@ -1641,11 +1683,9 @@ public final class Roster extends Manager {
                             break;
                         }
                         userPresences = getOrCreatePresencesInternal(key);
-                        // Any other presence data is invalidated by the error packet.
-                        userPresences.clear();
-
-                        // Set the new presence using the empty resource as a key.
-                        userPresences.put(Resourcepart.EMPTY, presence);
+                        // Any other presence data is invalidated by the error packet. Set the new presence
+                        // using the empty resource as a key.
+                        userPresences.reset(CompactPresence.from(presence, Resourcepart.EMPTY, retainPresenceExtensions));
                         // If the user is in the roster, fire an event.
                         if (contains(key)) {
                             fireRosterPresenceEvent(presence);
@@ -1879,4 +1919,31 @@ public final class Roster extends Manager {
         nonRosterPresenceMap.setMaxCacheSize(maximumSize);
     }
 
+    /**
+     * Set if the extension elements of presences should be retained by newly created Rosters. The default is
+     * <code>true</code>.
+     *
+     * @param retainPresenceExtensions <code>true</code> if extension elements should be retained.
+     * @see #setRetainPresenceExtensions(boolean)
+     */
+    public static void setDefaultRetainPresenceExtensions(boolean retainPresenceExtensions) {
+        defaultRetainPresenceExtensions = retainPresenceExtensions;
+    }
+
+    /**
+     * Set if the extension elements of received presences should be retained. If disabled, the presences returned by
+     * e.g. {@link #getPresence(BareJid)} only contain the type, mode, priority and status, which considerably reduces
+     * the memory required for large rosters. {@link RosterListener}s and {@link PresenceEventListener}s always receive
+     * the full presence.
+     *
+     * @param retainPresenceExtensions <code>true</code> if extension elements should be retained.
+     */
+    public void setRetainPresenceExtensions(boolean retainPresenceExtensions) {
+        this.retainPresenceExtensions = retainPresenceExtensions;
+    }
+
+    public boolean isRetainPresenceExtensions() {
+        return retainPresenceExtensions;
+    }
+
 }
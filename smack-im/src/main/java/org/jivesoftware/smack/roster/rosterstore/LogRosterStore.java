@@ -0,0 +1,460 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.roster.rosterstore;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jivesoftware.smack.roster.packet.RosterPacket.Item;
+import org.jivesoftware.smack.roster.provider.RosterPacketProvider;
+import org.jivesoftware.smack.util.CloseableUtil;
+import org.jivesoftware.smack.util.FileUtils;
+import org.jivesoftware.smack.util.PacketParserUtils;
+import org.jivesoftware.smack.xml.XmlPullParser;
+import org.jivesoftware.smack.xml.XmlPullParserException;
+
+import org.jxmpp.jid.BareJid;
+import org.jxmpp.jid.Jid;
+import org.jxmpp.jid.impl.JidCreate;
+
+/**
+ * Stores roster entries as specified by RFC 6121 for roster versioning in a single, append-only log file.
+ * <p>
+ * The file starts with a snapshot of the whole roster, followed by one record per roster push. All entries are kept
+ * in an in-memory index keyed by the entry's {@link BareJid}, hence {@link #getEntries()} and
+ * {@link #getEntry(Jid)} do not perform any I/O. Opening the store reads the file once sequentially, and every
+ * roster push is a single append to the end of the file. Once the log grows larger than the roster itself, the file
+ * is compacted by writing a fresh snapshot.
+ * </p>
+ * <p>
+ * When the store is opened, the log is truncated at the first record which is incomplete, e.g. because the process was
+ * killed while writing it, or corrupted. If appending a record fails, the log is truncated to the end of the previous
+ * record. New snapshots are first written to a temporary file which then replaces the log file.
+ * </p>
+ *
+ * @see DirectoryRosterStore
+ */
+public final class LogRosterStore implements RosterStore, Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(LogRosterStore.class.getName());
+
+    private static final String STORE_ID = "SMACK_ROSTER_LOG";
+
+    private static final int FORMAT_VERSION = 1;
+
+    private static final byte RECORD_SNAPSHOT = 1;
+    private static final byte RECORD_ADD = 2;
+    private static final byte RECORD_REMOVE = 3;
+
+    /**
+     * The minimum number of records appended after the snapshot before the log is compacted.
+     */
+    private static final int MIN_COMPACTION_THRESHOLD = 1000;
+
+    /**
+     * The upper bound of a string's length, used to detect corrupted length fields.
+     */
+    private static final int MAX_STRING_LENGTH = 1024 * 1024;
+
+    private final File file;
+
+    private final Map<BareJid, Item> entries = new LinkedHashMap<>();
+
+    private String rosterVersion;
+
+    private int recordsSinceSnapshot;
+
+    /**
+     * The length of the log file up to the end of the last valid record, or <code>-1</code> if the file has to be
+     * rewritten before new records can be appended.
+     */
+    private long validLength;
+
+    private DataOutputStream log;
+
+    private LogRosterStore(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Creates a new roster store on disk. An existing file will be overwritten.
+     *
+     * @param file the file to create the store in.
+     * @return a {@link LogRosterStore} instance if successful, <code>null</code> else.
+     */
+    public static LogRosterStore init(File file) {
+        LogRosterStore store = new LogRosterStore(file);
+        if (store.resetEntries(Collections.<Item>emptyList(), "")) {
+            return store;
+        }
+        return null;
+    }
+
+    /**
+     * Opens a roster store.
+     *
+     * @param file the file containing the roster store.
+     * @return a {@link LogRosterStore} instance if successful, <code>null</code> else.
+     */
+    public static LogRosterStore open(File file) {
+        LogRosterStore store = new LogRosterStore(file);
+        if (store.load()) {
+            return store;
+        }
+        return null;
+    }
+
+    private synchronized boolean load() {
+        try {
+            // Complete a replacement of the file by a new snapshot, which was interrupted by a crash.
+            FileUtils.recoverReplacedFile(file);
+            FileUtils.maybeDeleteFileOrThrow(getTmpFile());
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Could not recover roster log " + file, e);
+            return false;
+        }
+
+        if (!file.isFile()) {
+            return false;
+        }
+
+        long fileLength = file.length();
+        LogInputStream in = null;
+        try {
+            in = new LogInputStream(new FileInputStream(file), fileLength);
+            if (!STORE_ID.equals(in.readUTF()) || in.readInt() != FORMAT_VERSION) {
+                return false;
+            }
+            if (in.readRecordType() != RECORD_SNAPSHOT) {
+                return false;
+            }
+            rosterVersion = in.readString();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                Item item = parseItem(in.readString());
+                entries.put(item.getJid(), item);
+            }
+            validLength = in.getPosition();
+
+            while (true) {
+                try {
+                    int recordType = in.readRecordType();
+                    if (recordType == -1) {
+                        break;
+                    }
+                    String version = in.readString();
+                    switch (recordType) {
+                    case RECORD_ADD:
+                        Item item = parseItem(in.readString());
+                        entries.put(item.getJid(), item);
+                        break;
+                    case RECORD_REMOVE:
+                        BareJid bareJid = JidCreate.bareFrom(in.readString());
+                        entries.remove(bareJid);
+                        break;
+                    default:
+                        throw new IOException("Unknown record type " + recordType);
+                    }
+                    rosterVersion = version;
+                } catch (IOException | XmlPullParserException e) {
+                    LOGGER.log(Level.WARNING, "Invalid record at " + validLength + " of roster log " + file, e);
+                    break;
+                }
+                validLength = in.getPosition();
+                recordsSinceSnapshot++;
+            }
+        } catch (IOException | XmlPullParserException e) {
+            LOGGER.log(Level.WARNING, "Could not read the snapshot of roster log " + file, e);
+            return false;
+        } finally {
+            CloseableUtil.maybeClose(in, LOGGER);
+        }
+
+        if (validLength < fileLength) {
+            // Records after the first invalid one can not be trusted. Discard them, so that new records are not
+            // appended after them. The roster server will push the lost changes again, as the roster version is the
+            // one of the last valid record.
+            LOGGER.info("Discarding " + (fileLength - validLength) + " bytes at the end of roster log " + file);
+            return truncateLog();
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized List<Item> getEntries() {
+        return new ArrayList<>(entries.values());
+    }
+
+    @Override
+    public synchronized Item getEntry(Jid bareJid) {
+        return entries.get(bareJid.asBareJid());
+    }
+
+    @Override
+    public synchronized String getRosterVersion() {
+        return rosterVersion;
+    }
+
+    @Override
+    public synchronized boolean addEntry(Item item, String version) {
+        if (!appendRecord(RECORD_ADD, version, item.toXML().toString())) {
+            return false;
+        }
+        entries.put(item.getJid(), item);
+        rosterVersion = version;
+        maybeCompact();
+        return true;
+    }
+
+    @Override
+    public synchronized boolean removeEntry(Jid bareJid, String version) {
+        if (!appendRecord(RECORD_REMOVE, version, bareJid.asBareJid().toString())) {
+            return false;
+        }
+        entries.remove(bareJid.asBareJid());
+        rosterVersion = version;
+        maybeCompact();
+        return true;
+    }
+
+    @Override
+    public synchronized boolean resetEntries(Collection<Item> items, String version) {
+        Map<BareJid, Item> newEntries = new LinkedHashMap<>(items.size());
+        for (Item item : items) {
+            newEntries.put(item.getJid(), item);
+        }
+        // Only change the in-memory state once it is on disk, so that both never diverge.
+        if (!writeSnapshot(newEntries, version)) {
+            return false;
+        }
+        entries.clear();
+        entries.putAll(newEntries);
+        rosterVersion = version;
+        return true;
+    }
+
+    @Override
+    public void resetStore() {
+        resetEntries(Collections.<Item>emptyList(), "");
+    }
+
+    @Override
+    public synchronized void close() {
+        closeLog();
+    }
+
+    private void maybeCompact() {
+        if (recordsSinceSnapshot > Math.max(MIN_COMPACTION_THRESHOLD, entries.size())) {
+            writeSnapshot(entries, rosterVersion);
+        }
+    }
+
+    private boolean appendRecord(byte recordType, String version, String payload) {
+        if (validLength < 0 && !writeSnapshot(entries, rosterVersion)) {
+            // A previous append failed and could not be undone, only a new snapshot gets rid of its remains.
+            return false;
+        }
+
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        try {
+            DataOutputStream recordOut = new DataOutputStream(record);
+            recordOut.writeByte(recordType);
+            writeString(recordOut, version);
+            writeString(recordOut, payload);
+            recordOut.flush();
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+
+        try {
+            if (log == null) {
+                log = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+            }
+            log.write(record.toByteArray());
+            log.flush();
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Could not append to roster log " + file, e);
+            closeLog();
+            // Remove what was written of the record, otherwise the following records would be appended after it.
+            if (!truncateLog()) {
+                validLength = -1;
+            }
+            return false;
+        }
+        validLength += record.size();
+        recordsSinceSnapshot++;
+        return true;
+    }
+
+    /**
+     * Truncate the log file to the end of the last valid record.
+     *
+     * @return <code>true</code> if the file was truncated.
+     */
+    private boolean truncateLog() {
+        RandomAccessFile truncate = null;
+        try {
+            truncate = new RandomAccessFile(file, "rw");
+            truncate.setLength(validLength);
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Could not truncate roster log " + file + " to " + validLength, e);
+            return false;
+        } finally {
+            CloseableUtil.maybeClose(truncate, LOGGER);
+        }
+        return true;
+    }
+
+    private File getTmpFile() {
+        return new File(file.getPath() + ".tmp");
+    }
+
+    private boolean writeSnapshot(Map<BareJid, Item> snapshotEntries, String version) {
+        closeLog();
+
+        File tmpFile = getTmpFile();
+        FileOutputStream fileOut = null;
+        long snapshotLength;
+        try {
+            fileOut = new FileOutputStream(tmpFile);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+            out.writeUTF(STORE_ID);
+            out.writeInt(FORMAT_VERSION);
+            out.writeByte(RECORD_SNAPSHOT);
+            writeString(out, version);
+            out.writeInt(snapshotEntries.size());
+            for (Item item : snapshotEntries.values()) {
+                writeString(out, item.toXML().toString());
+            }
+            out.flush();
+            fileOut.getFD().sync();
+            snapshotLength = out.size();
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Could not write roster snapshot " + tmpFile, e);
+            return false;
+        } finally {
+            CloseableUtil.maybeClose(fileOut, LOGGER);
+        }
+
+        try {
+            FileUtils.replaceFileOrThrow(tmpFile, file);
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Could not replace roster log " + file + " with " + tmpFile, e);
+            return false;
+        }
+
+        validLength = snapshotLength;
+        recordsSinceSnapshot = 0;
+        return true;
+    }
+
+    private void closeLog() {
+        CloseableUtil.maybeClose(log, LOGGER);
+        log = null;
+    }
+
+    private static Item parseItem(String xml) throws XmlPullParserException, IOException {
+        XmlPullParser parser = PacketParserUtils.getParserFor(xml);
+        return RosterPacketProvider.parseItem(parser);
+    }
+
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        if (string == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads the log file and keeps track of the position, in order to determine the end of the last valid record.
+     */
+    private static final class LogInputStream implements Closeable {
+        private final DataInputStream in;
+        private final long length;
+        private long position;
+
+        private LogInputStream(FileInputStream in, long length) {
+            this.in = new DataInputStream(new BufferedInputStream(in));
+            this.length = length;
+        }
+
+        private long getPosition() {
+            return position;
+        }
+
+        private String readUTF() throws IOException {
+            String string = in.readUTF();
+            position += 2 + string.getBytes(StandardCharsets.UTF_8).length;
+            return string;
+        }
+
+        private int readInt() throws IOException {
+            int i = in.readInt();
+            position += 4;
+            return i;
+        }
+
+        private int readRecordType() throws IOException {
+            int recordType = in.read();
+            if (recordType != -1) {
+                position++;
+            }
+            return recordType;
+        }
+
+        private String readString() throws IOException {
+            int stringLength = readInt();
+            if (stringLength == -1) {
+                return null;
+            }
+            // Do not trust the length field of a corrupted record to allocate the buffer.
+            if (stringLength < 0 || stringLength > MAX_STRING_LENGTH || stringLength > length - position) {
+                throw new IOException("Invalid string length " + stringLength);
+            }
+            byte[] bytes = new byte[stringLength];
+            in.readFully(bytes);
+            position += stringLength;
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.roster;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.jivesoftware.smack.packet.Presence;
+import org.jivesoftware.smack.packet.StanzaError;
+
+import org.junit.jupiter.api.Test;
+import org.jxmpp.jid.JidTestUtil;
+import org.jxmpp.jid.parts.Resourcepart;
+import org.jxmpp.stringprep.XmppStringprepException;
+
+public class ContactPresencesTest {
+
+    private static CompactPresence presence(String resource, Presence.Mode mode) throws XmppStringprepException {
+        Presence presence = new Presence(Presence.Type.available, "status", 1, mode);
+        return CompactPresence.from(presence, Resourcepart.from(resource), false);
+    }
+
+    @Test
+    public void putReplacesResourceTest() throws XmppStringprepException {
+        ContactPresences presences = new ContactPresences();
+        presences.put(presence("a", Presence.Mode.available));
+        presences.put(presence("b", Presence.Mode.away));
+        presences.put(presence("a", Presence.Mode.dnd));
+
+        assertEquals(2, presences.values().length);
+        assertEquals(Presence.Mode.dnd, presences.get(Resourcepart.from("a")).getMode());
+        // The most recently updated presence is the last one.
+        assertEquals(Resourcepart.from("a"), presences.values()[1].getResource());
+    }
+
+    @Test
+    public void removeTest() throws XmppStringprepException {
+        ContactPresences presences = new ContactPresences();
+        presences.put(presence("a", Presence.Mode.available));
+        presences.remove(Resourcepart.from("a"));
+
+        assertNull(presences.get(Resourcepart.from("a")));
+        assertTrue(presences.isEmpty());
+    }
+
+    @Test
+    public void maxResourcesTest() throws XmppStringprepException {
+        ContactPresences presences = new ContactPresences(2);
+        presences.put(presence("a", Presence.Mode.available));
+        presences.put(presence("b", Presence.Mode.available));
+        presences.put(presence("c", Presence.Mode.available));
+
+        assertEquals(2, presences.values().length);
+        assertNull(presences.get(Resourcepart.from("a")));
+    }
+
+    @Test
+    public void toPresenceTest() throws XmppStringprepException {
+        Presence presence = presence("a", Presence.Mode.xa).toPresence();
+
+        assertEquals(Presence.Type.available, presence.getType());
+        assertEquals(Presence.Mode.xa, presence.getMode());
+        assertEquals(1, presence.getPriority());
+        assertEquals("status", presence.getStatus());
+    }
+
+    @Test
+    public void toPresenceIsFaithfulTest() throws XmppStringprepException {
+        Presence presence = new Presence(Presence.Type.error);
+        presence.setFrom(JidTestUtil.FULL_JID_1_RESOURCE_1);
+        presence.setTo(JidTestUtil.FULL_JID_2_RESOURCE_1);
+        presence.setStanzaId("presence-id");
+        presence.setLanguage("de");
+        presence.setError(StanzaError.getBuilder(StanzaError.Condition.remote_server_not_found));
+
+        Presence restored = CompactPresence.from(presence, JidTestUtil.FULL_JID_1_RESOURCE_1.getResourcepart(), false)
+                        .toPresence();
+        assertEquals(presence.getFrom(), restored.getFrom());
+        assertEquals(presence.getTo(), restored.getTo());
+        assertEquals("presence-id", restored.getStanzaId());
+        assertEquals("de", restored.getLanguage());
+        assertEquals(Presence.Type.error, restored.getType());
+        assertEquals(StanzaError.Condition.remote_server_not_found, restored.getError().getCondition());
+    }
+}
@@ -0,0 +1,225 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.roster.rosterstore;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.jivesoftware.smack.roster.packet.RosterPacket.Item;
+import org.jivesoftware.smack.roster.packet.RosterPacket.ItemType;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jxmpp.jid.JidTestUtil;
+
+/**
+ * Tests the implementation of {@link LogRosterStore}.
+ */
+public class LogRosterStoreTest {
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    @Test
+    public void testStoreUninitialized() throws IOException {
+        File storeFile = new File(tmpFolder.newFolder(), "roster");
+        assertNull(LogRosterStore.open(storeFile));
+    }
+
+    @Test
+    public void testStoreInitializedEmpty() throws IOException {
+        File storeFile = new File(tmpFolder.newFolder(), "roster");
+        LogRosterStore store = LogRosterStore.init(storeFile);
+        assertNotNull(store);
+        assertEquals("", store.getRosterVersion());
+        assertEquals(0, store.getEntries().size());
+        store.close();
+
+        store = LogRosterStore.open(storeFile);
+        assertNotNull(store);
+        assertEquals("", store.getRosterVersion());
+        assertEquals(0, store.getEntries().size());
+    }
+
+    @Test
+    public void testStoreAddRemoveAndReopen() throws IOException {
+        File storeFile = new File(tmpFolder.newFolder(), "roster");
+        LogRosterStore store = LogRosterStore.init(storeFile);
+
+        Item item1 = new Item(JidTestUtil.BARE_JID_1, "Foo Bar");
+        item1.addGroupName("The Foo Fighters");
+        item1.setItemType(ItemType.both);
+
+        Item item2 = new Item(JidTestUtil.BARE_JID_2, "Baba Baz");
+        item2.setSubscriptionPending(true);
+
+        List<Item> items = new ArrayList<>();
+        items.add(item1);
+        store.resetEntries(items, "1");
+        store.addEntry(item2, "2");
+        store.removeEntry(JidTestUtil.BARE_JID_1, "3");
+        store.close();
+
+        store = LogRosterStore.open(storeFile);
+        assertNotNull(store);
+        assertEquals("3", store.getRosterVersion());
+        assertEquals(1, store.getEntries().size());
+        assertNull(store.getEntry(JidTestUtil.BARE_JID_1));
+
+        Item storedItem = store.getEntry(JidTestUtil.BARE_JID_2);
+        assertNotNull(storedItem);
+        assertEquals(item2.getName(), storedItem.getName());
+        assertEquals(item2.isSubscriptionPending(), storedItem.isSubscriptionPending());
+    }
+
+    @Test
+    public void testPartialRecordIsDiscarded() throws IOException {
+        File storeFile = new File(tmpFolder.newFolder(), "roster");
+        LogRosterStore store = LogRosterStore.init(storeFile);
+        store.addEntry(new Item(JidTestUtil.BARE_JID_1, "Foo Bar"), "1");
+        store.close();
+
+        // Simulate a crash while appending a record.
+        FileOutputStream out = new FileOutputStream(storeFile, true);
+        out.write(new byte[] { 2, 0, 0 });
+        out.close();
+
+        store = LogRosterStore.open(storeFile);
+        assertNotNull(store);
+        assertEquals("1", store.getRosterVersion());
+        assertEquals(1, store.getEntries().size());
+
+        store.addEntry(new Item(JidTestUtil.BARE_JID_2, "Baba Baz"), "2");
+        store.close();
+
+        store = LogRosterStore.open(storeFile);
+        assertNotNull(store);
+        assertEquals("2", store.getRosterVersion());
+        assertEquals(2, store.getEntries().size());
+    }
+
+    @Test
+    public void testLogIsTruncatedAtCorruptedRecord() throws IOException {
+        File storeFile = new File(tmpFolder.newFolder(), "roster");
+        LogRosterStore store = LogRosterStore.init(storeFile);
+        store.addEntry(new Item(JidTestUtil.BARE_JID_1, "Foo Bar"), "1");
+        store.close();
+        long validLength = storeFile.length();
+
+        store = LogRosterStore.open(storeFile);
+        store.addEntry(new Item(JidTestUtil.BARE_JID_2, "Baba Baz"), "2");
+        store.close();
+
+        // Corrupt the payload of the second record, so that it is no valid roster item.
+        RandomAccessFile file = new RandomAccessFile(storeFile, "rw");
+        file.seek(file.length() - 4);
+        file.write(new byte[] { '<', '<', '<', '<' });
+        file.close();
+
+        store = LogRosterStore.open(storeFile);
+        assertNotNull(store);
+        assertEquals("1", store.getRosterVersion());
+        assertEquals(1, store.getEntries().size());
+        assertEquals(validLength, storeFile.length());
+    }
+
+    @Test
+    public void testCorruptedStringLengthIsRejected() throws IOException {
+        File storeFile = new File(tmpFolder.newFolder(), "roster");
+        LogRosterStore store = LogRosterStore.init(storeFile);
+        store.addEntry(new Item(JidTestUtil.BARE_JID_1, "Foo Bar"), "1");
+        store.close();
+        long validLength = storeFile.length();
+
+        // Append a record whose version string claims to be 2 GiB long.
+        FileOutputStream out = new FileOutputStream(storeFile, true);
+        out.write(new byte[] { 2, 0x7f, (byte) 0xff, (byte) 0xff, (byte) 0xff, 'a', 'b', 'c' });
+        out.close();
+
+        store = LogRosterStore.open(storeFile);
+        assertNotNull(store);
+        assertEquals("1", store.getRosterVersion());
+        assertEquals(1, store.getEntries().size());
+        assertEquals(validLength, storeFile.length());
+    }
+
+    @Test
+    public void testNullRosterVersion() throws IOException {
+        File storeFile = new File(tmpFolder.newFolder(), "roster");
+        LogRosterStore store = LogRosterStore.init(storeFile);
+        store.resetEntries(Collections.singletonList(new Item(JidTestUtil.BARE_JID_1, "Foo Bar")), null);
+        store.addEntry(new Item(JidTestUtil.BARE_JID_2, "Baba Baz"), null);
+        store.close();
+
+        store = LogRosterStore.open(storeFile);
+        assertNotNull(store);
+        assertNull(store.getRosterVersion());
+        assertEquals(2, store.getEntries().size());
+    }
+
+    @Test
+    public void testFailedResetKeepsState() throws IOException {
+        File storeFile = new File(tmpFolder.newFolder(), "roster");
+        LogRosterStore store = LogRosterStore.init(storeFile);
+        store.addEntry(new Item(JidTestUtil.BARE_JID_1, "Foo Bar"), "1");
+
+        // Make writing the snapshot fail.
+        File tmpFile = new File(storeFile.getPath() + ".tmp");
+        tmpFile.mkdir();
+        assertFalse(store.resetEntries(Collections.<Item>emptyList(), "2"));
+        assertEquals("1", store.getRosterVersion());
+        assertEquals(1, store.getEntries().size());
+        store.close();
+        tmpFile.delete();
+
+        store = LogRosterStore.open(storeFile);
+        assertNotNull(store);
+        assertEquals("1", store.getRosterVersion());
+        assertEquals(1, store.getEntries().size());
+    }
+
+    @Test
+    public void testInterruptedSnapshotReplacementIsRecovered() throws IOException {
+        File storeFile = new File(tmpFolder.newFolder(), "roster");
+        LogRosterStore store = LogRosterStore.init(storeFile);
+        store.addEntry(new Item(JidTestUtil.BARE_JID_1, "Foo Bar"), "1");
+        store.close();
+
+        // Simulate a crash after the log was moved aside while it was replaced by a new snapshot.
+        File backupFile = new File(storeFile.getPath() + ".old");
+        storeFile.renameTo(backupFile);
+        new FileOutputStream(storeFile.getPath() + ".tmp").close();
+
+        store = LogRosterStore.open(storeFile);
+        assertNotNull(store);
+        assertEquals("1", store.getRosterVersion());
+        assertEquals(1, store.getEntries().size());
+        assertFalse(backupFile.exists());
+        assertFalse(new File(storeFile.getPath() + ".tmp").exists());
+    }
+}
@@ -0,0 +1,58 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * This file is part of smack-omemo-signal.
+ *
+ * smack-omemo-signal is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301  USA
+ */
+package org.jivesoftware.smackx.omemo.signal;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.jivesoftware.smackx.omemo.LogBasedOmemoStore;
+import org.jivesoftware.smackx.omemo.util.OmemoKeyUtil;
+
+import org.whispersystems.libsignal.IdentityKey;
+import org.whispersystems.libsignal.IdentityKeyPair;
+import org.whispersystems.libsignal.SessionCipher;
+import org.whispersystems.libsignal.SignalProtocolAddress;
+import org.whispersystems.libsignal.ecc.ECPublicKey;
+import org.whispersystems.libsignal.state.PreKeyBundle;
+import org.whispersystems.libsignal.state.PreKeyRecord;
+import org.whispersystems.libsignal.state.SessionRecord;
+import org.whispersystems.libsignal.state.SignedPreKeyRecord;
+
+/**
+ * Implementation of a LogBasedOmemoStore for the smack-omemo-signal module.
+ */
+public class SignalLogBasedOmemoStore
+        extends LogBasedOmemoStore<IdentityKeyPair, IdentityKey, PreKeyRecord, SignedPreKeyRecord, SessionRecord,
+        SignalProtocolAddress, ECPublicKey, PreKeyBundle, SessionCipher> {
+
+    public SignalLogBasedOmemoStore(File directory) throws IOException {
+        super(directory);
+    }
+
+    public SignalLogBasedOmemoStore(File directory, long commitWindowMillis) throws IOException {
+        super(directory, commitWindowMillis);
+    }
+
+    @Override
+    public OmemoKeyUtil<IdentityKeyPair, IdentityKey, PreKeyRecord, SignedPreKeyRecord, SessionRecord, ECPublicKey, PreKeyBundle> keyUtil() {
+        return new SignalOmemoKeyUtil();
+    }
+}
@@ -28,6 +28,7 @@ import java.util.Collection;
 
 import org.jivesoftware.smackx.omemo.signal.SignalCachingOmemoStore;
 import org.jivesoftware.smackx.omemo.signal.SignalFileBasedOmemoStore;
+import org.jivesoftware.smackx.omemo.signal.SignalLogBasedOmemoStore;
 import org.jivesoftware.smackx.omemo.signal.SignalOmemoKeyUtil;
 
 import org.junit.Test;
@@ -48,7 +49,7 @@ import org.whispersystems.libsignal.state.SignedPreKeyRecord;
 /**
  * smack-omemo-signal implementation of {@link OmemoStoreTest}.
  * This class executes tests of its super class with available implementations of {@link OmemoStore}.
- * So far this includes {@link SignalFileBasedOmemoStore}, {@link SignalCachingOmemoStore}.
+ * So far this includes {@link SignalFileBasedOmemoStore}, {@link SignalCachingOmemoStore}, {@link SignalLogBasedOmemoStore}.
  */
 @RunWith(value = Parameterized.class)
 public class SignalOmemoStoreTest extends OmemoStoreTest<IdentityKeyPair, IdentityKey, PreKeyRecord, SignedPreKeyRecord, SessionRecord, SignalProtocolAddress, ECPublicKey, PreKeyBundle, SessionCipher> {
@@ -72,7 +73,9 @@ public class SignalOmemoStoreTest extends OmemoStoreTest<IdentityKeyPair, Identi
                 // Ephemeral caching store
                 { new SignalCachingOmemoStore()},
                 // Caching file based store
-                { new SignalCachingOmemoStore(new SignalFileBasedOmemoStore(temp.newFolder("cachingSigFileBased")))}
+                { new SignalCachingOmemoStore(new SignalFileBasedOmemoStore(temp.newFolder("cachingSigFileBased")))},
+                // Log based store
+                { new SignalLogBasedOmemoStore(temp.newFolder("sigLogBased"))}
         });
     }
 
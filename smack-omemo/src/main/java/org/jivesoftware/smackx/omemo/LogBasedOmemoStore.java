@@ -0,0 +1,486 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.omemo;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jivesoftware.smack.util.stringencoder.BareJidEncoder;
+
+import org.jivesoftware.smackx.omemo.exceptions.CorruptedOmemoKeyException;
+import org.jivesoftware.smackx.omemo.internal.OmemoCachedDeviceList;
+import org.jivesoftware.smackx.omemo.internal.OmemoDevice;
+
+import org.jxmpp.jid.BareJid;
+
+/**
+ * An OmemoStore which keeps all data in memory and persists it in a single append-only log in a directory.
+ * <p>
+ * Unlike the {@link FileBasedOmemoStore}, which writes one file per key, session, counter and date, modifications
+ * are appended to the log and all modifications made within the commit window are made durable by a single sequential
+ * write and fsync. The log is periodically compacted into a snapshot.
+ * </p>
+ * <p>
+ * Key material and sessions, i.e. the ratchet state, are always durable before the storing method returns, as
+ * restoring an older ratchet state after a crash would break the session, and a consumed preKey must never be used
+ * twice. The commit window only applies to the bookkeeping data, i.e. message counters, dates and cached device lists:
+ * after a crash these reflect the state of some point in time at most one commit window before the crash, see
+ * {@link #flush()} for when a state has to be durable. A commit window of 0 makes every modification durable before
+ * the modifying method returns.
+ * </p>
+ * <p>
+ * The store is thread-safe. It should be {@link #close() closed} once it is not used anymore.
+ * </p>
+ */
+public abstract class LogBasedOmemoStore<T_IdKeyPair, T_IdKey, T_PreKey, T_SigPreKey, T_Sess, T_Addr, T_ECPub, T_Bundle, T_Ciph>
+        extends OmemoStore<T_IdKeyPair, T_IdKey, T_PreKey, T_SigPreKey, T_Sess, T_Addr, T_ECPub, T_Bundle, T_Ciph>
+        implements Closeable {
+
+    /**
+     * The default commit window in milliseconds, which applies to the bookkeeping data only.
+     */
+    public static final long DEFAULT_COMMIT_WINDOW_MILLIS = 100;
+
+    private static final Logger LOGGER = Logger.getLogger(LogBasedOmemoStore.class.getName());
+    private static final BareJidEncoder bareJidEncoder = new BareJidEncoder.UrlSafeEncoder();
+
+    private static final String IDENTITY_KEY_PAIR = "identityKeyPair";
+    private static final String LAST_SIGNED_PRE_KEY_RENEWAL = "lastSignedPreKeyRenewal";
+    private static final String PRE_KEYS = "preKeys/";
+    private static final String SIGNED_PRE_KEYS = "signedPreKeys/";
+    private static final String CONTACTS = "contacts/";
+    private static final String ACTIVE_DEVICES = "activeDevices";
+    private static final String INACTIVE_DEVICES = "inactiveDevices";
+    private static final String IDENTITY_KEY = "identityKey";
+    private static final String SESSION = "session";
+    private static final String MESSAGE_COUNTER = "messageCounter";
+    private static final String LAST_MESSAGE_RECEIVED_DATE = "lastMessageReceivedDate";
+    private static final String LAST_DEVICE_ID_PUBLICATION_DATE = "lastDeviceIdPublicationDate";
+
+    private final OmemoStoreLog log;
+
+    /**
+     * Open a store in the given directory using the {@link #DEFAULT_COMMIT_WINDOW_MILLIS default commit window}.
+     *
+     * @param directory the directory holding the log of the store.
+     * @throws IOException if the log can not be read.
+     */
+    public LogBasedOmemoStore(File directory) throws IOException {
+        this(directory, DEFAULT_COMMIT_WINDOW_MILLIS);
+    }
+
+    /**
+     * Open a store in the given directory.
+     *
+     * @param directory the directory holding the log of the store.
+     * @param commitWindowMillis the time in milliseconds modifications of the bookkeeping data are collected before
+     *        they are made durable.
+     * @throws IOException if the log can not be read.
+     */
+    public LogBasedOmemoStore(File directory, long commitWindowMillis) throws IOException {
+        super();
+        if (directory == null) {
+            throw new IllegalArgumentException("The directory of the store must not be null.");
+        }
+        this.log = new OmemoStoreLog(directory, commitWindowMillis);
+    }
+
+    /**
+     * Make all modifications durable and wait until they are.
+     *
+     * @throws IOException if the log can not be written.
+     */
+    public void flush() throws IOException {
+        log.commit();
+    }
+
+    /**
+     * Make all modifications durable and close the log. The store can not be modified afterwards.
+     *
+     * @throws IOException if the log can not be written.
+     */
+    @Override
+    public void close() throws IOException {
+        log.close();
+    }
+
+    @Override
+    public SortedSet<Integer> localDeviceIdsOf(BareJid localUser) {
+        String userKey = userKey(localUser);
+        SortedSet<Integer> deviceIds = new TreeSet<>();
+        for (String key : log.getWithPrefix(userKey).keySet()) {
+            String deviceId = key.substring(userKey.length(), key.indexOf('/', userKey.length()));
+            try {
+                deviceIds.add(Integer.parseInt(deviceId));
+            } catch (NumberFormatException e) {
+                // ignore
+            }
+        }
+        return deviceIds;
+    }
+
+    @Override
+    public T_IdKeyPair loadOmemoIdentityKeyPair(OmemoDevice userDevice)
+            throws CorruptedOmemoKeyException, IOException {
+        byte[] bytes = log.get(deviceKey(userDevice) + IDENTITY_KEY_PAIR);
+        return bytes != null ? keyUtil().identityKeyPairFromBytes(bytes) : null;
+    }
+
+    @Override
+    public void storeOmemoIdentityKeyPair(OmemoDevice userDevice, T_IdKeyPair identityKeyPair) throws IOException {
+        log.putAndCommit(deviceKey(userDevice) + IDENTITY_KEY_PAIR, keyUtil().identityKeyPairToBytes(identityKeyPair));
+    }
+
+    @Override
+    public void removeOmemoIdentityKeyPair(OmemoDevice userDevice) {
+        removeAndCommit(deviceKey(userDevice) + IDENTITY_KEY_PAIR);
+    }
+
+    @Override
+    public T_IdKey loadOmemoIdentityKey(OmemoDevice userDevice, OmemoDevice contactsDevice)
+            throws CorruptedOmemoKeyException, IOException {
+        byte[] bytes = log.get(contactsDeviceKey(userDevice, contactsDevice) + IDENTITY_KEY);
+        return bytes != null ? keyUtil().identityKeyFromBytes(bytes) : null;
+    }
+
+    @Override
+    public void storeOmemoIdentityKey(OmemoDevice userDevice, OmemoDevice contactsDevice, T_IdKey contactsKey)
+            throws IOException {
+        log.putAndCommit(contactsDeviceKey(userDevice, contactsDevice) + IDENTITY_KEY,
+                keyUtil().identityKeyToBytes(contactsKey));
+    }
+
+    @Override
+    public void removeOmemoIdentityKey(OmemoDevice userDevice, OmemoDevice contactsDevice) {
+        remove(contactsDeviceKey(userDevice, contactsDevice) + IDENTITY_KEY);
+    }
+
+    @Override
+    public void storeOmemoMessageCounter(OmemoDevice userDevice, OmemoDevice contactsDevice, int counter)
+            throws IOException {
+        log.put(contactsDeviceKey(userDevice, contactsDevice) + MESSAGE_COUNTER, intToBytes(counter));
+    }
+
+    @Override
+    public int loadOmemoMessageCounter(OmemoDevice userDevice, OmemoDevice contactsDevice) throws IOException {
+        byte[] bytes = log.get(contactsDeviceKey(userDevice, contactsDevice) + MESSAGE_COUNTER);
+        return bytes != null ? bytesToInt(bytes, 0) : 0;
+    }
+
+    @Override
+    public void setDateOfLastReceivedMessage(OmemoDevice userDevice, OmemoDevice contactsDevice, Date date)
+            throws IOException {
+        putDate(contactsDeviceKey(userDevice, contactsDevice) + LAST_MESSAGE_RECEIVED_DATE, date);
+    }
+
+    @Override
+    public Date getDateOfLastReceivedMessage(OmemoDevice userDevice, OmemoDevice contactsDevice) throws IOException {
+        return getDate(contactsDeviceKey(userDevice, contactsDevice) + LAST_MESSAGE_RECEIVED_DATE);
+    }
+
+    @Override
+    public void setDateOfLastDeviceIdPublication(OmemoDevice userDevice, OmemoDevice contactsDevice, Date date)
+            throws IOException {
+        putDate(contactsDeviceKey(userDevice, contactsDevice) + LAST_DEVICE_ID_PUBLICATION_DATE, date);
+    }
+
+    @Override
+    public Date getDateOfLastDeviceIdPublication(OmemoDevice userDevice, OmemoDevice contactsDevice)
+            throws IOException {
+        return getDate(contactsDeviceKey(userDevice, contactsDevice) + LAST_DEVICE_ID_PUBLICATION_DATE);
+    }
+
+    @Override
+    public void setDateOfLastSignedPreKeyRenewal(OmemoDevice userDevice, Date date) throws IOException {
+        putDate(deviceKey(userDevice) + LAST_SIGNED_PRE_KEY_RENEWAL, date);
+    }
+
+    @Override
+    public Date getDateOfLastSignedPreKeyRenewal(OmemoDevice userDevice) throws IOException {
+        return getDate(deviceKey(userDevice) + LAST_SIGNED_PRE_KEY_RENEWAL);
+    }
+
+    @Override
+    public T_PreKey loadOmemoPreKey(OmemoDevice userDevice, int preKeyId) throws IOException {
+        byte[] bytes = log.get(deviceKey(userDevice) + PRE_KEYS + preKeyId);
+        if (bytes != null) {
+            try {
+                return keyUtil().preKeyFromBytes(bytes);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Could not deserialize preKey from bytes.", e);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void storeOmemoPreKey(OmemoDevice userDevice, int preKeyId, T_PreKey preKey) throws IOException {
+        log.putAndCommit(deviceKey(userDevice) + PRE_KEYS + preKeyId, keyUtil().preKeyToBytes(preKey));
+    }
+
+    @Override
+    public void removeOmemoPreKey(OmemoDevice userDevice, int preKeyId) {
+        removeAndCommit(deviceKey(userDevice) + PRE_KEYS + preKeyId);
+    }
+
+    @Override
+    public TreeMap<Integer, T_PreKey> loadOmemoPreKeys(OmemoDevice userDevice) throws IOException {
+        String prefix = deviceKey(userDevice) + PRE_KEYS;
+        TreeMap<Integer, T_PreKey> preKeys = new TreeMap<>();
+        for (Map.Entry<String, byte[]> entry : log.getWithPrefix(prefix).entrySet()) {
+            try {
+                preKeys.put(Integer.parseInt(entry.getKey().substring(prefix.length())),
+                        keyUtil().preKeyFromBytes(entry.getValue()));
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Could not deserialize preKey from bytes.", e);
+            }
+        }
+        return preKeys;
+    }
+
+    @Override
+    public T_SigPreKey loadOmemoSignedPreKey(OmemoDevice userDevice, int signedPreKeyId) throws IOException {
+        byte[] bytes = log.get(deviceKey(userDevice) + SIGNED_PRE_KEYS + signedPreKeyId);
+        if (bytes != null) {
+            try {
+                return keyUtil().signedPreKeyFromBytes(bytes);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Could not deserialize signed preKey from bytes.", e);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public TreeMap<Integer, T_SigPreKey> loadOmemoSignedPreKeys(OmemoDevice userDevice) throws IOException {
+        String prefix = deviceKey(userDevice) + SIGNED_PRE_KEYS;
+        TreeMap<Integer, T_SigPreKey> signedPreKeys = new TreeMap<>();
+        for (Map.Entry<String, byte[]> entry : log.getWithPrefix(prefix).entrySet()) {
+            try {
+                signedPreKeys.put(Integer.parseInt(entry.getKey().substring(prefix.length())),
+                        keyUtil().signedPreKeyFromBytes(entry.getValue()));
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Could not deserialize signed preKey.", e);
+            }
+        }
+        return signedPreKeys;
+    }
+
+    @Override
+    public void storeOmemoSignedPreKey(OmemoDevice userDevice, int signedPreKeyId, T_SigPreKey signedPreKey)
+            throws IOException {
+        log.putAndCommit(deviceKey(userDevice) + SIGNED_PRE_KEYS + signedPreKeyId,
+                keyUtil().signedPreKeyToBytes(signedPreKey));
+    }
+
+    @Override
+    public void removeOmemoSignedPreKey(OmemoDevice userDevice, int signedPreKeyId) {
+        remove(deviceKey(userDevice) + SIGNED_PRE_KEYS + signedPreKeyId);
+    }
+
+    @Override
+    public T_Sess loadRawSession(OmemoDevice userDevice, OmemoDevice contactsDevice) throws IOException {
+        byte[] bytes = log.get(contactsDeviceKey(userDevice, contactsDevice) + SESSION);
+        if (bytes != null) {
+            try {
+                return keyUtil().rawSessionFromBytes(bytes);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Could not deserialize raw session.", e);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public HashMap<Integer, T_Sess> loadAllRawSessionsOf(OmemoDevice userDevice, BareJid contact) throws IOException {
+        String prefix = contactKey(userDevice, contact);
+        HashMap<Integer, T_Sess> sessions = new HashMap<>();
+        for (Map.Entry<String, byte[]> entry : log.getWithPrefix(prefix).entrySet()) {
+            String key = entry.getKey();
+            if (!key.endsWith('/' + SESSION)) {
+                continue;
+            }
+            int id;
+            try {
+                id = Integer.parseInt(key.substring(prefix.length(), key.indexOf('/', prefix.length())));
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            try {
+                sessions.put(id, keyUtil().rawSessionFromBytes(entry.getValue()));
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Could not deserialize raw session.", e);
+            }
+        }
+        return sessions;
+    }
+
+    @Override
+    public void storeRawSession(OmemoDevice userDevice, OmemoDevice contactsDevice, T_Sess session) throws IOException {
+        log.putAndCommit(contactsDeviceKey(userDevice, contactsDevice) + SESSION, keyUtil().rawSessionToBytes(session));
+    }
+
+    @Override
+    public void removeRawSession(OmemoDevice userDevice, OmemoDevice contactsDevice) {
+        removeAndCommit(contactsDeviceKey(userDevice, contactsDevice) + SESSION);
+    }
+
+    @Override
+    public void removeAllRawSessionsOf(OmemoDevice userDevice, BareJid contact) {
+        for (String key : log.getWithPrefix(contactKey(userDevice, contact)).keySet()) {
+            if (key.endsWith('/' + SESSION)) {
+                remove(key);
+            }
+        }
+    }
+
+    @Override
+    public boolean containsRawSession(OmemoDevice userDevice, OmemoDevice contactsDevice) {
+        return log.containsKey(contactsDeviceKey(userDevice, contactsDevice) + SESSION);
+    }
+
+    @Override
+    public OmemoCachedDeviceList loadCachedDeviceList(OmemoDevice userDevice, BareJid contact) throws IOException {
+        if (contact == null) {
+            throw new IllegalArgumentException("Contact can not be null.");
+        }
+
+        OmemoCachedDeviceList cachedDeviceList = new OmemoCachedDeviceList();
+        String contactKey = contactKey(userDevice, contact);
+        byte[] active = log.get(contactKey + ACTIVE_DEVICES);
+        if (active != null) {
+            cachedDeviceList.getActiveDevices().addAll(bytesToIntegers(active));
+        }
+        byte[] inactive = log.get(contactKey + INACTIVE_DEVICES);
+        if (inactive != null) {
+            cachedDeviceList.getInactiveDevices().addAll(bytesToIntegers(inactive));
+        }
+        return cachedDeviceList;
+    }
+
+    @Override
+    public void storeCachedDeviceList(OmemoDevice userDevice,
+                                      BareJid contact,
+                                      OmemoCachedDeviceList contactsDeviceList) throws IOException {
+        if (contact == null) {
+            return;
+        }
+
+        String contactKey = contactKey(userDevice, contact);
+        log.put(contactKey + ACTIVE_DEVICES, integersToBytes(contactsDeviceList.getActiveDevices()));
+        log.put(contactKey + INACTIVE_DEVICES, integersToBytes(contactsDeviceList.getInactiveDevices()));
+    }
+
+    @Override
+    public void purgeOwnDeviceKeys(OmemoDevice userDevice) {
+        try {
+            log.removeWithPrefix(deviceKey(userDevice));
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not purge the keys of " + userDevice, e);
+        }
+    }
+
+    private void remove(String key) {
+        try {
+            log.remove(key);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not remove " + key + " from the OMEMO store.", e);
+        }
+    }
+
+    private void removeAndCommit(String key) {
+        try {
+            log.removeAndCommit(key);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not remove " + key + " from the OMEMO store.", e);
+        }
+    }
+
+    private void putDate(String key, Date date) throws IOException {
+        long time = date.getTime();
+        byte[] bytes = new byte[8];
+        for (int i = 0; i < 8; i++) {
+            bytes[i] = (byte) (time >>> (56 - 8 * i));
+        }
+        log.put(key, bytes);
+    }
+
+    private Date getDate(String key) {
+        byte[] bytes = log.get(key);
+        if (bytes == null) {
+            return null;
+        }
+        long time = 0;
+        for (int i = 0; i < 8; i++) {
+            time = (time << 8) | (bytes[i] & 0xff);
+        }
+        return new Date(time);
+    }
+
+    private static byte[] intToBytes(int i) {
+        return new byte[] {(byte) (i >>> 24), (byte) (i >>> 16), (byte) (i >>> 8), (byte) i};
+    }
+
+    private static int bytesToInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xff) << 24 | (bytes[offset + 1] & 0xff) << 16 | (bytes[offset + 2] & 0xff) << 8
+                | (bytes[offset + 3] & 0xff);
+    }
+
+    private static byte[] integersToBytes(Set<Integer> integers) {
+        byte[] bytes = new byte[4 * integers.size()];
+        int offset = 0;
+        for (int i : integers) {
+            System.arraycopy(intToBytes(i), 0, bytes, offset, 4);
+            offset += 4;
+        }
+        return bytes;
+    }
+
+    private static Set<Integer> bytesToIntegers(byte[] bytes) {
+        Set<Integer> integers = new TreeSet<>();
+        for (int offset = 0; offset + 4 <= bytes.length; offset += 4) {
+            integers.add(bytesToInt(bytes, offset));
+        }
+        return integers;
+    }
+
+    private static String userKey(BareJid user) {
+        return bareJidEncoder.encode(user) + '/';
+    }
+
+    private static String deviceKey(OmemoDevice userDevice) {
+        return userKey(userDevice.getJid()) + userDevice.getDeviceId() + '/';
+    }
+
+    private static String contactKey(OmemoDevice userDevice, BareJid contact) {
+        return deviceKey(userDevice) + CONTACTS + bareJidEncoder.encode(contact) + '/';
+    }
+
+    private static String contactsDeviceKey(OmemoDevice userDevice, OmemoDevice contactsDevice) {
+        return contactKey(userDevice, contactsDevice.getJid()) + contactsDevice.getDeviceId() + '/';
+    }
+}
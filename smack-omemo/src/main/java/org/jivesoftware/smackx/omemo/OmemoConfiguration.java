@@ -239,4 +239,29 @@ public final class OmemoConfiguration {
     public static void setCompleteSessionWithEmptyMessage(boolean complete) {
         COMPLETE_SESSION_WITH_EMPTY_MESSAGE = complete;
     }
+
+    private static int MAX_CONCURRENT_BUNDLE_FETCHES = 1;
+
+    /**
+     * Set the maximum number of bundles which are fetched concurrently when sessions with multiple devices have to be
+     * built before a message can be encrypted. While bundles are fetched, the sessions with the devices whose bundles
+     * already arrived are built. A value of 1 fetches one bundle after another.
+     *
+     * @param maxConcurrentBundleFetches the maximum number of concurrent bundle fetches, must be positive.
+     */
+    public static void setMaxConcurrentBundleFetches(int maxConcurrentBundleFetches) {
+        if (maxConcurrentBundleFetches <= 0) {
+            throw new IllegalArgumentException("maxConcurrentBundleFetches MUST be greater than 0.");
+        }
+        MAX_CONCURRENT_BUNDLE_FETCHES = maxConcurrentBundleFetches;
+    }
+
+    /**
+     * Get the maximum number of bundles which are fetched concurrently.
+     *
+     * @return the maximum number of concurrent bundle fetches.
+     */
+    public static int getMaxConcurrentBundleFetches() {
+        return MAX_CONCURRENT_BUNDLE_FETCHES;
+    }
 }
@@ -32,6 +32,16 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -773,6 +783,29 @@ public abstract class OmemoService<T_IdKeyPair, T_IdKey, T_PreKey, T_SigPreKey,
             return;
         }
 
+        T_Bundle randomPreKeyBundle = fetchRandomPreKeyBundle(connection, contactsDevice);
+
+        // build the session
+        OmemoManager omemoManager = OmemoManager.getInstanceFor(connection, userDevice.getDeviceId());
+        processBundle(omemoManager, randomPreKeyBundle, contactsDevice);
+    }
+
+    /**
+     * Fetch the bundle of a device and select one of its preKeyBundles at random.
+     * This does not access the OmemoStore, hence it may be called concurrently.
+     *
+     * @param connection authenticated XMPP connection.
+     * @param contactsDevice OmemoDevice of a contact.
+     * @return a random preKeyBundle of the device.
+     * @throws CannotEstablishOmemoSessionException if the bundle cannot be fetched.
+     * @throws SmackException.NotConnectedException if the XMPP connection is not connected.
+     * @throws InterruptedException if the calling thread was interrupted.
+     * @throws SmackException.NoResponseException if there was no response from the remote entity.
+     * @throws CorruptedOmemoKeyException if the bundle contains no valid preKeys.
+     */
+    private T_Bundle fetchRandomPreKeyBundle(XMPPConnection connection, OmemoDevice contactsDevice)
+            throws CannotEstablishOmemoSessionException, SmackException.NotConnectedException, InterruptedException,
+            SmackException.NoResponseException, CorruptedOmemoKeyException {
         OmemoBundleElement bundleElement;
         try {
             bundleElement = fetchBundle(connection, contactsDevice);
@@ -784,16 +817,14 @@ public abstract class OmemoService<T_IdKeyPair, T_IdKey, T_PreKey, T_SigPreKey,
         // Select random Bundle
         HashMap<Integer, T_Bundle> bundlesList = getOmemoStoreBackend().keyUtil().BUNDLE.bundles(bundleElement, contactsDevice);
         int randomIndex = new Random().nextInt(bundlesList.size());
-        T_Bundle randomPreKeyBundle = new ArrayList<>(bundlesList.values()).get(randomIndex);
-
-        // build the session
-        OmemoManager omemoManager = OmemoManager.getInstanceFor(connection, userDevice.getDeviceId());
-        processBundle(omemoManager, randomPreKeyBundle, contactsDevice);
+        return new ArrayList<>(bundlesList.values()).get(randomIndex);
     }
 
     /**
      * Build sessions with all devices from the set, we don't have a session with yet.
      * Return the set of all devices we have a session with afterwards.
+     * The bundles of up to {@link OmemoConfiguration#getMaxConcurrentBundleFetches()} devices are fetched concurrently,
+     * a limit which applies to all concurrent invocations together.
      * @param connection authenticated XMPP connection
      * @param userDevice our OmemoDevice
      * @param devices set of devices we may want to build a session with if necessary
@@ -810,27 +841,189 @@ public abstract class OmemoService<T_IdKeyPair, T_IdKey, T_PreKey, T_SigPreKey,
             throws SmackException.NotConnectedException, InterruptedException, SmackException.NoResponseException, IOException {
 
         Set<OmemoDevice> devicesWithSession = new HashSet<>();
+        List<OmemoDevice> devicesWithoutSession = new ArrayList<>();
         for (OmemoDevice device : devices) {
-
-            if (hasSession(userDevice, device)) {
+            if (device.equals(userDevice) || hasSession(userDevice, device)) {
                 devicesWithSession.add(device);
+            } else {
+                devicesWithoutSession.add(device);
+            }
+        }
+
+        int maxConcurrentBundleFetches = Math.min(OmemoConfiguration.getMaxConcurrentBundleFetches(),
+                devicesWithoutSession.size());
+        if (maxConcurrentBundleFetches <= 1) {
+            for (OmemoDevice device : devicesWithoutSession) {
+                try {
+                    buildFreshSessionWithDevice(connection, userDevice, device);
+                    devicesWithSession.add(device);
+                } catch (CannotEstablishOmemoSessionException e) {
+                    logCannotEstablishSession(userDevice, device, e);
+                } catch (CorruptedOmemoKeyException e) {
+                    logCorruptedBundle(userDevice, device, e);
+                }
+            }
+            return devicesWithSession;
+        }
+
+        buildMissingSessionsConcurrently(getBundleFetchExecutor(), connection, userDevice, devicesWithoutSession,
+                devicesWithSession);
+        return devicesWithSession;
+    }
+
+    /**
+     * Fetch the bundles of the given devices on the executor, while the sessions with the devices whose bundles already
+     * arrived are built on the calling thread. Building the sessions stays on the calling thread, as it modifies the
+     * OmemoStore, which is not required to be thread-safe.
+     */
+    private void buildMissingSessionsConcurrently(ExecutorService executor,
+                                                  final XMPPConnection connection,
+                                                  OmemoDevice userDevice,
+                                                  List<OmemoDevice> devicesWithoutSession,
+                                                  Set<OmemoDevice> devicesWithSession)
+            throws SmackException.NotConnectedException, InterruptedException, SmackException.NoResponseException {
+
+        CompletionService<PreKeyBundleFetch<T_Bundle>> completionService = new ExecutorCompletionService<>(executor);
+        List<Future<PreKeyBundleFetch<T_Bundle>>> futures = new ArrayList<>(devicesWithoutSession.size());
+        try {
+            submitBundleFetches(completionService, futures, connection, devicesWithoutSession);
+            buildSessionsWithFetchedBundles(completionService, connection, userDevice, devicesWithoutSession.size(),
+                    devicesWithSession);
+        } finally {
+            // The executor is shared, hence only the fetches of this invocation which are still pending are cancelled.
+            for (Future<PreKeyBundleFetch<T_Bundle>> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private void submitBundleFetches(CompletionService<PreKeyBundleFetch<T_Bundle>> completionService,
+                                     List<Future<PreKeyBundleFetch<T_Bundle>>> futures,
+                                     final XMPPConnection connection,
+                                     List<OmemoDevice> devicesWithoutSession) {
+        for (final OmemoDevice device : devicesWithoutSession) {
+            futures.add(completionService.submit(new Callable<PreKeyBundleFetch<T_Bundle>>() {
+                @Override
+                public PreKeyBundleFetch<T_Bundle> call() throws Exception {
+                    try {
+                        return new PreKeyBundleFetch<>(device, fetchRandomPreKeyBundle(connection, device), null);
+                    } catch (CannotEstablishOmemoSessionException | CorruptedOmemoKeyException e) {
+                        return new PreKeyBundleFetch<>(device, null, e);
+                    }
+                }
+            }));
+        }
+    }
+
+    private void buildSessionsWithFetchedBundles(CompletionService<PreKeyBundleFetch<T_Bundle>> completionService,
+                                                 XMPPConnection connection,
+                                                 OmemoDevice userDevice,
+                                                 int fetchCount,
+                                                 Set<OmemoDevice> devicesWithSession)
+            throws SmackException.NotConnectedException, InterruptedException, SmackException.NoResponseException {
+        OmemoManager omemoManager = OmemoManager.getInstanceFor(connection, userDevice.getDeviceId());
+        for (int i = 0; i < fetchCount; i++) {
+            PreKeyBundleFetch<T_Bundle> fetch;
+            try {
+                fetch = completionService.take().get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof SmackException.NotConnectedException) {
+                    throw (SmackException.NotConnectedException) cause;
+                }
+                if (cause instanceof SmackException.NoResponseException) {
+                    throw (SmackException.NoResponseException) cause;
+                }
+                if (cause instanceof InterruptedException) {
+                    throw (InterruptedException) cause;
+                }
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new AssertionError(cause);
+            }
+
+            if (fetch.exception instanceof CannotEstablishOmemoSessionException) {
+                logCannotEstablishSession(userDevice, fetch.device, fetch.exception);
+                continue;
+            }
+            if (fetch.exception != null) {
+                logCorruptedBundle(userDevice, fetch.device, fetch.exception);
                 continue;
             }
 
             try {
-                buildFreshSessionWithDevice(connection, userDevice, device);
-                devicesWithSession.add(device);
-            } catch (CannotEstablishOmemoSessionException e) {
-                LOGGER.log(Level.WARNING, userDevice + " cannot establish session with " + device +
-                        " because their bundle could not be fetched.", e);
+                processBundle(omemoManager, fetch.preKeyBundle, fetch.device);
+                devicesWithSession.add(fetch.device);
             } catch (CorruptedOmemoKeyException e) {
-                LOGGER.log(Level.WARNING, userDevice + " could not establish session with " + device +
-                        "because their bundle seems to be corrupt.", e);
+                logCorruptedBundle(userDevice, fetch.device, e);
             }
+        }
+    }
+
+    private static void logCannotEstablishSession(OmemoDevice userDevice, OmemoDevice device, Exception e) {
+        LOGGER.log(Level.WARNING, userDevice + " cannot establish session with " + device +
+                " because their bundle could not be fetched.", e);
+    }
+
+    private static void logCorruptedBundle(OmemoDevice userDevice, OmemoDevice device, Exception e) {
+        LOGGER.log(Level.WARNING, userDevice + " could not establish session with " + device +
+                "because their bundle seems to be corrupt.", e);
+    }
 
+    /**
+     * The result of fetching the bundle of a device, either a random preKeyBundle or the exception which occurred.
+     */
+    private static final class PreKeyBundleFetch<T_Bundle> {
+        private final OmemoDevice device;
+        private final T_Bundle preKeyBundle;
+        private final Exception exception;
+
+        private PreKeyBundleFetch(OmemoDevice device, T_Bundle preKeyBundle, Exception exception) {
+            this.device = device;
+            this.preKeyBundle = preKeyBundle;
+            this.exception = exception;
         }
+    }
 
-        return devicesWithSession;
+    private static final ThreadFactory BUNDLE_FETCH_THREAD_FACTORY = new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable);
+            thread.setName("Smack OMEMO Bundle Fetcher");
+            thread.setDaemon(true);
+            return thread;
+        }
+    };
+
+    /**
+     * The executor fetching bundles, shared by all invocations of buildMissingSessionsWithDevices(). Its threads time
+     * out when idle, and its size follows {@link OmemoConfiguration#getMaxConcurrentBundleFetches()}.
+     */
+    private static final ThreadPoolExecutor BUNDLE_FETCH_EXECUTOR = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), BUNDLE_FETCH_THREAD_FACTORY);
+
+    static {
+        BUNDLE_FETCH_EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Get the executor fetching bundles, whose number of threads is adjusted to the configured maximum number of
+     * concurrent bundle fetches.
+     *
+     * @return the bundle fetch executor.
+     */
+    static synchronized ExecutorService getBundleFetchExecutor() {
+        int maxConcurrentBundleFetches = OmemoConfiguration.getMaxConcurrentBundleFetches();
+        // The core pool size must never exceed the maximum pool size, hence the order depends on the direction.
+        if (maxConcurrentBundleFetches > BUNDLE_FETCH_EXECUTOR.getMaximumPoolSize()) {
+            BUNDLE_FETCH_EXECUTOR.setMaximumPoolSize(maxConcurrentBundleFetches);
+            BUNDLE_FETCH_EXECUTOR.setCorePoolSize(maxConcurrentBundleFetches);
+        } else if (maxConcurrentBundleFetches < BUNDLE_FETCH_EXECUTOR.getMaximumPoolSize()) {
+            BUNDLE_FETCH_EXECUTOR.setCorePoolSize(maxConcurrentBundleFetches);
+            BUNDLE_FETCH_EXECUTOR.setMaximumPoolSize(maxConcurrentBundleFetches);
+        }
+        return BUNDLE_FETCH_EXECUTOR;
     }
 
     /**
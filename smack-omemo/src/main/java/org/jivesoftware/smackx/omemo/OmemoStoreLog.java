@@ -0,0 +1,505 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.omemo;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import org.jivesoftware.smack.util.FileUtils;
+
+/**
+ * A persistent, sorted map from string keys to byte arrays, backed by an append-only log and a compacted snapshot.
+ * <p>
+ * All entries are held in memory. Every modification is encoded as a log record and appended to the log. Records are
+ * not written one by one: all records created within the commit window are written at once and made durable with a
+ * single fsync (group commit). Each record carries a checksum, and a torn record at the end of the log, caused by a
+ * crash while it was written, is discarded when the log is opened. Hence after a crash the map reflects a prefix of the
+ * modifications, of which at most those of the last commit window are lost. Modifications which must not be lost are
+ * made with {@link #putAndCommit(String, byte[])} and {@link #removeAndCommit(String)}, which commit them immediately.
+ * </p>
+ * <p>
+ * Once the log grows larger than the snapshot, the entries are written to a new snapshot, which atomically replaces
+ * the old one, and the log is truncated. A snapshot which is corrupted prevents opening the log.
+ * </p>
+ */
+final class OmemoStoreLog implements Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(OmemoStoreLog.class.getName());
+
+    private static final String SNAPSHOT_FILE = "snapshot";
+    private static final String SNAPSHOT_TMP_FILE = "snapshot.tmp";
+    private static final String LOG_FILE = "log";
+
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+
+    /**
+     * The log is not compacted before it reached this size, so that small stores are not rewritten over and over.
+     */
+    private static final long MIN_COMPACTION_LOG_SIZE = 64 * 1024;
+
+    /**
+     * The upper bound of a record's size, used to detect corrupted length fields.
+     */
+    private static final int MAX_RECORD_SIZE = 64 * 1024 * 1024;
+
+    private static final ScheduledExecutorService COMMIT_SCHEDULER = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable);
+                            thread.setName("Smack OMEMO Store Log Commit");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+
+    private final File directory;
+
+    private final long commitWindowMillis;
+
+    /**
+     * Guarded by this.
+     */
+    private final TreeMap<String, byte[]> entries = new TreeMap<>();
+
+    /**
+     * The records which have not yet been committed. Guarded by this.
+     */
+    private final ByteArrayOutputStream pendingRecords = new ByteArrayOutputStream();
+
+    /**
+     * Serializes the commits, which write and sync the log outside of the lock guarding the entries.
+     */
+    private final Object commitLock = new Object();
+
+    /**
+     * Guarded by {@link #commitLock}.
+     */
+    private final FileOutputStream log;
+
+    /**
+     * Guarded by {@link #commitLock}.
+     */
+    private long logSize;
+
+    /**
+     * Guarded by {@link #commitLock}.
+     */
+    private long snapshotSize;
+
+    /**
+     * Guarded by this.
+     */
+    private boolean commitScheduled;
+
+    /**
+     * The exception of a failed asynchronous commit, reported by the next modification. Guarded by this.
+     */
+    private IOException commitException;
+
+    /**
+     * Guarded by this.
+     */
+    private boolean closed;
+
+    private final Runnable scheduledCommit = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                commit();
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Could not commit the OMEMO store log in " + directory, e);
+                synchronized (OmemoStoreLog.this) {
+                    commitException = e;
+                }
+            }
+        }
+    };
+
+    /**
+     * Open the log in the given directory, creating it if necessary.
+     *
+     * @param directory the directory holding the snapshot and the log.
+     * @param commitWindowMillis the time in milliseconds modifications are collected before they are committed, or 0
+     *        to commit every modification immediately.
+     * @throws IOException if the directory can not be created, the files can not be read or the snapshot is corrupted.
+     */
+    OmemoStoreLog(File directory, long commitWindowMillis) throws IOException {
+        if (commitWindowMillis < 0) {
+            throw new IllegalArgumentException("The commit window must not be negative");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create the directory " + directory);
+        }
+        this.directory = directory;
+        this.commitWindowMillis = commitWindowMillis;
+
+        File snapshotFile = new File(directory, SNAPSHOT_FILE);
+        // Complete a replacement of the snapshot which was interrupted by a crash, and discard an incomplete snapshot.
+        FileUtils.recoverReplacedFile(snapshotFile);
+        FileUtils.maybeDeleteFileOrThrow(new File(directory, SNAPSHOT_TMP_FILE));
+        if (snapshotFile.isFile()) {
+            snapshotSize = replay(snapshotFile);
+            if (snapshotSize != snapshotFile.length()) {
+                // Snapshots are completely written before they replace the previous one, hence this is not a torn
+                // write but a corruption. Continuing with a part of the entries would make the loss permanent with
+                // the next compaction, hence leave the files untouched for recovery.
+                throw new IOException("The OMEMO store snapshot " + snapshotFile + " is corrupted after "
+                                + snapshotSize + " bytes");
+            }
+        }
+
+        File logFile = new File(directory, LOG_FILE);
+        long validLogSize = 0;
+        if (logFile.isFile()) {
+            validLogSize = replay(logFile);
+        }
+
+        log = new FileOutputStream(logFile, true);
+        if (validLogSize != logFile.length()) {
+            // Discard the torn record at the end, which was not completely written before a crash.
+            LOGGER.info("Discarding " + (logFile.length() - validLogSize) + " bytes at the end of the OMEMO store log "
+                            + logFile);
+            log.getChannel().truncate(validLogSize);
+        }
+        logSize = validLogSize;
+    }
+
+    synchronized byte[] get(String key) {
+        return entries.get(key);
+    }
+
+    /**
+     * Get all entries whose key starts with the given prefix.
+     *
+     * @param prefix the prefix.
+     * @return a copy of the entries with the prefix, sorted by their keys.
+     */
+    synchronized SortedMap<String, byte[]> getWithPrefix(String prefix) {
+        return new TreeMap<>(entries.subMap(prefix, prefix + Character.MAX_VALUE));
+    }
+
+    synchronized boolean containsKey(String key) {
+        return entries.containsKey(key);
+    }
+
+    void put(String key, byte[] value) throws IOException {
+        appendPut(key, value);
+        recordsAppended();
+    }
+
+    /**
+     * Put the entry and commit it, together with all earlier modifications, before returning, regardless of the commit
+     * window.
+     *
+     * @param key the key.
+     * @param value the value.
+     * @throws IOException if the log can not be written.
+     */
+    void putAndCommit(String key, byte[] value) throws IOException {
+        appendPut(key, value);
+        commit();
+    }
+
+    void remove(String key) throws IOException {
+        if (appendRemove(key)) {
+            recordsAppended();
+        }
+    }
+
+    /**
+     * Remove the entry and commit the removal, together with all earlier modifications, before returning, regardless
+     * of the commit window.
+     *
+     * @param key the key.
+     * @throws IOException if the log can not be written.
+     */
+    void removeAndCommit(String key) throws IOException {
+        if (appendRemove(key)) {
+            commit();
+        }
+    }
+
+    private synchronized void appendPut(String key, byte[] value) throws IOException {
+        ensureWritable();
+        entries.put(key, value);
+        writeRecord(pendingRecords, PUT, key, value);
+    }
+
+    private synchronized boolean appendRemove(String key) throws IOException {
+        ensureWritable();
+        if (entries.remove(key) == null) {
+            return false;
+        }
+        writeRecord(pendingRecords, REMOVE, key, null);
+        return true;
+    }
+
+    void removeWithPrefix(String prefix) throws IOException {
+        synchronized (this) {
+            ensureWritable();
+            List<String> keys = new ArrayList<>(entries.subMap(prefix, prefix + Character.MAX_VALUE).keySet());
+            if (keys.isEmpty()) {
+                return;
+            }
+            for (String key : keys) {
+                entries.remove(key);
+                writeRecord(pendingRecords, REMOVE, key, null);
+            }
+        }
+        recordsAppended();
+    }
+
+    /**
+     * Commit all modifications, i.e. make them durable, and wait until they are durable. If the commit fails, the log
+     * is truncated to its last committed size and the modifications stay pending, so that the next commit retries
+     * them.
+     *
+     * @throws IOException if the log can not be written.
+     */
+    void commit() throws IOException {
+        synchronized (commitLock) {
+            byte[] records;
+            synchronized (this) {
+                commitScheduled = false;
+                if (pendingRecords.size() == 0) {
+                    return;
+                }
+                records = pendingRecords.toByteArray();
+            }
+
+            try {
+                if (log.getChannel().size() != logSize) {
+                    // A previous commit failed and its partially written records could not be discarded back then.
+                    log.getChannel().truncate(logSize);
+                }
+                log.write(records);
+                log.getFD().sync();
+            } catch (IOException e) {
+                try {
+                    log.getChannel().truncate(logSize);
+                } catch (IOException truncateException) {
+                    LOGGER.log(Level.WARNING, "Could not truncate the OMEMO store log in " + directory
+                                    + " after a failed commit", truncateException);
+                }
+                throw e;
+            }
+            logSize += records.length;
+
+            synchronized (this) {
+                // Keep the records which were appended while the committed ones were written.
+                byte[] pending = pendingRecords.toByteArray();
+                pendingRecords.reset();
+                pendingRecords.write(pending, records.length, pending.length - records.length);
+            }
+
+            if (logSize >= MIN_COMPACTION_LOG_SIZE && logSize > snapshotSize) {
+                try {
+                    compact();
+                } catch (IOException e) {
+                    // The records are durable in the log, a failed compaction is retried with the next commit.
+                    LOGGER.log(Level.WARNING, "Could not compact the OMEMO store log in " + directory, e);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        synchronized (commitLock) {
+            try {
+                commit();
+            } finally {
+                log.close();
+            }
+        }
+    }
+
+    private void ensureWritable() throws IOException {
+        if (closed) {
+            throw new IOException("The OMEMO store log " + directory + " was closed");
+        }
+        if (commitException != null) {
+            IOException e = commitException;
+            commitException = null;
+            throw e;
+        }
+    }
+
+    /**
+     * Commit the appended records immediately, or schedule their commit at the end of the commit window. Must not be
+     * called with the lock of this held, as commits acquire the {@link #commitLock} first.
+     */
+    private void recordsAppended() throws IOException {
+        if (commitWindowMillis == 0) {
+            commit();
+            return;
+        }
+        synchronized (this) {
+            if (!commitScheduled) {
+                commitScheduled = true;
+                COMMIT_SCHEDULER.schedule(scheduledCommit, commitWindowMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Write the entries to a new snapshot which replaces the current one, then truncate the log. Must be called with
+     * the {@link #commitLock} held and all records committed, or at least contained in the copied entries.
+     */
+    private void compact() throws IOException {
+        TreeMap<String, byte[]> snapshot;
+        synchronized (this) {
+            snapshot = new TreeMap<>(entries);
+        }
+
+        File snapshotTmpFile = new File(directory, SNAPSHOT_TMP_FILE);
+        long size;
+        try (FileOutputStream fileOutputStream = new FileOutputStream(snapshotTmpFile)) {
+            BufferedOutputStream out = new BufferedOutputStream(fileOutputStream);
+            for (Map.Entry<String, byte[]> entry : snapshot.entrySet()) {
+                writeRecord(out, PUT, entry.getKey(), entry.getValue());
+            }
+            out.flush();
+            fileOutputStream.getFD().sync();
+            size = fileOutputStream.getChannel().size();
+        }
+
+        // Keeps the old snapshot until the new one is in place, on platforms where renaming does not replace files.
+        FileUtils.replaceFileOrThrow(snapshotTmpFile, new File(directory, SNAPSHOT_FILE));
+
+        // Replaying the log on top of the new snapshot would yield the same entries, hence the log can be truncated
+        // only after the snapshot was replaced.
+        log.getChannel().truncate(0);
+        logSize = 0;
+        snapshotSize = size;
+    }
+
+    /**
+     * Apply the records of the given file to the entries.
+     *
+     * @param file the snapshot or log file.
+     * @return the size of the valid records at the beginning of the file.
+     */
+    private long replay(File file) throws IOException {
+        long validSize = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (length <= 0 || length > MAX_RECORD_SIZE) {
+                    break;
+                }
+
+                byte[] record = new byte[length];
+                long checksum;
+                try {
+                    in.readFully(record);
+                    checksum = in.readLong();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (checksum != checksum(record)) {
+                    break;
+                }
+
+                applyRecord(record);
+                validSize += 4 + length + 8;
+            }
+        }
+        return validSize;
+    }
+
+    private void applyRecord(byte[] record) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        byte type = in.readByte();
+        String key = in.readUTF();
+        switch (type) {
+        case PUT:
+            byte[] value = new byte[in.available()];
+            in.readFully(value);
+            entries.put(key, value);
+            break;
+        case REMOVE:
+            entries.remove(key);
+            break;
+        default:
+            throw new IOException("Unknown OMEMO store log record type " + type);
+        }
+    }
+
+    /**
+     * Write a record, which consists of its length, the type, the key and the value, followed by a checksum.
+     */
+    private static void writeRecord(OutputStream outputStream, byte type, String key, byte[] value)
+                    throws IOException {
+        ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+        DataOutputStream record = new DataOutputStream(recordBytes);
+        record.writeByte(type);
+        record.writeUTF(key);
+        if (value != null) {
+            record.write(value);
+        }
+        byte[] bytes = recordBytes.toByteArray();
+
+        DataOutputStream out = new DataOutputStream(outputStream);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+        out.writeLong(checksum(bytes));
+        out.flush();
+    }
+
+    private static long checksum(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        return crc.getValue();
+    }
+}
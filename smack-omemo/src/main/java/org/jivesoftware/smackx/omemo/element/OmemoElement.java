@@ -79,7 +79,7 @@ public abstract class OmemoElement implements ExtensionElement {
         sb.append(header);
 
         if (payload != null) {
-            sb.openElement(ATTR_PAYLOAD).append(Base64.encodeToString(payload)).closeElement(ATTR_PAYLOAD);
+            sb.openElement(ATTR_PAYLOAD).append(Base64.encodeToCharSequence(payload)).closeElement(ATTR_PAYLOAD);
         }
 
         sb.closeElement(this);
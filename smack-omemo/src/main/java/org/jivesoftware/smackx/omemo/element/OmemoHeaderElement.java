@@ -84,7 +84,7 @@ public abstract class OmemoHeaderElement implements FullyQualifiedElement {
             sb.append(k);
         }
 
-        sb.openElement(ATTR_IV).append(Base64.encodeToString(getIv())).closeElement(ATTR_IV);
+        sb.openElement(ATTR_IV).append(Base64.encodeToCharSequence(iv)).closeElement(ATTR_IV);
 
         return sb.closeElement(this);
     }
@@ -85,7 +85,7 @@ public class OmemoKeyElement implements FullyQualifiedElement {
 
         sb.attribute(ATTR_RID, getId());
         sb.rightAngleBracket();
-        sb.append(Base64.encodeToString(getData()));
+        sb.append(Base64.encodeToCharSequence(getData()));
         sb.closeElement(this);
         return sb;
     }
@@ -71,13 +71,13 @@ public class OmemoVAxolotlProvider extends ExtensionElementProvider<OmemoElement
                                     rid = Integer.parseInt(parser.getAttributeValue(i));
                                 }
                             }
-                            keys.add(new OmemoKeyElement(Base64.decode(parser.nextText()), rid, prekey));
+                            keys.add(new OmemoKeyElement(Base64.decodeToByteArray(parser.nextText()), rid, prekey));
                             break;
                         case OmemoHeaderElement.ATTR_IV:
-                            iv = Base64.decode(parser.nextText());
+                            iv = Base64.decodeToByteArray(parser.nextText());
                             break;
                         case ATTR_PAYLOAD:
-                            payload = Base64.decode(parser.nextText());
+                            payload = Base64.decodeToByteArray(parser.nextText());
                             break;
                     }
                     break;
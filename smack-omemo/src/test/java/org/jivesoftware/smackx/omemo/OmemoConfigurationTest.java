@@ -85,5 +85,16 @@ public class OmemoConfigurationTest {
         assertFalse(OmemoConfiguration.getCompleteSessionWithEmptyMessage());
         OmemoConfiguration.setCompleteSessionWithEmptyMessage(true);
         assertTrue(OmemoConfiguration.getCompleteSessionWithEmptyMessage());
+
+        // Concurrent bundle fetches
+        OmemoConfiguration.setMaxConcurrentBundleFetches(8);
+        assertEquals(8, OmemoConfiguration.getMaxConcurrentBundleFetches());
+        try {
+            OmemoConfiguration.setMaxConcurrentBundleFetches(0);
+            TestCase.fail("OmemoConfiguration.setMaxConcurrentBundleFetches should not accept values <= 0");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+        OmemoConfiguration.setMaxConcurrentBundleFetches(1);
     }
 }
@@ -16,11 +16,20 @@
  */
 package org.jivesoftware.smackx.omemo;
 
+import static junit.framework.TestCase.assertEquals;
 import static junit.framework.TestCase.assertFalse;
 import static junit.framework.TestCase.assertTrue;
 
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.jivesoftware.smack.test.util.SmackTestSuite;
 
@@ -82,4 +91,49 @@ public class OmemoServiceTest extends SmackTestSuite {
         assertFalse(devices.contains(a));
         assertTrue(devices.contains(b));
     }
+
+    @Test
+    public void bundleFetchesRunConcurrentlyWithinLimitTest() throws Exception {
+        int maxConcurrentBundleFetches = OmemoConfiguration.getMaxConcurrentBundleFetches();
+        OmemoConfiguration.setMaxConcurrentBundleFetches(3);
+        try {
+            final AtomicInteger running = new AtomicInteger();
+            final AtomicInteger maxRunning = new AtomicInteger();
+            final CountDownLatch limitReached = new CountDownLatch(3);
+            final CountDownLatch release = new CountDownLatch(1);
+            Callable<Void> fetch = new Callable<Void>() {
+                @Override
+                public Void call() throws InterruptedException {
+                    int nowRunning = running.incrementAndGet();
+                    synchronized (maxRunning) {
+                        maxRunning.set(Math.max(maxRunning.get(), nowRunning));
+                    }
+                    limitReached.countDown();
+                    release.await();
+                    running.decrementAndGet();
+                    return null;
+                }
+            };
+
+            // Every invocation gets the same executor, hence the fetches of all invocations together are bounded.
+            ExecutorService executor = OmemoService.getBundleFetchExecutor();
+            assertTrue(executor == OmemoService.getBundleFetchExecutor());
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(OmemoService.getBundleFetchExecutor().submit(fetch));
+            }
+
+            assertTrue(limitReached.await(5, TimeUnit.SECONDS));
+            Thread.sleep(100);
+            assertEquals(3, running.get());
+
+            release.countDown();
+            for (Future<Void> future : futures) {
+                future.get(5, TimeUnit.SECONDS);
+            }
+            assertEquals(3, maxRunning.get());
+        } finally {
+            OmemoConfiguration.setMaxConcurrentBundleFetches(maxConcurrentBundleFetches);
+        }
+    }
 }
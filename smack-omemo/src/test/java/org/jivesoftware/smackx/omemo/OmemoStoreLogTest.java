@@ -0,0 +1,242 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.omemo;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class OmemoStoreLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void entriesAreReplayedAfterReopenTest() throws IOException {
+        File directory = folder.newFolder();
+        OmemoStoreLog log = new OmemoStoreLog(directory, 60 * 1000);
+        log.put("a/1", new byte[] {1});
+        log.put("a/2", new byte[] {2});
+        log.put("b/1", new byte[] {3});
+        log.remove("a/1");
+        log.close();
+
+        log = new OmemoStoreLog(directory, 0);
+        assertNull(log.get("a/1"));
+        assertArrayEquals(new byte[] {2}, log.get("a/2"));
+        assertEquals(1, log.getWithPrefix("a/").size());
+
+        log.removeWithPrefix("a/");
+        log.close();
+
+        log = new OmemoStoreLog(directory, 0);
+        assertFalse(log.containsKey("a/2"));
+        assertTrue(log.containsKey("b/1"));
+        log.close();
+    }
+
+    @Test
+    public void tornRecordIsDiscardedTest() throws IOException {
+        File directory = folder.newFolder();
+        OmemoStoreLog log = new OmemoStoreLog(directory, 0);
+        log.put("key", new byte[] {1, 2, 3});
+        log.close();
+
+        // Simulate a crash while a record was written.
+        File logFile = new File(directory, "log");
+        long validLength = logFile.length();
+        try (FileOutputStream out = new FileOutputStream(logFile, true)) {
+            out.write(new byte[] {0, 0, 0, 42, 1, 0});
+        }
+
+        log = new OmemoStoreLog(directory, 0);
+        assertArrayEquals(new byte[] {1, 2, 3}, log.get("key"));
+        assertEquals(validLength, logFile.length());
+
+        log.put("other", new byte[] {4});
+        log.close();
+
+        log = new OmemoStoreLog(directory, 0);
+        assertArrayEquals(new byte[] {4}, log.get("other"));
+        log.close();
+    }
+
+    @Test
+    public void corruptedRecordIsDiscardedTest() throws IOException {
+        File directory = folder.newFolder();
+        OmemoStoreLog log = new OmemoStoreLog(directory, 0);
+        log.put("first", new byte[] {1});
+        log.put("second", new byte[] {2});
+        log.close();
+
+        // Flip a bit in the checksum of the last record.
+        File logFile = new File(directory, "log");
+        try (RandomAccessFile file = new RandomAccessFile(logFile, "rw")) {
+            file.seek(file.length() - 1);
+            int lastByte = file.read();
+            file.seek(file.length() - 1);
+            file.write(lastByte ^ 1);
+        }
+
+        log = new OmemoStoreLog(directory, 0);
+        assertArrayEquals(new byte[] {1}, log.get("first"));
+        assertNull(log.get("second"));
+        log.close();
+    }
+
+    @Test
+    public void logIsCompactedTest() throws IOException {
+        File directory = folder.newFolder();
+        OmemoStoreLog log = new OmemoStoreLog(directory, 0);
+        byte[] value = new byte[1024];
+        // Overwrite the same entries until the log exceeds the minimum compaction size.
+        for (int i = 0; i < 200; i++) {
+            value[0] = (byte) i;
+            log.put("session/" + (i % 10), value.clone());
+        }
+        log.close();
+
+        File logFile = new File(directory, "log");
+        File snapshotFile = new File(directory, "snapshot");
+        assertTrue(snapshotFile.isFile());
+        assertTrue(logFile.length() < 64 * 1024);
+        assertTrue(snapshotFile.length() < 20 * 1024);
+
+        log = new OmemoStoreLog(directory, 0);
+        assertEquals(10, log.getWithPrefix("session/").size());
+        assertEquals((byte) 199, log.get("session/9")[0]);
+        log.close();
+    }
+
+    @Test
+    public void corruptedSnapshotIsNotReplayedTest() throws IOException {
+        File directory = folder.newFolder();
+        OmemoStoreLog log = new OmemoStoreLog(directory, 0);
+        byte[] value = new byte[1024];
+        for (int i = 0; i < 100; i++) {
+            log.put("session/" + i, value);
+        }
+        log.close();
+
+        // Flip a bit in the middle of the snapshot.
+        File snapshotFile = new File(directory, "snapshot");
+        long snapshotLength = snapshotFile.length();
+        try (RandomAccessFile file = new RandomAccessFile(snapshotFile, "rw")) {
+            file.seek(snapshotLength / 2);
+            int b = file.read();
+            file.seek(snapshotLength / 2);
+            file.write(b ^ 1);
+        }
+
+        try {
+            new OmemoStoreLog(directory, 0);
+            fail("The corrupted snapshot must not be replayed");
+        } catch (IOException e) {
+            // Expected.
+        }
+        // The snapshot is left untouched.
+        assertEquals(snapshotLength, snapshotFile.length());
+    }
+
+    @Test
+    public void failedCompactionDoesNotFailCommitTest() throws IOException {
+        File directory = folder.newFolder();
+        OmemoStoreLog log = new OmemoStoreLog(directory, 60 * 1000);
+        // Writing the new snapshot fails, as its temporary file can not be created.
+        File snapshotTmpFile = new File(directory, "snapshot.tmp");
+        assertTrue(snapshotTmpFile.mkdir());
+
+        byte[] value = new byte[1024];
+        for (int i = 0; i < 100; i++) {
+            log.putAndCommit("session/" + i, value);
+        }
+        assertTrue(new File(directory, "log").length() >= 64 * 1024);
+        log.close();
+
+        assertTrue(snapshotTmpFile.delete());
+        log = new OmemoStoreLog(directory, 0);
+        assertEquals(100, log.getWithPrefix("session/").size());
+        log.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void closedLogIsNotWritableTest() throws IOException {
+        OmemoStoreLog log = new OmemoStoreLog(folder.newFolder(), 0);
+        log.close();
+        log.put("key", new byte[] {1});
+    }
+
+    @Test
+    public void putAndCommitIsDurableImmediatelyTest() throws IOException {
+        File directory = folder.newFolder();
+        OmemoStoreLog log = new OmemoStoreLog(directory, 60 * 1000);
+        log.put("counter", new byte[] {1});
+        log.putAndCommit("session", new byte[] {2});
+
+        // Reading the directory while the log is still open shows what would survive a crash.
+        OmemoStoreLog crashed = new OmemoStoreLog(directory, 0);
+        assertArrayEquals(new byte[] {1}, crashed.get("counter"));
+        assertArrayEquals(new byte[] {2}, crashed.get("session"));
+        crashed.close();
+
+        log.put("other", new byte[] {3});
+        log.removeAndCommit("session");
+        crashed = new OmemoStoreLog(directory, 0);
+        assertNull(crashed.get("session"));
+        assertArrayEquals(new byte[] {3}, crashed.get("other"));
+        crashed.close();
+        log.close();
+    }
+
+    @Test
+    public void interruptedSnapshotReplacementIsRecoveredTest() throws IOException {
+        File directory = folder.newFolder();
+        OmemoStoreLog log = new OmemoStoreLog(directory, 0);
+        byte[] value = new byte[1024];
+        for (int i = 0; i < 100; i++) {
+            log.put("session/" + i, value);
+        }
+        log.close();
+        File snapshotFile = new File(directory, "snapshot");
+        assertTrue(snapshotFile.isFile());
+
+        // Simulate a crash after the old snapshot was moved aside, while a new snapshot was written.
+        assertTrue(snapshotFile.renameTo(new File(directory, "snapshot.old")));
+        try (FileOutputStream out = new FileOutputStream(new File(directory, "snapshot.tmp"))) {
+            out.write(new byte[] {0, 0, 0, 42, 1});
+        }
+
+        log = new OmemoStoreLog(directory, 0);
+        assertEquals(100, log.getWithPrefix("session/").size());
+        assertTrue(snapshotFile.isFile());
+        assertFalse(new File(directory, "snapshot.old").exists());
+        assertFalse(new File(directory, "snapshot.tmp").exists());
+        log.close();
+    }
+}
@@ -36,6 +36,7 @@ import org.jivesoftware.smackx.ox.element.PubkeyElement;
 import org.jivesoftware.smackx.ox.element.PublicKeysListElement;
 import org.jivesoftware.smackx.ox.exception.MissingUserIdOnKeyException;
 import org.jivesoftware.smackx.ox.selection_strategy.BareJidUserId;
+import org.jivesoftware.smackx.ox.store.abstr.AbstractOpenPgpStore;
 import org.jivesoftware.smackx.ox.store.definition.OpenPgpStore;
 import org.jivesoftware.smackx.ox.store.definition.OpenPgpTrustStore;
 import org.jivesoftware.smackx.ox.util.OpenPgpPubSubUtil;
@@ -62,6 +63,12 @@ public class OpenPgpContact {
     protected final OpenPgpStore store;
     protected final Map<OpenPgpV4Fingerprint, Throwable> unfetchableKeys = new HashMap<>();
 
+    /**
+     * The cached result of {@link #getTrustedAnnouncedKeys()}, together with the version of the store it was derived
+     * from.
+     */
+    private volatile TrustedAnnouncedKeys trustedAnnouncedKeys;
+
     /**
      * Create a new OpenPgpContact.
      *
@@ -185,8 +192,22 @@ public class OpenPgpContact {
      */
     public PGPPublicKeyRingCollection getTrustedAnnouncedKeys()
             throws IOException, PGPException {
+        // Only stores which keep track of their modifications allow to cache the result.
+        if (!(store instanceof AbstractOpenPgpStore)) {
+            PGPPublicKeyRingCollection announced = getAnnouncedPublicKeys();
+            return getPublicKeysOfTrustState(announced, OpenPgpTrustStore.Trust.trusted);
+        }
+
+        // Get the version first, so that a concurrent modification causes the result to be computed again next time.
+        long version = ((AbstractOpenPgpStore) store).getVersion(jid);
+        TrustedAnnouncedKeys cached = trustedAnnouncedKeys;
+        if (cached != null && cached.version == version) {
+            return cached.keys;
+        }
+
         PGPPublicKeyRingCollection announced = getAnnouncedPublicKeys();
         PGPPublicKeyRingCollection trusted = getPublicKeysOfTrustState(announced, OpenPgpTrustStore.Trust.trusted);
+        trustedAnnouncedKeys = new TrustedAnnouncedKeys(version, trusted);
         return trusted;
     }
 
@@ -415,4 +436,14 @@ public class OpenPgpContact {
         }
         store.setPublicKeyFetchDates(getJid(), fetchDates);
     }
+
+    private static final class TrustedAnnouncedKeys {
+        private final long version;
+        private final PGPPublicKeyRingCollection keys;
+
+        private TrustedAnnouncedKeys(long version, PGPPublicKeyRingCollection keys) {
+            this.version = version;
+            this.keys = keys;
+        }
+    }
 }
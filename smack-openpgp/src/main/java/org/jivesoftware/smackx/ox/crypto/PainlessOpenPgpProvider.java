@@ -26,12 +26,13 @@ import java.util.logging.Logger;
 
 import org.jivesoftware.smack.XMPPConnection;
 import org.jivesoftware.smack.util.Objects;
-import org.jivesoftware.smack.util.stringencoder.Base64;
+import org.jivesoftware.smack.util.stringencoder.Base64OutputStream;
 
 import org.jivesoftware.smackx.ox.OpenPgpContact;
 import org.jivesoftware.smackx.ox.OpenPgpMessage;
 import org.jivesoftware.smackx.ox.OpenPgpSelf;
 import org.jivesoftware.smackx.ox.element.CryptElement;
+import org.jivesoftware.smackx.ox.element.OpenPgpContentElement;
 import org.jivesoftware.smackx.ox.element.OpenPgpElement;
 import org.jivesoftware.smackx.ox.element.SignElement;
 import org.jivesoftware.smackx.ox.element.SigncryptElement;
@@ -67,8 +68,8 @@ public class PainlessOpenPgpProvider implements OpenPgpProvider {
     @Override
     public OpenPgpElementAndMetadata signAndEncrypt(SigncryptElement element, OpenPgpSelf self, Collection<OpenPgpContact> recipients)
             throws IOException, PGPException {
-        InputStream plainText = element.toInputStream();
-        ByteArrayOutputStream cipherText = new ByteArrayOutputStream();
+        StringBuilder base64 = new StringBuilder();
+        Base64OutputStream cipherText = new Base64OutputStream(base64);
 
         ArrayList<PGPPublicKeyRingCollection> recipientKeys = new ArrayList<>();
         for (OpenPgpContact contact : recipients) {
@@ -87,46 +88,28 @@ public class PainlessOpenPgpProvider implements OpenPgpProvider {
                 .signWith(getStore().getKeyRingProtector(), self.getSigningKeyRing())
                 .noArmor();
 
-        Streams.pipeAll(plainText, cipherStream);
-        plainText.close();
-        cipherStream.flush();
-        cipherStream.close();
-        cipherText.close();
-
-        String base64 = Base64.encodeToString(cipherText.toByteArray());
-        OpenPgpElement openPgpElement = new OpenPgpElement(base64);
-
-        return new OpenPgpElementAndMetadata(openPgpElement, cipherStream.getResult());
+        return encode(element, cipherStream, cipherText, base64);
     }
 
     @Override
     public OpenPgpElementAndMetadata sign(SignElement element, OpenPgpSelf self)
             throws IOException, PGPException {
-        InputStream plainText = element.toInputStream();
-        ByteArrayOutputStream cipherText = new ByteArrayOutputStream();
+        StringBuilder base64 = new StringBuilder();
+        Base64OutputStream cipherText = new Base64OutputStream(base64);
 
         EncryptionStream cipherStream = PGPainless.createEncryptor().onOutputStream(cipherText)
                 .doNotEncrypt()
                 .signWith(getStore().getKeyRingProtector(), self.getSigningKeyRing())
                 .noArmor();
 
-        Streams.pipeAll(plainText, cipherStream);
-        plainText.close();
-        cipherStream.flush();
-        cipherStream.close();
-        cipherText.close();
-
-        String base64 = Base64.encodeToString(cipherText.toByteArray());
-        OpenPgpElement openPgpElement = new OpenPgpElement(base64);
-
-        return new OpenPgpElementAndMetadata(openPgpElement, cipherStream.getResult());
+        return encode(element, cipherStream, cipherText, base64);
     }
 
     @Override
     public OpenPgpElementAndMetadata encrypt(CryptElement element, OpenPgpSelf self, Collection<OpenPgpContact> recipients)
             throws IOException, PGPException {
-        InputStream plainText = element.toInputStream();
-        ByteArrayOutputStream cipherText = new ByteArrayOutputStream();
+        StringBuilder base64 = new StringBuilder();
+        Base64OutputStream cipherText = new Base64OutputStream(base64);
 
         ArrayList<PGPPublicKeyRingCollection> recipientKeys = new ArrayList<>();
         for (OpenPgpContact contact : recipients) {
@@ -145,22 +128,13 @@ public class PainlessOpenPgpProvider implements OpenPgpProvider {
                 .doNotSign()
                 .noArmor();
 
-        Streams.pipeAll(plainText, cipherStream);
-        plainText.close();
-        cipherStream.flush();
-        cipherStream.close();
-        cipherText.close();
-
-        String base64 = Base64.encodeToString(cipherText.toByteArray());
-        OpenPgpElement openPgpElement = new OpenPgpElement(base64);
-
-        return new OpenPgpElementAndMetadata(openPgpElement, cipherStream.getResult());
+        return encode(element, cipherStream, cipherText, base64);
     }
 
     @Override
     public OpenPgpMessage decryptAndOrVerify(OpenPgpElement element, final OpenPgpSelf self, final OpenPgpContact sender) throws IOException, PGPException {
         ByteArrayOutputStream plainText = new ByteArrayOutputStream();
-        InputStream cipherText = element.toInputStream();
+        InputStream cipherText = element.toDecodedInputStream();
 
         PGPPublicKeyRingCollection announcedPublicKeys = sender.getAnnouncedPublicKeys();
         if (announcedPublicKeys == null) {
@@ -214,6 +188,22 @@ public class PainlessOpenPgpProvider implements OpenPgpProvider {
             throw new PGPException("Received message appears to be neither encrypted, nor signed.");
         }
 
-        return new OpenPgpMessage(plainText.toByteArray(), state, info);
+        // Decode the plain text directly from the buffer, instead of copying it into a byte array first.
+        return new OpenPgpMessage(plainText.toString("UTF-8"), state, info);
+    }
+
+    /**
+     * Write the element into the cipher stream and complete the Base64 encoding of its output. The OpenPGP message is
+     * encoded while it is produced, and the resulting buffer is used by the {@link OpenPgpElement} as is, hence there
+     * is no copy of the whole message as byte array or String.
+     */
+    private static OpenPgpElementAndMetadata encode(OpenPgpContentElement element, EncryptionStream cipherStream,
+                    Base64OutputStream cipherText, StringBuilder base64) throws IOException {
+        element.writeTo(cipherStream);
+        cipherStream.close();
+        cipherText.close();
+
+        OpenPgpElement openPgpElement = new OpenPgpElement(base64);
+        return new OpenPgpElementAndMetadata(openPgpElement, cipherStream.getResult());
     }
 }
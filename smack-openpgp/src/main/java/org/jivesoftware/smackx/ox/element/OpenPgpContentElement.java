@@ -17,10 +17,15 @@
 package org.jivesoftware.smackx.ox.element;
 
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.nio.charset.Charset;
 import java.util.Collections;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 
@@ -183,4 +188,26 @@ public abstract class OpenPgpContentElement implements ExtensionElement {
         byte[] encoded = toXML().toString().getBytes(Charset.forName("UTF-8"));
         return new ByteArrayInputStream(encoded);
     }
+
+    /**
+     * Write the UTF-8 encoded XML representation of this element to an {@link OutputStream}. Unlike
+     * {@link #toInputStream()}, this does not create a copy of the whole representation as String and byte array.
+     * The stream is flushed, but not closed.
+     *
+     * @param outputStream the stream to write to.
+     * @throws IOException if the stream throws an IOException.
+     */
+    public void writeTo(OutputStream outputStream) throws IOException {
+        Writer writer = new OutputStreamWriter(outputStream, Charset.forName("UTF-8"));
+        CharSequence xml = toXML();
+        if (xml instanceof XmlStringBuilder) {
+            Iterator<CharSequence> it = ((XmlStringBuilder) xml).getCharSequenceIterator();
+            while (it.hasNext()) {
+                writer.append(it.next());
+            }
+        } else {
+            writer.append(xml);
+        }
+        writer.flush();
+    }
 }
@@ -23,6 +23,7 @@ import org.jivesoftware.smack.packet.ExtensionElement;
 import org.jivesoftware.smack.packet.Stanza;
 import org.jivesoftware.smack.util.StringUtils;
 import org.jivesoftware.smack.util.XmlStringBuilder;
+import org.jivesoftware.smack.util.stringencoder.Base64InputStream;
 
 import org.jivesoftware.smackx.ox.util.Util;
 
@@ -40,15 +41,36 @@ public class OpenPgpElement implements ExtensionElement {
     public static final String NAMESPACE = "urn:xmpp:openpgp:0";
 
     // Represents the OpenPGP message, but encoded using base64.
-    private final String base64EncodedOpenPgpMessage;
+    private final CharSequence base64EncodedOpenPgpMessage;
 
     public OpenPgpElement(String base64EncodedOpenPgpMessage) {
+        this((CharSequence) base64EncodedOpenPgpMessage);
+    }
+
+    /**
+     * Create a new OpenPgpElement. The Base64 encoded message is not copied, and it must not be modified afterwards.
+     * This allows to encode the output of the OpenPGP implementation into a buffer which is directly used when the
+     * element is serialized.
+     *
+     * @param base64EncodedOpenPgpMessage the Base64 encoded OpenPGP message.
+     */
+    public OpenPgpElement(CharSequence base64EncodedOpenPgpMessage) {
         this.base64EncodedOpenPgpMessage = StringUtils.requireNotNullNorEmpty(base64EncodedOpenPgpMessage,
                 "base64 encoded message MUST NOT be null nor empty.");
     }
 
     public InputStream toInputStream() {
-        return new ByteArrayInputStream(base64EncodedOpenPgpMessage.getBytes(Util.UTF8));
+        return new ByteArrayInputStream(base64EncodedOpenPgpMessage.toString().getBytes(Util.UTF8));
+    }
+
+    /**
+     * Return an {@link InputStream} which reads the OpenPGP message, decoding the Base64 content of this element while
+     * it is read.
+     *
+     * @return OpenPGP message.
+     */
+    public InputStream toDecodedInputStream() {
+        return new Base64InputStream(base64EncodedOpenPgpMessage);
     }
 
     /**
@@ -57,7 +79,7 @@ public class OpenPgpElement implements ExtensionElement {
      * @return OpenPGP encrypted payload.
      */
     public String getEncryptedBase64MessageContent() {
-        return base64EncodedOpenPgpMessage;
+        return base64EncodedOpenPgpMessage.toString();
     }
 
     @Override
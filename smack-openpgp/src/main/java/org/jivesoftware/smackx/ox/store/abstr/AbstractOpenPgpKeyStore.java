@@ -21,11 +21,14 @@ import java.security.InvalidAlgorithmParameterException;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.jivesoftware.smack.util.ConcurrentLruCache;
+
 import org.jivesoftware.smackx.ox.exception.MissingUserIdOnKeyException;
 import org.jivesoftware.smackx.ox.selection_strategy.BareJidUserId;
 import org.jivesoftware.smackx.ox.store.definition.OpenPgpKeyStore;
@@ -41,13 +44,47 @@ import org.pgpainless.key.OpenPgpV4Fingerprint;
 import org.pgpainless.key.collection.PGPKeyRing;
 import org.pgpainless.util.BCUtil;
 
+/**
+ * Abstract {@link OpenPgpKeyStore}, which caches the parsed key rings of the most recently used owners in memory.
+ * <p>
+ * The store is thread-safe. Lookups are served from a concurrent, bounded cache without locking, while imports and
+ * deletions of key rings are serialized, as they modify the key ring collection of an owner and write it back. Key
+ * rings read from storage on a cache miss are only cached if no import or deletion happened while they were read, as
+ * they may be outdated otherwise.
+ * </p>
+ */
 public abstract class AbstractOpenPgpKeyStore implements OpenPgpKeyStore {
 
     protected static final Logger LOGGER = Logger.getLogger(AbstractOpenPgpKeyStore.class.getName());
 
-    protected Map<BareJid, PGPPublicKeyRingCollection> publicKeyRingCollections = new HashMap<>();
-    protected Map<BareJid, PGPSecretKeyRingCollection> secretKeyRingCollections = new HashMap<>();
-    protected Map<BareJid, Map<OpenPgpV4Fingerprint, Date>> keyFetchDates = new HashMap<>();
+    /**
+     * The default maximum number of owners whose parsed key rings are cached.
+     */
+    public static final int DEFAULT_KEY_RING_CACHE_SIZE = 256;
+
+    protected Map<BareJid, PGPPublicKeyRingCollection> publicKeyRingCollections;
+    protected Map<BareJid, PGPSecretKeyRingCollection> secretKeyRingCollections;
+    protected Map<BareJid, Map<OpenPgpV4Fingerprint, Date>> keyFetchDates = new ConcurrentHashMap<>();
+
+    /**
+     * The number of imports and deletions of key rings so far. Only modified with the lock of this held, after the
+     * key rings were written.
+     */
+    private final AtomicLong keyRingModifications = new AtomicLong();
+
+    protected AbstractOpenPgpKeyStore() {
+        this(DEFAULT_KEY_RING_CACHE_SIZE);
+    }
+
+    /**
+     * Create a key store, which caches the parsed key rings of up to {@code keyRingCacheSize} owners.
+     *
+     * @param keyRingCacheSize the maximum number of owners whose key rings are cached.
+     */
+    protected AbstractOpenPgpKeyStore(int keyRingCacheSize) {
+        publicKeyRingCollections = new ConcurrentLruCache<>(keyRingCacheSize);
+        secretKeyRingCollections = new ConcurrentLruCache<>(keyRingCacheSize);
+    }
 
     /**
      * Read a {@link PGPPublicKeyRingCollection} from local storage.
@@ -118,14 +155,16 @@ public abstract class AbstractOpenPgpKeyStore implements OpenPgpKeyStore {
         Map<OpenPgpV4Fingerprint, Date> dates = keyFetchDates.get(contact);
         if (dates == null) {
             dates = readKeyFetchDates(contact);
-            keyFetchDates.put(contact, dates);
+            if (dates != null) {
+                keyFetchDates.put(contact, dates);
+            }
         }
         return dates;
     }
 
     @Override
     public void setPublicKeyFetchDates(BareJid contact, Map<OpenPgpV4Fingerprint, Date> dates) throws IOException {
-        keyFetchDates.put(contact, dates);
+        cache(keyFetchDates, contact, dates);
         writeKeyFetchDates(contact, dates);
     }
 
@@ -133,9 +172,10 @@ public abstract class AbstractOpenPgpKeyStore implements OpenPgpKeyStore {
     public PGPPublicKeyRingCollection getPublicKeysOf(BareJid owner) throws IOException, PGPException {
         PGPPublicKeyRingCollection keys = publicKeyRingCollections.get(owner);
         if (keys == null) {
+            long modifications = keyRingModifications.get();
             keys = readPublicKeysOf(owner);
             if (keys != null) {
-                publicKeyRingCollections.put(owner, keys);
+                cacheIfUnmodified(publicKeyRingCollections, owner, keys, modifications);
             }
         }
         return keys;
@@ -145,16 +185,17 @@ public abstract class AbstractOpenPgpKeyStore implements OpenPgpKeyStore {
     public PGPSecretKeyRingCollection getSecretKeysOf(BareJid owner) throws IOException, PGPException {
         PGPSecretKeyRingCollection keys = secretKeyRingCollections.get(owner);
         if (keys == null) {
+            long modifications = keyRingModifications.get();
             keys = readSecretKeysOf(owner);
             if (keys != null) {
-                secretKeyRingCollections.put(owner, keys);
+                cacheIfUnmodified(secretKeyRingCollections, owner, keys, modifications);
             }
         }
         return keys;
     }
 
     @Override
-    public void importSecretKey(BareJid owner, PGPSecretKeyRing secretKeys)
+    public synchronized void importSecretKey(BareJid owner, PGPSecretKeyRing secretKeys)
             throws IOException, PGPException, MissingUserIdOnKeyException {
 
         // TODO: Avoid 'new' use instance method.
@@ -174,13 +215,14 @@ public abstract class AbstractOpenPgpKeyStore implements OpenPgpKeyStore {
         } catch (IllegalArgumentException e) {
             LOGGER.log(Level.INFO, "Skipping secret key ring " + Long.toHexString(importKeys.getPublicKey().getKeyID()) +
                     " as it is already in the key ring of " + owner.toString());
+            // The stored key rings did not change, hence there is no need to write them again.
+            return;
         }
-        this.secretKeyRingCollections.put(owner, secretKeyRings);
-        writeSecretKeysOf(owner, secretKeyRings);
+        writeAndCacheSecretKeysOf(owner, secretKeyRings);
     }
 
     @Override
-    public void importPublicKey(BareJid owner, PGPPublicKeyRing publicKeys) throws IOException, PGPException, MissingUserIdOnKeyException {
+    public synchronized void importPublicKey(BareJid owner, PGPPublicKeyRing publicKeys) throws IOException, PGPException, MissingUserIdOnKeyException {
 
         if (!new BareJidUserId.PubRingSelectionStrategy().accept(owner, publicKeys)) {
             throw new MissingUserIdOnKeyException(owner, new OpenPgpV4Fingerprint(publicKeys));
@@ -198,9 +240,10 @@ public abstract class AbstractOpenPgpKeyStore implements OpenPgpKeyStore {
         } catch (IllegalArgumentException e) {
             LOGGER.log(Level.INFO, "Skipping public key ring " + Long.toHexString(importKeys.getPublicKey().getKeyID()) +
                     " as it is already in the key ring of " + owner.toString());
+            // The stored key rings did not change, hence there is no need to write them again.
+            return;
         }
-        this.publicKeyRingCollections.put(owner, publicKeyRings);
-        writePublicKeysOf(owner, publicKeyRings);
+        writeAndCachePublicKeysOf(owner, publicKeyRings);
     }
 
     @Override
@@ -226,28 +269,84 @@ public abstract class AbstractOpenPgpKeyStore implements OpenPgpKeyStore {
     }
 
     @Override
-    public void deletePublicKeyRing(BareJid owner, OpenPgpV4Fingerprint fingerprint) throws IOException, PGPException {
+    public synchronized void deletePublicKeyRing(BareJid owner, OpenPgpV4Fingerprint fingerprint) throws IOException, PGPException {
         PGPPublicKeyRingCollection publicKeyRings = getPublicKeysOf(owner);
         if (publicKeyRings.contains(fingerprint.getKeyId())) {
             publicKeyRings = PGPPublicKeyRingCollection.removePublicKeyRing(publicKeyRings, publicKeyRings.getPublicKeyRing(fingerprint.getKeyId()));
             if (!publicKeyRings.iterator().hasNext()) {
                 publicKeyRings = null;
             }
-            this.publicKeyRingCollections.put(owner, publicKeyRings);
-            writePublicKeysOf(owner, publicKeyRings);
+            writeAndCachePublicKeysOf(owner, publicKeyRings);
         }
     }
 
     @Override
-    public void deleteSecretKeyRing(BareJid owner, OpenPgpV4Fingerprint fingerprint) throws IOException, PGPException {
+    public synchronized void deleteSecretKeyRing(BareJid owner, OpenPgpV4Fingerprint fingerprint) throws IOException, PGPException {
         PGPSecretKeyRingCollection secretKeyRings = getSecretKeysOf(owner);
         if (secretKeyRings.contains(fingerprint.getKeyId())) {
             secretKeyRings = PGPSecretKeyRingCollection.removeSecretKeyRing(secretKeyRings, secretKeyRings.getSecretKeyRing(fingerprint.getKeyId()));
             if (!secretKeyRings.iterator().hasNext()) {
                 secretKeyRings = null;
             }
-            this.secretKeyRingCollections.put(owner, secretKeyRings);
+            writeAndCacheSecretKeysOf(owner, secretKeyRings);
+        }
+    }
+
+    /**
+     * Write the modified secret key rings of an owner and cache them afterwards. The number of modifications is only
+     * incremented once the write completed, so that key rings read concurrently are not cached. If the write fails,
+     * the cached key rings are removed, as the state of the storage is unknown.
+     */
+    private void writeAndCacheSecretKeysOf(BareJid owner, PGPSecretKeyRingCollection secretKeyRings)
+            throws IOException {
+        boolean written = false;
+        try {
             writeSecretKeysOf(owner, secretKeyRings);
+            written = true;
+        } finally {
+            keyRingModifications.incrementAndGet();
+            cache(secretKeyRingCollections, owner, written ? secretKeyRings : null);
+        }
+    }
+
+    /**
+     * Write the modified public key rings of an owner and cache them afterwards.
+     *
+     * @see #writeAndCacheSecretKeysOf(BareJid, PGPSecretKeyRingCollection)
+     */
+    private void writeAndCachePublicKeysOf(BareJid owner, PGPPublicKeyRingCollection publicKeyRings)
+            throws IOException {
+        boolean written = false;
+        try {
+            writePublicKeysOf(owner, publicKeyRings);
+            written = true;
+        } finally {
+            keyRingModifications.incrementAndGet();
+            cache(publicKeyRingCollections, owner, written ? publicKeyRings : null);
+        }
+    }
+
+    /**
+     * Put a value into one of the caches, or remove the cached value if the new value is null, as the concurrent maps
+     * do not support null values.
+     */
+    private static <V> void cache(Map<BareJid, V> cache, BareJid owner, V value) {
+        if (value == null) {
+            cache.remove(owner);
+        } else {
+            cache.put(owner, value);
+        }
+    }
+
+    /**
+     * Cache key rings read from storage, unless key rings were imported or deleted since the given number of
+     * modifications was observed. The check happens with the lock of this held, which imports and deletions hold until
+     * they updated the cache, hence the key rings of a concurrent import or deletion are never overwritten.
+     */
+    private synchronized <V> void cacheIfUnmodified(Map<BareJid, V> cache, BareJid owner, V keys,
+            long modifications) {
+        if (keyRingModifications.get() == modifications) {
+            cache.put(owner, keys);
         }
     }
 
@@ -18,8 +18,9 @@ package org.jivesoftware.smackx.ox.store.abstr;
 
 import java.io.IOException;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.jivesoftware.smackx.ox.store.definition.OpenPgpMetadataStore;
 
@@ -28,21 +29,27 @@ import org.pgpainless.key.OpenPgpV4Fingerprint;
 
 public abstract class AbstractOpenPgpMetadataStore implements OpenPgpMetadataStore {
 
-    private final Map<BareJid, Map<OpenPgpV4Fingerprint, Date>> announcedFingerprints = new HashMap<>();
+    private final ConcurrentMap<BareJid, Map<OpenPgpV4Fingerprint, Date>> announcedFingerprints = new ConcurrentHashMap<>();
 
     @Override
     public Map<OpenPgpV4Fingerprint, Date> getAnnouncedFingerprintsOf(BareJid contact) throws IOException {
         Map<OpenPgpV4Fingerprint, Date> fingerprints = announcedFingerprints.get(contact);
         if (fingerprints == null) {
             fingerprints = readAnnouncedFingerprintsOf(contact);
-            announcedFingerprints.put(contact, fingerprints);
+            if (fingerprints != null) {
+                announcedFingerprints.put(contact, fingerprints);
+            }
         }
         return fingerprints;
     }
 
     @Override
     public void setAnnouncedFingerprintsOf(BareJid contact, Map<OpenPgpV4Fingerprint, Date> data) throws IOException {
-        announcedFingerprints.put(contact, data);
+        if (data != null) {
+            announcedFingerprints.put(contact, data);
+        } else {
+            announcedFingerprints.remove(contact);
+        }
         writeAnnouncedFingerprintsOf(contact, data);
     }
 
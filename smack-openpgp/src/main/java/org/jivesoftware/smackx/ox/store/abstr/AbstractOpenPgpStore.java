@@ -21,8 +21,10 @@ import java.security.InvalidAlgorithmParameterException;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.jivesoftware.smack.util.Objects;
 
@@ -53,16 +55,29 @@ public abstract class AbstractOpenPgpStore implements OpenPgpStore {
 
     protected SecretKeyPassphraseCallback secretKeyPassphraseCallback;
     protected SecretKeyRingProtector unlocker = new UnprotectedKeysProtector();
-    protected final Map<BareJid, OpenPgpContact> contacts = new HashMap<>();
+    protected final ConcurrentMap<BareJid, OpenPgpContact> contacts = new ConcurrentHashMap<>();
+
+    /**
+     * The versions of the keys, metadata and trust records of the owners. Owners without entry are at version 0.
+     */
+    private final ConcurrentMap<BareJid, AtomicLong> versions = new ConcurrentHashMap<>();
 
     @Override
     public void deletePublicKeyRing(BareJid owner, OpenPgpV4Fingerprint fingerprint) throws IOException, PGPException {
-        keyStore.deletePublicKeyRing(owner, fingerprint);
+        try {
+            keyStore.deletePublicKeyRing(owner, fingerprint);
+        } finally {
+            incrementVersion(owner);
+        }
     }
 
     @Override
     public void deleteSecretKeyRing(BareJid owner, OpenPgpV4Fingerprint fingerprint) throws IOException, PGPException {
-        keyStore.deleteSecretKeyRing(owner, fingerprint);
+        try {
+            keyStore.deleteSecretKeyRing(owner, fingerprint);
+        } finally {
+            incrementVersion(owner);
+        }
     }
 
     protected AbstractOpenPgpStore(OpenPgpKeyStore keyStore,
@@ -78,11 +93,45 @@ public abstract class AbstractOpenPgpStore implements OpenPgpStore {
         OpenPgpContact contact = contacts.get(jid);
         if (contact == null) {
             contact = new OpenPgpContact(jid, this);
-            contacts.put(jid, contact);
+            OpenPgpContact previous = contacts.putIfAbsent(jid, contact);
+            if (previous != null) {
+                contact = previous;
+            }
         }
         return contact;
     }
 
+    /**
+     * Return the version of the keys, announced fingerprints and trust records of a user. The version changes whenever
+     * any of them is modified through this store, hence information derived from them, like the set of trusted keys
+     * used for encryption, can be cached as long as the version stays the same.
+     *
+     * @param owner {@link BareJid} of the user.
+     * @return version of the users state.
+     */
+    public long getVersion(BareJid owner) {
+        AtomicLong version = versions.get(owner);
+        return version != null ? version.get() : 0;
+    }
+
+    /**
+     * Increment the version of the owner's state, which invalidates everything derived from the previous state. This
+     * is also done if the modification failed, as it may have been partially applied.
+     *
+     * @param owner the owner whose keys, metadata or trust records were modified.
+     */
+    protected void incrementVersion(BareJid owner) {
+        AtomicLong version = versions.get(owner);
+        if (version == null) {
+            version = new AtomicLong();
+            AtomicLong previous = versions.putIfAbsent(owner, version);
+            if (previous != null) {
+                version = previous;
+            }
+        }
+        version.incrementAndGet();
+    }
+
     @Override
     public void setKeyRingProtector(SecretKeyRingProtector protector) {
         this.unlocker = protector;
@@ -129,12 +178,20 @@ public abstract class AbstractOpenPgpStore implements OpenPgpStore {
 
     @Override
     public void importSecretKey(BareJid owner, PGPSecretKeyRing secretKeys) throws IOException, PGPException, MissingUserIdOnKeyException {
-        keyStore.importSecretKey(owner, secretKeys);
+        try {
+            keyStore.importSecretKey(owner, secretKeys);
+        } finally {
+            incrementVersion(owner);
+        }
     }
 
     @Override
     public void importPublicKey(BareJid owner, PGPPublicKeyRing publicKeys) throws IOException, PGPException, MissingUserIdOnKeyException {
-        keyStore.importPublicKey(owner, publicKeys);
+        try {
+            keyStore.importPublicKey(owner, publicKeys);
+        } finally {
+            incrementVersion(owner);
+        }
     }
 
     @Override
@@ -158,7 +215,11 @@ public abstract class AbstractOpenPgpStore implements OpenPgpStore {
 
     @Override
     public void setAnnouncedFingerprintsOf(BareJid contact, Map<OpenPgpV4Fingerprint, Date> data) throws IOException {
-        metadataStore.setAnnouncedFingerprintsOf(contact, data);
+        try {
+            metadataStore.setAnnouncedFingerprintsOf(contact, data);
+        } finally {
+            incrementVersion(contact);
+        }
     }
 
     /*
@@ -172,6 +233,10 @@ public abstract class AbstractOpenPgpStore implements OpenPgpStore {
 
     @Override
     public void setTrust(BareJid owner, OpenPgpV4Fingerprint fingerprint, Trust trust) throws IOException {
-        trustStore.setTrust(owner, fingerprint, trust);
+        try {
+            trustStore.setTrust(owner, fingerprint, trust);
+        } finally {
+            incrementVersion(owner);
+        }
     }
 }
@@ -17,8 +17,8 @@
 package org.jivesoftware.smackx.ox.store.abstr;
 
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.jivesoftware.smackx.ox.store.definition.OpenPgpTrustStore;
 
@@ -27,7 +27,7 @@ import org.pgpainless.key.OpenPgpV4Fingerprint;
 
 public abstract class AbstractOpenPgpTrustStore implements OpenPgpTrustStore {
 
-    private final Map<BareJid, Map<OpenPgpV4Fingerprint, Trust>> trustCache = new HashMap<>();
+    private final ConcurrentMap<BareJid, ConcurrentMap<OpenPgpV4Fingerprint, Trust>> trustCache = new ConcurrentHashMap<>();
 
     /**
      * Read the trust record for the key with fingerprint {@code fingerprint} of user {@code owner} from local storage.
@@ -54,32 +54,21 @@ public abstract class AbstractOpenPgpTrustStore implements OpenPgpTrustStore {
 
     @Override
     public Trust getTrust(BareJid owner, OpenPgpV4Fingerprint fingerprint) throws IOException {
-        Trust trust;
-        Map<OpenPgpV4Fingerprint, Trust> trustMap = trustCache.get(owner);
-
-        if (trustMap != null) {
-            trust = trustMap.get(fingerprint);
-            if (trust != null) {
-                return trust;
-            }
-        } else {
-            trustMap = new HashMap<>();
-            trustCache.put(owner, trustMap);
+        ConcurrentMap<OpenPgpV4Fingerprint, Trust> trustMap = getTrustMap(owner);
+        Trust trust = trustMap.get(fingerprint);
+        if (trust != null) {
+            return trust;
         }
 
         trust = readTrust(owner, fingerprint);
-        trustMap.put(fingerprint, trust);
-
-        return trust;
+        Trust previous = trustMap.putIfAbsent(fingerprint, trust);
+        // Prefer a trust state which was set concurrently over the one just read.
+        return previous != null ? previous : trust;
     }
 
     @Override
-    public void setTrust(BareJid owner, OpenPgpV4Fingerprint fingerprint, Trust trust) throws IOException {
-        Map<OpenPgpV4Fingerprint, Trust> trustMap = trustCache.get(owner);
-        if (trustMap == null) {
-            trustMap = new HashMap<>();
-            trustCache.put(owner, trustMap);
-        }
+    public synchronized void setTrust(BareJid owner, OpenPgpV4Fingerprint fingerprint, Trust trust) throws IOException {
+        ConcurrentMap<OpenPgpV4Fingerprint, Trust> trustMap = getTrustMap(owner);
 
         if (trustMap.get(fingerprint) == trust) {
             return;
@@ -88,4 +77,16 @@ public abstract class AbstractOpenPgpTrustStore implements OpenPgpTrustStore {
         trustMap.put(fingerprint, trust);
         writeTrust(owner, fingerprint, trust);
     }
+
+    private ConcurrentMap<OpenPgpV4Fingerprint, Trust> getTrustMap(BareJid owner) {
+        ConcurrentMap<OpenPgpV4Fingerprint, Trust> trustMap = trustCache.get(owner);
+        if (trustMap == null) {
+            trustMap = new ConcurrentHashMap<>();
+            ConcurrentMap<OpenPgpV4Fingerprint, Trust> previous = trustCache.putIfAbsent(owner, trustMap);
+            if (previous != null) {
+                trustMap = previous;
+            }
+        }
+        return trustMap;
+    }
 }
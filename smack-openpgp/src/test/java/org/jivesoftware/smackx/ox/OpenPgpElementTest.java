@@ -21,7 +21,9 @@ import static junit.framework.TestCase.assertNotNull;
 import static org.jivesoftware.smack.test.util.XmlUnitUtils.assertXmlSimilar;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
@@ -79,6 +81,28 @@ public class OpenPgpElementTest extends SmackTestSuite {
         assertEquals(element.getEncryptedBase64MessageContent(), parsed.getEncryptedBase64MessageContent());
     }
 
+    @Test
+    public void streamingTest() throws IOException {
+        StringBuilder base64 = new StringBuilder("Zm9vIGJh\nciAxMjM=");
+        OpenPgpElement element = new OpenPgpElement(base64);
+
+        assertEquals("<openpgp xmlns='urn:xmpp:openpgp:0'>Zm9vIGJh\nciAxMjM=</openpgp>", element.toXML().toString());
+
+        InputStream in = element.toDecodedInputStream();
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1) {
+            decoded.write(b);
+        }
+        assertEquals("foo bar 123", decoded.toString("UTF-8"));
+
+        SigncryptElement signcrypt = new SigncryptElement(recipients,
+                Collections.<ExtensionElement>singletonList(new Message.Body("en", "Hello World!")));
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        signcrypt.writeTo(written);
+        assertEquals(signcrypt.toXML().toString(), written.toString("UTF-8"));
+    }
+
     @Test
     public void simplifiedConstructorTest() {
         ArrayList<ExtensionElement> payload = new ArrayList<>();
@@ -40,6 +40,7 @@ import org.jivesoftware.smack.test.util.SmackTestSuite;
 
 import org.jivesoftware.smackx.ox.callback.SecretKeyPassphraseCallback;
 import org.jivesoftware.smackx.ox.exception.MissingUserIdOnKeyException;
+import org.jivesoftware.smackx.ox.store.abstr.AbstractOpenPgpStore;
 import org.jivesoftware.smackx.ox.store.definition.OpenPgpStore;
 import org.jivesoftware.smackx.ox.store.definition.OpenPgpTrustStore;
 import org.jivesoftware.smackx.ox.store.filebased.FileBasedOpenPgpStore;
@@ -351,4 +352,32 @@ public class OpenPgpStoreTest extends SmackTestSuite {
         assertNotNull(openPgpStoreInstance1.getPublicKeyFetchDates(alice));
         assertTrue(openPgpStoreInstance1.getPublicKeyFetchDates(alice).isEmpty());
     }
+
+    @Test
+    public void t12_versionTest() throws IOException {
+        if (!(openPgpStoreInstance1 instanceof AbstractOpenPgpStore)) {
+            return;
+        }
+        AbstractOpenPgpStore store = (AbstractOpenPgpStore) openPgpStoreInstance1;
+        long aliceVersion = store.getVersion(alice);
+        long bobVersion = store.getVersion(bob);
+
+        store.setTrust(alice, finger1, OpenPgpTrustStore.Trust.trusted);
+        assertTrue(store.getVersion(alice) != aliceVersion);
+        assertEquals(bobVersion, store.getVersion(bob));
+
+        aliceVersion = store.getVersion(alice);
+        store.setAnnouncedFingerprintsOf(alice, Collections.singletonMap(finger1, new Date()));
+        assertTrue(store.getVersion(alice) != aliceVersion);
+
+        // Reading does not change the version.
+        aliceVersion = store.getVersion(alice);
+        store.getTrust(alice, finger1);
+        store.getAnnouncedFingerprintsOf(alice);
+        assertEquals(aliceVersion, store.getVersion(alice));
+
+        // cleanup
+        store.setTrust(alice, finger1, OpenPgpTrustStore.Trust.undecided);
+        store.setAnnouncedFingerprintsOf(alice, Collections.<OpenPgpV4Fingerprint, Date>emptyMap());
+    }
 }